@@ -0,0 +1,43 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the chemical names from one of the name to InChI corpora used by OPSIN's integration tests.
+ * Each line is a name, optionally followed by a tab and its InChI. Lines starting with # are ignored.
+ *
+ */
+class Corpus {
+
+	private Corpus() {
+	}
+
+	static List<String> loadNames(String corpusFile) throws IOException {
+		InputStream is = Corpus.class.getResourceAsStream(corpusFile);
+		if (is == null) {
+			throw new IOException("Corpus not found: " + corpusFile);
+		}
+		List<String> names = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int tabIndex = line.indexOf('\t');
+				String name = tabIndex >= 0 ? line.substring(0, tabIndex) : line;
+				if (!name.isEmpty()) {
+					names.add(name);
+				}
+			}
+		}
+		return Collections.unmodifiableList(names);
+	}
+}
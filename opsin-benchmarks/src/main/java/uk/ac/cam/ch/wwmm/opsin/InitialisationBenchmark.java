@@ -0,0 +1,43 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the initialisation of {@link NameToStructure} i.e. loading OPSIN's resources and building its parser.
+ * A new instance is created each time, bypassing the shared instance returned by {@link NameToStructure#getInstance()}.
+ * Cold start performance is given by the first iteration in each fork.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(3)
+public class InitialisationBenchmark {
+
+	private Constructor<NameToStructure> constructor;
+
+	@Setup
+	public void setup() throws NoSuchMethodException {
+		constructor = NameToStructure.class.getDeclaredConstructor();
+		constructor.setAccessible(true);
+	}
+
+	@Benchmark
+	public NameToStructure initialise() throws ReflectiveOperationException {
+		return constructor.newInstance();
+	}
+}
@@ -0,0 +1,237 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.cam.ch.wwmm.opsin.OpsinResult.OPSIN_RESULT_STATUS;
+
+/**
+ * Benchmarks each stage of converting a name to a structure, and the subsequent output formats,
+ * using the name to InChI corpora from opsin-inchi's tests as workloads.
+ * Each operation processes every name in the corpus that OPSIN can interpret.<br>
+ * The stages that modify the parse (component generation, component processing and structure building) are
+ * given fresh copies of the parse, taken to the preceding stage, before each operation.<br>
+ * Other corpora can be selected using e.g. -p corpus=spiro.txt
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameToStructureStagesBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Workload {
+
+		@Param({"fusedRings.txt", "stereochemistry.txt", "carbohydrates.txt"})
+		public String corpus;
+
+		NameToStructureConfig n2sConfig;
+		Parser parser;
+		SuffixRules suffixRules;
+
+		/**Names from the corpus that could be preprocessed*/
+		final List<String> names = new ArrayList<>();
+		/**The preprocessed forms of names that could be parsed*/
+		final List<String> preProcessedNames = new ArrayList<>();
+		/**The unmodified parse from which the structure of each interpretable name was built*/
+		final List<Element> parses = new ArrayList<>();
+		/**The structure of each interpretable name*/
+		final List<OpsinResult> results = new ArrayList<>();
+
+		@Setup
+		public void setup() throws IOException {
+			n2sConfig = new NameToStructureConfig();
+			n2sConfig.setAllowRadicals(true);
+			ResourceGetter resourceGetter = new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/");
+			ResourceManager resourceManager = new ResourceManager(resourceGetter);
+			//ParseRules' cache is disabled so that parsing is measured rather than cache lookups
+			Tokeniser tokeniser = new Tokeniser(new ParseRules(resourceManager, 0));
+			parser = new Parser(new WordRules(resourceGetter), tokeniser, resourceManager);
+			suffixRules = new SuffixRules(resourceGetter);
+
+			for (String name : Corpus.loadNames(corpus)) {
+				String preProcessedName;
+				try {
+					preProcessedName = PreProcessor.preProcess(name);
+				} catch (PreProcessingException e) {
+					continue;
+				}
+				names.add(name);
+				List<Element> candidateParses;
+				try {
+					candidateParses = parser.parse(n2sConfig, preProcessedName);
+				} catch (ParsingException e) {
+					continue;
+				}
+				preProcessedNames.add(preProcessedName);
+				Collections.sort(candidateParses, new SortParses());
+				Element chosenParse = null;
+				Fragment chosenFrag = null;
+				for (Element parse : candidateParses) {
+					try {
+						BuildState state = new BuildState(n2sConfig);
+						Element copy = parse.copy();
+						new ComponentGenerator(state).processParse(copy);
+						new ComponentProcessor(state, new SuffixApplier(state, suffixRules)).processParse(copy);
+						Fragment frag = new StructureBuilder(state).buildFragment(copy);
+						boolean noWarnings = state.getWarnings().isEmpty();
+						if (chosenParse == null || noWarnings) {
+							chosenParse = parse;
+							chosenFrag = frag;
+						}
+						if (noWarnings) {
+							break;
+						}
+					} catch (Exception e) {
+						//try the next parse
+					}
+				}
+				if (chosenParse != null) {
+					parses.add(chosenParse);
+					results.add(new OpsinResult(chosenFrag, OPSIN_RESULT_STATUS.SUCCESS, "", name));
+				}
+			}
+			if (results.isEmpty()) {
+				throw new IllegalStateException("No names in " + corpus + " could be interpreted");
+			}
+		}
+
+		/**
+		 * Copies each parse and applies the given number of stages to the copies
+		 * @param states
+		 * @param parseCopies
+		 * @param stagesToApply 0, 1 (component generation) or 2 (component generation and processing)
+		 * @throws Exception
+		 */
+		void prepare(BuildState[] states, Element[] parseCopies, int stagesToApply) throws Exception {
+			for (int i = 0; i < parseCopies.length; i++) {
+				BuildState state = new BuildState(n2sConfig);
+				Element copy = parses.get(i).copy();
+				if (stagesToApply >= 1) {
+					new ComponentGenerator(state).processParse(copy);
+				}
+				if (stagesToApply >= 2) {
+					new ComponentProcessor(state, new SuffixApplier(state, suffixRules)).processParse(copy);
+				}
+				states[i] = state;
+				parseCopies[i] = copy;
+			}
+		}
+	}
+
+	public abstract static class StageInput {
+		BuildState[] states;
+		Element[] parses;
+
+		void prepare(Workload workload, int stagesToApply) throws Exception {
+			int count = workload.parses.size();
+			if (states == null) {
+				states = new BuildState[count];
+				parses = new Element[count];
+			}
+			workload.prepare(states, parses, stagesToApply);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ComponentGeneratorInput extends StageInput {
+		@Setup(Level.Invocation)
+		public void setup(Workload workload) throws Exception {
+			prepare(workload, 0);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class ComponentProcessorInput extends StageInput {
+		@Setup(Level.Invocation)
+		public void setup(Workload workload) throws Exception {
+			prepare(workload, 1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class StructureBuilderInput extends StageInput {
+		@Setup(Level.Invocation)
+		public void setup(Workload workload) throws Exception {
+			prepare(workload, 2);
+		}
+	}
+
+	@Benchmark
+	public void preProcess(Workload workload, Blackhole bh) throws PreProcessingException {
+		for (String name : workload.names) {
+			bh.consume(PreProcessor.preProcess(name));
+		}
+	}
+
+	@Benchmark
+	public void parse(Workload workload, Blackhole bh) throws ParsingException {
+		for (String preProcessedName : workload.preProcessedNames) {
+			bh.consume(workload.parser.parse(workload.n2sConfig, preProcessedName));
+		}
+	}
+
+	@Benchmark
+	public void generateComponents(ComponentGeneratorInput input, Blackhole bh) throws ComponentGenerationException {
+		for (int i = 0; i < input.parses.length; i++) {
+			new ComponentGenerator(input.states[i]).processParse(input.parses[i]);
+		}
+		bh.consume(input.parses);
+	}
+
+	@Benchmark
+	public void processComponents(Workload workload, ComponentProcessorInput input, Blackhole bh) throws ComponentGenerationException, StructureBuildingException {
+		for (int i = 0; i < input.parses.length; i++) {
+			BuildState state = input.states[i];
+			new ComponentProcessor(state, new SuffixApplier(state, workload.suffixRules)).processParse(input.parses[i]);
+		}
+		bh.consume(input.parses);
+	}
+
+	@Benchmark
+	public void buildStructure(StructureBuilderInput input, Blackhole bh) throws StructureBuildingException {
+		for (int i = 0; i < input.parses.length; i++) {
+			bh.consume(new StructureBuilder(input.states[i]).buildFragment(input.parses[i]));
+		}
+	}
+
+	@Benchmark
+	public void generateSmiles(Workload workload, Blackhole bh) {
+		for (OpsinResult result : workload.results) {
+			bh.consume(SMILESWriter.generateSmiles(result.getStructure()));
+		}
+	}
+
+	@Benchmark
+	public void generateCml(Workload workload, Blackhole bh) {
+		for (OpsinResult result : workload.results) {
+			bh.consume(CMLWriter.generateCml(result.getStructure(), result.getChemicalName()));
+		}
+	}
+
+	@Benchmark
+	public void convertToStdInchi(Workload workload, Blackhole bh) {
+		for (OpsinResult result : workload.results) {
+			bh.consume(NameToInchi.convertResultToStdInChI(result));
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the tokenisation of individual words by {@link ParseRules} and the token tries it uses.
+ * Run with the GC profiler to see allocation rates e.g.
+ * java -jar target/benchmarks.jar ParseRulesBenchmark -prof gc
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseRulesBenchmark {
+
+	private static final String[] WORDS = {"methyl", "4-chlorophenyl", "acid", "2-methylpropan-2-yl", "benzoic",
+			"N,N-dimethylformamide", "1H-indol-3-yl", "ethoxycarbonyl", "trifluoromethyl", "hydrochloride",
+			"(2S)-2-amino-3-phenylpropanoic", "pyridin-2-ylmethanamine", "tert-butoxycarbonyl", "naphthalen-1-yloxy"};
+
+	private ParseRules parseRules;
+	private OpsinRadixTrie[] tries;
+	private int[] matchEnds;
+
+	@Setup
+	public void setup() throws IOException {
+		ResourceManager resourceManager = new ResourceManager(new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/"));
+		parseRules = new ParseRules(resourceManager, 0);
+		tries = resourceManager.getSymbolTokenNamesDict();
+		int maxLength = 0;
+		for (String word : WORDS) {
+			maxLength = Math.max(maxLength, word.length());
+		}
+		matchEnds = new int[maxLength + 1];
+	}
+
+	@Benchmark
+	public void getParses(Blackhole bh) throws ParsingException {
+		for (String word : WORDS) {
+			bh.consume(parseRules.getParses(word));
+		}
+	}
+
+	@Benchmark
+	public void trieFindMatchesAsList(Blackhole bh) {
+		for (String word : WORDS) {
+			String lowerCaseWord = StringTools.lowerCaseAsciiString(word);
+			for (OpsinRadixTrie trie : tries) {
+				if (trie != null) {
+					for (int i = 0; i < lowerCaseWord.length(); i++) {
+						List<Integer> matches = trie.findMatches(lowerCaseWord, i);
+						bh.consume(matches);
+					}
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void trieFindMatchesIntoBuffer(Blackhole bh) {
+		int[] matchEnds = this.matchEnds;
+		for (String word : WORDS) {
+			String lowerCaseWord = StringTools.lowerCaseAsciiString(word);
+			for (OpsinRadixTrie trie : tries) {
+				if (trie != null) {
+					for (int i = 0; i < lowerCaseWord.length(); i++) {
+						int matchCount = trie.findMatches(lowerCaseWord, i, matchEnds);
+						bh.consume(matchCount);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.ResultConsumer;
+
+/**
+ * Passes results, in order, to another consumer that runs on a dedicated thread, via a bounded queue.
+ * Hence the work of the other consumer (e.g. InChI generation and output) overlaps with the conversion of subsequent lines.<br>
+ * {@link #finish()} must be called once all results have been accepted.
+ *
+ */
+class AsyncResultConsumer<T> implements ResultConsumer<T> {
+
+	private static final Object END_OF_BATCH = new Object();
+	private static final Object END_OF_INPUT = new Object();
+
+	private final BlockingQueue<Object> queue;
+	private final Thread thread;
+	private volatile Exception failure;
+
+	/**
+	 * @param consumer The consumer to run on the dedicated thread
+	 * @param capacity The maximum number of results waiting to be consumed
+	 * @param threadName
+	 */
+	AsyncResultConsumer(ResultConsumer<T> consumer, int capacity, String threadName) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.thread = new Thread(() -> consume(consumer), threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consume(ResultConsumer<T> consumer) {
+		try {
+			while (true) {
+				Object item = queue.take();
+				if (item == END_OF_INPUT) {
+					return;
+				}
+				if (failure != null) {
+					//discard the remaining input so that the producer is never blocked
+					continue;
+				}
+				try {
+					if (item == END_OF_BATCH) {
+						consumer.endOfBatch();
+					}
+					else {
+						PendingResult<T> pending = (PendingResult<T>) item;
+						consumer.accept(pending.line, pending.result);
+					}
+				}
+				catch (Exception e) {
+					failure = e;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void accept(String line, T result) throws Exception {
+		checkForFailure();
+		queue.put(new PendingResult<>(line, result));
+	}
+
+	@Override
+	public void endOfBatch() throws Exception {
+		checkForFailure();
+		queue.put(END_OF_BATCH);
+	}
+
+	/**
+	 * Waits for all accepted results to be consumed, rethrowing any exception thrown by the consumer
+	 * @throws Exception
+	 */
+	void finish() throws Exception {
+		queue.put(END_OF_INPUT);
+		thread.join();
+		checkForFailure();
+	}
+
+	private void checkForFailure() throws Exception {
+		Exception e = failure;
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	private static class PendingResult<T> {
+		private final String line;
+		private final T result;
+
+		PendingResult(String line, T result) {
+			this.line = line;
+			this.result = result;
+		}
+	}
+}
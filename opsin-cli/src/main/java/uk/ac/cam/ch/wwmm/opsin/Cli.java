@@ -11,10 +11,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -27,14 +26,16 @@ import org.apache.commons.cli.UnrecognizedOptionException;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 
-import com.ctc.wstx.api.WstxOutputProperties;
-import com.ctc.wstx.stax.WstxOutputFactory;
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.LineConverter;
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.ResultConsumer;
 
 public class Cli {
 
-	private enum InchiType {
-		inchiWithFixedH, stdInchi, stdInchiKey
-	}
+	/**Number of names per batch, per thread, when converting names on multiple threads*/
+	private static final int BATCH_SIZE_PER_THREAD = 64;
+
+	/**Number of words whose parses are cached, unless set using the opsin.parseRulesCacheSize system property*/
+	private static final int PARSE_RULES_CACHE_SIZE = 10000;
 
 	/**
 	 * Run OPSIN as a command-line application.
@@ -59,41 +60,104 @@ public class Cli {
 			Configurator.setLevel("uk.ac.cam.ch.wwmm.opsin", Level.DEBUG);
 		}
 
+		if (System.getProperty(ParseRules.CACHE_SIZE_PROPERTY) == null) {
+			//the same words recur throughout a file of names, so their parses are worth caching
+			System.setProperty(ParseRules.CACHE_SIZE_PROPERTY, Integer.toString(PARSE_RULES_CACHE_SIZE));
+		}
 		NameToStructureConfig n2sconfig = generateOpsinConfigObjectFromCmd(cmd);
+		if (n2sconfig.isDetailedFailureAnalysis()) {
+			NameToStructure.getInstance().prepareDetailedFailureAnalysis();
+		}
 
 		InputStream input = System.in;
+		File inputFile = null;
 		OutputStream output = System.out;
 		String[] unparsedArgs = cmd.getArgs();
 		if (unparsedArgs.length == 0) {
 			System.err.println("Run the jar using the -h flag for help. Enter a chemical name to begin:");
 		} else if (unparsedArgs.length == 1) {
-			input = new FileInputStream(new File(unparsedArgs[0]));
+			inputFile = new File(unparsedArgs[0]);
 		} else if (unparsedArgs.length == 2) {
-			input = new FileInputStream(new File(unparsedArgs[0]));
+			inputFile = new File(unparsedArgs[0]);
 			output = new FileOutputStream(new File(unparsedArgs[1]));
 		} else {
 			displayUsage(options);
 		}
+		if (inputFile != null && !inputFile.isFile()) {
+			//e.g. a named pipe, which can't be memory mapped
+			input = new FileInputStream(inputFile);
+			inputFile = null;
+		}
+		int threads = 1;
+		if (cmd.hasOption("t")) {
+			try {
+				threads = Integer.parseInt(cmd.getOptionValue("t"));
+			} catch (NumberFormatException e) {
+				threads = 0;
+			}
+			if (threads < 1) {
+				System.err.println("Number of threads should be a positive integer: " + cmd.getOptionValue("t"));
+				System.exit(1);
+			}
+		}
+		boolean outputName = cmd.hasOption("n");
+		int[] carriedColumns = outputName ? null : new int[0];
+		if (cmd.hasOption("c")) {
+			carriedColumns = parseColumns(cmd.getOptionValue("c"));
+			if (carriedColumns == null) {
+				System.err.println("Columns should be a comma separated list of positive integers: " + cmd.getOptionValue("c"));
+				System.exit(1);
+			}
+			outputName = true;
+		}
+		NameInput nameInput = new NameInput(input, inputFile, carriedColumns);
 		try {
 			String outputType = cmd.getOptionValue("o", "smi");
-			boolean outputName = cmd.hasOption("n");
-			if (outputType.equalsIgnoreCase("cml")) {
-				interactiveCmlOutput(input, output, n2sconfig);
+			if (outputType.indexOf(',') >= 0 || outputType.equalsIgnoreCase("jsonl")) {
+				List<ColumnFormat> formats = new ArrayList<>();
+				boolean jsonLines = false;
+				for (String format : outputType.split(",")) {
+					if (format.trim().equalsIgnoreCase("jsonl")) {
+						jsonLines = true;
+						continue;
+					}
+					ColumnFormat columnFormat = parseColumnFormat(format.trim());
+					if (columnFormat == null) {
+						System.err.println("Unrecognised or uncombinable output format: " + format);
+						System.err.println(
+								"Output types that may be combined are \"smi\", \"extendedsmi\", \"inchi\", \"stdinchi\" and \"stdinchikey\"");
+						System.exit(1);
+					}
+					if (formats.contains(columnFormat)) {
+						//e.g. smi and smiles, which would give duplicate columns/JSON keys
+						System.err.println("Output format given more than once: " + format);
+						System.exit(1);
+					}
+					formats.add(columnFormat);
+				}
+				if (jsonLines && formats.isEmpty()) {
+					formats.add(ColumnFormat.smi);
+				}
+				interactiveMultiFormatOutput(nameInput, output, n2sconfig, formats, jsonLines, outputName, threads);
+			} else if (outputType.equalsIgnoreCase("cml")) {
+				interactiveCmlOutput(nameInput, output, n2sconfig, threads);
 			} else if (outputType.equalsIgnoreCase("smi") || outputType.equalsIgnoreCase("smiles")) {
-				interactiveSmilesOutput(input, output, n2sconfig, false, outputName);
+				interactiveSmilesOutput(nameInput, output, n2sconfig, false, outputName, threads);
 			} else if (outputType.equalsIgnoreCase("inchi")) {
-				interactiveInchiOutput(input, output, n2sconfig, InchiType.inchiWithFixedH, outputName);
+				interactiveInchiOutput(nameInput, output, n2sconfig, InchiType.inchiWithFixedH, outputName, threads);
 			} else if (outputType.equalsIgnoreCase("stdinchi")) {
-				interactiveInchiOutput(input, output, n2sconfig, InchiType.stdInchi, outputName);
+				interactiveInchiOutput(nameInput, output, n2sconfig, InchiType.stdInchi, outputName, threads);
 			} else if (outputType.equalsIgnoreCase("stdinchikey")) {
-				interactiveInchiOutput(input, output, n2sconfig, InchiType.stdInchiKey, outputName);
+				interactiveInchiOutput(nameInput, output, n2sconfig, InchiType.stdInchiKey, outputName, threads);
 			} else if (outputType.equalsIgnoreCase("extendedsmi") || outputType.equalsIgnoreCase("extendedsmiles")
 					|| outputType.equalsIgnoreCase("cxsmi") || outputType.equalsIgnoreCase("cxsmiles")) {
-				interactiveSmilesOutput(input, output, n2sconfig, true, outputName);
+				interactiveSmilesOutput(nameInput, output, n2sconfig, true, outputName, threads);
 			} else {
 				System.err.println("Unrecognised output format: " + outputType);
 				System.err.println(
-						"Expected output types are \"cml\", \"smi\", \"inchi\", \"stdinchi\" and \"stdinchikey\"");
+						"Expected output types are \"cml\", \"smi\", \"extendedsmi\", \"inchi\", \"stdinchi\", \"stdinchikey\" and \"jsonl\"");
+				System.err.println(
+						"Formats other than \"cml\" may be combined as a comma separated list e.g. \"smi,stdinchikey\" for tab delimited columns, or \"jsonl,smi,stdinchikey\" for fields of JSON lines");
 				System.exit(1);
 			}
 		} finally {
@@ -132,7 +196,10 @@ public class Cli {
 		outputOptionsDesc.append("extendedsmi for Extended SMILES").append(OpsinTools.NEWLINE);
 		outputOptionsDesc.append("inchi for InChI (with FixedH)").append(OpsinTools.NEWLINE);
 		outputOptionsDesc.append("stdinchi for StdInChI").append(OpsinTools.NEWLINE);
-		outputOptionsDesc.append("stdinchikey for StdInChIKey");
+		outputOptionsDesc.append("stdinchikey for StdInChIKey").append(OpsinTools.NEWLINE);
+		outputOptionsDesc.append("jsonl for JSON lines, with the name, status, message and warnings of each result").append(OpsinTools.NEWLINE);
+		outputOptionsDesc.append("Formats other than cml may be combined e.g. smi,stdinchi,stdinchikey, to output each as a tab delimited column, ");
+		outputOptionsDesc.append("or with jsonl e.g. jsonl,smi,stdinchikey, to output each as a field of the JSON (default smi)");
 		outputBuilder.desc(outputOptionsDesc.toString());
 		options.addOption(outputBuilder.build());
 		options.addOption("h", "help", false, "Displays the allowed command line flags");
@@ -143,10 +210,25 @@ public class Cli {
 		options.addOption("f", "detailedFailureAnalysis", false,
 				"Enables reverse parsing to more accurately determine why parsing failed");
 		options.addOption("n", "name", false, "Include name in SMILES/InChI output (tab delimited)");
+		Builder columnsBuilder = Option.builder("c");
+		columnsBuilder.longOpt("columns");
+		columnsBuilder.hasArg();
+		columnsBuilder.argName("list");
+		columnsBuilder.desc("Columns of tab delimited input to include in SMILES/InChI output, instead of the whole line as with -n, "
+				+ "e.g. 2,3 to carry through ID columns (the name is column 1). In jsonl output each column is a field e.g. \"column2\"");
+		options.addOption(columnsBuilder.build());
 		options.addOption("r", "allowRadicals", false, "Enables interpretation of radicals");
 		options.addOption("s", "allowUninterpretableStereo", false,
 				"Allows stereochemistry uninterpretable by OPSIN to be ignored");
 		options.addOption("w", "wildcardRadicals", false, "Radicals are output as wildcard atoms");
+
+		Builder threadsBuilder = Option.builder("t");
+		threadsBuilder.longOpt("threads");
+		threadsBuilder.hasArg();
+		threadsBuilder.argName("number");
+		threadsBuilder.desc("Number of threads used to convert names (default 1). When greater than 1 names are converted in batches and output is flushed after each batch, rather than after each name");
+		options.addOption(threadsBuilder.build());
+		options.addOption(Option.builder().longOpt("timings").desc("Include timings in jsonl output").build());
 		return options;
 	}
 
@@ -163,96 +245,300 @@ public class Cli {
 		n2sconfig.setAllowRadicals(cmd.hasOption("r"));
 		n2sconfig.setWarnRatherThanFailOnUninterpretableStereochemistry(cmd.hasOption("s"));
 		n2sconfig.setOutputRadicalsAsWildCardAtoms(cmd.hasOption("w"));
+		n2sconfig.setCollectTimings(cmd.hasOption("timings"));
 		return n2sconfig;
 	}
 
-	private static void interactiveCmlOutput(InputStream input, OutputStream out, NameToStructureConfig n2sconfig) throws IOException, XMLStreamException {
+	private static void interactiveCmlOutput(NameInput input, OutputStream out, NameToStructureConfig n2sconfig, int threads) throws Exception {
 		NameToStructure nts = NameToStructure.getInstance();
-		BufferedReader inputReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
-		XMLOutputFactory factory = new WstxOutputFactory();
-		factory.setProperty(WstxOutputProperties.P_OUTPUT_ESCAPE_CR, false);
-		XMLStreamWriter writer = factory.createXMLStreamWriter(out, "UTF-8");
-		writer = new IndentingXMLStreamWriter(writer, 2);
-		writer.writeStartDocument();
-		CMLWriter cmlWriter = new CMLWriter(writer);
-		cmlWriter.writeCmlStart();
-		int id = 1;
-		String line;
-		while ((line = inputReader.readLine()) != null) {
-			int splitPoint = line.indexOf('\t');
-			String name = splitPoint >= 0 ? line.substring(0, splitPoint) : line;
-			OpsinResult result = nts.parseChemicalName(name, n2sconfig);
-			Fragment structure = result.getStructure();
-			cmlWriter.writeMolecule(structure, name, id++);
-			writer.flush();
-			if (structure == null) {
-				System.err.println(result.getMessage());
+		CmlStreamWriter cmlWriter = new CmlStreamWriter(out, true);
+		input.process(threads, name -> nts.parseChemicalName(name, n2sconfig), new ResultConsumer<OpsinResult>() {
+
+			@Override
+			public void accept(String line, OpsinResult result) throws IOException {
+				cmlWriter.write(result);
+				if (result.getStructure() == null) {
+					System.err.println(result.getMessage());
+				}
 			}
-		}
-		cmlWriter.writeCmlEnd();
-		writer.writeEndDocument();
-		writer.flush();
-		writer.close();
+
+			@Override
+			public void endOfBatch() throws IOException {
+				cmlWriter.flush();
+			}
+		});
+		cmlWriter.close();
 	}
 
-	private static void interactiveSmilesOutput(InputStream input, OutputStream out, NameToStructureConfig n2sconfig, boolean extendedSmiles, boolean outputName) throws IOException {
+	private static void interactiveSmilesOutput(NameInput input, OutputStream out, NameToStructureConfig n2sconfig, boolean extendedSmiles, boolean outputName, int threads) throws Exception {
 		NameToStructure nts = NameToStructure.getInstance();
-		BufferedReader inputReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
 		BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-		String line;
-		while ((line = inputReader.readLine()) != null) {
-			int splitPoint = line.indexOf('\t');
-			String name = splitPoint >= 0 ? line.substring(0, splitPoint) : line;
+		input.process(threads, name -> {
 			OpsinResult result = nts.parseChemicalName(name, n2sconfig);
-			String output = extendedSmiles ? result.getExtendedSmiles() : result.getSmiles();
-			if (output == null) {
-				System.err.println(result.getMessage());
-			} else {
-				outputWriter.write(output);
+			return new ConvertedName(result, extendedSmiles ? result.getExtendedSmiles() : result.getSmiles());
+		}, new TextResultConsumer(outputWriter, outputName));
+	}
+
+	private static void interactiveInchiOutput(NameInput input, OutputStream out, NameToStructureConfig n2sconfig, InchiType inchiType, boolean outputName, int threads) throws Exception {
+		NameToStructure nts = NameToStructure.getInstance();
+		BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		TextResultConsumer textConsumer = new TextResultConsumer(outputWriter, outputName);
+		//names are parsed by the workers, InChI generation and output are performed by a single dedicated thread
+		//as JNA-InChI does not guarantee that the native InChI library may be called concurrently
+		AsyncResultConsumer<OpsinResult> inchiStage = new AsyncResultConsumer<>(new ResultConsumer<OpsinResult>() {
+
+			@Override
+			public void accept(String line, OpsinResult result) throws IOException {
+				textConsumer.accept(line, new ConvertedName(result, NameToInchi.convertResult(result, inchiType)));
 			}
-			if (outputName) {
-				outputWriter.write('\t');
-				outputWriter.write(line);
+
+			@Override
+			public void endOfBatch() throws IOException {
+				textConsumer.endOfBatch();
 			}
-			outputWriter.newLine();
-			outputWriter.flush();
-		}
+		}, threads * BATCH_SIZE_PER_THREAD, "OPSIN InChI generation");
+		input.process(threads, name -> nts.parseChemicalName(name, n2sconfig), inchiStage);
+		inchiStage.finish();
 	}
 
-	private static void interactiveInchiOutput(InputStream input, OutputStream out, NameToStructureConfig n2sconfig, InchiType inchiType, boolean outputName) throws Exception {
+	/**
+	 * Outputs each name in several formats, as tab delimited columns or as fields of JSON lines. Each name is only parsed once.
+	 * SMILES are generated by the workers that parse the names, InChIs on a dedicated thread as for {@link #interactiveInchiOutput}
+	 */
+	private static void interactiveMultiFormatOutput(NameInput input, OutputStream out, NameToStructureConfig n2sconfig, List<ColumnFormat> formats, boolean jsonLines, boolean outputName, int threads) throws Exception {
 		NameToStructure nts = NameToStructure.getInstance();
-		BufferedReader inputReader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
 		BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
-		String line;
-		while ((line = inputReader.readLine()) != null) {
-			int splitPoint = line.indexOf('\t');
-			String name = splitPoint >= 0 ? line.substring(0, splitPoint) : line;
+		TextResultConsumer textConsumer = new TextResultConsumer(outputWriter, outputName);
+		JsonLinesWriter jsonWriter = jsonLines ? new JsonLinesWriter(outputWriter) : null;
+		String[] formatNames = new String[formats.size()];
+		for (int i = 0; i < formatNames.length; i++) {
+			formatNames[i] = formats.get(i).name();
+		}
+		//carried through columns are output as additional fields of the JSON
+		String[] jsonFieldNames = formatNames;
+		if (jsonLines && input.carriedColumns != null && input.carriedColumns.length > 0) {
+			jsonFieldNames = Arrays.copyOf(formatNames, formatNames.length + input.carriedColumns.length);
+			for (int i = 0; i < input.carriedColumns.length; i++) {
+				jsonFieldNames[formatNames.length + i] = "column" + (input.carriedColumns[i] + 1);
+			}
+		}
+		String[] jsonNames = jsonFieldNames;
+		int smilesCount = 0;
+		int inchiCount = 0;
+		for (ColumnFormat format : formats) {
+			if (format.smilesOptions >= 0) {
+				smilesCount++;
+			}
+			else {
+				inchiCount++;
+			}
+		}
+		int[] smilesOptions = new int[smilesCount];
+		InchiType[] inchiTypes = new InchiType[inchiCount];
+		smilesCount = 0;
+		inchiCount = 0;
+		for (ColumnFormat format : formats) {
+			if (format.smilesOptions >= 0) {
+				smilesOptions[smilesCount++] = format.smilesOptions;
+			}
+			else {
+				inchiTypes[inchiCount++] = format.inchiType;
+			}
+		}
+		AsyncResultConsumer<MultiFormatResult> inchiStage = new AsyncResultConsumer<>(new ResultConsumer<MultiFormatResult>() {
+
+			@Override
+			public void accept(String line, MultiFormatResult multiFormatResult) throws IOException {
+				OpsinResult result = multiFormatResult.result;
+				String[] values = new String[formats.size()];
+				if (result.getStructure() != null) {
+					String[] inchis = inchiTypes.length > 0 ? NameToInchi.convertResult(result, inchiTypes) : null;
+					int smilesIdx = 0;
+					int inchiIdx = 0;
+					for (int i = 0; i < values.length; i++) {
+						values[i] = formats.get(i).smilesOptions >= 0 ? multiFormatResult.smiles[smilesIdx++] : inchis[inchiIdx++];
+					}
+				}
+				if (jsonWriter != null) {
+					if (jsonNames.length > values.length) {
+						String[] columns = line.split("\t", -1);
+						String[] jsonValues = Arrays.copyOf(values, jsonNames.length);
+						System.arraycopy(columns, 0, jsonValues, values.length, columns.length);
+						jsonWriter.write(result, jsonNames, jsonValues);
+					}
+					else {
+						jsonWriter.write(result, formatNames, values);
+					}
+					return;
+				}
+				String output = null;
+				if (result.getStructure() != null) {
+					StringBuilder sb = new StringBuilder();
+					for (int i = 0; i < values.length; i++) {
+						if (i > 0) {
+							sb.append('\t');
+						}
+						if (values[i] != null) {
+							sb.append(values[i]);
+						}
+					}
+					output = sb.toString();
+				}
+				textConsumer.accept(line, new ConvertedName(result, output));
+			}
+
+			@Override
+			public void endOfBatch() throws IOException {
+				textConsumer.endOfBatch();
+			}
+		}, threads * BATCH_SIZE_PER_THREAD, "OPSIN InChI generation");
+		input.process(threads, name -> {
 			OpsinResult result = nts.parseChemicalName(name, n2sconfig);
-			String output;
-			switch (inchiType) {
-			case inchiWithFixedH:
-				output = NameToInchi.convertResultToInChI(result);
-				break;
-			case stdInchi:
-				output = NameToInchi.convertResultToStdInChI(result);
-				break;
-			case stdInchiKey:
-				output = NameToInchi.convertResultToStdInChIKey(result);
-				break;
-			default:
-				throw new IllegalArgumentException("Unexepected enum value: " + inchiType);
+			return new MultiFormatResult(result, smilesOptions.length > 0 ? result.getSmiles(smilesOptions) : null);
+		}, inchiStage);
+		inchiStage.finish();
+	}
+
+	private static ColumnFormat parseColumnFormat(String format) {
+		if (format.equalsIgnoreCase("smi") || format.equalsIgnoreCase("smiles")) {
+			return ColumnFormat.smi;
+		} else if (format.equalsIgnoreCase("extendedsmi") || format.equalsIgnoreCase("extendedsmiles")
+				|| format.equalsIgnoreCase("cxsmi") || format.equalsIgnoreCase("cxsmiles")) {
+			return ColumnFormat.extendedsmi;
+		} else if (format.equalsIgnoreCase("inchi")) {
+			return ColumnFormat.inchi;
+		} else if (format.equalsIgnoreCase("stdinchi")) {
+			return ColumnFormat.stdinchi;
+		} else if (format.equalsIgnoreCase("stdinchikey")) {
+			return ColumnFormat.stdinchikey;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses a comma separated list of column numbers, numbered from 1, to a list of columns numbered from 0
+	 * @param columnList
+	 * @return the columns, or null if the list is invalid
+	 */
+	private static int[] parseColumns(String columnList) {
+		String[] columnNumbers = columnList.split(",");
+		int[] columns = new int[columnNumbers.length];
+		for (int i = 0; i < columnNumbers.length; i++) {
+			try {
+				columns[i] = Integer.parseInt(columnNumbers[i].trim()) - 1;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (columns[i] < 0) {
+				return null;
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * The names to convert; a file is memory mapped, other input e.g. stdin, is read with a BufferedReader
+	 */
+	private static class NameInput {
+		private final InputStream stream;
+		/**The file to memory map, or null if the input is read from the stream*/
+		private final File file;
+		/**The columns passed to the output, as for {@link OrderedLineProcessor}*/
+		private final int[] carriedColumns;
+
+		NameInput(InputStream stream, File file, int[] carriedColumns) {
+			this.stream = stream;
+			this.file = file;
+			this.carriedColumns = carriedColumns;
+		}
+
+		<T> void process(int threads, LineConverter<T> converter, ResultConsumer<T> consumer) throws Exception {
+			OrderedLineProcessor processor = new OrderedLineProcessor(threads, threads * BATCH_SIZE_PER_THREAD, carriedColumns);
+			if (file != null) {
+				try (MappedLineReader reader = new MappedLineReader(file)) {
+					processor.process(reader, converter, consumer);
+				}
 			}
+			else {
+				processor.process(new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)), converter, consumer);
+			}
+		}
+	}
+
+	/**
+	 * Output formats that may be combined, as tab delimited columns, on one line
+	 */
+	private enum ColumnFormat {
+		smi(SmilesOptions.DEFAULT, null),
+		extendedsmi(SmilesOptions.CXSMILES, null),
+		inchi(-1, InchiType.inchiWithFixedH),
+		stdinchi(-1, InchiType.stdInchi),
+		stdinchikey(-1, InchiType.stdInchiKey);
 
-			if (output == null) {
-				System.err.println(result.getMessage());
+		/**The SMILES options for the format, or -1 if it is an InChI format*/
+		private final int smilesOptions;
+		private final InchiType inchiType;
+
+		ColumnFormat(int smilesOptions, InchiType inchiType) {
+			this.smilesOptions = smilesOptions;
+			this.inchiType = inchiType;
+		}
+	}
+
+	/**
+	 * An OpsinResult and its SMILES, as generated by the workers, for each of the requested SMILES formats
+	 */
+	private static class MultiFormatResult {
+		private final OpsinResult result;
+		private final String[] smiles;
+
+		MultiFormatResult(OpsinResult result, String[] smiles) {
+			this.result = result;
+			this.smiles = smiles;
+		}
+	}
+
+	/**
+	 * An OpsinResult and its conversion to the requested output format (null if conversion failed)
+	 */
+	private static class ConvertedName {
+		private final OpsinResult result;
+		private final String output;
+
+		ConvertedName(OpsinResult result, String output) {
+			this.result = result;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * Writes one line of output per input line, either the converted name or a blank line (with the reason for failure written to stderr)
+	 */
+	private static class TextResultConsumer implements ResultConsumer<ConvertedName> {
+		private final BufferedWriter outputWriter;
+		private final boolean outputName;
+
+		TextResultConsumer(BufferedWriter outputWriter, boolean outputName) {
+			this.outputWriter = outputWriter;
+			this.outputName = outputName;
+		}
+
+		@Override
+		public void accept(String line, ConvertedName convertedName) throws IOException {
+			if (convertedName.output == null) {
+				System.err.println(convertedName.result.getMessage());
 			} else {
-				outputWriter.write(output);
+				outputWriter.write(convertedName.output);
 			}
 			if (outputName) {
 				outputWriter.write('\t');
 				outputWriter.write(line);
 			}
 			outputWriter.newLine();
+		}
+
+		@Override
+		public void endOfBatch() throws IOException {
 			outputWriter.flush();
 		}
 	}
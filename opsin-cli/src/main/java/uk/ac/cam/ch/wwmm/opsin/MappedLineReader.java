@@ -0,0 +1,214 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the lines of a UTF-8 file by memory mapping it, and splits lines and tab delimited columns at the byte level.
+ * Lines are returned in chunks; a chunk's lines and columns are only decoded to Strings when requested,
+ * typically by the worker thread that converts them.<br>
+ * Files larger than the maximum size of a mapping are mapped as a series of windows.
+ * As for {@link java.io.BufferedReader#readLine()}, lines are terminated by \n, \r or \r\n.
+ *
+ */
+class MappedLineReader implements Closeable {
+
+	private static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int windowSize;
+	private ByteBuffer window;
+	private long windowStart;
+	/**Position of the next unread byte in the window*/
+	private int pos;
+
+	MappedLineReader(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param file
+	 * @param windowSize The maximum number of bytes mapped at once; also the maximum length of a line
+	 * @throws IOException
+	 */
+	MappedLineReader(File file, int windowSize) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.fileSize = channel.size();
+		this.windowSize = windowSize;
+		mapWindow(0);
+	}
+
+	private void mapWindow(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+		pos = 0;
+	}
+
+	/**
+	 * Returns the next chunk of up to maxLines lines, or null if the end of the file has been reached.
+	 * The lines of a chunk are always from the same window, so a chunk may contain fewer than maxLines lines
+	 * @param maxLines
+	 * @return
+	 * @throws IOException
+	 */
+	LineChunk nextChunk(int maxLines) throws IOException {
+		int[] starts = new int[maxLines];
+		int[] ends = new int[maxLines];
+		int count = 0;
+		while (count < maxLines) {
+			int limit = window.limit();
+			boolean isLastWindow = windowStart + limit >= fileSize;
+			if (pos >= limit) {
+				if (isLastWindow || count > 0) {
+					break;
+				}
+				mapWindow(windowStart + pos);
+				continue;
+			}
+			int end = indexOfLineTerminator(pos, limit);
+			int next = end + 1;
+			if (end >= 0 && window.get(end) == '\r') {
+				if (next < limit) {
+					if (window.get(next) == '\n') {
+						next++;
+					}
+				}
+				else if (!isLastWindow) {
+					//the following \n, if any, is in the next window
+					end = -1;
+				}
+			}
+			if (end == -1) {
+				if (!isLastWindow) {
+					//the line continues into the next window
+					if (count > 0) {
+						break;
+					}
+					if (pos == 0) {
+						throw new IOException("Line starting at byte " + windowStart + " is longer than the maximum supported length of " + windowSize + " bytes");
+					}
+					mapWindow(windowStart + pos);
+					continue;
+				}
+				//last line of the file, with no line terminator
+				end = limit;
+				next = limit;
+			}
+			starts[count] = pos;
+			ends[count] = end;
+			count++;
+			pos = next;
+		}
+		return count > 0 ? new LineChunk(window, starts, ends, count) : null;
+	}
+
+	private int indexOfLineTerminator(int from, int limit) {
+		ByteBuffer window = this.window;
+		for (int i = from; i < limit; i++) {
+			byte b = window.get(i);
+			if (b == '\n' || b == '\r') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * A chunk of lines, given as byte ranges of a mapped window of the file.
+	 * The methods of a chunk may be called from any thread, but only from one thread at a time
+	 */
+	static class LineChunk {
+		private final ByteBuffer buffer;
+		private final int[] starts;
+		private final int[] ends;
+		private final int count;
+		private byte[] bytes = new byte[256];
+
+		private LineChunk(ByteBuffer window, int[] starts, int[] ends, int count) {
+			//a duplicate has its own position, hence may be used independently of other chunks from the same window
+			this.buffer = window.duplicate();
+			this.starts = starts;
+			this.ends = ends;
+			this.count = count;
+		}
+
+		int size() {
+			return count;
+		}
+
+		/**
+		 * Returns the given line, excluding its line terminator
+		 * @param line
+		 * @return
+		 */
+		String getLine(int line) {
+			return decode(starts[line], ends[line]);
+		}
+
+		/**
+		 * Returns the given tab delimited column of the given line, or the empty string if the line has fewer columns.
+		 * Columns are numbered from 0
+		 * @param line
+		 * @param column
+		 * @return
+		 */
+		String getColumn(int line, int column) {
+			int start = starts[line];
+			int end = ends[line];
+			int columnStart = start;
+			int currentColumn = 0;
+			for (int i = start; i < end; i++) {
+				if (buffer.get(i) == '\t') {
+					if (currentColumn == column) {
+						return decode(columnStart, i);
+					}
+					currentColumn++;
+					columnStart = i + 1;
+				}
+			}
+			return currentColumn == column ? decode(columnStart, end) : "";
+		}
+
+		/**
+		 * Returns the given tab delimited columns of the given line, joined by tabs.
+		 * Columns are numbered from 0
+		 * @param line
+		 * @param columns
+		 * @return
+		 */
+		String getColumns(int line, int[] columns) {
+			if (columns.length == 1) {
+				return getColumn(line, columns[0]);
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0) {
+					sb.append('\t');
+				}
+				sb.append(getColumn(line, columns[i]));
+			}
+			return sb.toString();
+		}
+
+		private String decode(int start, int end) {
+			int length = end - start;
+			if (bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			buffer.position(start);
+			buffer.get(bytes, 0, length);
+			return new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.BufferedReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.cam.ch.wwmm.opsin.MappedLineReader.LineChunk;
+
+/**
+ * Reads lines of input, converts the name on each line on a pool of worker threads and passes the results to a single consumer
+ * in the same order as the input.
+ * Lines are read in bounded batches; the output of a batch is handed to the consumer while the following batch is being converted,
+ * and the consumer is notified at the end of each batch (e.g. so that output is flushed per batch rather than per line).<br>
+ * The name is the first tab delimited column of a line. Either the whole line, or selected columns of it, are passed to the consumer
+ * alongside the result, so that they may be carried through to the output.
+ */
+class OrderedLineProcessor {
+
+	interface LineConverter<T> {
+		/**
+		 * Converts the name from a line of input. This is called concurrently from multiple threads
+		 * @param name
+		 * @return the converted name
+		 * @throws Exception
+		 */
+		T convert(String name) throws Exception;
+	}
+
+	interface ResultConsumer<T> {
+		/**
+		 * Receives the converted lines in input order. This is only called from the thread that called process
+		 * @param line the line of input, or the columns of it that are carried through (null if none are)
+		 * @param result
+		 * @throws Exception
+		 */
+		void accept(String line, T result) throws Exception;
+
+		/**
+		 * Called after each batch of results has been passed to {@link #accept(String, Object)}
+		 * @throws Exception
+		 */
+		void endOfBatch() throws Exception;
+	}
+
+	private final int threads;
+	private final int batchSize;
+	private final int[] carriedColumns;
+
+	/**
+	 * @param threads Number of worker threads, if 1 lines are converted on the calling thread one at a time
+	 * @param batchSize Number of lines in a batch
+	 * @param carriedColumns The tab delimited columns, numbered from 0, to pass to the consumer joined by tabs.
+	 * null to pass the whole line, or empty to pass nothing
+	 */
+	OrderedLineProcessor(int threads, int batchSize, int[] carriedColumns) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1");
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		this.threads = threads;
+		this.batchSize = batchSize;
+		this.carriedColumns = carriedColumns;
+	}
+
+	<T> void process(BufferedReader reader, LineConverter<T> converter, ResultConsumer<T> consumer) throws Exception {
+		if (threads == 1) {
+			//interactive use, output each line as soon as it has been converted
+			String line;
+			while ((line = reader.readLine()) != null) {
+				consumer.accept(carriedText(line), converter.convert(getColumn(line, 0)));
+				consumer.endOfBatch();
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			//reorder buffer; one batch is being written whilst the next is being converted
+			Deque<PendingLine<T>> pending = new ArrayDeque<>(batchSize * 2);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String name = getColumn(line, 0);
+				pending.add(new PendingLine<>(carriedText(line), executor.submit(() -> converter.convert(name))));
+				if (pending.size() == batchSize * 2) {
+					writeBatch(pending, batchSize, consumer);
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeBatch(pending, batchSize, consumer);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Processes the lines of a memory mapped file. Each worker is given a chunk of lines, as byte ranges,
+	 * and decodes the names and carried through columns itself, so the reading thread only has to find the ends of lines
+	 * @param reader
+	 * @param converter
+	 * @param consumer
+	 * @throws Exception
+	 */
+	<T> void process(MappedLineReader reader, LineConverter<T> converter, ResultConsumer<T> consumer) throws Exception {
+		int chunkSize = Math.max(1, batchSize / threads);
+		if (threads == 1) {
+			LineChunk chunk;
+			while ((chunk = reader.nextChunk(chunkSize)) != null) {
+				writeChunk(convertChunk(chunk, converter), consumer);
+				consumer.endOfBatch();
+			}
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			//as above, but with each batch consisting of one chunk per thread
+			Deque<Future<ConvertedChunk<T>>> pending = new ArrayDeque<>(threads * 2);
+			LineChunk chunk;
+			while ((chunk = reader.nextChunk(chunkSize)) != null) {
+				final LineChunk chunkToConvert = chunk;
+				pending.add(executor.submit(() -> convertChunk(chunkToConvert, converter)));
+				if (pending.size() == threads * 2) {
+					for (int i = 0; i < threads; i++) {
+						writeChunk(getResult(pending.removeFirst()), consumer);
+					}
+					consumer.endOfBatch();
+				}
+			}
+			while (!pending.isEmpty()) {
+				for (int i = 0; i < threads && !pending.isEmpty(); i++) {
+					writeChunk(getResult(pending.removeFirst()), consumer);
+				}
+				consumer.endOfBatch();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private <T> ConvertedChunk<T> convertChunk(LineChunk chunk, LineConverter<T> converter) throws Exception {
+		int size = chunk.size();
+		String[] lines = new String[size];
+		@SuppressWarnings("unchecked")
+		T[] results = (T[]) new Object[size];
+		for (int i = 0; i < size; i++) {
+			if (carriedColumns == null) {
+				lines[i] = chunk.getLine(i);
+			}
+			else if (carriedColumns.length > 0) {
+				lines[i] = chunk.getColumns(i, carriedColumns);
+			}
+			results[i] = converter.convert(chunk.getColumn(i, 0));
+		}
+		return new ConvertedChunk<>(lines, results);
+	}
+
+	private static <T> void writeChunk(ConvertedChunk<T> convertedChunk, ResultConsumer<T> consumer) throws Exception {
+		String[] lines = convertedChunk.lines;
+		T[] results = convertedChunk.results;
+		for (int i = 0; i < lines.length; i++) {
+			consumer.accept(lines[i], results[i]);
+		}
+	}
+
+	private static <T> void writeBatch(Deque<PendingLine<T>> pending, int batchSize, ResultConsumer<T> consumer) throws Exception {
+		for (int i = 0; i < batchSize && !pending.isEmpty(); i++) {
+			PendingLine<T> pendingLine = pending.removeFirst();
+			consumer.accept(pendingLine.line, getResult(pendingLine.future));
+		}
+		consumer.endOfBatch();
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the text of the line that is passed to the consumer
+	 * @param line
+	 * @return
+	 */
+	private String carriedText(String line) {
+		if (carriedColumns == null) {
+			return line;
+		}
+		if (carriedColumns.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < carriedColumns.length; i++) {
+			if (i > 0) {
+				sb.append('\t');
+			}
+			sb.append(getColumn(line, carriedColumns[i]));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the given tab delimited column of the line, numbered from 0, or the empty string if the line has fewer columns
+	 * @param line
+	 * @param column
+	 * @return
+	 */
+	private static String getColumn(String line, int column) {
+		int start = 0;
+		for (int i = 0; i < column; i++) {
+			int tab = line.indexOf('\t', start);
+			if (tab < 0) {
+				return "";
+			}
+			start = tab + 1;
+		}
+		int end = line.indexOf('\t', start);
+		return end >= 0 ? line.substring(start, end) : (start == 0 ? line : line.substring(start));
+	}
+
+	private static class PendingLine<T> {
+		private final String line;
+		private final Future<T> future;
+
+		PendingLine(String line, Future<T> future) {
+			this.line = line;
+			this.future = future;
+		}
+	}
+
+	private static class ConvertedChunk<T> {
+		private final String[] lines;
+		private final T[] results;
+
+		ConvertedChunk(String[] lines, T[] results) {
+			this.lines = lines;
+			this.results = results;
+		}
+	}
+}
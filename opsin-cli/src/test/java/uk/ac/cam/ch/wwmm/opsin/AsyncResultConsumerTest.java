@@ -0,0 +1,98 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.ResultConsumer;
+
+public class AsyncResultConsumerTest {
+
+	@Test
+	public void testResultsAreDeliveredInOrderOnAnotherThread() throws Exception {
+		List<String> received = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		int[] batches = new int[1];
+		AsyncResultConsumer<Integer> async = new AsyncResultConsumer<>(new ResultConsumer<Integer>() {
+
+			@Override
+			public void accept(String line, Integer result) {
+				received.add(line + "=" + result);
+				threads.add(Thread.currentThread());
+			}
+
+			@Override
+			public void endOfBatch() {
+				batches[0]++;
+			}
+		}, 4, "test consumer");
+		for (int i = 0; i < 1000; i++) {
+			async.accept("line" + i, i);
+			if (i % 10 == 9) {
+				async.endOfBatch();
+			}
+		}
+		async.finish();
+		//finish() waits for the consumer, so its results are visible
+		assertEquals(1000, received.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("line" + i + "=" + i, received.get(i));
+			assertNotEquals(Thread.currentThread(), threads.get(i));
+		}
+		assertEquals(100, batches[0]);
+	}
+
+	@Test
+	public void testConsumerExceptionReachesProducerAndFinish() {
+		IllegalStateException failure = new IllegalStateException("Could not write result");
+		CountDownLatch firstResultReceived = new CountDownLatch(1);
+		CountDownLatch failNow = new CountDownLatch(1);
+		AsyncResultConsumer<Integer> async = new AsyncResultConsumer<>(new ResultConsumer<Integer>() {
+
+			@Override
+			public void accept(String line, Integer result) throws InterruptedException {
+				if (result == 0) {
+					firstResultReceived.countDown();
+					failNow.await();
+					throw failure;
+				}
+			}
+
+			@Override
+			public void endOfBatch() {
+			}
+		}, 2, "test consumer");
+		assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+			async.accept("line0", 0);
+			firstResultReceived.await();
+			//fail once the producer is blocked on the full queue
+			Thread failer = new Thread(() -> {
+				try {
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				failNow.countDown();
+			});
+			failer.start();
+			Exception e = assertThrows(IllegalStateException.class, () -> {
+				for (int i = 1; i < 1000; i++) {
+					async.accept("line" + i, i);
+				}
+			});
+			assertSame(failure, e);
+			assertSame(failure, assertThrows(IllegalStateException.class, async::finish));
+			failer.join();
+		});
+	}
+}
@@ -0,0 +1,160 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.cam.ch.wwmm.opsin.MappedLineReader.LineChunk;
+
+public class MappedLineReaderTest {
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	public void testMatchesBufferedReaderWithMixedLineTerminators() throws IOException {
+		String[] terminators = {"\n", "\r", "\r\n"};
+		Random random = new Random(42);
+		for (int test = 0; test < 50; test++) {
+			StringBuilder sb = new StringBuilder();
+			int lines = random.nextInt(40);
+			for (int i = 0; i < lines; i++) {
+				//up to 10 bytes, so with its terminator a line always fits in the smallest window
+				int length = random.nextInt(6);
+				for (int j = 0; j < length; j++) {
+					int r = random.nextInt(10);
+					sb.append(r == 0 ? 'é' : r == 1 ? '\t' : (char) ('a' + r));
+				}
+				if (i < lines - 1 || random.nextBoolean()) {
+					sb.append(terminators[random.nextInt(terminators.length)]);
+				}
+			}
+			String input = sb.toString();
+			List<String> expected = readLines(new BufferedReader(new StringReader(input)));
+			File file = write(input);
+			for (int windowSize = 12; windowSize <= 20; windowSize++) {
+				for (int maxLines : new int[]{1, 3, 100}) {
+					assertEquals(expected, readLines(file, windowSize, maxLines), "Window size " + windowSize + ", chunk size " + maxLines);
+				}
+			}
+			assertEquals(expected, readLines(file, 1 << 20, 100));
+		}
+	}
+
+	@Test
+	public void testLineSpanningWindowsIsRemapped() throws IOException {
+		File file = write("ab\ncdefg\nhi\n");
+		MappedLineReader reader = new MappedLineReader(file, 8);
+		//cdefg continues into the next window, so ends the chunk early
+		assertEquals(Arrays.asList("ab"), linesOf(reader.nextChunk(10)));
+		assertEquals(Arrays.asList("cdefg"), linesOf(reader.nextChunk(10)));
+		assertEquals(Arrays.asList("hi"), linesOf(reader.nextChunk(10)));
+		assertNull(reader.nextChunk(10));
+		reader.close();
+	}
+
+	@Test
+	public void testCarriageReturnAtEndOfWindow() throws IOException {
+		//the \r is the last byte of the first window, and its \n is in the next
+		assertEquals(Arrays.asList("ab", "cdef", "xyz"), readLines(write("ab\ncdef\r\nxyz"), 8, 10));
+		//...and not followed by a \n
+		assertEquals(Arrays.asList("ab", "cdef", "xyz"), readLines(write("ab\ncdef\rxyz"), 8, 10));
+		assertEquals(Arrays.asList("ab", "cdef", "", "xyz"), readLines(write("ab\ncdef\r\rxyz"), 8, 10));
+	}
+
+	@Test
+	public void testLineLongerThanWindow() throws IOException {
+		File file = write("abc\n0123456789\nxyz\n");
+		MappedLineReader reader = new MappedLineReader(file, 8);
+		assertEquals(Arrays.asList("abc"), linesOf(reader.nextChunk(10)));
+		IOException e = assertThrows(IOException.class, () -> reader.nextChunk(10));
+		assertEquals("Line starting at byte 4 is longer than the maximum supported length of 8 bytes", e.getMessage());
+		reader.close();
+	}
+
+	@Test
+	public void testLastLineWithoutTerminator() throws IOException {
+		assertEquals(Arrays.asList("ethane", "benzene"), readLines(write("ethane\nbenzene"), 8, 10));
+		assertEquals(Arrays.asList("ethane", "benzene"), readLines(write("ethane\nbenzene\n"), 8, 10));
+		assertEquals(Arrays.asList("ethane"), readLines(write("ethane\r"), 8, 10));
+		assertEquals(Arrays.asList("éthane"), readLines(write("éthane"), 1 << 20, 10));
+	}
+
+	@Test
+	public void testEmptyFile() throws IOException {
+		MappedLineReader reader = new MappedLineReader(write(""), 8);
+		assertNull(reader.nextChunk(10));
+		reader.close();
+	}
+
+	@Test
+	public void testColumns() throws IOException {
+		MappedLineReader reader = new MappedLineReader(write("ethane\tid1\tx\nbenzene\n\té\n"), 1 << 20);
+		LineChunk chunk = reader.nextChunk(10);
+		assertEquals(3, chunk.size());
+		assertEquals("ethane", chunk.getColumn(0, 0));
+		assertEquals("id1", chunk.getColumn(0, 1));
+		assertEquals("x", chunk.getColumn(0, 2));
+		assertEquals("", chunk.getColumn(0, 3));
+		assertEquals("benzene", chunk.getColumn(1, 0));
+		assertEquals("", chunk.getColumn(1, 1));
+		assertEquals("", chunk.getColumn(2, 0));
+		assertEquals("é", chunk.getColumn(2, 1));
+
+		assertEquals("x\tethane\t", chunk.getColumns(0, new int[]{2, 0, 5}));
+		assertEquals("id1", chunk.getColumns(0, new int[]{1}));
+		assertEquals("", chunk.getColumns(1, new int[]{1}));
+		assertEquals("\t", chunk.getColumns(1, new int[]{1, 2}));
+		assertEquals("é\t", chunk.getColumns(2, new int[]{1, 0}));
+		assertNull(reader.nextChunk(10));
+		reader.close();
+	}
+
+	private File write(String contents) throws IOException {
+		File file = File.createTempFile("lines", ".txt", tempDir);
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static List<String> readLines(BufferedReader reader) throws IOException {
+		List<String> lines = new ArrayList<>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	private static List<String> readLines(File file, int windowSize, int maxLines) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (MappedLineReader reader = new MappedLineReader(file, windowSize)) {
+			LineChunk chunk;
+			while ((chunk = reader.nextChunk(maxLines)) != null) {
+				lines.addAll(linesOf(chunk));
+			}
+		}
+		return lines;
+	}
+
+	private static List<String> linesOf(LineChunk chunk) {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < chunk.size(); i++) {
+			lines.add(chunk.getLine(i));
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,116 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.LineConverter;
+import uk.ac.cam.ch.wwmm.opsin.OrderedLineProcessor.ResultConsumer;
+
+public class OrderedLineProcessorTest {
+
+	@Test
+	public void testOrderIsPreservedWithMultipleThreads() throws Exception {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			input.append("name").append(i).append('\n');
+		}
+		//later lines are converted faster, so results complete out of order
+		LineConverter<String> converter = name -> {
+			int i = Integer.parseInt(name.substring(4));
+			if (i % 7 == 0) {
+				Thread.sleep(1);
+			}
+			return name.toUpperCase();
+		};
+		CollectingConsumer consumer = new CollectingConsumer();
+		new OrderedLineProcessor(4, 8, null).process(reader(input.toString()), converter, consumer);
+		assertEquals(1000, consumer.results.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("name" + i, consumer.lines.get(i));
+			assertEquals("NAME" + i, consumer.results.get(i));
+		}
+		assertEquals(125, consumer.batches);
+	}
+
+	@Test
+	public void testSingleThreadEndsBatchAfterEachLine() throws Exception {
+		CollectingConsumer consumer = new CollectingConsumer();
+		new OrderedLineProcessor(1, 64, null).process(reader("ethane\nbenzene\n"), name -> name.toUpperCase(), consumer);
+		assertEquals(Arrays.asList("ETHANE", "BENZENE"), consumer.results);
+		assertEquals(2, consumer.batches);
+	}
+
+	@Test
+	public void testConverterExceptionReachesCaller() {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			input.append("name").append(i).append('\n');
+		}
+		LineConverter<String> converter = name -> {
+			if (name.equals("name50")) {
+				throw new IllegalStateException("Could not convert " + name);
+			}
+			return name;
+		};
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> new OrderedLineProcessor(4, 8, null).process(reader(input.toString()), converter, new CollectingConsumer()));
+		assertEquals("Could not convert name50", e.getMessage());
+		e = assertThrows(IllegalStateException.class,
+				() -> new OrderedLineProcessor(1, 8, null).process(reader(input.toString()), converter, new CollectingConsumer()));
+		assertEquals("Could not convert name50", e.getMessage());
+	}
+
+	@Test
+	public void testCarriedColumns() throws Exception {
+		String input = "ethane\tid1\tx\nbenzene\n\tid3\n";
+		CollectingConsumer consumer = new CollectingConsumer();
+		new OrderedLineProcessor(2, 4, new int[]{2, 0, 5}).process(reader(input), name -> name, consumer);
+		assertEquals(Arrays.asList("ethane", "benzene", ""), consumer.results);
+		assertEquals(Arrays.asList("x\tethane\t", "\tbenzene\t", "\t\t"), consumer.lines);
+
+		consumer = new CollectingConsumer();
+		new OrderedLineProcessor(2, 4, new int[]{1}).process(reader(input), name -> name, consumer);
+		assertEquals(Arrays.asList("id1", "", "id3"), consumer.lines);
+
+		consumer = new CollectingConsumer();
+		new OrderedLineProcessor(2, 4, null).process(reader(input), name -> name, consumer);
+		assertEquals(Arrays.asList("ethane\tid1\tx", "benzene", "\tid3"), consumer.lines);
+
+		consumer = new CollectingConsumer();
+		new OrderedLineProcessor(1, 4, new int[0]).process(reader(input), name -> name, consumer);
+		assertEquals(3, consumer.lines.size());
+		for (String line : consumer.lines) {
+			assertNull(line);
+		}
+	}
+
+	private static BufferedReader reader(String input) {
+		return new BufferedReader(new StringReader(input));
+	}
+
+	private static class CollectingConsumer implements ResultConsumer<String> {
+		private final List<String> lines = new ArrayList<>();
+		private final List<String> results = new ArrayList<>();
+		private int batches = 0;
+
+		@Override
+		public void accept(String line, String result) {
+			lines.add(line);
+			results.add(result);
+		}
+
+		@Override
+		public void endOfBatch() {
+			batches++;
+		}
+	}
+}
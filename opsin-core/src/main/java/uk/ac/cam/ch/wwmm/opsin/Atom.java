@@ -1,10 +1,9 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 
@@ -45,9 +44,9 @@ class Atom {
 	/**The bonds that involve the atom*/
 	private final List<Bond> bonds = new ArrayList<>(4);
 
-	/**A map between PropertyKey s as declared here and useful atom properties, usually relating to some kind of special case. */
-	@SuppressWarnings("rawtypes")
-	private final Map<PropertyKey, Object> properties = new HashMap<>();
+	/**The values of useful atom properties, usually relating to some kind of special case, indexed by the slot of the PropertyKey s declared here.
+	 * null until a property is set */
+	private Object[] properties = null;
 	/** A set of atoms that were equally plausible to perform functional replacement on */
 	static final PropertyKey<Set<Atom>> AMBIGUOUS_ELEMENT_ASSIGNMENT = new PropertyKey<>("ambiguousElementAssignment");
 	/** The atom class which will be output when serialised to SMILES. Useful for distinguishing attachment points */
@@ -64,8 +63,6 @@ class Atom {
 	static final PropertyKey<Boolean> ISALDEHYDE = new PropertyKey<>("isAldehyde");
 	/** Indicates that this atom is an anomeric atom in a cyclised carbohydrate*/
 	static final PropertyKey<Boolean> ISANOMERIC = new PropertyKey<>("isAnomeric");
-	/** Transient integer used to indicate traversal of fragments*/
-	static final PropertyKey<Integer> VISITED = new PropertyKey<>("visited");
 	
 	private static final StereoGroup UNKNOWN_STEREOGROUP = new StereoGroup(StereoGroupType.Unk);
 
@@ -550,11 +547,28 @@ class Atom {
 
     @SuppressWarnings("unchecked")
 	<T> T getProperty(PropertyKey<T> propertyKey) {
-        return (T) properties.get(propertyKey);
+		int slot = propertyKey.getSlot();
+		if (properties == null || slot >= properties.length) {
+			return null;
+		}
+        return (T) properties[slot];
     }
 
 	<T> void setProperty(PropertyKey<T> propertyKey, T value) {
-		properties.put(propertyKey, value);
+		int slot = propertyKey.getSlot();
+		if (properties == null) {
+			if (value == null) {
+				return;
+			}
+			properties = new Object[Math.max(PropertyKey.getSlotCount(), slot + 1)];
+		}
+		else if (slot >= properties.length) {
+			if (value == null) {
+				return;
+			}
+			properties = Arrays.copyOf(properties, Math.max(PropertyKey.getSlotCount(), slot + 1));
+		}
+		properties[slot] = value;
 	}
 
 	/**
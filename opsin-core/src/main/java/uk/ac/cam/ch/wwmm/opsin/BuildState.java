@@ -17,21 +17,48 @@ class BuildState {
 
 	final FragmentManager fragManager;
 	final HashMap<Element, List<Fragment>> xmlSuffixMap;
-	final NameToStructureConfig n2sConfig;
+	NameToStructureConfig n2sConfig;
+	private final IDManager idManager;
 	// counter is used for DL- racemic stereochemistry in oligomers, we place each one in a separate racemic group,
 	// there is implicitly one group in-case the input has a combination of (RS)- and then DL-
 	int numRacGrps = 1;
-	private final List<OpsinWarning> warnings = new ArrayList<>();
+	private List<OpsinWarning> warnings = new ArrayList<>();
 	
 	WordRule currentWordRule = null;
 
 	BuildState(NameToStructureConfig n2sConfig) {
 		this.n2sConfig = n2sConfig;
-		IDManager idManager = new IDManager();
+		idManager = new IDManager();
 		fragManager = new FragmentManager(new SMILESFragmentBuilder(idManager), idManager);
 		xmlSuffixMap = new HashMap<>();
 	}
 
+	/**
+	 * Returns this BuildState to the state it was in when constructed, but with the given configuration,
+	 * so that it may be reused to build another structure
+	 * @param n2sConfig
+	 */
+	void reset(NameToStructureConfig n2sConfig) {
+		this.n2sConfig = n2sConfig;
+		idManager.reset();
+		fragManager.clear();
+		xmlSuffixMap.clear();
+		numRacGrps = 1;
+		if (!warnings.isEmpty()) {
+			//the caller may have retained the previous list of warnings
+			warnings = new ArrayList<>();
+		}
+		currentWordRule = null;
+	}
+
+	/**
+	 * The number of atoms that have been created, including those that have since been removed
+	 * @return number of atoms
+	 */
+	int getAtomsCreated() {
+		return idManager.getCurrentID();
+	}
+
 	List<OpsinWarning> getWarnings() {
 		return warnings;
 	}
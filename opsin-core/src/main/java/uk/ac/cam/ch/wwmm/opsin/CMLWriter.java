@@ -1,6 +1,7 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
 
@@ -45,10 +46,7 @@ class CMLWriter {
 	private static String generateCml(Fragment structure, String chemicalName, boolean indent) {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		try {
-			XMLStreamWriter xmlWriter = factory.createXMLStreamWriter(out, "UTF-8");
-			if (indent) {
-				xmlWriter = new IndentingXMLStreamWriter(xmlWriter, 2);
-			}
+			XMLStreamWriter xmlWriter = createXmlStreamWriter(out, indent);
 			CMLWriter cmlWriter = new CMLWriter(xmlWriter);
 			cmlWriter.writeCmlStart();
 			cmlWriter.writeMolecule(structure, chemicalName, 1);
@@ -64,6 +62,21 @@ class CMLWriter {
 		}
 	}
 
+	/**
+	 * Creates an XMLStreamWriter, suitable for writing CML, that writes UTF-8 to the given stream
+	 * @param out
+	 * @param indent whether the XML should be indented
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	static XMLStreamWriter createXmlStreamWriter(OutputStream out, boolean indent) throws XMLStreamException {
+		XMLStreamWriter xmlWriter = factory.createXMLStreamWriter(out, "UTF-8");
+		if (indent) {
+			xmlWriter = new IndentingXMLStreamWriter(xmlWriter, 2);
+		}
+		return xmlWriter;
+	}
+
 	void writeCmlStart(){
 		try {
 			writer.writeStartElement("cml");
@@ -0,0 +1,163 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the structures of many {@link OpsinResult}s as a single CML document, serialising each structure
+ * directly to the output rather than generating a String per molecule.<br>
+ * Hence arbitrarily many results can be written in constant memory.
+ * Each result is written as a molecule element; results for which a structure could not be generated are written with just their name.<br>
+ * The cml element is started on creation, and ended by {@link #close()}, which must be called to complete the document.<br>
+ * Example usage:
+ * <pre>
+ * try (CmlStreamWriter cmlWriter = CmlStreamWriter.createGzipped(new FileOutputStream("out.cml.gz"), false)) {
+ *   for (String name : names) {
+ *     cmlWriter.write(nts.parseChemicalName(name));
+ *   }
+ * }
+ * </pre>
+ * This class is not thread-safe.
+ *
+ */
+public class CmlStreamWriter implements Closeable {
+
+	private static final int GZIP_BUFFER_SIZE = 65536;
+
+	private final XMLStreamWriter writer;
+	private final CMLWriter cmlWriter;
+	/**The stream to close when this writer is closed, or null if the underlying writer is owned by the caller*/
+	private final OutputStream ownedStream;
+	private int nextId = 1;
+	private boolean closed = false;
+
+	/**
+	 * Creates a writer that writes an unindented UTF-8 CML document to the given stream.
+	 * The stream is closed when this writer is closed
+	 * @param out
+	 * @throws IOException
+	 */
+	public CmlStreamWriter(OutputStream out) throws IOException {
+		this(out, false);
+	}
+
+	/**
+	 * Creates a writer that writes a UTF-8 CML document to the given stream.
+	 * The stream is closed when this writer is closed
+	 * @param out
+	 * @param indent whether the CML should be indented
+	 * @throws IOException
+	 */
+	public CmlStreamWriter(OutputStream out, boolean indent) throws IOException {
+		this.ownedStream = out;
+		try {
+			this.writer = CMLWriter.createXmlStreamWriter(out, indent);
+			this.writer.writeStartDocument();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		this.cmlWriter = new CMLWriter(writer);
+		cmlWriter.writeCmlStart();
+	}
+
+	/**
+	 * Creates a writer that writes CML to the given XMLStreamWriter, which may already be part way through a document.
+	 * Closing this writer ends the cml element, but does not close the given XMLStreamWriter
+	 * @param writer
+	 */
+	public CmlStreamWriter(XMLStreamWriter writer) {
+		this.ownedStream = null;
+		this.writer = writer;
+		this.cmlWriter = new CMLWriter(writer);
+		cmlWriter.writeCmlStart();
+	}
+
+	/**
+	 * Creates a writer that writes a gzip compressed UTF-8 CML document to the given stream.
+	 * The stream is closed when this writer is closed
+	 * @param out
+	 * @param indent whether the CML should be indented
+	 * @return
+	 * @throws IOException
+	 */
+	public static CmlStreamWriter createGzipped(OutputStream out, boolean indent) throws IOException {
+		return new CmlStreamWriter(new GZIPOutputStream(out, GZIP_BUFFER_SIZE), indent);
+	}
+
+	/**
+	 * Writes the given result as a molecule. Molecules are given the ids m1, m2... in the order they are written
+	 * @param result
+	 * @throws IOException
+	 */
+	public void write(OpsinResult result) throws IOException {
+		if (closed) {
+			throw new IOException("CmlStreamWriter has been closed");
+		}
+		long startTime = result.startSerialisation();
+		try {
+			cmlWriter.writeMolecule(result.getStructure(), result.getChemicalName(), nextId++);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		finally {
+			result.endSerialisation(startTime);
+		}
+	}
+
+	/**
+	 * Writes each of the given results as a molecule, in iteration order
+	 * @param results
+	 * @throws IOException
+	 */
+	public void writeAll(Iterable<OpsinResult> results) throws IOException {
+		for (OpsinResult result : results) {
+			write(result);
+		}
+	}
+
+	/**
+	 * Flushes any buffered output to the underlying stream.
+	 * Note that gzip compressed output is only fully flushed when this writer is closed
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		try {
+			writer.flush();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Ends the cml element and, if this writer was created with an OutputStream, ends the document and closes the stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			cmlWriter.writeCmlEnd();
+			if (ownedStream != null) {
+				writer.writeEndDocument();
+				writer.close();
+			}
+			else {
+				writer.flush();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		finally {
+			if (ownedStream != null) {
+				ownedStream.close();
+			}
+		}
+	}
+}
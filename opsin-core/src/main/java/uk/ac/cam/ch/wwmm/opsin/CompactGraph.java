@@ -0,0 +1,243 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the connectivity of a set of atoms, in which atoms and bonds are numbered
+ * and the neighbours of each atom are held in compressed adjacency arrays.<br>
+ * Graph algorithms can hence record their working state in arrays indexed by atom/bond number,
+ * rather than in maps keyed by {@link Atom} or in the atoms' properties.<br>
+ * The neighbours of each atom are in the same order as the atom's bonds, so algorithms visit atoms in the same order as when
+ * traversing the atoms directly. The snapshot does not reflect subsequent changes to the atoms.
+ *
+ */
+class CompactGraph {
+
+	private final Atom[] atoms;
+	private final Bond[] bonds;
+	private final int inputAtomCount;
+	private final Map<Atom, Integer> atomToIndex;
+
+	/**Neighbours of atom i are at indices adjacencyStart[i] to adjacencyStart[i + 1] - 1 of adjacentAtoms/adjacentBonds */
+	private final int[] adjacencyStart;
+	private final int[] adjacentAtoms;
+	private final int[] adjacentBonds;
+
+	private final int[] atomicNumber;
+	private final int[] charge;
+	/**0 if the atom is not a specific isotope*/
+	private final int[] isotope;
+
+	private final int[] bondFrom;
+	private final int[] bondTo;
+	private final int[] bondOrder;
+
+	private CompactGraph(List<Atom> atomList, int inputAtomCount, Map<Atom, Integer> atomToIndex) {
+		int atomCount = atomList.size();
+		this.atoms = atomList.toArray(new Atom[atomCount]);
+		this.inputAtomCount = inputAtomCount;
+		this.atomToIndex = atomToIndex;
+		adjacencyStart = new int[atomCount + 1];
+		atomicNumber = new int[atomCount];
+		charge = new int[atomCount];
+		isotope = new int[atomCount];
+		int adjacencyCount = 0;
+		for (int i = 0; i < atomCount; i++) {
+			Atom atom = atoms[i];
+			adjacencyStart[i] = adjacencyCount;
+			adjacencyCount += atom.getBondCount();
+			atomicNumber[i] = atom.getElement().ATOMIC_NUM;
+			charge[i] = atom.getCharge();
+			Integer mass = atom.getIsotope();
+			isotope[i] = mass != null ? mass : 0;
+		}
+		adjacencyStart[atomCount] = adjacencyCount;
+		adjacentAtoms = new int[adjacencyCount];
+		adjacentBonds = new int[adjacencyCount];
+
+		//each bond is encountered from both of its atoms
+		Map<Bond, Integer> bondToIndex = new IdentityHashMap<>(adjacencyCount);
+		List<Bond> bondList = new ArrayList<>(adjacencyCount / 2);
+		int idx = 0;
+		for (int i = 0; i < atomCount; i++) {
+			Atom atom = atoms[i];
+			for (Bond bond : atom.getBonds()) {
+				Integer neighbour = atomToIndex.get(bond.getOtherAtom(atom));
+				if (neighbour == null) {
+					throw new IllegalArgumentException("Atom " + atom.getID() + " is bonded to an atom that is not part of the graph");
+				}
+				Integer bondIdx = bondToIndex.get(bond);
+				if (bondIdx == null) {
+					bondIdx = bondList.size();
+					bondToIndex.put(bond, bondIdx);
+					bondList.add(bond);
+				}
+				adjacentAtoms[idx] = neighbour;
+				adjacentBonds[idx] = bondIdx;
+				idx++;
+			}
+		}
+		int bondCount = bondList.size();
+		this.bonds = bondList.toArray(new Bond[bondCount]);
+		bondFrom = new int[bondCount];
+		bondTo = new int[bondCount];
+		bondOrder = new int[bondCount];
+		for (int i = 0; i < bondCount; i++) {
+			Bond bond = bonds[i];
+			bondFrom[i] = atomToIndex.get(bond.getFromAtom());
+			bondTo[i] = atomToIndex.get(bond.getToAtom());
+			bondOrder[i] = bond.getOrder();
+		}
+	}
+
+	/**
+	 * Creates a graph of the given atoms, numbered in the order given.
+	 * The atoms may not be bonded to atoms that are not in the collection
+	 * @param atoms
+	 * @return
+	 */
+	static CompactGraph fromAtoms(Collection<Atom> atoms) {
+		List<Atom> atomList = new ArrayList<>(atoms);
+		return new CompactGraph(atomList, atomList.size(), indexAtoms(atomList));
+	}
+
+	/**
+	 * Creates a graph of the given atoms, numbered in the order given, and any atoms that can be reached from them via bonds.
+	 * The latter are numbered from {@link #getInputAtomCount()} in the order they are reached by a breadth first search
+	 * @param atoms
+	 * @return
+	 */
+	static CompactGraph fromConnectedAtoms(Collection<Atom> atoms) {
+		List<Atom> atomList = new ArrayList<>(atoms);
+		int inputAtomCount = atomList.size();
+		Map<Atom, Integer> atomToIndex = indexAtoms(atomList);
+		for (int i = 0; i < atomList.size(); i++) {
+			Atom atom = atomList.get(i);
+			for (Bond bond : atom.getBonds()) {
+				Atom neighbour = bond.getOtherAtom(atom);
+				if (!atomToIndex.containsKey(neighbour)) {
+					atomToIndex.put(neighbour, atomList.size());
+					atomList.add(neighbour);
+				}
+			}
+		}
+		return new CompactGraph(atomList, inputAtomCount, atomToIndex);
+	}
+
+	private static Map<Atom, Integer> indexAtoms(List<Atom> atomList) {
+		Map<Atom, Integer> atomToIndex = new IdentityHashMap<>(atomList.size());
+		for (int i = 0, l = atomList.size(); i < l; i++) {
+			if (atomToIndex.put(atomList.get(i), i) != null) {
+				throw new IllegalArgumentException("Atom " + atomList.get(i).getID() + " is present more than once");
+			}
+		}
+		return atomToIndex;
+	}
+
+	int getAtomCount() {
+		return atoms.length;
+	}
+
+	/**
+	 * The number of atoms the graph was created from. Atoms with a higher index were reached via bonds from these atoms
+	 * @return
+	 */
+	int getInputAtomCount() {
+		return inputAtomCount;
+	}
+
+	int getBondCount() {
+		return bonds.length;
+	}
+
+	Atom getAtom(int atomIdx) {
+		return atoms[atomIdx];
+	}
+
+	Bond getBond(int bondIdx) {
+		return bonds[bondIdx];
+	}
+
+	/**
+	 * Returns the index of the given atom, or -1 if the atom is not part of this graph
+	 * @param atom
+	 * @return
+	 */
+	int indexOf(Atom atom) {
+		Integer idx = atomToIndex.get(atom);
+		return idx != null ? idx : -1;
+	}
+
+	int getDegree(int atomIdx) {
+		return adjacencyStart[atomIdx + 1] - adjacencyStart[atomIdx];
+	}
+
+	/**
+	 * The start of the given atom's entries in the adjacency arrays, see {@link #getAdjacentAtom(int)} and {@link #getAdjacentBond(int)}
+	 * @param atomIdx
+	 * @return
+	 */
+	int getAdjacencyStart(int atomIdx) {
+		return adjacencyStart[atomIdx];
+	}
+
+	/**
+	 * The end (exclusive) of the given atom's entries in the adjacency arrays
+	 * @param atomIdx
+	 * @return
+	 */
+	int getAdjacencyEnd(int atomIdx) {
+		return adjacencyStart[atomIdx + 1];
+	}
+
+	int getAdjacentAtom(int adjacencyIdx) {
+		return adjacentAtoms[adjacencyIdx];
+	}
+
+	int getAdjacentBond(int adjacencyIdx) {
+		return adjacentBonds[adjacencyIdx];
+	}
+
+	int getAtomicNumber(int atomIdx) {
+		return atomicNumber[atomIdx];
+	}
+
+	int getCharge(int atomIdx) {
+		return charge[atomIdx];
+	}
+
+	/**
+	 * The mass number of the atom, or 0 if the atom is not a specific isotope
+	 * @param atomIdx
+	 * @return
+	 */
+	int getIsotope(int atomIdx) {
+		return isotope[atomIdx];
+	}
+
+	int getBondFrom(int bondIdx) {
+		return bondFrom[bondIdx];
+	}
+
+	int getBondTo(int bondIdx) {
+		return bondTo[bondIdx];
+	}
+
+	int getBondOrder(int bondIdx) {
+		return bondOrder[bondIdx];
+	}
+
+	/**
+	 * Returns the index of the atom at the other end of the given bond
+	 * @param bondIdx
+	 * @param atomIdx
+	 * @return
+	 */
+	int getOtherAtom(int bondIdx, int atomIdx) {
+		return bondFrom[bondIdx] == atomIdx ? bondTo[bondIdx] : bondFrom[bondIdx];
+	}
+}
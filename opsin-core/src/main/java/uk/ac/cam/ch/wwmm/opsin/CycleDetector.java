@@ -2,6 +2,7 @@ package uk.ac.cam.ch.wwmm.opsin;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -21,60 +22,124 @@ class CycleDetector {
 	 * @param frag
 	 */
 	static void assignWhetherAtomsAreInCycles(Fragment frag) {
-		List<Atom> atomList = frag.getAtomList();
-		for (Atom atom : atomList) {
-			atom.setAtomIsInACycle(false);
-			atom.setProperty(Atom.VISITED, null);
+		//atoms bonded to the fragment are included so that rings formed via other fragments are still detected
+		CompactGraph graph = CompactGraph.fromConnectedAtoms(frag.getAtomList());
+		RingTraversal traversal = new RingTraversal(graph);
+		int fragAtomCount = graph.getInputAtomCount();
+		for (int i = 0; i < fragAtomCount; i++) {//as OPSIN does not disallow disconnected sections within a single "fragment" (e.g. in suffixes) for vigorousness this for loop is required
+			if (traversal.depths[i] == RingTraversal.UNVISITED) {//true for only the first atom in a fully connected molecule
+				traversal.traverseRings(i, -1, 0);
+			}
+		}
+		for (int i = 0; i < fragAtomCount; i++) {
+			graph.getAtom(i).setAtomIsInACycle(traversal.inCycle[i]);
 		}
-		for (Atom a : atomList) {//as OPSIN does not disallow disconnected sections within a single "fragment" (e.g. in suffixes) for vigorousness this for loop is required
-			if(a.getProperty(Atom.VISITED) == null){//true for only the first atom in a fully connected molecule
-				traverseRings(a, null, 0);
+		for (int i = fragAtomCount, l = graph.getAtomCount(); i < l; i++) {
+			if (traversal.inCycle[i]) {
+				graph.getAtom(i).setAtomIsInACycle(true);
 			}
 		}
 	}
-	
-	private static int traverseRings(Atom currentAtom, Atom previousAtom, int depth){
-		Integer previouslyAssignedDepth = currentAtom.getProperty(Atom.VISITED);
-		if(previouslyAssignedDepth != null){
-			return previouslyAssignedDepth;
+
+	/**
+	 * The state of a depth first search for rings, indexed by the atom indices of a {@link CompactGraph}
+	 */
+	private static class RingTraversal {
+		static final int UNVISITED = -1;
+
+		private final CompactGraph graph;
+		/**The depth at which each atom was first visited */
+		private final int[] depths;
+		private final boolean[] inCycle;
+		/**Stack of atoms in chains that are currently being traversed */
+		private int[] chainAtoms;
+		private int chainSize = 0;
+
+		RingTraversal(CompactGraph graph) {
+			this.graph = graph;
+			int atomCount = graph.getAtomCount();
+			depths = new int[atomCount];
+			Arrays.fill(depths, UNVISITED);
+			inCycle = new boolean[atomCount];
+			chainAtoms = new int[Math.max(atomCount, 1)];
 		}
-		currentAtom.setProperty(Atom.VISITED, depth);
-		List<Atom> equivalentAtoms = new ArrayList<>();
-		equivalentAtoms.add(currentAtom);
-		
-		List<Atom> neighbours;
-		for(;;) {
-			//Non-recursively process atoms in a chain
-			//add the atoms in the chain to equivalentAtoms as either all or none of them are in a ring
-			neighbours = currentAtom.getAtomNeighbours();
-			neighbours.remove(previousAtom);
-			if (neighbours.size() != 1) {
-				break;
+
+		int traverseRings(int currentAtom, int previousAtom, int depth){
+			if (depths[currentAtom] != UNVISITED){
+				return depths[currentAtom];
+			}
+			depths[currentAtom] = depth;
+			//atoms in a chain are equivalent as either all or none of them are in a ring
+			int chainStart = chainSize;
+			pushChainAtom(currentAtom);
+
+			for(;;) {
+				//Non-recursively process atoms in a chain
+				if (countNeighboursExcluding(currentAtom, previousAtom) != 1) {
+					break;
+				}
+				int nextAtom = firstNeighbourExcluding(currentAtom, previousAtom);
+				if (depths[nextAtom] != UNVISITED) {
+					//chain reached a previously visited atom, must be a ring
+					break;
+				}
+				previousAtom = currentAtom;
+				currentAtom = nextAtom;
+				pushChainAtom(currentAtom);
+				depths[currentAtom] = ++depth;
 			}
-			Atom nextAtom = neighbours.get(0);
-			if (nextAtom.getProperty(Atom.VISITED) != null) {
-				//chain reached a previously visited atom, must be a ring
-				break;
+
+			int result = depth + 1;
+			boolean skippedPrevious = false;
+			for (int i = graph.getAdjacencyStart(currentAtom), end = graph.getAdjacencyEnd(currentAtom); i < end; i++) {
+				int neighbour = graph.getAdjacentAtom(i);
+				if (neighbour == previousAtom && !skippedPrevious) {
+					skippedPrevious = true;
+					continue;
+				}
+				int temp = traverseRings(neighbour, currentAtom, depth + 1);
+				result = Math.min(result, temp);
 			}
-			previousAtom = currentAtom;
-			currentAtom = nextAtom;
-			equivalentAtoms.add(currentAtom);
-			currentAtom.setProperty(Atom.VISITED, ++depth);
+			if (result < depth){
+				for (int i = chainStart; i < chainSize; i++) {
+					inCycle[chainAtoms[i]] = true;
+				}
+			} else if (result == depth) {
+				inCycle[currentAtom] = true;
+			}
+			chainSize = chainStart;
+			return result;
 		}
 
-		int result = depth + 1;
-		for (Atom neighbour : neighbours) {
-		  int temp = traverseRings(neighbour, currentAtom, depth + 1);
-		  result = Math.min(result, temp);
+		private void pushChainAtom(int atom) {
+			if (chainSize == chainAtoms.length) {
+				chainAtoms = Arrays.copyOf(chainAtoms, chainSize * 2);
+			}
+			chainAtoms[chainSize++] = atom;
 		}
-		if (result < depth){
-			for (Atom a : equivalentAtoms) {
-				a.setAtomIsInACycle(true);
+
+		private int countNeighboursExcluding(int atom, int excludedAtom) {
+			int degree = graph.getDegree(atom);
+			for (int i = graph.getAdjacencyStart(atom), end = graph.getAdjacencyEnd(atom); i < end; i++) {
+				if (graph.getAdjacentAtom(i) == excludedAtom) {
+					return degree - 1;
+				}
+			}
+			return degree;
+		}
+
+		private int firstNeighbourExcluding(int atom, int excludedAtom) {
+			boolean skippedExcluded = false;
+			for (int i = graph.getAdjacencyStart(atom), end = graph.getAdjacencyEnd(atom); i < end; i++) {
+				int neighbour = graph.getAdjacentAtom(i);
+				if (neighbour == excludedAtom && !skippedExcluded) {
+					skippedExcluded = true;
+					continue;
+				}
+				return neighbour;
 			}
-		} else if (result == depth) {
-			currentAtom.setAtomIsInACycle(true);
+			throw new IllegalStateException();
 		}
-		return result;
 	}
 
 	private static class PathSearchState{
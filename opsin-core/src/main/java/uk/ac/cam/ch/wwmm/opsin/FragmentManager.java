@@ -46,6 +46,14 @@ class FragmentManager {
 		this.idManager = idManager;
 	}
 
+	/**
+	 * Forgets all fragments and inter fragment bonds, such that this FragmentManager may be used to build a new molecule.
+	 * The fragments themselves are unaffected
+	 */
+	void clear() {
+		fragToInterFragmentBond.clear();
+	}
+
 	/** Builds a fragment, based on an SMILES string
 	 * The fragment will not correspond to a token
 	 *
@@ -0,0 +1,423 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static uk.ac.cam.ch.wwmm.opsin.XmlDeclarations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.cam.ch.wwmm.opsin.Bond.SMILES_BOND_DIRECTION;
+import uk.ac.cam.ch.wwmm.opsin.BondStereo.BondStereoValue;
+
+/**
+ * An immutable, precompiled form of a fragment e.g. one built from SMILES.
+ * Instantiating the template creates the same atoms/bonds/stereochemistry/locants as building the fragment
+ * from the SMILES would, but without re-parsing the SMILES or redoing valency and labelling setup.
+ * The same state as is copied by {@link FragmentManager#copyAndRelabelFragment(Fragment, int)} is retained,
+ * along with out valency and polymer attachment points, so a completed structure may be frozen as a template.
+ * The template holds no references to Atoms or Bonds so may be safely shared between threads.
+ *
+ * Atoms are referred to by their index in the fragment's atom list
+ *
+ */
+final class FragmentTemplate {
+
+	/**Index used in atomRefs4 to indicate {@link AtomParity#hydrogen}*/
+	private static final int HYDROGEN_REF = -1;
+	/**Index used in atomRefs4 to indicate {@link AtomParity#deoxyHydrogen}*/
+	private static final int DEOXYHYDROGEN_REF = -2;
+
+	private final String fragmentType;
+	private final String fragmentSubType;
+
+	private final int[] ids;
+	private final String[] atomTypes;
+	private final ChemEl[] elements;
+	private final int[] charges;
+	private final Integer[] isotopes;
+	private final boolean[] spareValencies;
+	private final int[] protonsExplicitlyAddedOrRemoved;
+	private final Integer[] lambdaConventionValencies;
+	private final Integer[] minimumValencies;
+	private final boolean[] implicitHydrogenAllowed;
+	private final boolean[] inCycle;
+	private final String[][] locants;
+	private final Integer[] smilesHydrogenCounts;
+	private final int[] outValencies;
+	private final Integer[] atomClasses;
+	private final String[] homologyGroups;
+	private final int[][] positionVariationBonds;
+	private final Integer[] oxidationNumbers;
+	private final Boolean[] isAldehyde;
+	private final Boolean[] isAnomeric;
+	private final int[][] ambiguousElementAssignments;
+
+	private final int[][] atomParityRefs;
+	private final int[] atomParities;
+	private final StereoGroup[] atomParityStereoGroups;
+
+	private final int[] bondFrom;
+	private final int[] bondTo;
+	private final int[] bondOrders;
+	private final SMILES_BOND_DIRECTION[] bondSmilesStereochemistry;
+	private final int[][] bondStereoRefs;
+	private final BondStereoValue[] bondStereoValues;
+	/**The indices of each atom's bonds, in the order the atom holds them*/
+	private final int[][] atomBonds;
+
+	private final int[] outAtoms;
+	private final int[] outAtomValencies;
+	private final boolean[] outAtomsSetExplicitly;
+	private final String[] outAtomLocants;
+
+	private final int[] functionalAtoms;
+	/**-1 if the fragment did not have a default in atom*/
+	private final int defaultInAtom;
+
+	private final int[] indicatedHydrogen;
+
+	/**null if the fragment did not have polymer attachment points*/
+	private final int[] polymerAttachmentPoints;
+
+	/**
+	 * Creates a template from the given fragment, which should have been freshly built from SMILES.
+	 * The fragment is not modified
+	 * @param frag
+	 */
+	FragmentTemplate(Fragment frag) {
+		List<Atom> atomList = frag.getAtomList();
+		int atomCount = atomList.size();
+		Map<Atom, Integer> atomToIndex = new HashMap<>();
+		for (int i = 0; i < atomCount; i++) {
+			atomToIndex.put(atomList.get(i), i);
+		}
+		fragmentType = frag.getType();
+		fragmentSubType = frag.getSubType();
+		ids = new int[atomCount];
+		atomTypes = new String[atomCount];
+		elements = new ChemEl[atomCount];
+		charges = new int[atomCount];
+		isotopes = new Integer[atomCount];
+		spareValencies = new boolean[atomCount];
+		protonsExplicitlyAddedOrRemoved = new int[atomCount];
+		lambdaConventionValencies = new Integer[atomCount];
+		minimumValencies = new Integer[atomCount];
+		implicitHydrogenAllowed = new boolean[atomCount];
+		inCycle = new boolean[atomCount];
+		locants = new String[atomCount][];
+		smilesHydrogenCounts = new Integer[atomCount];
+		outValencies = new int[atomCount];
+		atomClasses = new Integer[atomCount];
+		homologyGroups = new String[atomCount];
+		positionVariationBonds = new int[atomCount][];
+		oxidationNumbers = new Integer[atomCount];
+		isAldehyde = new Boolean[atomCount];
+		isAnomeric = new Boolean[atomCount];
+		ambiguousElementAssignments = new int[atomCount][];
+		atomParityRefs = new int[atomCount][];
+		atomParities = new int[atomCount];
+		atomParityStereoGroups = new StereoGroup[atomCount];
+		for (int i = 0; i < atomCount; i++) {
+			Atom atom = atomList.get(i);
+			ids[i] = atom.getID();
+			atomTypes[i] = atom.getType();
+			elements[i] = atom.getElement();
+			charges[i] = atom.getCharge();
+			isotopes[i] = atom.getIsotope();
+			spareValencies[i] = atom.hasSpareValency();
+			protonsExplicitlyAddedOrRemoved[i] = atom.getProtonsExplicitlyAddedOrRemoved();
+			lambdaConventionValencies[i] = atom.getLambdaConventionValency();
+			minimumValencies[i] = atom.getMinimumValency();
+			implicitHydrogenAllowed[i] = atom.getImplicitHydrogenAllowed();
+			inCycle[i] = atom.getAtomIsInACycle();
+			locants[i] = atom.getLocants().toArray(new String[0]);
+			smilesHydrogenCounts[i] = atom.getProperty(Atom.SMILES_HYDROGEN_COUNT);
+			outValencies[i] = atom.getOutValency();
+			atomClasses[i] = atom.getProperty(Atom.ATOM_CLASS);
+			homologyGroups[i] = atom.getProperty(Atom.HOMOLOGY_GROUP);
+			List<Atom> positionVariationBond = atom.getProperty(Atom.POSITION_VARIATION_BOND);
+			if (positionVariationBond != null) {
+				int[] refs = new int[positionVariationBond.size()];
+				for (int j = 0; j < refs.length; j++) {
+					refs[j] = indexOf(atomToIndex, positionVariationBond.get(j));
+				}
+				positionVariationBonds[i] = refs;
+			}
+			oxidationNumbers[i] = atom.getProperty(Atom.OXIDATION_NUMBER);
+			isAldehyde[i] = atom.getProperty(Atom.ISALDEHYDE);
+			isAnomeric[i] = atom.getProperty(Atom.ISANOMERIC);
+			Set<Atom> ambiguousElementAssignment = atom.getProperty(Atom.AMBIGUOUS_ELEMENT_ASSIGNMENT);
+			if (ambiguousElementAssignment != null) {
+				int[] refs = new int[ambiguousElementAssignment.size()];
+				int j = 0;
+				for (Atom ambiguousAtom : ambiguousElementAssignment) {
+					refs[j++] = indexOf(atomToIndex, ambiguousAtom);
+				}
+				ambiguousElementAssignments[i] = refs;
+			}
+			AtomParity atomParity = atom.getAtomParity();
+			if (atomParity != null) {
+				Atom[] atomRefs4 = atomParity.getAtomRefs4();
+				int[] refs = new int[4];
+				for (int j = 0; j < 4; j++) {
+					Atom ref = atomRefs4[j];
+					if (ref == AtomParity.hydrogen) {
+						refs[j] = HYDROGEN_REF;
+					}
+					else if (ref == AtomParity.deoxyHydrogen) {
+						refs[j] = DEOXYHYDROGEN_REF;
+					}
+					else {
+						refs[j] = indexOf(atomToIndex, ref);
+					}
+				}
+				atomParityRefs[i] = refs;
+				atomParities[i] = atomParity.getParity();
+				atomParityStereoGroups[i] = atomParity.getStereoGroup();
+			}
+		}
+
+		Set<Bond> bondSet = frag.getBondSet();
+		int bondCount = bondSet.size();
+		bondFrom = new int[bondCount];
+		bondTo = new int[bondCount];
+		bondOrders = new int[bondCount];
+		bondSmilesStereochemistry = new SMILES_BOND_DIRECTION[bondCount];
+		bondStereoRefs = new int[bondCount][];
+		bondStereoValues = new BondStereoValue[bondCount];
+		Map<Bond, Integer> bondToIndex = new HashMap<>();
+		int bondIdx = 0;
+		for (Bond bond : bondSet) {
+			bondToIndex.put(bond, bondIdx);
+			bondFrom[bondIdx] = indexOf(atomToIndex, bond.getFromAtom());
+			bondTo[bondIdx] = indexOf(atomToIndex, bond.getToAtom());
+			bondOrders[bondIdx] = bond.getOrder();
+			bondSmilesStereochemistry[bondIdx] = bond.getSmilesStereochemistry();
+			BondStereo bondStereo = bond.getBondStereo();
+			if (bondStereo != null) {
+				Atom[] atomRefs4 = bondStereo.getAtomRefs4();
+				int[] refs = new int[4];
+				for (int j = 0; j < 4; j++) {
+					refs[j] = indexOf(atomToIndex, atomRefs4[j]);
+				}
+				bondStereoRefs[bondIdx] = refs;
+				bondStereoValues[bondIdx] = bondStereo.getBondStereoValue();
+			}
+			bondIdx++;
+		}
+		atomBonds = new int[atomCount][];
+		for (int i = 0; i < atomCount; i++) {
+			List<Bond> bonds = atomList.get(i).getBonds();
+			int[] bondIndices = new int[bonds.size()];
+			for (int j = 0; j < bondIndices.length; j++) {
+				Integer idx = bondToIndex.get(bonds.get(j));
+				if (idx == null) {
+					throw new IllegalArgumentException("OPSIN Bug: Bond referenced by fragment template was not in the fragment");
+				}
+				bondIndices[j] = idx;
+			}
+			atomBonds[i] = bondIndices;
+		}
+
+		int outAtomCount = frag.getOutAtomCount();
+		outAtoms = new int[outAtomCount];
+		outAtomValencies = new int[outAtomCount];
+		outAtomsSetExplicitly = new boolean[outAtomCount];
+		outAtomLocants = new String[outAtomCount];
+		for (int i = 0; i < outAtomCount; i++) {
+			OutAtom outAtom = frag.getOutAtom(i);
+			outAtoms[i] = indexOf(atomToIndex, outAtom.getAtom());
+			outAtomValencies[i] = outAtom.getValency();
+			outAtomsSetExplicitly[i] = outAtom.isSetExplicitly();
+			outAtomLocants[i] = outAtom.getLocant();
+		}
+
+		int functionalAtomCount = frag.getFunctionalAtomCount();
+		functionalAtoms = new int[functionalAtomCount];
+		for (int i = 0; i < functionalAtomCount; i++) {
+			functionalAtoms[i] = indexOf(atomToIndex, frag.getFunctionalAtom(i).getAtom());
+		}
+		Atom defaultIn = frag.getDefaultInAtom();
+		defaultInAtom = defaultIn != null ? indexOf(atomToIndex, defaultIn) : -1;
+
+		List<Atom> indicatedHydrogenAtoms = frag.getIndicatedHydrogen();
+		indicatedHydrogen = new int[indicatedHydrogenAtoms.size()];
+		for (int i = 0; i < indicatedHydrogen.length; i++) {
+			indicatedHydrogen[i] = indexOf(atomToIndex, indicatedHydrogenAtoms.get(i));
+		}
+
+		List<Atom> polymerAttachmentAtoms = frag.getPolymerAttachmentPoints();
+		if (polymerAttachmentAtoms != null) {
+			polymerAttachmentPoints = new int[polymerAttachmentAtoms.size()];
+			for (int i = 0; i < polymerAttachmentPoints.length; i++) {
+				polymerAttachmentPoints[i] = indexOf(atomToIndex, polymerAttachmentAtoms.get(i));
+			}
+		}
+		else {
+			polymerAttachmentPoints = null;
+		}
+	}
+
+	private static int indexOf(Map<Atom, Integer> atomToIndex, Atom atom) {
+		Integer idx = atomToIndex.get(atom);
+		if (idx == null) {
+			throw new IllegalArgumentException("OPSIN Bug: Atom referenced by fragment template was not in the fragment");
+		}
+		return idx;
+	}
+
+	/**
+	 * Populates the given empty fragment with the atoms and bonds described by this template.
+	 * Atoms are given ids from the idManager in the order they appear in the template
+	 * @param fragment An empty fragment
+	 * @param idManager
+	 * @return The given fragment
+	 */
+	Fragment instantiate(Fragment fragment, IDManager idManager) {
+		return populate(fragment, idManager);
+	}
+
+	/**
+	 * Creates a copy of the fragment the template was created from, with the same type and subType.
+	 * Atoms are given the same ids and types as the atoms of that fragment
+	 * @return A new fragment
+	 */
+	Fragment instantiateWithOriginalIds() {
+		Element tokenEl = new TokenEl("");
+		tokenEl.addAttribute(TYPE_ATR, fragmentType);
+		tokenEl.addAttribute(SUBTYPE_ATR, fragmentSubType);
+		Fragment fragment = populate(new Fragment(tokenEl), null);
+		//atoms take the type of the fragment they are created in, but may have been given another e.g. if formerly in a suffix
+		int i = 0;
+		for (Atom atom : fragment) {
+			atom.setType(atomTypes[i++]);
+		}
+		return fragment;
+	}
+
+	private Fragment populate(Fragment fragment, IDManager idManager) {
+		int atomCount = elements.length;
+		Atom[] atoms = new Atom[atomCount];
+		for (int i = 0; i < atomCount; i++) {
+			int id = idManager != null ? idManager.getNextID() : ids[i];
+			Atom atom = new Atom(id, elements[i], fragment);
+			fragment.addAtom(atom);
+			for (String locant : locants[i]) {
+				atom.addLocant(locant);
+			}
+			atom.setCharge(charges[i]);
+			atom.setIsotope(isotopes[i]);
+			atom.setSpareValency(spareValencies[i]);
+			atom.setProtonsExplicitlyAddedOrRemoved(protonsExplicitlyAddedOrRemoved[i]);
+			atom.setLambdaConventionValency(lambdaConventionValencies[i]);
+			atom.setMinimumValency(minimumValencies[i]);
+			atom.setImplicitHydrogenAllowed(implicitHydrogenAllowed[i]);
+			atom.setAtomIsInACycle(inCycle[i]);
+			if (smilesHydrogenCounts[i] != null) {
+				atom.setProperty(Atom.SMILES_HYDROGEN_COUNT, smilesHydrogenCounts[i]);
+			}
+			if (atomClasses[i] != null) {
+				atom.setProperty(Atom.ATOM_CLASS, atomClasses[i]);
+			}
+			if (homologyGroups[i] != null) {
+				atom.setProperty(Atom.HOMOLOGY_GROUP, homologyGroups[i]);
+			}
+			if (oxidationNumbers[i] != null) {
+				atom.setProperty(Atom.OXIDATION_NUMBER, oxidationNumbers[i]);
+			}
+			if (isAldehyde[i] != null) {
+				atom.setProperty(Atom.ISALDEHYDE, isAldehyde[i]);
+			}
+			if (isAnomeric[i] != null) {
+				atom.setProperty(Atom.ISANOMERIC, isAnomeric[i]);
+			}
+			atoms[i] = atom;
+		}
+		for (int i = 0; i < atomCount; i++) {
+			int[] pvRefs = positionVariationBonds[i];
+			if (pvRefs != null) {
+				List<Atom> positionVariationBond = new ArrayList<>(pvRefs.length);
+				for (int ref : pvRefs) {
+					positionVariationBond.add(atoms[ref]);
+				}
+				atoms[i].setProperty(Atom.POSITION_VARIATION_BOND, positionVariationBond);
+			}
+			int[] ambiguousRefs = ambiguousElementAssignments[i];
+			if (ambiguousRefs != null) {
+				Set<Atom> ambiguousElementAssignment = new LinkedHashSet<>();
+				for (int ref : ambiguousRefs) {
+					ambiguousElementAssignment.add(atoms[ref]);
+				}
+				atoms[i].setProperty(Atom.AMBIGUOUS_ELEMENT_ASSIGNMENT, ambiguousElementAssignment);
+			}
+			int[] refs = atomParityRefs[i];
+			if (refs != null) {
+				Atom[] atomRefs4 = new Atom[4];
+				for (int j = 0; j < 4; j++) {
+					int ref = refs[j];
+					if (ref == HYDROGEN_REF) {
+						atomRefs4[j] = AtomParity.hydrogen;
+					}
+					else if (ref == DEOXYHYDROGEN_REF) {
+						atomRefs4[j] = AtomParity.deoxyHydrogen;
+					}
+					else {
+						atomRefs4[j] = atoms[ref];
+					}
+				}
+				AtomParity atomParity = new AtomParity(atomRefs4, atomParities[i]);
+				atomParity.setStereoGroup(atomParityStereoGroups[i]);
+				atoms[i].setAtomParity(atomParity);
+			}
+		}
+		Bond[] bonds = new Bond[bondOrders.length];
+		for (int i = 0; i < bondOrders.length; i++) {
+			Bond bond = new Bond(atoms[bondFrom[i]], atoms[bondTo[i]], bondOrders[i]);
+			bonds[i] = bond;
+			fragment.addBond(bond);
+			bond.setSmilesStereochemistry(bondSmilesStereochemistry[i]);
+			int[] refs = bondStereoRefs[i];
+			if (refs != null) {
+				bond.setBondStereoElement(new Atom[]{atoms[refs[0]], atoms[refs[1]], atoms[refs[2]], atoms[refs[3]]}, bondStereoValues[i]);
+			}
+		}
+		for (int i = 0; i < atomCount; i++) {
+			Atom atom = atoms[i];
+			for (int bondIdx : atomBonds[i]) {
+				atom.addBond(bonds[bondIdx]);
+			}
+		}
+		for (int i = 0; i < outAtoms.length; i++) {
+			fragment.addOutAtom(atoms[outAtoms[i]], outAtomValencies[i], outAtomsSetExplicitly[i]);
+			if (outAtomLocants[i] != null) {
+				fragment.getOutAtom(fragment.getOutAtomCount() - 1).setLocant(outAtomLocants[i]);
+			}
+		}
+		for (int idx : functionalAtoms) {
+			fragment.addFunctionalAtom(atoms[idx]);
+		}
+		if (defaultInAtom >= 0) {
+			fragment.setDefaultInAtom(atoms[defaultInAtom]);
+		}
+		for (int idx : indicatedHydrogen) {
+			fragment.addIndicatedHydrogen(atoms[idx]);
+		}
+		if (polymerAttachmentPoints != null) {
+			List<Atom> polymerAttachmentAtoms = new ArrayList<>(polymerAttachmentPoints.length);
+			for (int idx : polymerAttachmentPoints) {
+				polymerAttachmentAtoms.add(atoms[idx]);
+			}
+			fragment.setPolymerAttachmentPoints(polymerAttachmentAtoms);
+		}
+		for (int i = 0; i < atomCount; i++) {
+			int outValencyCorrection = outValencies[i] - atoms[i].getOutValency();
+			if (outValencyCorrection != 0) {
+				atoms[i].addOutValency(outValencyCorrection);
+			}
+		}
+		return fragment;
+	}
+}
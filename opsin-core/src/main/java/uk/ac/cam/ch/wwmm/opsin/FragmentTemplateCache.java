@@ -0,0 +1,86 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe, least recently used cache of {@link FragmentTemplate}s, keyed by labelMapping and SMILES.
+ * As for {@link ParseRulesCache}, the cache is split into segments, each guarded by its own lock, to reduce contention when used from multiple threads
+ *
+ */
+class FragmentTemplateCache {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private final Segment[] segments;
+
+	/**
+	 * @param maxSize The maximum number of templates to retain
+	 */
+	FragmentTemplateCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		int segmentCount = Math.min(SEGMENT_COUNT, maxSize);
+		int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * Returns the cached template for the given key, or null if not present
+	 * @param key
+	 * @return
+	 */
+	FragmentTemplate get(String key) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	/**
+	 * Caches the template for the given key, evicting the least recently used template if the cache is full
+	 * @param key
+	 * @param template
+	 */
+	void put(String key, FragmentTemplate template) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, template);
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	private static class Segment extends LinkedHashMap<String, FragmentTemplate> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FragmentTemplate> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
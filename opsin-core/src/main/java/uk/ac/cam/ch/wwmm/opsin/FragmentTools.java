@@ -25,9 +25,16 @@ import static uk.ac.cam.ch.wwmm.opsin.XmlDeclarations.*;
  */
 class SortAtomsForElementSymbols implements Comparator<Atom> {
 
+	/**The order of the bond by which each atom was reached */
+	private final Map<Atom, Integer> bondOrders;
+
+	SortAtomsForElementSymbols(Map<Atom, Integer> bondOrders) {
+		this.bondOrders = bondOrders;
+	}
+
 	public int compare(Atom a, Atom b){
-		int bondOrderA = a.getProperty(Atom.VISITED);
-		int bondOrderB = b.getProperty(Atom.VISITED);
+		int bondOrderA = bondOrders.get(a);
+		int bondOrderB = bondOrders.get(b);
     	if (bondOrderA > bondOrderB) {//lower order bond is preferred
     		return 1;
     	}
@@ -276,30 +283,32 @@ class FragmentTools {
 	private static void processSuffixLabelling(List<Fragment> suffixFragments, Map<String, Integer> elementCount, Set<Atom> atomsToIgnore) {
 		List<Atom> startingAtoms = new ArrayList<>();
 		Set<Atom> atomsVisited = new HashSet<>();
+		Map<Atom, Integer> bondOrders = new HashMap<>();
 		for (Fragment fragment : suffixFragments) {
 			Atom rAtom = fragment.getFirstAtom();
-			List<Atom> nextAtoms = getIntraFragmentNeighboursAndSetVisitedBondOrder(rAtom);
+			List<Atom> nextAtoms = getIntraFragmentNeighboursAndRecordBondOrder(rAtom, bondOrders);
 			atomsVisited.addAll(nextAtoms);
 			startingAtoms.addAll(nextAtoms);
 		}
-		Collections.sort(startingAtoms, new SortAtomsForElementSymbols());
+		Collections.sort(startingAtoms, new SortAtomsForElementSymbols(bondOrders));
 
 		Deque<Atom> atomsToConsider = new ArrayDeque<>(startingAtoms);
 		while (atomsToConsider.size() > 0){
-			assignLocantsAndExploreNeighbours(elementCount, atomsToIgnore, atomsVisited, atomsToConsider);
+			assignLocantsAndExploreNeighbours(elementCount, atomsToIgnore, atomsVisited, atomsToConsider, bondOrders);
 		}
 	}
 
 	private static void processNonCarboxylicAcidLabelling(Fragment suffixableFragment, Map<String, Integer> elementCount, Set<Atom> atomsToIgnore) {
 		Set<Atom> atomsVisited = new HashSet<>();
+		Map<Atom, Integer> bondOrders = new HashMap<>();
 		Atom firstAtom = suffixableFragment.getFirstAtom();
-		List<Atom> startingAtoms = getIntraFragmentNeighboursAndSetVisitedBondOrder(firstAtom);
+		List<Atom> startingAtoms = getIntraFragmentNeighboursAndRecordBondOrder(firstAtom, bondOrders);
 		
-		Collections.sort(startingAtoms, new SortAtomsForElementSymbols());
+		Collections.sort(startingAtoms, new SortAtomsForElementSymbols(bondOrders));
 		atomsVisited.add(firstAtom);
 		Deque<Atom> atomsToConsider = new ArrayDeque<>(startingAtoms);
 		while (atomsToConsider.size() > 0){
-			assignLocantsAndExploreNeighbours(elementCount, atomsToIgnore, atomsVisited, atomsToConsider);
+			assignLocantsAndExploreNeighbours(elementCount, atomsToIgnore, atomsVisited, atomsToConsider, bondOrders);
 		}
 		if (!atomsToIgnore.contains(firstAtom) && firstAtom.determineValency(true) > firstAtom.getIncomingValency()) {
 			//e.g. carbonimidoyl the carbon has locant C
@@ -307,15 +316,15 @@ class FragmentTools {
 		}
 	}
 
-	private static void assignLocantsAndExploreNeighbours(Map<String, Integer> elementCount, Set<Atom> atomsToIgnore, Set<Atom> atomsVisited, Deque<Atom> atomsToConsider) {
+	private static void assignLocantsAndExploreNeighbours(Map<String, Integer> elementCount, Set<Atom> atomsToIgnore, Set<Atom> atomsVisited, Deque<Atom> atomsToConsider, Map<Atom, Integer> bondOrders) {
 		Atom atom = atomsToConsider.removeFirst();
 		atomsVisited.add(atom);
 		if (!atomsToIgnore.contains(atom)) {//assign locant
 			assignLocant(atom, elementCount);
 		}
-		List<Atom> atomsToExplore = getIntraFragmentNeighboursAndSetVisitedBondOrder(atom);
+		List<Atom> atomsToExplore = getIntraFragmentNeighboursAndRecordBondOrder(atom, bondOrders);
 		atomsToExplore.removeAll(atomsVisited);
-		Collections.sort(atomsToExplore, new SortAtomsForElementSymbols());
+		Collections.sort(atomsToExplore, new SortAtomsForElementSymbols(bondOrders));
 		for (int i = atomsToExplore.size() - 1; i >= 0; i--) {
 			atomsToConsider.addFirst(atomsToExplore.get(i));
 		}
@@ -323,18 +332,19 @@ class FragmentTools {
 
 	/**
 	 * Gets the neighbours of an atom that claim to be within the same frag
-	 * The order of bond taken to get to the neighbour is set on the neighbours Atom.VISITED property
+	 * The order of bond taken to get to each neighbour is recorded in bondOrders
 	 * @param atom
+	 * @param bondOrders
 	 * @return
 	 */
-	private static List<Atom> getIntraFragmentNeighboursAndSetVisitedBondOrder(Atom atom) {
+	private static List<Atom> getIntraFragmentNeighboursAndRecordBondOrder(Atom atom, Map<Atom, Integer> bondOrders) {
 		List<Atom> atomsToExplore = new ArrayList<>();
 		List<Bond> bonds = atom.getBonds();
 		for (Bond bond : bonds) {
 			Atom neighbour = bond.getOtherAtom(atom);
 			if (neighbour.getFrag().equals(atom.getFrag())) {
 				atomsToExplore.add(neighbour);
-				neighbour.setProperty(Atom.VISITED, bond.getOrder());
+				bondOrders.put(neighbour, bond.getOrder());
 			}
 		}
 		return atomsToExplore;
@@ -735,7 +745,8 @@ class FragmentTools {
 
 		List<Atom> startingAtoms = new ArrayList<>();
 		Set<Atom> atomsVisited = new HashSet<>();
-		List<Atom> neighbours = getIntraFragmentNeighboursAndSetVisitedBondOrder(backboneAtom);
+		Map<Atom, Integer> bondOrders = new HashMap<>();
+		List<Atom> neighbours = getIntraFragmentNeighboursAndRecordBondOrder(backboneAtom, bondOrders);
 		mainLoop: for (Atom neighbour : neighbours) {
 			atomsVisited.add(neighbour);
 			if (!neighbour.getType().equals(SUFFIX_TYPE_VAL)){
@@ -748,7 +759,7 @@ class FragmentTools {
 			startingAtoms.add(neighbour);
 		}
 
-		Collections.sort(startingAtoms, new SortAtomsForElementSymbols());
+		Collections.sort(startingAtoms, new SortAtomsForElementSymbols(bondOrders));
 		Map<String,Integer> elementCount = new HashMap<>();//keeps track of how many times each element has been seen
 	
 		Deque<Atom> atomsToConsider = new ArrayDeque<>(startingAtoms);
@@ -773,7 +784,7 @@ class FragmentTools {
 				hydrazoneSpecialCase =false;
 			}
 
-			List<Atom> atomNeighbours = getIntraFragmentNeighboursAndSetVisitedBondOrder(atom);
+			List<Atom> atomNeighbours = getIntraFragmentNeighboursAndRecordBondOrder(atom, bondOrders);
 			atomNeighbours.removeAll(atomsVisited);
 			for (int i = atomNeighbours.size() -1; i >=0; i--) {
 				Atom neighbour = atomNeighbours.get(i);
@@ -798,7 +809,7 @@ class FragmentTools {
 				}
 			}
 
-			Collections.sort(atomNeighbours, new SortAtomsForElementSymbols());
+			Collections.sort(atomNeighbours, new SortAtomsForElementSymbols(bondOrders));
 			for (int i = atomNeighbours.size() - 1; i >= 0; i--) {
 				atomsToConsider.addFirst(atomNeighbours.get(i));
 			}
@@ -243,7 +243,7 @@ class FusedRingBuilder {
 		}
 		removeMergedAtoms();
 
-		FusedRingNumberer.numberFusedRing(parentRing);//numbers the fused ring;
+		FusedRingNumberer.numberFusedRing(parentRing, state.n2sConfig.getFusedRingNumberingBudget());//numbers the fused ring;
 
 		StringBuilder fusedRingName = new StringBuilder();
 		for (Element element : nameComponents) {
@@ -957,7 +957,7 @@ class FusedRingBuilder {
 		performSimpleFusion(null, benzoRing , parentRing);
 		state.fragManager.incorporateFragment(benzoRing, parentRing);
 		removeMergedAtoms();
-		FusedRingNumberer.numberFusedRing(parentRing);//numbers the fused ring;
+		FusedRingNumberer.numberFusedRing(parentRing, state.n2sConfig.getFusedRingNumberingBudget());//numbers the fused ring;
 		Fragment fusedRing =parentRing;
 		setBenzoHeteroatomPositioning(benzoEl, fusedRing);
 	}
@@ -5,10 +5,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -22,6 +24,35 @@ import org.apache.logging.log4j.Logger;
 class FusedRingNumberer {
 	
 	private static final Logger LOG = LogManager.getLogger(FusedRingNumberer.class);
+	/**The same fused ring systems recur frequently, so their numbering is cached to avoid repeating the search for the preferred numbering*/
+	private static final FusedRingNumberingCache numberingCache = new FusedRingNumberingCache(1000);
+
+	/**The default maximum number of steps (ring connection tables, ring maps and candidate numberings) considered when numbering a fused ring system*/
+	static final int DEFAULT_SEARCH_BUDGET = 10000;
+
+	/**
+	 * Counts the steps taken in searching for the preferred numbering of a fused ring system,
+	 * failing if the search exceeds its budget
+	 */
+	private static class SearchBudget {
+		private final int maxSteps;
+		private int steps = 0;
+
+		SearchBudget(int maxSteps) {
+			this.maxSteps = maxSteps;
+		}
+
+		int getSteps() {
+			return steps;
+		}
+
+		void consume() throws StructureBuildingException {
+			OpsinTools.checkForInterrupt();
+			if (++steps > maxSteps) {
+				throw new StructureBuildingException("Fused ring system is too complex to number: the search for its preferred numbering exceeded the limit of " + maxSteps + " steps");
+			}
+		}
+	}
 	private static class RingConnectivityTable {
 		final List<RingShape> ringShapes = new ArrayList<>();
 		final List<Ring> neighbouringRings = new ArrayList<>();
@@ -257,38 +288,74 @@ class FusedRingNumberer {
 	 * @throws StructureBuildingException
 	 */
 	static void numberFusedRing(Fragment fusedRing) throws StructureBuildingException {
-		List<Ring> rings = SSSRFinder.getSetOfSmallestRings(fusedRing);
-		if (rings.size() <2) {
-			throw new StructureBuildingException("Ring perception system found less than 2 rings within input fragment!");
-		}
+		numberFusedRing(fusedRing, DEFAULT_SEARCH_BUDGET);
+	}
+
+	/**
+	 * Numbers the fused ring, failing if more than the given number of steps are required to find the preferred numbering
+	 * @param fusedRing
+	 * @param searchBudget
+	 * @throws StructureBuildingException
+	 */
+	static void numberFusedRing(Fragment fusedRing, int searchBudget) throws StructureBuildingException {
 		List<Atom> atomList = fusedRing.getAtomList();
-		setupAdjacentFusedRingProperties(rings);
-		if (!checkRingApplicability(rings)) {
-			for (Atom atom : atomList) {
-				atom.clearLocants();
+		String key = FusedRingNumberingCache.generateKey(fusedRing);
+		if (key != null) {
+			int[] atomOrder = numberingCache.get(key, searchBudget);
+			if (atomOrder != null) {
+				applyNumbering(fusedRing, atomList, atomOrder != FusedRingNumberingCache.NOT_NUMBERABLE ? FusedRingNumberingCache.toAtomSequence(atomList, atomOrder) : null);
+				return;
 			}
-			return;
 		}
-		List<List<Atom>> atomSequences = determinePossiblePeripheryAtomOrders(rings, atomList.size());
-		if (atomSequences.isEmpty()){
+		SearchBudget budget = new SearchBudget(searchBudget);
+		List<Atom> preferredAtomSequence = determinePreferredAtomSequence(fusedRing, atomList, budget);
+		if (key != null) {
+			numberingCache.put(key, preferredAtomSequence != null ? FusedRingNumberingCache.fromAtomSequence(atomList, preferredAtomSequence) : FusedRingNumberingCache.NOT_NUMBERABLE, budget.getSteps());
+		}
+		applyNumbering(fusedRing, atomList, preferredAtomSequence);
+	}
+
+	/**
+	 * Relabels the fused ring using the given sequence of atoms, or if this is null clears its locants
+	 * @param fusedRing
+	 * @param atomList
+	 * @param atomSequence
+	 * @throws StructureBuildingException
+	 */
+	private static void applyNumbering(Fragment fusedRing, List<Atom> atomList, List<Atom> atomSequence) throws StructureBuildingException {
+		if (atomSequence == null) {
 			for (Atom atom : atomList) {
 				atom.clearLocants();
 			}
 			return;
 		}
+		FragmentTools.relabelLocantsAsFusedRingSystem(atomSequence);
+		fusedRing.reorderAtomCollection(atomSequence);
+	}
 
-		// add missing atoms to each path
-		for (List<Atom> path : atomSequences) {//TODO properly support interior atom labelling
-			for(Atom atom : atomList) {
-				if(!path.contains(atom)) {
-					path.add(atom);
-				}
-			}
+	/**
+	 * Finds the sequence of atoms corresponding to the preferred numbering of the fused ring,
+	 * or null if this cannot be determined
+	 * @param fusedRing
+	 * @param atomList
+	 * @param budget
+	 * @return
+	 * @throws StructureBuildingException
+	 */
+	private static List<Atom> determinePreferredAtomSequence(Fragment fusedRing, List<Atom> atomList, SearchBudget budget) throws StructureBuildingException {
+		List<Ring> rings = SSSRFinder.getSetOfSmallestRings(fusedRing);
+		if (rings.size() <2) {
+			throw new StructureBuildingException("Ring perception system found less than 2 rings within input fragment!");
 		}
-		// find the preferred numbering scheme then relabel with this scheme
-		Collections.sort(atomSequences, new SortAtomSequences());
-		FragmentTools.relabelLocantsAsFusedRingSystem(atomSequences.get(0));
-		fusedRing.reorderAtomCollection(atomSequences.get(0));
+		setupAdjacentFusedRingProperties(rings);
+		if (!checkRingApplicability(rings)) {
+			return null;
+		}
+		return determinePreferredPeripheryAtomOrder(rings, atomList, budget);
+	}
+
+	static FusedRingNumberingCache getNumberingCache() {
+		return numberingCache;
 	}
 
 	/**
@@ -329,15 +396,17 @@ class FusedRingNumberer {
 	}
 
 	/**
-	 * Returns possible enumerations of atoms. Currently Interior atoms are not considered.
-	 * These enumerations will be compliant with rules FR5.1-FR5.3 of the fused ring nomenclature guidelines
+	 * Returns the preferred enumeration of atoms, or null if none was found. Currently Interior atoms are not considered.
+	 * Possible enumerations will be compliant with rules FR5.1-FR5.3 of the fused ring nomenclature guidelines
 	 * http://www.chem.qmul.ac.uk/iupac/fusedring/FR51.html
+	 * and FR5.4 is then used to choose between them
 	 * @param rings
-	 * @param atomCountOfFusedRingSystem 
+	 * @param atomList 
+	 * @param budget
 	 * @return
 	 * @throws StructureBuildingException
 	 */
-	private static List<List<Atom>> determinePossiblePeripheryAtomOrders(List<Ring> rings, int atomCountOfFusedRingSystem) throws StructureBuildingException {
+	private static List<Atom> determinePreferredPeripheryAtomOrder(List<Ring> rings, List<Atom> atomList, SearchBudget budget) throws StructureBuildingException {
 		List<Ring> tRings = findTerminalRings(rings);
 		if (tRings.size()<1) {
 			throw new RuntimeException("OPSIN bug: Unable to find a terminal ring in fused ring system");
@@ -351,7 +420,8 @@ class FusedRingNumberer {
 		List<RingConnectivityTable> cts = new ArrayList<>();
 		RingConnectivityTable startingCT = new RingConnectivityTable();
 		cts.add(startingCT);
-		buildRingConnectionTables(tRing, null, 0, b1, b1.getFromAtom(), startingCT, cts);
+		budget.consume();
+		buildRingConnectionTables(tRing, null, 0, b1, b1.getFromAtom(), startingCT, cts, budget);
 		//The preference against fusion to elongated edges is built into the construction of the ring table
 		
 		/* FR 5.1.1/FR 5.1.2 Preferred shapes preferred to distorted shapes */
@@ -360,9 +430,9 @@ class FusedRingNumberer {
 
 		/* FR-5.2a. Maximum number of rings in a horizontal row */
 		Map<RingConnectivityTable, List<Integer>> horizonalRowDirections = findLongestChainDirections(cts);
-		List<Ring[][]> ringMaps = createRingMapsAlignedAlongGivenhorizonalRowDirections(horizonalRowDirections);
+		List<Ring[][]> ringMaps = createRingMapsAlignedAlongGivenhorizonalRowDirections(horizonalRowDirections, budget);
 		/* FR-5.2b-d */
-		return findPossiblePaths(ringMaps, atomCountOfFusedRingSystem);
+		return findPreferredPath(ringMaps, atomList, budget);
 	}
 
 	/**
@@ -397,9 +467,11 @@ class FusedRingNumberer {
 	 * @param atom
 	 * @param ct
 	 * @param cts
+	 * @param budget
 	 * @return
+	 * @throws StructureBuildingException
 	 */
-	private static List<RingConnectivityTable> buildRingConnectionTables(Ring currentRing, Ring previousRing, int previousDir, Bond previousBond, Atom atom, RingConnectivityTable ct, List<RingConnectivityTable> cts) {
+	private static List<RingConnectivityTable> buildRingConnectionTables(Ring currentRing, Ring previousRing, int previousDir, Bond previousBond, Atom atom, RingConnectivityTable ct, List<RingConnectivityTable> cts, SearchBudget budget) throws StructureBuildingException {
 		// order atoms and bonds in the ring
 		currentRing.makeCyclicLists(previousBond, atom);
 		List<RingConnectivityTable> generatedCts = new ArrayList<>();
@@ -417,6 +489,7 @@ class FusedRingNumberer {
 			else{
 				currentCT = ct.copy();
 				cts.add(currentCT);
+				budget.consume();
 				generatedCts.add(currentCT);
 			}
 			RingShape ringShape = new RingShape(currentRing, fusionRingShape);
@@ -448,7 +521,7 @@ class FusedRingNumberer {
 					List<RingConnectivityTable> newCts = new ArrayList<>();
 					for (RingConnectivityTable ctToExpand : ctsToExpand) {
 						Atom a = getAtomFromBond(currentRing, currentBond);
-						List<RingConnectivityTable> generatedDownStreamCts = buildRingConnectionTables(neighbourRing, currentRing, dir, currentBond, a, ctToExpand, cts);
+						List<RingConnectivityTable> generatedDownStreamCts = buildRingConnectionTables(neighbourRing, currentRing, dir, currentBond, a, ctToExpand, cts, budget);
 						newCts.addAll(generatedDownStreamCts);
 					}
 					ctsToExpand.addAll(newCts);
@@ -990,10 +1063,11 @@ class FusedRingNumberer {
 	/**
 	 * For each RingConnectivityTable and for each horizontal row direction creates a ringMap aligned along the given horizontal row direction
 	 * @param horizonalRowDirectionsMap
+	 * @param budget
 	 * @return
 	 * @throws StructureBuildingException
 	 */
-	private static List<Ring[][]> createRingMapsAlignedAlongGivenhorizonalRowDirections(Map<RingConnectivityTable, List<Integer>> horizonalRowDirectionsMap) throws StructureBuildingException {
+	private static List<Ring[][]> createRingMapsAlignedAlongGivenhorizonalRowDirections(Map<RingConnectivityTable, List<Integer>> horizonalRowDirectionsMap, SearchBudget budget) throws StructureBuildingException {
 		List<Ring[][]> ringMaps = new ArrayList<>();
 		for (Entry<RingConnectivityTable, List<Integer>> entry : horizonalRowDirectionsMap.entrySet()) {
 			RingConnectivityTable ct = entry.getKey();
@@ -1002,6 +1076,7 @@ class FusedRingNumberer {
 			}
 			int ctEntriesSize = ct.ringShapes.size();
 			for (Integer horizonalRowDirection : entry.getValue()) {
+				budget.consume();
 				int[] directionFromRingToNeighbouringRing = new int[ctEntriesSize];
 				// turn the ring system such as to be aligned along the horizonalRowDirection
 				for(int i=0; i<ctEntriesSize; i++){
@@ -1021,12 +1096,17 @@ class FusedRingNumberer {
 	}
 
 	/**
-	 * Applies FR5.2 B, C and D to determine the preferred orientation and returns lists of potential peripheral atom orderings
+	 * Applies FR5.2 B, C and D to determine the preferred orientations, then returns the preferred of their peripheral atom orderings.
+	 * Each ordering is compared against the best found so far, rather than retaining them all.
+	 * Atoms not on the periphery follow the peripheral atoms, in the order they appear in atomList
 	 * @param ringMaps
-	 * @param atomCountOfFusedRingSystem 
-	 * @return
+	 * @param atomList 
+	 * @param budget
+	 * @return the preferred ordering, or null if there were none
+	 * @throws StructureBuildingException
 	 */
-	private static List<List<Atom>> findPossiblePaths(List<Ring[][]> ringMaps, int atomCountOfFusedRingSystem){
+	private static List<Atom> findPreferredPath(List<Ring[][]> ringMaps, List<Atom> atomList, SearchBudget budget) throws StructureBuildingException {
+		int atomCountOfFusedRingSystem = atomList.size();
 		List<Double[]> chainQs = new ArrayList<>();
 		List<Ring[][]> correspondingRingMap = new ArrayList<>();
 		for (Ring[][] ringMap : ringMaps) {
@@ -1053,7 +1133,8 @@ class FusedRingNumberer {
 		//  order for each right corner candidates for each chain
 		List<List<Integer>> allowedUpperRightQuadrantsForEachChain =rulesBCD(chainQs);
 
-		List<List<Atom>> paths = new ArrayList<> ();
+		SortAtomSequences sortAtomSequences = new SortAtomSequences();
+		List<Atom> preferredPath = null;
 		for (int c=0; c < chainQs.size(); c++) {
 			Ring[][] ringMap = correspondingRingMap.get(c);
 			List<Integer> allowedUpperRightQuadrants = allowedUpperRightQuadrantsForEachChain.get(c);
@@ -1064,12 +1145,31 @@ class FusedRingNumberer {
 					debugRingMap(qRingMap);
 				}
 				boolean inverseAtoms = (upperRightQuadrant == 2 || upperRightQuadrant == 0);
-				List<Atom> peripheralAtomPath = orderAtoms(qRingMap, inverseAtoms, atomCountOfFusedRingSystem);
-				paths.add(peripheralAtomPath);
+				budget.consume();
+				List<Atom> path = orderAtoms(qRingMap, inverseAtoms, atomCountOfFusedRingSystem);
+				addNonPeripheralAtoms(path, atomList);
+				//only a strictly preferred path replaces the current one, so ties are resolved in favour of the first path found
+				if (preferredPath == null || sortAtomSequences.compare(path, preferredPath) < 0) {
+					preferredPath = path;
+				}
 			}
 		}
+		return preferredPath;
+	}
 
-		return paths;
+	/**
+	 * Adds the atoms not in the given path to the end of the path, in the order they appear in atomList
+	 * @param path
+	 * @param atomList
+	 */
+	private static void addNonPeripheralAtoms(List<Atom> path, List<Atom> atomList) {//TODO properly support interior atom labelling
+		Set<Atom> atomsInPath = Collections.newSetFromMap(new IdentityHashMap<Atom, Boolean>());
+		atomsInPath.addAll(path);
+		for (Atom atom : atomList) {
+			if (!atomsInPath.contains(atom)) {
+				path.add(atom);
+			}
+		}
 	}
 
 	private static Ring[][] generateRingMap(RingConnectivityTable ct, int[] directionFromRingToNeighbouringRing) {
@@ -0,0 +1,169 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe, least recently used cache of the numbering chosen by {@link FusedRingNumberer} for a fused ring system.<br>
+ * Fused ring systems are keyed by their connection table: the element and ordered bonds of each atom, in the fragment's atom order.
+ * As this is everything the numbering algorithm considers, a fused ring system with the same key is numbered identically,
+ * including where ties between equally preferred numberings are broken by atom order.<br>
+ * Each numbering is stored with the number of search steps that were required to find it, so that a numbering is only
+ * returned to callers whose search budget would have allowed them to find it.
+ *
+ */
+class FusedRingNumberingCache {
+
+	/**Indicates that the ring system could not be numbered, and hence that its locants should be cleared*/
+	static final int[] NOT_NUMBERABLE = new int[0];
+
+	private final LinkedHashMap<String, CachedNumbering> cache;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param maxSize The maximum number of fused ring systems to retain numberings for
+	 */
+	FusedRingNumberingCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		cache = new LinkedHashMap<String, CachedNumbering>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedNumbering> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Generates the key for the given fused ring system.
+	 * Returns null if the fragment cannot be cached e.g. as it is bonded to atoms outside itself
+	 * @param fusedRing
+	 * @return
+	 */
+	static String generateKey(Fragment fusedRing) {
+		List<Atom> atomList = fusedRing.getAtomList();
+		int atomCount = atomList.size();
+		if (atomCount > Character.MAX_VALUE / 2) {
+			return null;
+		}
+		Map<Atom, Integer> atomToIndex = indexAtoms(atomList);
+		StringBuilder sb = new StringBuilder(atomCount * 5);
+		for (Atom atom : atomList) {
+			List<Bond> bonds = atom.getBonds();
+			sb.append((char) atom.getElement().ordinal());
+			sb.append((char) bonds.size());
+			for (Bond bond : bonds) {
+				boolean isFromAtom = bond.getFromAtom() == atom;
+				Atom otherAtom = isFromAtom ? bond.getToAtom() : bond.getFromAtom();
+				Integer otherAtomIndex = atomToIndex.get(otherAtom);
+				if (otherAtomIndex == null) {
+					return null;
+				}
+				//bond direction is significant as it determines the order of atoms in perceived rings
+				sb.append((char) (otherAtomIndex * 2 + (isFromAtom ? 1 : 0)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the numbering of the fused ring system with the given key, or null if not present
+	 * or if finding it required more than the given number of search steps.
+	 * The numbering is given as indices into the fragment's atom list in the order they should be numbered,
+	 * or {@link #NOT_NUMBERABLE}
+	 * @param key
+	 * @param searchBudget
+	 * @return
+	 */
+	synchronized int[] get(String key, int searchBudget) {
+		CachedNumbering numbering = cache.get(key);
+		if (numbering != null && numbering.steps <= searchBudget) {
+			hits++;
+			return numbering.atomOrder;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Caches the numbering of the given fused ring system, evicting the least recently used entry if the cache is full
+	 * @param key
+	 * @param atomOrder
+	 * @param steps The number of search steps required to find the numbering
+	 */
+	synchronized void put(String key, int[] atomOrder, int steps) {
+		cache.put(key, new CachedNumbering(atomOrder, steps));
+	}
+
+	/**
+	 * Converts the given numbering, as retrieved from this cache, to an ordering of the fragment's atoms
+	 * @param atomList
+	 * @param atomOrder
+	 * @return
+	 */
+	static List<Atom> toAtomSequence(List<Atom> atomList, int[] atomOrder) {
+		List<Atom> atomSequence = new ArrayList<>(atomOrder.length);
+		for (int idx : atomOrder) {
+			atomSequence.add(atomList.get(idx));
+		}
+		return atomSequence;
+	}
+
+	/**
+	 * Converts the given ordering of the fragment's atoms to the form stored in this cache
+	 * @param atomList
+	 * @param atomSequence
+	 * @return
+	 */
+	static int[] fromAtomSequence(List<Atom> atomList, List<Atom> atomSequence) {
+		Map<Atom, Integer> atomToIndex = indexAtoms(atomList);
+		int[] atomOrder = new int[atomSequence.size()];
+		for (int i = 0; i < atomOrder.length; i++) {
+			atomOrder[i] = atomToIndex.get(atomSequence.get(i));
+		}
+		return atomOrder;
+	}
+
+	private static Map<Atom, Integer> indexAtoms(List<Atom> atomList) {
+		Map<Atom, Integer> atomToIndex = new IdentityHashMap<>(atomList.size());
+		for (int i = 0; i < atomList.size(); i++) {
+			atomToIndex.put(atomList.get(i), i);
+		}
+		return atomToIndex;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	synchronized int size() {
+		return cache.size();
+	}
+
+	synchronized void clear() {
+		cache.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	private static class CachedNumbering {
+		private final int[] atomOrder;
+		private final int steps;
+
+		CachedNumbering(int[] atomOrder, int steps) {
+			this.atomOrder = atomOrder;
+			this.steps = steps;
+		}
+	}
+}
@@ -27,4 +27,9 @@ class IDManager {
 		return currentID;
 	}
 
+	/**Restarts the sequence, such that 1 will be generated next*/
+	void reset() {
+		currentID = 0;
+	}
+
 }
@@ -0,0 +1,200 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes {@link OpsinResult}s as JSON lines i.e. one compact JSON object per line.
+ * Each record holds the name, status, message and types of warnings of the result, any requested structure formats
+ * (e.g. SMILES, InChI) and, if they were collected, the result's timings. e.g.
+ * <pre>
+ * {"name":"ethanol","status":"SUCCESS","message":"","warnings":[],"smi":"C(C)O"}
+ * </pre>
+ * Strings are escaped as they are written, so no intermediate Strings are created.<br>
+ * This class is not thread-safe.
+ *
+ */
+public class JsonLinesWriter implements Closeable, Flushable {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	/**Holds the digits of a number whilst it is being written*/
+	private final char[] digits = new char[20];
+
+	/**
+	 * Creates a writer that writes buffered UTF-8 to the given stream.
+	 * The stream is closed when this writer is closed
+	 * @param out
+	 */
+	public JsonLinesWriter(OutputStream out) {
+		this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Creates a writer that writes to the given Writer, which should be buffered.
+	 * The Writer is closed when this writer is closed
+	 * @param out
+	 */
+	public JsonLinesWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes a record for the given result, including its SMILES
+	 * @param result
+	 * @throws IOException
+	 */
+	public void write(OpsinResult result) throws IOException {
+		write(result, new String[]{"smi"}, new String[]{result.getSmiles()});
+	}
+
+	/**
+	 * Writes a record for the given result, including the given structure formats.
+	 * Formats whose value is null e.g. as the conversion failed, are written as null
+	 * @param result
+	 * @param formatNames the names of the formats e.g. "smi", "stdinchikey"
+	 * @param formatValues the result in each of the formats, in the same order as formatNames
+	 * @throws IOException
+	 */
+	public void write(OpsinResult result, String[] formatNames, String[] formatValues) throws IOException {
+		if (formatNames.length != formatValues.length) {
+			throw new IllegalArgumentException("Each format must have a name and a value");
+		}
+		out.write("{\"name\":");
+		writeString(result.getChemicalName());
+		out.write(",\"status\":");
+		writeString(result.getStatus().name());
+		out.write(",\"message\":");
+		writeString(result.getMessage());
+		out.write(",\"warnings\":[");
+		List<OpsinWarning> warnings = result.getWarnings();
+		for (int i = 0, l = warnings.size(); i < l; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			writeString(warnings.get(i).getType().name());
+		}
+		out.write(']');
+		for (int i = 0; i < formatNames.length; i++) {
+			out.write(',');
+			writeString(formatNames[i]);
+			out.write(':');
+			writeString(formatValues[i]);
+		}
+		OpsinTimings timings = result.getTimings();
+		if (timings != null) {
+			out.write(",\"timings\":{\"preProcessingNanos\":");
+			writeLong(timings.getPreProcessingNanos());
+			out.write(",\"parsingNanos\":");
+			writeLong(timings.getParsingNanos());
+			out.write(",\"componentGenerationNanos\":");
+			writeLong(timings.getComponentGenerationNanos());
+			out.write(",\"componentProcessingNanos\":");
+			writeLong(timings.getComponentProcessingNanos());
+			out.write(",\"structureBuildingNanos\":");
+			writeLong(timings.getStructureBuildingNanos());
+			out.write(",\"serialisationNanos\":");
+			writeLong(timings.getSerialisationNanos());
+			out.write(",\"parsesTried\":");
+			writeLong(timings.getParsesTried());
+			out.write(",\"parsesPruned\":");
+			writeLong(timings.getParsesPruned());
+			out.write(",\"resultFromCache\":");
+			out.write(timings.isResultFromCache() ? "true" : "false");
+			out.write('}');
+		}
+		out.write("}\n");
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value < 0) {
+			//not expected, all numbers written are counts or durations
+			out.write(Long.toString(value));
+			return;
+		}
+		int pos = digits.length;
+		do {
+			digits[--pos] = (char) ('0' + (value % 10));
+			value /= 10;
+		}
+		while (value > 0);
+		out.write(digits, pos, digits.length - pos);
+	}
+
+	/**
+	 * Writes the given string as a JSON string, or null
+	 * @param str
+	 * @throws IOException
+	 */
+	private void writeString(String str) throws IOException {
+		if (str == null) {
+			out.write("null");
+			return;
+		}
+		out.write('"');
+		//characters not requiring escaping are written in runs
+		int runStart = 0;
+		for (int i = 0, len = str.length(); i < len; i++) {
+			char ch = str.charAt(i);
+			if (ch >= 0x20 && ch != '"' && ch != '\\') {
+				if (!Character.isSurrogate(ch)) {
+					continue;
+				}
+				if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+					i++;
+					continue;
+				}
+				//a lone surrogate can't be encoded as UTF-8 so is escaped
+			}
+			if (i > runStart) {
+				out.write(str, runStart, i - runStart);
+			}
+			runStart = i + 1;
+			switch (ch) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				out.write("\\u");
+				out.write(HEX_DIGITS[ch >> 12]);
+				out.write(HEX_DIGITS[(ch >> 8) & 0xf]);
+				out.write(HEX_DIGITS[(ch >> 4) & 0xf]);
+				out.write(HEX_DIGITS[ch & 0xf]);
+			}
+		}
+		if (str.length() > runStart) {
+			out.write(str, runStart, str.length() - runStart);
+		}
+		out.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
@@ -1,14 +1,26 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import uk.ac.cam.ch.wwmm.opsin.OpsinResult.OPSIN_RESULT_STATUS;
+import uk.ac.cam.ch.wwmm.opsin.OpsinTimings.CandidateParseTimings;
 
 /** The "master" class, to turn a name into a structure.
  *
@@ -28,6 +40,9 @@ public class NameToStructure {
 	/**Which suffixes apply to what and what their effects are*/
 	private SuffixRules suffixRules;
 
+	/**The machinery used to convert parses to structures, reused by each thread for every name it parses*/
+	private final ThreadLocal<ParseContext> parseContexts = ThreadLocal.withInitial(() -> new ParseContext(suffixRules));
+
 	private static NameToStructure NTS_INSTANCE;
 
 	public static synchronized NameToStructure getInstance() {
@@ -63,12 +78,14 @@ public class NameToStructure {
 
 			//Allows retrieving of OPSIN resources
 			ResourceGetter resourceGetter = new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/");
-			ResourceManager resourceManager = new ResourceManager(resourceGetter);
-			WordRules wordRules = new WordRules(resourceGetter);
+			//In preference the resources are loaded from the prebuilt snapshot, rather than from XML
+			ResourceSnapshot snapshot = ResourceSnapshot.load(resourceGetter);
+			ResourceManager resourceManager = snapshot != null ? snapshot.getResourceManager() : new ResourceManager(resourceGetter);
+			WordRules wordRules = snapshot != null ? snapshot.getWordRules() : new WordRules(resourceGetter);
 			parseRules = new ParseRules(resourceManager);
 			Tokeniser tokeniser = new Tokeniser(parseRules);
 			parser = new Parser(wordRules, tokeniser, resourceManager);
-			suffixRules = new SuffixRules(resourceGetter);
+			suffixRules = snapshot != null ? snapshot.getSuffixRules() : new SuffixRules(resourceGetter);
 		} catch (Exception e) {
 			throw new NameToStructureException(e.getMessage(), e);
 		}
@@ -130,11 +147,58 @@ public class NameToStructure {
 			throw new IllegalArgumentException("String given for name was null");
 		}
 		n2sConfig = n2sConfig.clone();//avoid n2sconfig being modified mid name processing
+		if (!n2sConfig.isCollectTimings()) {
+			return parseChemicalName(name, n2sConfig, null);
+		}
+		OpsinTimings timings = new OpsinTimings();
+		OpsinResult result = parseChemicalName(name, n2sConfig, timings);
+		result.setTimings(timings);
+		return result;
+	}
 
-		List<Element> parses;
+	private OpsinResult parseChemicalName(String name, NameToStructureConfig n2sConfig, OpsinTimings timings) {
+		String modifiedName;
+		long startTime = timings != null ? System.nanoTime() : 0;
 		try {
 			LOG.debug(name);
-			String modifiedName = PreProcessor.preProcess(name);
+			modifiedName = PreProcessor.preProcess(name);
+		} catch (Exception e) {
+			if(LOG.isDebugEnabled()) {
+				LOG.debug(e.getMessage(), e);
+			}
+			String message = e.getMessage() != null ? e.getMessage() : "exception with null message";
+			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, message, name);
+		}
+		finally {
+			if (timings != null) {
+				timings.setPreProcessingNanos(System.nanoTime() - startTime);
+			}
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name was interrupted", name);
+		}
+		OpsinResultCache resultCache = n2sConfig.getResultCache();
+		if (resultCache == null) {
+			return parsePreProcessedName(name, modifiedName, n2sConfig, timings);
+		}
+		OpsinResult result = resultCache.get(modifiedName, n2sConfig, name);
+		if (result == null) {
+			result = parsePreProcessedName(name, modifiedName, n2sConfig, timings);
+			if (!Thread.currentThread().isInterrupted()) {//an interrupted name has not been properly interpreted
+				resultCache.put(modifiedName, n2sConfig, result);
+			}
+		}
+		else if (timings != null) {
+			timings.setResultFromCache(true);
+		}
+		return result;
+	}
+
+	private OpsinResult parsePreProcessedName(String name, String modifiedName, NameToStructureConfig n2sConfig, OpsinTimings timings) {
+		List<Element> parses;
+		long startTime = timings != null ? System.nanoTime() : 0;
+		long annotatorStatesExplored = timings != null ? parseRules.getAnnotatorStatesExplored() : 0;
+		try {
 			parses = parser.parse(n2sConfig, modifiedName);
 			Collections.sort(parses, new SortParses());//fewer tokens preferred
 		} catch (Exception e) {
@@ -144,53 +208,382 @@ public class NameToStructure {
 			String message = e.getMessage() != null ? e.getMessage() : "exception with null message";
 			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, message, name);
 		}
-		String reasonForFailure = "";
-		Fragment fragGeneratedWithWarning = null;
-		List<OpsinWarning> warnings = Collections.emptyList();
-		for(Element parse : parses) {
-			try {
-				if (LOG.isDebugEnabled()) {
-					LOG.debug(parse.toXML());
+		finally {
+			if (timings != null) {
+				timings.setParsingNanos(System.nanoTime() - startTime);
+				timings.setAnnotatorStatesExplored(parseRules.getAnnotatorStatesExplored() - annotatorStatesExplored);
+			}
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name was interrupted", name);
+		}
+		if (n2sConfig.isParallelParseEvaluation() && parses.size() > 1 && timings == null) {
+			return buildStructureConcurrently(name, parses, n2sConfig);
+		}
+		ParseContext context = acquireParseContext();
+		try {
+			CandidateParseSelector selector = new CandidateParseSelector(name);
+			for (Element parse : parses) {
+				if (Thread.currentThread().isInterrupted()) {
+					return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name was interrupted", name);
 				}
-				//Performs XML manipulation e.g. nesting bracketing, processing some nomenclatures
-				BuildState state = new BuildState(n2sConfig);
-				new ComponentGenerator(state).processParse(parse);
-				if (LOG.isDebugEnabled()) {
-					LOG.debug(parse.toXML());
+				if (selector.add(buildCandidateParse(parse, n2sConfig, timings, context))) {
+					break;
 				}
-				//Converts the XML to fragments (handles many different nomenclatueres for describing structure). Assigns locants
-				new ComponentProcessor(state, new SuffixApplier(state, suffixRules)).processParse(parse);
-				if (LOG.isDebugEnabled()) {
-					LOG.debug(parse.toXML());
+			}
+			return selector.getResult();
+		}
+		finally {
+			context.release();
+		}
+	}
+
+	/**
+	 * Converts the candidate parses to structures concurrently, using the common fork-join pool.
+	 * The first parse is converted on the calling thread. As each parse is converted independently,
+	 * the result is the same as converting them in order: the first parse that gives a structure without warnings is used
+	 * and once such a parse is found, less preferred parses that have not yet started are cancelled
+	 * @param name
+	 * @param parses
+	 * @param n2sConfig
+	 * @return
+	 */
+	private OpsinResult buildStructureConcurrently(String name, List<Element> parses, final NameToStructureConfig n2sConfig) {
+		int parseCount = parses.size();
+		//the index of the most preferred parse known to give a structure without warnings
+		final AtomicInteger firstSuccess = new AtomicInteger(parseCount);
+		List<ForkJoinTask<CandidateParseResult>> tasks = new ArrayList<>(parseCount);
+		tasks.add(null);
+		for (int i = 1; i < parseCount; i++) {
+			final int parseIndex = i;
+			final Element parse = parses.get(i);
+			tasks.add(ForkJoinPool.commonPool().submit(() -> {
+				if (firstSuccess.get() < parseIndex) {
+					return null;
 				}
-				//Constructs a single fragment from the fragments generated by the ComponentProcessor. Applies stereochemistry
-				Fragment frag = new StructureBuilder(state).buildFragment(parse);
-				if (LOG.isDebugEnabled()) {
-					LOG.debug(parse.toXML());
+				CandidateParseResult candidate = buildCandidateParse(parse, n2sConfig);
+				if (candidate.isSuccess()) {
+					firstSuccess.accumulateAndGet(parseIndex, Math::min);
 				}
-				if (state.getWarnings().isEmpty()) {
-					return new OpsinResult(frag, OPSIN_RESULT_STATUS.SUCCESS, "", name);
+				return candidate;
+			}));
+		}
+		CandidateParseSelector selector = new CandidateParseSelector(name);
+		try {
+			CandidateParseResult candidate = buildCandidateParse(parses.get(0), n2sConfig);
+			if (selector.add(candidate)) {
+				return selector.getResult();
+			}
+			for (int i = 1; i < parseCount; i++) {
+				candidate = tasks.get(i).get();
+				if (candidate == null) {
+					//only skipped when a more preferred parse has been found
+					continue;
 				}
-				if (fragGeneratedWithWarning == null) {
-					//record first frag that had a warning but try other parses as they may work without a warning
-					fragGeneratedWithWarning = frag;
-					warnings = state.getWarnings();
+				if (selector.add(candidate)) {
+					firstSuccess.accumulateAndGet(i, Math::min);
+					break;
 				}
-			} catch (Exception e) {
-				if (reasonForFailure.length() == 0) {
-					reasonForFailure = e.getMessage() != null ? e.getMessage() : "exception with null message";
+			}
+			return selector.getResult();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name was interrupted", name);
+		}
+		catch (ExecutionException e) {
+			//buildCandidateParse handles exceptions, hence this is not expected
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			firstSuccess.set(-1);
+			for (int i = 1; i < parseCount; i++) {
+				tasks.get(i).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the ParseContext of the current thread.
+	 * If it is already in use, as names are being parsed re-entrantly, a new ParseContext is returned instead
+	 * @return
+	 */
+	private ParseContext acquireParseContext() {
+		ParseContext context = parseContexts.get();
+		if (!context.acquire()) {
+			context = new ParseContext(suffixRules);
+			context.acquire();
+		}
+		return context;
+	}
+
+	private CandidateParseResult buildCandidateParse(Element parse, NameToStructureConfig n2sConfig) {
+		ParseContext context = acquireParseContext();
+		try {
+			return buildCandidateParse(parse, n2sConfig, null, context);
+		}
+		finally {
+			context.release();
+		}
+	}
+
+	/**
+	 * Converts one candidate parse of a name to a structure
+	 * @param parse
+	 * @param n2sConfig
+	 * @param timings
+	 * @param context
+	 * @return The structure and any warnings, or the reason the parse could not be converted
+	 */
+	private CandidateParseResult buildCandidateParse(Element parse, NameToStructureConfig n2sConfig, OpsinTimings timings, ParseContext context) {
+		BuildState state = context.startParse(n2sConfig);
+		CandidateParseTimings parseTimings = timings != null ? timings.addCandidateParse() : null;
+		try {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(parse.toXML());
+			}
+			//Performs XML manipulation e.g. nesting bracketing, processing some nomenclatures
+			if (parseTimings != null) {
+				parseTimings.startStage(CandidateParseTimings.COMPONENT_GENERATION);
+			}
+			context.getComponentGenerator().processParse(parse);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(parse.toXML());
+			}
+			OpsinTools.checkForInterrupt();
+			//Abandons parses that can be cheaply shown to be impossible before fragments are built for them
+			String reasonParseIsImpossible = ParsePrevalidator.findReasonParseIsImpossible(parse);
+			if (reasonParseIsImpossible != null) {
+				if (parseTimings != null) {
+					parseTimings.finishPruned(state);
 				}
 				if (LOG.isDebugEnabled()) {
-					LOG.debug(e.getMessage(), e);
+					LOG.debug("Parse abandoned: " + reasonParseIsImpossible);
+				}
+				return new CandidateParseResult(null, Collections.<OpsinWarning>emptyList(), reasonParseIsImpossible);
+			}
+			//Converts the XML to fragments (handles many different nomenclatueres for describing structure). Assigns locants
+			if (parseTimings != null) {
+				parseTimings.startStage(CandidateParseTimings.COMPONENT_PROCESSING);
+			}
+			context.getComponentProcessor().processParse(parse);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(parse.toXML());
+			}
+			OpsinTools.checkForInterrupt();
+			//Constructs a single fragment from the fragments generated by the ComponentProcessor. Applies stereochemistry
+			if (parseTimings != null) {
+				parseTimings.startStage(CandidateParseTimings.STRUCTURE_BUILDING);
+			}
+			Fragment frag = context.getStructureBuilder().buildFragment(parse);
+			if (parseTimings != null) {
+				parseTimings.finish(state, true);
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(parse.toXML());
+			}
+			return new CandidateParseResult(frag, state.getWarnings(), null);
+		} catch (Exception e) {
+			if (parseTimings != null) {
+				parseTimings.finish(state, false);
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(e.getMessage(), e);
+			}
+			return new CandidateParseResult(null, Collections.<OpsinWarning>emptyList(), e.getMessage() != null ? e.getMessage() : "exception with null message");
+		}
+	}
+
+	/**
+	 * The outcome of converting one candidate parse of a name to a structure
+	 */
+	private static class CandidateParseResult {
+		private final Fragment frag;
+		private final List<OpsinWarning> warnings;
+		private final String reasonForFailure;
+
+		CandidateParseResult(Fragment frag, List<OpsinWarning> warnings, String reasonForFailure) {
+			this.frag = frag;
+			this.warnings = warnings;
+			this.reasonForFailure = reasonForFailure;
+		}
+
+		boolean isSuccess() {
+			return frag != null && warnings.isEmpty();
+		}
+	}
+
+	/**
+	 * Chooses the result for a name from its candidate parses, which are added in order of preference.
+	 * The first structure without warnings is preferred, then the first structure with warnings.
+	 * If no structure was generated the reason the first parse failed is reported
+	 */
+	private static class CandidateParseSelector {
+		private final String name;
+		private String reasonForFailure = "";
+		private CandidateParseResult resultWithWarning = null;
+		private CandidateParseResult success = null;
+
+		CandidateParseSelector(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Adds the next candidate
+		 * @param candidate
+		 * @return true if the candidate gave a structure without warnings, hence no more candidates need be considered
+		 */
+		boolean add(CandidateParseResult candidate) {
+			if (candidate.isSuccess()) {
+				success = candidate;
+				return true;
+			}
+			if (candidate.frag != null) {
+				if (resultWithWarning == null) {
+					//record first frag that had a warning but try other parses as they may work without a warning
+					resultWithWarning = candidate;
 				}
 			}
+			else if (reasonForFailure.length() == 0) {
+				reasonForFailure = candidate.reasonForFailure;
+			}
+			return false;
 		}
-		if (fragGeneratedWithWarning != null) {
-			return new OpsinResult(fragGeneratedWithWarning, OPSIN_RESULT_STATUS.WARNING, warnings, name);
+
+		OpsinResult getResult() {
+			if (success != null) {
+				return new OpsinResult(success.frag, OPSIN_RESULT_STATUS.SUCCESS, "", name);
+			}
+			if (resultWithWarning != null) {
+				return new OpsinResult(resultWithWarning.frag, OPSIN_RESULT_STATUS.WARNING, resultWithWarning.warnings, name);
+			}
+			return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, reasonForFailure, name);
 		}
-		return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, reasonForFailure, name);
 	}
 	
+	/**Parses a collection of chemical names, using the given executor to parse names concurrently.
+	 * The NameToStructure instance is immutable after initialisation so can be shared across threads; each thread
+	 * interprets names using its own BuildState.
+	 * The returned list contains one OpsinResult per input name, in the same order as the input.
+	 *
+	 * @param names The chemical names to parse.
+	 * @param n2sConfig Options to control how OPSIN interprets the names.
+	 * @param executor The executor used to run the parsing tasks e.g. a fixed size thread pool
+	 * @return List of OpsinResult, in the same order as the input names
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the results
+	 */
+	public List<OpsinResult> parseChemicalNames(Iterable<String> names, NameToStructureConfig n2sConfig, Executor executor) throws InterruptedException {
+		return parseChemicalNames(names, n2sConfig, executor, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**Parses a collection of chemical names, using the given executor to parse names concurrently.
+	 * The NameToStructure instance is immutable after initialisation so can be shared across threads; each thread
+	 * interprets names using its own BuildState.
+	 * The returned list contains one OpsinResult per input name, in the same order as the input.<br>
+	 * If a name takes longer than the given timeout to interpret (measured from when it starts being processed)
+	 * its interpretation is interrupted and a {@link OPSIN_RESULT_STATUS#FAILURE} result is returned for it.
+	 * As the timeout only starts when a name starts being processed, there is no limit on how long a name may wait to be started,
+	 * hence the executor must eventually run every task it accepts i.e. not silently discard them.<br>
+	 * If this method does not complete normally, e.g. the executor rejects a name or the calling thread is interrupted,
+	 * the names that have already been submitted are cancelled.
+	 *
+	 * @param names The chemical names to parse.
+	 * @param n2sConfig Options to control how OPSIN interprets the names.
+	 * @param executor The executor used to run the parsing tasks e.g. a fixed size thread pool
+	 * @param timeout The maximum time to spend interpreting any one name, a value &lt;= 0 means no limit
+	 * @param unit The unit of timeout
+	 * @return List of OpsinResult, in the same order as the input names
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the results
+	 */
+	public List<OpsinResult> parseChemicalNames(Iterable<String> names, NameToStructureConfig n2sConfig, Executor executor, long timeout, TimeUnit unit) throws InterruptedException {
+		final NameToStructureConfig config = n2sConfig.clone();
+		long timeoutNanos = timeout > 0 ? unit.toNanos(timeout) : 0;
+		List<ParseTask> tasks = new ArrayList<>();
+		boolean completed = false;
+		try {
+			for (String name : names) {
+				if (name == null){
+					throw new IllegalArgumentException("String given for name was null");
+				}
+				ParseTask task = new ParseTask(this, name, config);
+				tasks.add(task);
+				executor.execute(task);
+			}
+			List<OpsinResult> results = new ArrayList<>(tasks.size());
+			for (ParseTask task : tasks) {
+				results.add(task.getResult(timeoutNanos));
+			}
+			completed = true;
+			return results;
+		}
+		finally {
+			if (!completed) {
+				//don't leave the submitted tasks running with nothing to collect their results
+				for (ParseTask task : tasks) {
+					task.cancel(true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A task for parsing one name that records when it started running
+	 * so that a timeout can be applied to the interpretation of that name
+	 */
+	private static class ParseTask extends FutureTask<OpsinResult> {
+		private final String name;
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile long startTime;
+
+		ParseTask(final NameToStructure nts, final String name, final NameToStructureConfig n2sConfig) {
+			super(() -> nts.parseChemicalName(name, n2sConfig));
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+			startTime = System.nanoTime();
+			started.countDown();
+			super.run();
+		}
+
+		OpsinResult getResult(long timeoutNanos) throws InterruptedException {
+			try {
+				if (timeoutNanos > 0) {
+					//unbounded, the timeout only applies once the name has started being processed
+					started.await();
+					long remaining = startTime + timeoutNanos - System.nanoTime();
+					return get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+				}
+				return get();
+			}
+			catch (TimeoutException e) {
+				cancel(true);
+				return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name exceeded the time limit of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms", name);
+			}
+			catch (CancellationException e) {
+				return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "Interpretation of the name was cancelled", name);
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug(cause.getMessage(), cause);
+				}
+				String message = cause.getMessage() != null ? cause.getMessage() : "exception with null message";
+				return new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, message, name);
+			}
+		}
+	}
+
+	/**
+	 * Starts preparing, on a background thread, the resources used to explain why a name could not be parsed
+	 * when {@link NameToStructureConfig#setDetailedFailureAnalysis(boolean)} is enabled.
+	 * Otherwise these are prepared when the first such name is encountered.
+	 */
+	public void prepareDetailedFailureAnalysis() {
+		parser.prepareDetailedFailureAnalysis();
+	}
+
 	/**
 	 * Returns an OPSIN parser
 	 * This can be used to determine whether a word can be interpreted as being part of a chemical name.
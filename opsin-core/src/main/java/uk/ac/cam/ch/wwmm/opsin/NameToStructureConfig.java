@@ -18,6 +18,10 @@ public class NameToStructureConfig implements Cloneable {
 	private boolean detailedFailureAnalysis = false;
 	private boolean interpretAcidsWithoutTheWordAcid = false;
 	private boolean warnRatherThanFailOnUninterpretableStereochemistry = false;
+	private OpsinResultCache resultCache = null;
+	private boolean collectTimings = false;
+	private int fusedRingNumberingBudget = FusedRingNumberer.DEFAULT_SEARCH_BUDGET;
+	private boolean parallelParseEvaluation = false;
 
 	/**
 	 * Constructs a NameToStructureConfig with default settings:
@@ -26,6 +30,10 @@ public class NameToStructureConfig implements Cloneable {
 	 * detailedFailureAnalysis = false
 	 * interpretAcidsWithoutTheWordAcid = false
 	 * warnRatherThanFailOnUninterpretableStereochemistry = false
+	 * resultCache = null
+	 * collectTimings = false
+	 * fusedRingNumberingBudget = 10000
+	 * parallelParseEvaluation = false
 	 */
 	public NameToStructureConfig() {
 	}
@@ -114,6 +122,105 @@ public class NameToStructureConfig implements Cloneable {
 		this.warnRatherThanFailOnUninterpretableStereochemistry = warnRatherThanFailOnUninterpretableStereochemistry;
 	}
 
+	/**
+	 * The cache used to store and retrieve the results of interpreting names, or null if results are not cached
+	 * @return the result cache
+	 */
+	public OpsinResultCache getResultCache() {
+		return resultCache;
+	}
+
+	/**
+	 * Sets a cache in which the results of interpreting names are stored, so that repeated names are not reinterpreted.
+	 * The same cache may be used with configurations that have different options, and by multiple threads.
+	 * Set to null (Default) to disable caching
+	 * @param resultCache
+	 */
+	public void setResultCache(OpsinResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Are the time spent in each stage of interpreting a name, and counts of the work done, recorded on the {@link OpsinResult}?
+	 * @return whether timings are collected
+	 */
+	public boolean isCollectTimings() {
+		return collectTimings;
+	}
+
+	/**
+	 * Sets whether the time spent in each stage of interpreting a name, and counts of the work done, are recorded.
+	 * These are retrieved using {@link OpsinResult#getTimings()}. Set to false (Default) to avoid the overhead of recording them
+	 * @param collectTimings
+	 */
+	public void setCollectTimings(boolean collectTimings) {
+		this.collectTimings = collectTimings;
+	}
+
+	/**
+	 * The maximum number of steps taken searching for the preferred numbering of a fused ring system
+	 * @return the fused ring numbering budget
+	 */
+	public int getFusedRingNumberingBudget() {
+		return fusedRingNumberingBudget;
+	}
+
+	/**
+	 * Sets the maximum number of steps taken searching for the preferred numbering of a fused ring system.
+	 * Names containing fused ring systems that exceed this, such as very large polycyclic systems, will fail to be interpreted,
+	 * limiting the time and memory spent on them. Default is 10000
+	 * @param fusedRingNumberingBudget
+	 */
+	public void setFusedRingNumberingBudget(int fusedRingNumberingBudget) {
+		if (fusedRingNumberingBudget < 1) {
+			throw new IllegalArgumentException("Fused ring numbering budget must be at least 1");
+		}
+		this.fusedRingNumberingBudget = fusedRingNumberingBudget;
+	}
+
+	/**
+	 * Are the candidate parses of a name converted to structures concurrently?
+	 * @return whether candidate parses are evaluated in parallel
+	 */
+	public boolean isParallelParseEvaluation() {
+		return parallelParseEvaluation;
+	}
+
+	/**
+	 * Sets whether, when a name has more than one candidate parse, the parses are converted to structures concurrently
+	 * using the common {@link java.util.concurrent.ForkJoinPool}. The result is the same as when the parses are tried one at a time.
+	 * This reduces the time taken to interpret highly ambiguous names, at the cost of doing more work in total,
+	 * so is intended for interpreting individual names rather than batches. Ignored when timings are collected. Default is false
+	 * @param parallelParseEvaluation
+	 */
+	public void setParallelParseEvaluation(boolean parallelParseEvaluation) {
+		this.parallelParseEvaluation = parallelParseEvaluation;
+	}
+
+	/**
+	 * The options that affect the interpretation of a name, as a set of binary flags
+	 * @return
+	 */
+	int getOptionFlags() {
+		int flags = 0;
+		if (allowRadicals) {
+			flags |= 1;
+		}
+		if (outputRadicalsAsWildCardAtoms) {
+			flags |= 2;
+		}
+		if (detailedFailureAnalysis) {
+			flags |= 4;
+		}
+		if (interpretAcidsWithoutTheWordAcid) {
+			flags |= 8;
+		}
+		if (warnRatherThanFailOnUninterpretableStereochemistry) {
+			flags |= 16;
+		}
+		return flags;
+	}
+
 
 	/**
 	 * Constructs a NameToStructureConfig with default settings:
@@ -122,6 +229,10 @@ public class NameToStructureConfig implements Cloneable {
 	 * detailedFailureAnalysis = false
 	 * interpretAcidsWithoutTheWordAcid = false
 	 * warnRatherThanFailOnUninterpretableStereochemistry = false
+	 * resultCache = null
+	 * collectTimings = false
+	 * fusedRingNumberingBudget = 10000
+	 * parallelParseEvaluation = false
 	 */
 	public static NameToStructureConfig getDefaultConfigInstance() {
 		return new NameToStructureConfig();
@@ -1,28 +1,62 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * A black/white radix tree implementation.
- * A radix tree is a type of trie where common prefixes are merged together to save space 
- * This implementation employs short arrays rather than maps to exploit the fact that all OPSIN tokens are ASCII.
+ * A radix tree is a type of trie where common prefixes are merged together to save space
+ * Tokens are added to a mutable tree, which is converted to a compact array based form the first time the trie is searched.
+ * In the compact form nodes are numbered in breadth first order so the children of a node are contiguous,
+ * all node keys are packed into one char array and a node's children are found by binary search on the first character of their keys.
  * @author dl387
  *
  */
 class OpsinRadixTrie {
-	final OpsinTrieNode rootNode;
+	/**Mutable form of the trie, null once the trie has been compacted*/
+	private OpsinTrieNode rootNode;
+	/**Compact form of the trie, null if tokens have been added since it was created*/
+	private volatile CompactTrie compactTrie;
 
 	OpsinRadixTrie() {
 		rootNode = new OpsinTrieNode("", false);
 	}
 
+	private OpsinRadixTrie(CompactTrie compactTrie) {
+		this.compactTrie = compactTrie;
+	}
+
+	/**
+	 * Writes the compact form of the trie, for inclusion in a {@link ResourceSnapshot}
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		getCompactTrie().write(out);
+	}
+
+	/**
+	 * Reads a trie that was written by {@link #write(DataOutputStream)}
+	 * @param in
+	 * @return
+	 */
+	static OpsinRadixTrie read(ByteBuffer in) {
+		return new OpsinRadixTrie(new CompactTrie(in));
+	}
+
 	/**
 	 * Adds a string to the Trie.
-	 * This string should not contain any non ASCII characters
 	 * @param token
 	 */
-	void addToken(String token) {
+	synchronized void addToken(String token) {
+		if (rootNode == null) {
+			rootNode = compactTrie.toTrieNode(0);
+		}
+		compactTrie = null;
 		int tokenLength =token.length();
 		String remaingStr =token;
 		OpsinTrieNode currentNode = rootNode;
@@ -35,6 +69,22 @@ class OpsinRadixTrie {
 		currentNode.setIsEndPoint(true);
 	}
 
+	private CompactTrie getCompactTrie() {
+		CompactTrie trie = compactTrie;
+		if (trie == null) {
+			trie = compact();
+		}
+		return trie;
+	}
+
+	private synchronized CompactTrie compact() {
+		if (compactTrie == null) {
+			compactTrie = new CompactTrie(rootNode);
+			rootNode = null;
+		}
+		return compactTrie;
+	}
+
 	/**
 	 * Returns all possible runs of the input string that reached end point nodes in the trie
 	 * e.g. ylidene might return 2 ("yl"), 6 ("yliden") and 7 ("ylidene")
@@ -45,34 +95,43 @@ class OpsinRadixTrie {
 	 * @return
 	 */
 	List<Integer> findMatches(String chemicalName, int posInName) {
+		int[] matchEnds = new int[chemicalName.length() - posInName + 1];
+		return toList(matchEnds, findMatches(chemicalName, posInName, matchEnds));
+	}
+
+	/**
+	 * As {@link #findMatches(String, int)} but the indices of the end of the matches are written, in ascending order, to the given array.
+	 * The array must have a length of at least chemicalName.length() - posInName + 1
+	 * @param chemicalName
+	 * @param posInName The point at which to start matching
+	 * @param matchEnds Array to which the results are written
+	 * @return The number of matches
+	 */
+	int findMatches(String chemicalName, int posInName, int[] matchEnds) {
+		CompactTrie trie = getCompactTrie();
 		int untokenisedChemicalNameLength = chemicalName.length();
-		List<Integer> indexes = null;
-		if (rootNode.isEndPoint()) {
-			indexes = new ArrayList<>();
-			indexes.add(posInName);
+		int matchCount = 0;
+		if (trie.endPoints[0]) {
+			matchEnds[matchCount++] = posInName;
 		}
-		OpsinTrieNode node = rootNode;
+		int node = 0;
 		for (int i = posInName; i < untokenisedChemicalNameLength; i++) {
-			node = node.getChild(chemicalName.charAt(i));
-			if (node == null) {
+			node = trie.getChild(node, chemicalName.charAt(i));
+			if (node < 0) {
 				break;
 			}
-			int nodeLength = node.getValue().length();
+			int nodeLength = trie.getKeyLength(node);
 			if (nodeLength > 1) {
-				int charsMatched = node.getNumberOfMatchingCharacters(chemicalName, i);
-				if (charsMatched != nodeLength) {
+				if (!trie.keyMatches(node, nodeLength, chemicalName, i)) {
 					break;
 				}
-				i += (charsMatched - 1);
+				i += (nodeLength - 1);
 			}
-			if (node.isEndPoint()) {
-				if (indexes == null) {
-					indexes = new ArrayList<>();
-				}
-				indexes.add(i + 1);
+			if (trie.endPoints[node]) {
+				matchEnds[matchCount++] = i + 1;
 			}
 		}
-		return indexes;
+		return matchCount;
 	}
 
 	/**
@@ -81,42 +140,217 @@ class OpsinRadixTrie {
 	 * @param posInName The index after the first character to start matching
 	 * @return
 	 */
-	List<Integer> findMatchesReadingStringRightToLeft(String chemicalName, int posInName ) {
-		List<Integer> indexes = null;
-		if (rootNode.isEndPoint()) {
-			indexes = new ArrayList<>();
-			indexes.add(posInName);
+	List<Integer> findMatchesReadingStringRightToLeft(String chemicalName, int posInName) {
+		int[] matchEnds = new int[posInName + 1];
+		return toList(matchEnds, findMatchesReadingStringRightToLeft(chemicalName, posInName, matchEnds));
+	}
+
+	/**
+	 * As {@link #findMatchesReadingStringRightToLeft(String, int)} but the indices of the end of the matches are written, in descending order, to the given array.
+	 * The array must have a length of at least posInName + 1
+	 * @param chemicalName
+	 * @param posInName The index after the first character to start matching
+	 * @param matchEnds Array to which the results are written
+	 * @return The number of matches
+	 */
+	int findMatchesReadingStringRightToLeft(String chemicalName, int posInName, int[] matchEnds) {
+		CompactTrie trie = getCompactTrie();
+		int matchCount = 0;
+		if (trie.endPoints[0]) {
+			matchEnds[matchCount++] = posInName;
 		}
-		OpsinTrieNode node = rootNode;
+		int node = 0;
 		for (int i = posInName - 1; i >=0; i--) {
-			node = node.getChild(chemicalName.charAt(i));
-			if (node == null) {
+			node = trie.getChild(node, chemicalName.charAt(i));
+			if (node < 0) {
 				break;
 			}
-			int nodeLength = node.getValue().length();
+			int nodeLength = trie.getKeyLength(node);
 			if (nodeLength > 1) {
-				int charsMatched = node.getNumberOfMatchingCharactersInReverse(chemicalName, i);
-				if (charsMatched != nodeLength) {
+				if (!trie.keyMatchesInReverse(node, nodeLength, chemicalName, i)) {
 					break;
 				}
-				i -= (charsMatched - 1);
+				i -= (nodeLength - 1);
 			}
-			if (node.isEndPoint()) {
-				if (indexes == null) {
-					indexes = new ArrayList<>();
-				}
-				indexes.add(i);
+			if (trie.endPoints[node]) {
+				matchEnds[matchCount++] = i;
 			}
 		}
+		return matchCount;
+	}
+
+	private static List<Integer> toList(int[] matchEnds, int matchCount) {
+		if (matchCount == 0) {
+			return null;
+		}
+		List<Integer> indexes = new ArrayList<>(matchCount);
+		for (int i = 0; i < matchCount; i++) {
+			indexes.add(matchEnds[i]);
+		}
 		return indexes;
 	}
+
+	/**
+	 * Immutable array based representation of a radix trie. Node 0 is the root
+	 */
+	private static final class CompactTrie {
+		/**The keys of all nodes, concatenated in node order*/
+		private final char[] keys;
+		/**Start of each node's key in keys, with an additional entry marking the end of the last key*/
+		private final int[] keyStarts;
+		/**First character of each node's key (unused for the root)*/
+		private final char[] firstChars;
+		/**Index of each node's first child, with an additional entry; children of node n are firstChild[n] to firstChild[n + 1] - 1*/
+		private final int[] firstChild;
+		private final boolean[] endPoints;
+
+		CompactTrie(OpsinTrieNode root) {
+			List<OpsinTrieNode> nodes = new ArrayList<>();
+			nodes.add(root);
+			int nodeCount = 1;
+			int keysLength = 0;
+			for (int i = 0; i < nodes.size(); i++) {
+				OpsinTrieNode node = nodes.get(i);
+				keysLength += node.getValue().length();
+				for (int j = 0, l = node.getChildCount(); j < l; j++) {
+					nodes.add(node.getChildAt(j));
+					nodeCount++;
+				}
+			}
+			keys = new char[keysLength];
+			keyStarts = new int[nodeCount + 1];
+			firstChars = new char[nodeCount];
+			firstChild = new int[nodeCount + 1];
+			endPoints = new boolean[nodeCount];
+			int keyPos = 0;
+			int nextChild = 1;
+			for (int i = 0; i < nodeCount; i++) {
+				OpsinTrieNode node = nodes.get(i);
+				String key = node.getValue();
+				keyStarts[i] = keyPos;
+				key.getChars(0, key.length(), keys, keyPos);
+				keyPos += key.length();
+				if (key.length() > 0) {
+					firstChars[i] = key.charAt(0);
+				}
+				endPoints[i] = node.isEndPoint();
+				firstChild[i] = nextChild;
+				nextChild += node.getChildCount();
+			}
+			keyStarts[nodeCount] = keyPos;
+			firstChild[nodeCount] = nextChild;
+		}
+
+		CompactTrie(ByteBuffer in) {
+			int nodeCount = in.getInt();
+			keys = ResourceSnapshot.readChars(in);
+			keyStarts = ResourceSnapshot.readInts(in);
+			firstChild = ResourceSnapshot.readInts(in);
+			endPoints = ResourceSnapshot.readBooleans(in);
+			firstChars = new char[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				if (keyStarts[i + 1] > keyStarts[i]) {
+					firstChars[i] = keys[keyStarts[i]];
+				}
+			}
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(endPoints.length);
+			ResourceSnapshot.writeChars(out, keys);
+			ResourceSnapshot.writeInts(out, keyStarts);
+			ResourceSnapshot.writeInts(out, firstChild);
+			ResourceSnapshot.writeBooleans(out, endPoints);
+		}
+
+		/**
+		 * Returns the child of the given node whose key starts with the given character, or -1 if there is no such child
+		 * @param node
+		 * @param c
+		 * @return
+		 */
+		int getChild(int node, char c) {
+			int low = firstChild[node];
+			int high = firstChild[node + 1] - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midChar = firstChars[mid];
+				if (midChar < c) {
+					low = mid + 1;
+				}
+				else if (midChar > c) {
+					high = mid - 1;
+				}
+				else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		int getKeyLength(int node) {
+			return keyStarts[node + 1] - keyStarts[node];
+		}
+
+		/**
+		 * Does the entirety of the node's key match the chemicalName starting at posInName
+		 */
+		boolean keyMatches(int node, int keyLength, String chemicalName, int posInName) {
+			if (keyLength > chemicalName.length() - posInName) {
+				return false;
+			}
+			int keyStart = keyStarts[node];
+			for (int i = 1; i < keyLength; i++) {
+				if (keys[keyStart + i] != chemicalName.charAt(posInName + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Does the entirety of the node's key match the chemicalName reading leftwards from posInName
+		 */
+		boolean keyMatchesInReverse(int node, int keyLength, String chemicalName, int posInName) {
+			if (keyLength > posInName + 1) {
+				return false;
+			}
+			int keyStart = keyStarts[node];
+			for (int i = 1; i < keyLength; i++) {
+				if (keys[keyStart + i] != chemicalName.charAt(posInName - i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Converts the subtree rooted at the given node back into mutable form
+		 * @param node
+		 * @return
+		 */
+		OpsinTrieNode toTrieNode(int node) {
+			OpsinTrieNode trieNode = new OpsinTrieNode(new String(keys, keyStarts[node], getKeyLength(node)), endPoints[node]);
+			for (int child = firstChild[node], end = firstChild[node + 1]; child < end; child++) {
+				trieNode.addChild(toTrieNode(child));
+			}
+			return trieNode;
+		}
+	}
 }
 
+/**
+ * Mutable node used whilst adding tokens to an {@link OpsinRadixTrie}
+ * Children are held in order of the first character of their keys
+ */
 class OpsinTrieNode {
 
+	private static final OpsinTrieNode[] NO_CHILDREN = new OpsinTrieNode[0];
+
 	private boolean isEndPoint;
 	private String key;
-	private OpsinTrieNode[] children = new OpsinTrieNode[128];
+	private OpsinTrieNode[] children = NO_CHILDREN;
+	private int childCount = 0;
 
 	OpsinTrieNode(String key, boolean isEndPoint) {
 		this.isEndPoint = isEndPoint;
@@ -126,7 +360,7 @@ class OpsinTrieNode {
 	String getValue() {
 		return key;
 	}
-	
+
 	boolean isEndPoint() {
 		return isEndPoint;
 	}
@@ -134,30 +368,55 @@ class OpsinTrieNode {
 	void setIsEndPoint(boolean isEndPoint) {
 		this.isEndPoint = isEndPoint;
 	}
-	
-	private void setChildren(OpsinTrieNode[] children) {
-		this.children = children;
+
+	int getChildCount() {
+		return childCount;
+	}
+
+	OpsinTrieNode getChildAt(int i) {
+		return children[i];
 	}
-	
+
 	OpsinTrieNode add(String remaingStr, int charsMatched) {
 		if (charsMatched < key.length()){//need to split this Trie node
 			OpsinTrieNode newNode = new OpsinTrieNode(key.substring(charsMatched), isEndPoint);
-			newNode.setChildren(children);
-			children = new OpsinTrieNode[128];
-			children[key.charAt(charsMatched)] = newNode;
+			newNode.children = children;
+			newNode.childCount = childCount;
+			children = NO_CHILDREN;
+			childCount = 0;
+			addChild(newNode);
 			key = key.substring(0, charsMatched);
 			isEndPoint =false;
 		}
 		if (remaingStr.length()!=0){
-			int charValue = (int) remaingStr.charAt(0);
-			if (children[charValue] == null) {
-				children[charValue] = new OpsinTrieNode(remaingStr, false);
+			OpsinTrieNode child = getChild(remaingStr.charAt(0));
+			if (child == null) {
+				child = new OpsinTrieNode(remaingStr, false);
+				addChild(child);
 			}
-			return children[charValue];
+			return child;
 		}
 		return this;
 	}
 
+	/**
+	 * Adds a child, maintaining the ordering of children by the first character of their key
+	 * @param child
+	 */
+	void addChild(OpsinTrieNode child) {
+		char c = child.key.charAt(0);
+		int insertionPoint = childCount;
+		while (insertionPoint > 0 && children[insertionPoint - 1].key.charAt(0) > c) {
+			insertionPoint--;
+		}
+		if (childCount == children.length) {
+			children = Arrays.copyOf(children, Math.max(2, childCount * 2));
+		}
+		System.arraycopy(children, insertionPoint, children, insertionPoint + 1, childCount - insertionPoint);
+		children[insertionPoint] = child;
+		childCount++;
+	}
+
 	int getNumberOfMatchingCharacters(String chemicalName, int posInName) {
 		int maxLength = Math.min(key.length(), chemicalName.length() - posInName);
 		for (int i = 0; i < maxLength; i++) {
@@ -167,18 +426,14 @@ class OpsinTrieNode {
 		}
 		return maxLength;
 	}
-	
-	int getNumberOfMatchingCharactersInReverse(String chemicalName, int posInName) {
-		int maxLength = Math.min(key.length(), posInName + 1);
-		for (int i = 0; i < maxLength; i++) {
-			if (key.charAt(i) != chemicalName.charAt(posInName - i)){
-				return i;
-			}
-		}
-		return maxLength;
-	}
 
 	OpsinTrieNode getChild(char c) {
-		return children[(int) c];
+		for (int i = 0; i < childCount; i++) {
+			OpsinTrieNode child = children[i];
+			if (child.key.charAt(0) == c) {
+				return child;
+			}
+		}
+		return null;
 	}
 }
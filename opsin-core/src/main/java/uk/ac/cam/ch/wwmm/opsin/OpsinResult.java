@@ -1,5 +1,6 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 
@@ -21,6 +22,8 @@ public class OpsinResult {
 	private final String message;
 	private final String chemicalName;
 	private final List<OpsinWarning> warnings;
+	/**null unless timings were collected*/
+	private OpsinTimings timings;
 
 	/**
 	 * Whether parsing the chemical name was successful, encountered problems or was unsuccessful.<br>
@@ -71,10 +74,49 @@ public class OpsinResult {
 		this.warnings = Collections.emptyList();
 	}
 
+	OpsinResult(Fragment frag, OPSIN_RESULT_STATUS status, String message, List<OpsinWarning> warnings, String chemicalName) {
+		this.structure = frag;
+		this.status = status;
+		this.message = message;
+		this.chemicalName = chemicalName;
+		this.warnings = warnings;
+	}
+
 	Fragment getStructure() {
 		return structure;
 	}
 
+	void setTimings(OpsinTimings timings) {
+		this.timings = timings;
+	}
+
+	/**
+	 * Returns the time spent in each stage of interpreting the chemical name, and counts of the work done.<br>
+	 * This is only available if {@link NameToStructureConfig#setCollectTimings(boolean)} was enabled
+	 * @return {@link OpsinTimings} or null if timings were not collected
+	 */
+	public OpsinTimings getTimings() {
+		return timings;
+	}
+
+	/**
+	 * Starts timing the generation of output from this result
+	 * @return the start time, or 0 if timings are not being collected
+	 */
+	long startSerialisation() {
+		return timings != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time taken to generate output from this result
+	 * @param startTime as returned by {@link #startSerialisation()}
+	 */
+	void endSerialisation(long startTime) {
+		if (timings != null) {
+			timings.addSerialisationNanos(System.nanoTime() - startTime);
+		}
+	}
+
 	/**
 	 * Returns an enum indicating whether interpreting the chemical name was successful
 	 * If an issue was identified but a chemical structure could be still be deduced the status is {@link OPSIN_RESULT_STATUS#WARNING}
@@ -108,12 +150,16 @@ public class OpsinResult {
 	 */
 	public String getCml() {
 		if (structure != null){
+			long startTime = startSerialisation();
 			try{
 				return CMLWriter.generateCml(structure, chemicalName);
 			}
 			catch (Exception e) {
 				LOG.debug("CML generation failed", e);
 			}
+			finally {
+				endSerialisation(startTime);
+			}
 		}
 		return null;
 	}
@@ -126,12 +172,16 @@ public class OpsinResult {
 	 */
 	public String getPrettyPrintedCml() {
 		if (structure != null){
+			long startTime = startSerialisation();
 			try{
 				return CMLWriter.generateIndentedCml(structure, chemicalName);
 			}
 			catch (Exception e) {
 				LOG.debug("CML generation failed", e);
 			}
+			finally {
+				endSerialisation(startTime);
+			}
 		}
 		return null;
 	}
@@ -165,16 +215,81 @@ public class OpsinResult {
 	 */
 	public String getSmiles(int options) {
 		if (structure != null){
+			long startTime = startSerialisation();
 			try{
 				return SMILESWriter.generateSmiles(structure, options);
 			}
 			catch (Exception e) {
 				LOG.debug("SMILES generation failed", e);
 			}
+			finally {
+				endSerialisation(startTime);
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * Generates the SMILES corresponding to the molecule described by the name, for each of the given sets of options.<br>
+	 * This is more efficient than calling {@link #getSmiles(int)} for each set of options, as the atom ordering
+	 * and traversal of the structure are shared between them.
+	 * <pre>
+	 * String[] smiles = result.getSmiles(new int[]{SmilesOptions.DEFAULT, SmilesOptions.CXSMILES});
+	 * </pre>
+	 * If name generation failed i.e. the OPSIN_RESULT_STATUS is FAILURE, or SMILES generation fails, the elements of the returned array are null
+	 * @param optionsList binary flags of {@link SmilesOptions}, as for {@link #getSmiles(int)}
+	 * @return SMILES, in the same order as optionsList
+	 */
+	public String[] getSmiles(int[] optionsList) {
+		if (structure != null){
+			long startTime = startSerialisation();
+			try{
+				return SMILESWriter.generateSmiles(structure, optionsList);
+			}
+			catch (Exception e) {
+				LOG.debug("SMILES generation failed", e);
+			}
+			finally {
+				endSerialisation(startTime);
+			}
+		}
+		return new String[optionsList.length];
+	}
+
+	/**
+	 * Writes the SMILES corresponding to the molecule described by the name to the given Appendable,
+	 * without creating an intermediate String.<br>
+	 * If name generation failed i.e. the OPSIN_RESULT_STATUS is FAILURE, or SMILES generation fails, nothing is written and false is returned.
+	 * <pre>
+	 * if (result.writeSmiles(writer, SmilesOptions.CXSMILES)) {
+	 *   writer.write('\n');
+	 * }
+	 * </pre>
+	 * @param out the Appendable e.g. a Writer or StringBuilder, to write to
+	 * @param options binary flags of {@link SmilesOptions}, as for {@link #getSmiles(int)}
+	 * @return true if SMILES was written
+	 * @throws IOException if the Appendable throws
+	 */
+	public boolean writeSmiles(Appendable out, int options) throws IOException {
+		if (structure != null){
+			long startTime = startSerialisation();
+			try{
+				SMILESWriter.writeSmiles(structure, options, out);
+				return true;
+			}
+			catch (IOException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				LOG.debug("SMILES generation failed", e);
+			}
+			finally {
+				endSerialisation(startTime);
+			}
+		}
+		return false;
+	}
+
 	
 	/**
 	 * Experimental function that generates the extended SMILES corresponding to the molecule described by the name
@@ -184,12 +299,16 @@ public class OpsinResult {
 	 */
 	public String getExtendedSmiles() {
 		if (structure != null){
+			long startTime = startSerialisation();
 			try{
 				return SMILESWriter.generateSmiles(structure, SmilesOptions.CXSMILES);
 			}
 			catch (Exception e) {
 				LOG.debug("Extended SMILES generation failed", e);
 			}
+			finally {
+				endSerialisation(startTime);
+			}
 		}
 		return null;
 	}
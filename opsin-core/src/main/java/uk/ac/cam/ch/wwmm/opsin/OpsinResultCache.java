@@ -0,0 +1,232 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import uk.ac.cam.ch.wwmm.opsin.OpsinResult.OPSIN_RESULT_STATUS;
+
+/**
+ * A bounded, thread-safe cache of the results of interpreting chemical names.<br>
+ * Results are keyed by the preprocessed name and the options of the {@link NameToStructureConfig} used,
+ * and are stored in an immutable form. Each retrieval from the cache produces a new {@link OpsinResult}
+ * with its own copy of the structure.<br>
+ * The least recently used results are evicted when either the number of entries or the total number of atoms
+ * in the cached structures exceeds the given limits.
+ * Example usage:
+ * <pre>
+ * OpsinResultCache cache = new OpsinResultCache(100000);
+ * NameToStructureConfig n2sConfig = new NameToStructureConfig();
+ * n2sConfig.setResultCache(cache);
+ * nts.parseChemicalName(chemicalName, n2sConfig)
+ * </pre>
+ *
+ */
+public class OpsinResultCache {
+	private static final Logger LOG = LogManager.getLogger(OpsinResultCache.class);
+
+	private final int maxEntries;
+	private final long maxAtoms;
+	private final LinkedHashMap<Key, CachedResult> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalAtoms = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Creates a cache that holds at most the given number of results
+	 * @param maxEntries
+	 */
+	public OpsinResultCache(int maxEntries) {
+		this(maxEntries, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a cache that holds at most the given number of results, and whose cached structures
+	 * in total contain at most the given number of atoms
+	 * @param maxEntries
+	 * @param maxAtoms
+	 */
+	public OpsinResultCache(int maxEntries, long maxAtoms) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Maximum number of entries must be at least 1");
+		}
+		if (maxAtoms < 1) {
+			throw new IllegalArgumentException("Maximum number of atoms must be at least 1");
+		}
+		this.maxEntries = maxEntries;
+		this.maxAtoms = maxAtoms;
+	}
+
+	/**
+	 * Returns a new OpsinResult for the given chemical name from the cache, or null if not present
+	 * @param preProcessedName
+	 * @param n2sConfig
+	 * @param chemicalName
+	 * @return
+	 */
+	OpsinResult get(String preProcessedName, NameToStructureConfig n2sConfig, String chemicalName) {
+		CachedResult cachedResult;
+		synchronized (this) {
+			cachedResult = cache.get(new Key(preProcessedName, n2sConfig));
+			if (cachedResult != null) {
+				hits++;
+			}
+			else {
+				misses++;
+			}
+		}
+		return cachedResult != null ? cachedResult.toOpsinResult(chemicalName) : null;
+	}
+
+	/**
+	 * Caches the given result. Should be called before the result has been used to generate any output.
+	 * @param preProcessedName
+	 * @param n2sConfig
+	 * @param result
+	 */
+	void put(String preProcessedName, NameToStructureConfig n2sConfig, OpsinResult result) {
+		CachedResult cachedResult;
+		try {
+			cachedResult = new CachedResult(result);
+		}
+		catch (RuntimeException e) {
+			LOG.debug("Result could not be cached", e);
+			return;
+		}
+		if (cachedResult.atomCount > maxAtoms) {
+			return;
+		}
+		synchronized (this) {
+			CachedResult previous = cache.put(new Key(preProcessedName, n2sConfig), cachedResult);
+			if (previous != null) {
+				totalAtoms -= previous.atomCount;
+			}
+			totalAtoms += cachedResult.atomCount;
+			Iterator<CachedResult> it = cache.values().iterator();
+			while (cache.size() > maxEntries || totalAtoms > maxAtoms) {
+				CachedResult eldest = it.next();
+				it.remove();
+				totalAtoms -= eldest.atomCount;
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * The number of chemical names whose results were retrieved from the cache
+	 * @return number of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * The number of chemical names that were not found in the cache
+	 * @return number of cache misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * The number of results that have been removed to keep the cache within its limits
+	 * @return number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * The number of results currently cached
+	 * @return number of entries
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * The total number of atoms in the currently cached structures
+	 * @return number of atoms
+	 */
+	public synchronized long getAtomCount() {
+		return totalAtoms;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public long getMaxAtoms() {
+		return maxAtoms;
+	}
+
+	/**
+	 * Empties the cache and resets its statistics
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		totalAtoms = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private static class Key {
+		private final String preProcessedName;
+		private final int optionFlags;
+		private final int fusedRingNumberingBudget;
+
+		Key(String preProcessedName, NameToStructureConfig n2sConfig) {
+			this.preProcessedName = preProcessedName;
+			this.optionFlags = n2sConfig.getOptionFlags();
+			this.fusedRingNumberingBudget = n2sConfig.getFusedRingNumberingBudget();
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * preProcessedName.hashCode() + optionFlags) + fusedRingNumberingBudget;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj instanceof Key) {
+				Key other = (Key) obj;
+				return optionFlags == other.optionFlags && fusedRingNumberingBudget == other.fusedRingNumberingBudget &&
+						preProcessedName.equals(other.preProcessedName);
+			}
+			return false;
+		}
+	}
+
+	private static class CachedResult {
+		private final OPSIN_RESULT_STATUS status;
+		private final String message;
+		private final List<OpsinWarning> warnings;
+		/**null if no structure was generated*/
+		private final FragmentTemplate structure;
+		private final int atomCount;
+
+		CachedResult(OpsinResult result) {
+			this.status = result.getStatus();
+			this.message = result.getMessage();
+			this.warnings = Collections.unmodifiableList(new ArrayList<>(result.getWarnings()));
+			Fragment frag = result.getStructure();
+			this.structure = frag != null ? new FragmentTemplate(frag) : null;
+			this.atomCount = frag != null ? frag.getAtomCount() : 0;
+		}
+
+		OpsinResult toOpsinResult(String chemicalName) {
+			Fragment frag = structure != null ? structure.instantiateWithOriginalIds() : null;
+			return new OpsinResult(frag, status, message, warnings, chemicalName);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The time spent in each stage of interpreting a chemical name, and counts of the work done.<br>
+ * Collected when {@link NameToStructureConfig#setCollectTimings(boolean)} is enabled and retrieved using {@link OpsinResult#getTimings()}.
+ * All times are in nanoseconds.
+ *
+ */
+public class OpsinTimings {
+
+	private long preProcessingNanos;
+	private long parsingNanos;
+	private long annotatorStatesExplored;
+	private boolean resultFromCache;
+	private final List<CandidateParseTimings> candidateParses = new ArrayList<>();
+	private final AtomicLong serialisationNanos = new AtomicLong();
+
+	/**
+	 * The time spent on each stage of converting one of the candidate parses of a name to a structure
+	 *
+	 */
+	public static class CandidateParseTimings {
+		static final int NO_STAGE = 0;
+		static final int COMPONENT_GENERATION = 1;
+		static final int COMPONENT_PROCESSING = 2;
+		static final int STRUCTURE_BUILDING = 3;
+
+		private long componentGenerationNanos;
+		private long componentProcessingNanos;
+		private long structureBuildingNanos;
+		private int atomsBuilt;
+		private boolean successful;
+		private boolean pruned;
+		private int currentStage = NO_STAGE;
+		private long stageStartTime;
+
+		CandidateParseTimings() {
+		}
+
+		/**
+		 * Time spent by the ComponentGenerator e.g. nesting bracketing, processing locants
+		 * @return nanoseconds
+		 */
+		public long getComponentGenerationNanos() {
+			return componentGenerationNanos;
+		}
+
+		/**
+		 * Time spent by the ComponentProcessor converting the parse to fragments, including fused ring numbering
+		 * @return nanoseconds
+		 */
+		public long getComponentProcessingNanos() {
+			return componentProcessingNanos;
+		}
+
+		/**
+		 * Time spent by the StructureBuilder assembling the fragments into a structure and applying stereochemistry
+		 * @return nanoseconds
+		 */
+		public long getStructureBuildingNanos() {
+			return structureBuildingNanos;
+		}
+
+		/**
+		 * The number of atoms created whilst processing this parse, including those of intermediate fragments
+		 * @return number of atoms
+		 */
+		public int getAtomsBuilt() {
+			return atomsBuilt;
+		}
+
+		/**
+		 * Whether a structure was generated from this parse
+		 * @return true if a structure was generated
+		 */
+		public boolean isSuccessful() {
+			return successful;
+		}
+
+		/**
+		 * Whether this parse was abandoned, before any fragments were built, as it could not be converted to a structure
+		 * @return true if the parse was pruned
+		 */
+		public boolean isPruned() {
+			return pruned;
+		}
+
+		/**
+		 * Ends the timing of the current stage, if any, and starts timing the given stage
+		 * @param stage
+		 */
+		void startStage(int stage) {
+			long now = System.nanoTime();
+			endCurrentStage(now);
+			currentStage = stage;
+			stageStartTime = now;
+		}
+
+		/**
+		 * Ends the timing of the current stage, which may have been ended by an exception
+		 * @param state
+		 * @param successful
+		 */
+		void finish(BuildState state, boolean successful) {
+			endCurrentStage(System.nanoTime());
+			currentStage = NO_STAGE;
+			this.atomsBuilt = state.getAtomsCreated();
+			this.successful = successful;
+		}
+
+		/**
+		 * Ends the timing of the current stage, recording that the parse was abandoned before any fragments were built
+		 * @param state
+		 */
+		void finishPruned(BuildState state) {
+			finish(state, false);
+			this.pruned = true;
+		}
+
+		private void endCurrentStage(long now) {
+			long elapsed = now - stageStartTime;
+			switch (currentStage) {
+			case COMPONENT_GENERATION:
+				componentGenerationNanos += elapsed;
+				break;
+			case COMPONENT_PROCESSING:
+				componentProcessingNanos += elapsed;
+				break;
+			case STRUCTURE_BUILDING:
+				structureBuildingNanos += elapsed;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	OpsinTimings() {
+	}
+
+	/**
+	 * Time spent preprocessing the name e.g. normalising characters
+	 * @return nanoseconds
+	 */
+	public long getPreProcessingNanos() {
+		return preProcessingNanos;
+	}
+
+	/**
+	 * Time spent tokenising the name and applying word rules to produce candidate parses
+	 * @return nanoseconds
+	 */
+	public long getParsingNanos() {
+		return parsingNanos;
+	}
+
+	/**
+	 * The candidate parses that were converted to structures, in the order they were tried
+	 * @return timings for each parse tried
+	 */
+	public List<CandidateParseTimings> getCandidateParses() {
+		return Collections.unmodifiableList(candidateParses);
+	}
+
+	/**
+	 * Total time spent by the ComponentGenerator over all candidate parses
+	 * @return nanoseconds
+	 */
+	public long getComponentGenerationNanos() {
+		long total = 0;
+		for (CandidateParseTimings parseTimings : candidateParses) {
+			total += parseTimings.componentGenerationNanos;
+		}
+		return total;
+	}
+
+	/**
+	 * Total time spent by the ComponentProcessor over all candidate parses
+	 * @return nanoseconds
+	 */
+	public long getComponentProcessingNanos() {
+		long total = 0;
+		for (CandidateParseTimings parseTimings : candidateParses) {
+			total += parseTimings.componentProcessingNanos;
+		}
+		return total;
+	}
+
+	/**
+	 * Total time spent by the StructureBuilder over all candidate parses
+	 * @return nanoseconds
+	 */
+	public long getStructureBuildingNanos() {
+		long total = 0;
+		for (CandidateParseTimings parseTimings : candidateParses) {
+			total += parseTimings.structureBuildingNanos;
+		}
+		return total;
+	}
+
+	/**
+	 * Total time spent generating output (e.g. SMILES, CML or InChI) from the result so far
+	 * @return nanoseconds
+	 */
+	public long getSerialisationNanos() {
+		return serialisationNanos.get();
+	}
+
+	/**
+	 * Total time spent interpreting the name, excluding serialisation
+	 * @return nanoseconds
+	 */
+	public long getTotalNanos() {
+		return preProcessingNanos + parsingNanos + getComponentGenerationNanos() + getComponentProcessingNanos() + getStructureBuildingNanos();
+	}
+
+	/**
+	 * The number of candidate parses that were converted to structures
+	 * @return number of parses tried
+	 */
+	public int getParsesTried() {
+		return candidateParses.size();
+	}
+
+	/**
+	 * The number of candidate parses that were abandoned, before any fragments were built, as they could not be converted to a structure
+	 * @return number of parses pruned
+	 */
+	public int getParsesPruned() {
+		int pruned = 0;
+		for (CandidateParseTimings parse : candidateParses) {
+			if (parse.isPruned()) {
+				pruned++;
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * The number of states explored by the tokeniser's grammar. Words whose tokenisation was cached do not contribute.
+	 * @return number of annotator states
+	 */
+	public long getAnnotatorStatesExplored() {
+		return annotatorStatesExplored;
+	}
+
+	/**
+	 * The number of atoms created over all candidate parses
+	 * @return number of atoms
+	 */
+	public int getAtomsBuilt() {
+		int total = 0;
+		for (CandidateParseTimings parseTimings : candidateParses) {
+			total += parseTimings.atomsBuilt;
+		}
+		return total;
+	}
+
+	/**
+	 * Whether the result was retrieved from a {@link OpsinResultCache}, in which case only preprocessing was performed
+	 * @return true if the result was cached
+	 */
+	public boolean isResultFromCache() {
+		return resultFromCache;
+	}
+
+	void setPreProcessingNanos(long preProcessingNanos) {
+		this.preProcessingNanos = preProcessingNanos;
+	}
+
+	void setParsingNanos(long parsingNanos) {
+		this.parsingNanos = parsingNanos;
+	}
+
+	void setAnnotatorStatesExplored(long annotatorStatesExplored) {
+		this.annotatorStatesExplored = annotatorStatesExplored;
+	}
+
+	void setResultFromCache(boolean resultFromCache) {
+		this.resultFromCache = resultFromCache;
+	}
+
+	CandidateParseTimings addCandidateParse() {
+		CandidateParseTimings parseTimings = new CandidateParseTimings();
+		candidateParses.add(parseTimings);
+		return parseTimings;
+	}
+
+	void addSerialisationNanos(long nanos) {
+		serialisationNanos.addAndGet(nanos);
+	}
+
+	@Override
+	public String toString() {
+		return "preProcessing=" + preProcessingNanos + "ns parsing=" + parsingNanos +
+				"ns componentGeneration=" + getComponentGenerationNanos() + "ns componentProcessing=" + getComponentProcessingNanos() +
+				"ns structureBuilding=" + getStructureBuildingNanos() + "ns serialisation=" + getSerialisationNanos() +
+				"ns parsesTried=" + getParsesTried() + " parsesPruned=" + getParsesPruned() + " annotatorStatesExplored=" + annotatorStatesExplored +
+				" atomsBuilt=" + getAtomsBuilt() + (resultFromCache ? " (cached)" : "");
+	}
+}
@@ -32,6 +32,17 @@ class OpsinTools {
 	static final char END_OF_FUNCTIONALTERM = '\u00FB';
 	
 	static final String NEWLINE = System.getProperty("line.separator");
+
+	/**
+	 * Throws a StructureBuildingException if the current thread has been interrupted e.g. as the name's interpretation timed out,
+	 * so that the thread stops working on the name. The thread's interrupted status is left set
+	 * @throws StructureBuildingException
+	 */
+	static void checkForInterrupt() throws StructureBuildingException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new StructureBuildingException("Interpretation of the name was interrupted");
+		}
+	}
 	
 
 	static boolean isBiochemical(String type, String subType) {
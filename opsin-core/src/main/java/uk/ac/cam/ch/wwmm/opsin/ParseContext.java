@@ -0,0 +1,69 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+/**
+ * The machinery used to convert a parse to a structure: a {@link BuildState} and the ComponentGenerator,
+ * ComponentProcessor and StructureBuilder that operate on it.
+ * These are created once and reset before each parse, rather than being created for every parse of every name.<br>
+ * A ParseContext is not thread-safe, {@link NameToStructure} keeps one per thread.
+ *
+ */
+class ParseContext {
+
+	private final BuildState state;
+	private final ComponentGenerator componentGenerator;
+	private final ComponentProcessor componentProcessor;
+	private final StructureBuilder structureBuilder;
+	private boolean inUse = false;
+
+	ParseContext(SuffixRules suffixRules) {
+		state = new BuildState(null);
+		componentGenerator = new ComponentGenerator(state);
+		componentProcessor = new ComponentProcessor(state, new SuffixApplier(state, suffixRules));
+		structureBuilder = new StructureBuilder(state);
+	}
+
+	/**
+	 * Marks this context as being in use.
+	 * Returns false if it is already in use, in which case a new context should be used instead
+	 * @return
+	 */
+	boolean acquire() {
+		if (inUse) {
+			return false;
+		}
+		inUse = true;
+		return true;
+	}
+
+	/**
+	 * Marks this context as no longer being in use, and clears references to the last structure built
+	 */
+	void release() {
+		state.reset(null);
+		structureBuilder.reset();
+		inUse = false;
+	}
+
+	/**
+	 * Resets the context so that a new parse can be processed
+	 * @param n2sConfig
+	 * @return The BuildState for the parse
+	 */
+	BuildState startParse(NameToStructureConfig n2sConfig) {
+		state.reset(n2sConfig);
+		structureBuilder.reset();
+		return state;
+	}
+
+	ComponentGenerator getComponentGenerator() {
+		return componentGenerator;
+	}
+
+	ComponentProcessor getComponentProcessor() {
+		return componentProcessor;
+	}
+
+	StructureBuilder getStructureBuilder() {
+		return structureBuilder;
+	}
+}
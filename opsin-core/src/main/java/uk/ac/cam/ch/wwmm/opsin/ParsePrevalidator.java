@@ -0,0 +1,111 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static uk.ac.cam.ch.wwmm.opsin.XmlDeclarations.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Cheap checks, made after component generation but before any fragments are built,
+ * that identify candidate parses that cannot be converted to a structure.
+ * Such parses can be abandoned without the expense of building their fragments.<br>
+ * The checks are conservative; a parse that passes them may still fail to be converted.
+ *
+ */
+class ParsePrevalidator {
+
+	private ParsePrevalidator() {
+	}
+
+	/**
+	 * Returns why the given parse cannot be converted to a structure, or null if no reason was found
+	 * @param parse a parse that has been processed by the {@link ComponentGenerator}
+	 * @return
+	 */
+	static String findReasonParseIsImpossible(Element parse) {
+		int maxAtoms = 0;
+		int highestLocant = 0;
+		Deque<Element> stack = new ArrayDeque<>();
+		stack.add(parse);
+		while (!stack.isEmpty()) {
+			Element el = stack.removeLast();
+			String elName = el.getName();
+			if (elName.equals(GROUP_EL) || elName.equals(FUSEDRINGBRIDGE_EL)) {
+				maxAtoms += maxAtomsInSmiles(el.getAttributeValue(VALUE_ATR));
+				maxAtoms += maxAtomsInSmiles(el.getAttributeValue(ADDGROUP_ATR));
+			}
+			else if (elName.equals(LOCANT_EL)) {
+				highestLocant = Math.max(highestLocant, highestNumericLocant(el.getValue()));
+			}
+			String locantAtr = el.getAttributeValue(LOCANT_ATR);
+			if (locantAtr != null) {
+				highestLocant = Math.max(highestLocant, highestNumericLocant(locantAtr));
+			}
+			for (int i = el.getChildCount() - 1; i >= 0; i--) {
+				stack.add(el.getChild(i));
+			}
+		}
+		//numeric locants are never higher than the number of atoms in the ring/chain they refer to
+		if (highestLocant > maxAtoms) {
+			return "Locant " + highestLocant + " is higher than the number of atoms the name could describe (" + maxAtoms + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * An upper bound on the number of atoms described by some SMILES.
+	 * All letters outside of square brackets are counted, so e.g. Cl counts as two
+	 * @param smiles
+	 * @return
+	 */
+	private static int maxAtomsInSmiles(String smiles) {
+		if (smiles == null) {
+			return 0;
+		}
+		int atoms = 0;
+		boolean inBracket = false;
+		for (int i = 0, len = smiles.length(); i < len; i++) {
+			char ch = smiles.charAt(i);
+			if (ch == '[') {
+				atoms++;
+				inBracket = true;
+			}
+			else if (ch == ']') {
+				inBracket = false;
+			}
+			else if (!inBracket && (Character.isLetter(ch) || ch == '*')) {
+				atoms++;
+			}
+		}
+		return atoms;
+	}
+
+	/**
+	 * The highest of the comma separated locants that are purely numeric, or 0 if none are.
+	 * Locants with primes or letters e.g. 2', 4a, N1 are ignored
+	 * @param locantText
+	 * @return
+	 */
+	private static int highestNumericLocant(String locantText) {
+		int highest = 0;
+		int value = 0;
+		boolean numeric = true;
+		for (int i = 0, len = locantText.length(); i <= len; i++) {
+			char ch = i < len ? locantText.charAt(i) : ',';
+			if (ch == ',') {
+				if (numeric && value > highest) {
+					highest = value;
+				}
+				value = 0;
+				numeric = true;
+			}
+			else if (numeric && ch >= '0' && ch <= '9' && value < 100000) {
+				value = value * 10 + (ch - '0');
+			}
+			else {
+				numeric = false;
+			}
+		}
+		return highest;
+	}
+}
@@ -1,7 +1,7 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -35,19 +35,38 @@ public class ParseRules {
 	private final RunAutomaton[] symbolRegexAutomataDict;
 	private final Pattern[] symbolRegexesDict;
 	
-	private final AnnotatorState initialState;
+	/** Per thread working storage used when parsing a word */
+	private final ThreadLocal<ScratchContext> scratchContext;
+
+	/**System property that sets the maximum number of words whose parses are cached. By default nothing is cached*/
+	static final String CACHE_SIZE_PROPERTY = "opsin.parseRulesCacheSize";
+
+	/** Recently parsed words, null if caching is disabled */
+	private final ParseRulesCache cache;
 
 	/**
 	 * Creates a left to right parser that can parse a substituent/full/functional word
+	 * The number of cached parses is determined by the {@value #CACHE_SIZE_PROPERTY} system property
 	 * @param resourceManager
 	 */
 	ParseRules(ResourceManager resourceManager){
+		this(resourceManager, Integer.getInteger(CACHE_SIZE_PROPERTY, 0));
+	}
+
+	/**
+	 * Creates a left to right parser that can parse a substituent/full/functional word
+	 * @param resourceManager
+	 * @param cacheSize Maximum number of words whose parses are cached, 0 to disable caching
+	 */
+	ParseRules(ResourceManager resourceManager, int cacheSize){
+		this.cache = cacheSize > 0 ? new ParseRulesCache(cacheSize) : null;
 		this.chemAutomaton = resourceManager.getChemicalAutomaton();
 		this.symbolTokenNamesDict = resourceManager.getSymbolTokenNamesDict();
 		this.symbolRegexAutomataDict = resourceManager.getSymbolRegexAutomataDict();
 		this.symbolRegexesDict = resourceManager.getSymbolRegexesDict();
 		this.stateSymbols = chemAutomaton.getCharIntervals();
-		this.initialState = new AnnotatorState(chemAutomaton.getInitialState(), '\0', 0, true, null);
+		final int symbolCount = stateSymbols.length;
+		this.scratchContext = ThreadLocal.withInitial(() -> new ScratchContext(symbolCount));
 	}
 
 	/**Determines the possible annotations for a chemical word
@@ -55,54 +74,111 @@ public class ParseRules {
 	 * e.g. usually the list will have only one parse and the string will equal ""
 	 * For something like ethyloxime. The list will contain the parse for ethyl and the string will equal "oxime" as it was unparsable
 	 * For something like eth no parses would be found and the string will equal "eth"
+	 * Results may be shared between calls (see {@value #CACHE_SIZE_PROPERTY}) so should not be modified
 	 *
 	 * @param chemicalWord
 	 * @return Results of parsing
 	 * @throws ParsingException
 	 */
 	public ParseRulesResults getParses(String chemicalWord) throws ParsingException {
+		if (cache == null) {
+			return parse(chemicalWord);
+		}
+		ParseRulesResults results = cache.get(chemicalWord);
+		if (results == null) {
+			results = parse(chemicalWord);
+			cache.put(chemicalWord, results);
+		}
+		return results;
+	}
+
+	/**
+	 * The number of calls to {@link #getParses(String)} that were answered from the cache
+	 * @return number of cache hits, 0 if caching is disabled
+	 */
+	public long getCacheHits() {
+		return cache != null ? cache.getHits() : 0;
+	}
+
+	/**
+	 * The number of calls to {@link #getParses(String)} that required the word to be parsed
+	 * @return number of cache misses, 0 if caching is disabled
+	 */
+	public long getCacheMisses() {
+		return cache != null ? cache.getMisses() : 0;
+	}
+
+	/**
+	 * The total number of annotator states that the current thread has explored whilst parsing words.
+	 * Words whose parses were retrieved from the cache do not contribute
+	 * @return number of annotator states
+	 */
+	long getAnnotatorStatesExplored() {
+		return scratchContext.get().annotatorStatesExplored;
+	}
+
+	/**
+	 * Empties the cache of parses and resets the hit/miss counters
+	 */
+	public void clearCache() {
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	private ParseRulesResults parse(String chemicalWord) throws ParsingException {
+		ScratchContext scratch = scratchContext.get();
+		scratch.reset(chemicalWord);
+		try {
+			return parse(chemicalWord, scratch);
+		}
+		finally {
+			scratch.release();
+		}
+	}
+
+	private ParseRulesResults parse(String chemicalWord, ScratchContext scratch) throws ParsingException {
 		String chemicalWordLowerCase = StringTools.lowerCaseAsciiString(chemicalWord);
-		ArrayDeque<AnnotatorState> asStack = new ArrayDeque<>();
-		asStack.add(initialState);
+		int initialState = scratch.addState(chemAutomaton.getInitialState(), '\0', 0, true, -1);
+		scratch.push(initialState);
 
 		int posInNameOfLastSuccessfulAnnotations = 0;
-		List<AnnotatorState> successfulAnnotations = new ArrayList<>();
-		AnnotatorState longestAnnotation = initialState;//this is the longest annotation. It does not necessarily end in an accept state
+		int longestAnnotation = initialState;//this is the longest annotation. It does not necessarily end in an accept state
+		int[] matchEnds = scratch.matchEnds;
 		int stateSymbolsSize = stateSymbols.length;
-		while (!asStack.isEmpty()) {
-			AnnotatorState as = asStack.removeLast();//depth-first avoids pathological memory consumption if parsing ambiguity is encountered
-			int posInName = as.getPosInName();
-			if (chemAutomaton.isAccept(as.getState())){
+		while (scratch.stackSize > 0) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new ParsingException("Parsing of " + chemicalWord + " was interrupted");
+			}
+			int as = scratch.pop();//depth-first avoids pathological memory consumption if parsing ambiguity is encountered
+			int posInName = scratch.positions[as];
+			int state = scratch.states[as];
+			if (chemAutomaton.isAccept(state)){
 				if (posInName >= posInNameOfLastSuccessfulAnnotations){//this annotation is worthy of consideration
 					if (posInName > posInNameOfLastSuccessfulAnnotations){//this annotation is longer than any previously found annotation
-						successfulAnnotations.clear();
+						scratch.successfulCount = 0;
 						posInNameOfLastSuccessfulAnnotations = posInName;
 					}
-					else if (successfulAnnotations.size() > 128){
+					else if (scratch.successfulCount > 128){
 						throw new ParsingException("Ambiguity in OPSIN's chemical grammar has produced more than 128 annotations. Parsing has been aborted. Please report this as a bug");
 					}
-					successfulAnnotations.add(as);
+					scratch.addSuccessful(as);
 				}
 			}
 			//record the longest annotation found so it can be reported to the user for debugging
-			if (posInName > longestAnnotation.getPosInName()){
+			if (posInName > scratch.positions[longestAnnotation]){
 				longestAnnotation = as;
 			}
 
 			for (int i = 0; i < stateSymbolsSize; i++) {
 				char annotationCharacter = stateSymbols[i];
-				int potentialNextState = chemAutomaton.step(as.getState(), annotationCharacter);
+				int potentialNextState = chemAutomaton.step(state, annotationCharacter);
 				if (potentialNextState != -1) {//-1 means this state is not accessible from the previous state
 					OpsinRadixTrie possibleTokenisationsTrie = symbolTokenNamesDict[i];
 					if (possibleTokenisationsTrie != null) {
-						List<Integer> possibleTokenisations = possibleTokenisationsTrie.findMatches(chemicalWordLowerCase, posInName);
-						if (possibleTokenisations != null) {//next could be a token
-							for (int j = 0, l = possibleTokenisations.size(); j < l; j++) {//typically list size will be 1 so this is faster than an iterator
-								int tokenizationIndex = possibleTokenisations.get(j);
-								AnnotatorState newAs = new AnnotatorState(potentialNextState, annotationCharacter, tokenizationIndex, false, as);
-								//System.out.println("tokened " + chemicalWordLowerCase.substring(posInName, tokenizationIndex));
-								asStack.add(newAs);
-							}
+						int matchCount = possibleTokenisationsTrie.findMatches(chemicalWordLowerCase, posInName, matchEnds);
+						for (int j = 0; j < matchCount; j++) {//next could be a token
+							scratch.push(scratch.addState(potentialNextState, annotationCharacter, matchEnds[j], false, as));
 						}
 					}
 					RunAutomaton possibleAutomata = symbolRegexAutomataDict[i];
@@ -110,55 +186,179 @@ public class ParseRules {
 						int matchLength = possibleAutomata.run(chemicalWord, posInName);
 						if (matchLength != -1){//matchLength = -1 means it did not match
 							int tokenizationIndex = posInName + matchLength;
-							AnnotatorState newAs = new AnnotatorState(potentialNextState, annotationCharacter, tokenizationIndex, true, as);
-							//System.out.println("neword automata " + chemicalWord.substring(posInName, tokenizationIndex));
-							asStack.add(newAs);
+							scratch.push(scratch.addState(potentialNextState, annotationCharacter, tokenizationIndex, true, as));
 						}
 					}
 					Pattern possibleRegex = symbolRegexesDict[i];
 					if (possibleRegex != null) {//next could be a regex
-						Matcher mat = possibleRegex.matcher(chemicalWord).region(posInName, chemicalWord.length());
-						mat.useTransparentBounds(true);
+						Matcher mat = scratch.getMatcher(i, possibleRegex).region(posInName, chemicalWord.length());
 						if (mat.lookingAt()) {//match at start
-							int tokenizationIndex = posInName + mat.group(0).length();
-							AnnotatorState newAs = new AnnotatorState(potentialNextState, annotationCharacter, tokenizationIndex, true, as);
-							//System.out.println("neword regex " + mat.group(0));
-							asStack.add(newAs);
+							int tokenizationIndex = mat.end();
+							scratch.push(scratch.addState(potentialNextState, annotationCharacter, tokenizationIndex, true, as));
 						}
 					}
 				}
 			}
 		}
-		List<ParseTokens> outputList = new ArrayList<>();
+		List<ParseTokens> outputList = new ArrayList<>(scratch.successfulCount);
 		String uninterpretableName = chemicalWord;
-		String unparseableName = chemicalWord.substring(longestAnnotation.getPosInName());
-		if (successfulAnnotations.size() > 0){//at least some of the name could be interpreted into a substituent/full/functionalTerm
+		String unparseableName = chemicalWord.substring(scratch.positions[longestAnnotation]);
+		if (scratch.successfulCount > 0){//at least some of the name could be interpreted into a substituent/full/functionalTerm
 			int bestAcceptPosInName = -1;
-			for(AnnotatorState as : successfulAnnotations) {
-				outputList.add(convertAnnotationStateToParseTokens(as, chemicalWord, chemicalWordLowerCase));
-				bestAcceptPosInName = as.getPosInName();//all acceptable annotator states found should have the same posInName
+			for (int i = 0; i < scratch.successfulCount; i++) {
+				int as = scratch.successful[i];
+				outputList.add(convertAnnotationStateToParseTokens(scratch, as, chemicalWord, chemicalWordLowerCase));
+				bestAcceptPosInName = scratch.positions[as];//all acceptable annotator states found should have the same posInName
 			}
 			uninterpretableName = chemicalWord.substring(bestAcceptPosInName);
 		}
-		return new ParseRulesResults(outputList, uninterpretableName, unparseableName);
+		return new ParseRulesResults(Collections.unmodifiableList(outputList), uninterpretableName, unparseableName);
 	}
 
-	private ParseTokens convertAnnotationStateToParseTokens(AnnotatorState as, String chemicalWord, String chemicalWordLowerCase) {
+	private ParseTokens convertAnnotationStateToParseTokens(ScratchContext scratch, int as, String chemicalWord, String chemicalWordLowerCase) {
 		List<String> tokens = new ArrayList<>();
 		List<Character> annotations = new ArrayList<>();
-		AnnotatorState previousAs;
-		while ((previousAs = as.getPreviousAs()) != null) {
-			if (as.isCaseSensitive()) {
-				tokens.add(chemicalWord.substring(previousAs.getPosInName(), as.getPosInName()));
+		int previousAs;
+		while ((previousAs = scratch.previous[as]) != -1) {
+			if (scratch.caseSensitive[as]) {
+				tokens.add(chemicalWord.substring(scratch.positions[previousAs], scratch.positions[as]));
 			}
 			else{
-				tokens.add(chemicalWordLowerCase.substring(previousAs.getPosInName(), as.getPosInName()));
+				tokens.add(chemicalWordLowerCase.substring(scratch.positions[previousAs], scratch.positions[as]));
 			}
-			annotations.add(as.getAnnot());
+			annotations.add(scratch.annotations[as]);
 			as = previousAs;
 		}
 		Collections.reverse(tokens);
 		Collections.reverse(annotations);
 		return new ParseTokens(tokens, annotations);
 	}
+
+	/**
+	 * Working storage for {@link ParseRules#getParses(String)}, reused by each call on the same thread.
+	 * Annotator states are held in parallel arrays and referred to by index, the previous state of the initial state being -1
+	 */
+	private static final class ScratchContext {
+		/**Arrays larger than this are discarded after use, so that a pathological word does not permanently increase memory usage*/
+		private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+		private static final int INITIAL_CAPACITY = 64;
+
+		private int[] states;
+		private char[] annotations;
+		private int[] positions;
+		private boolean[] caseSensitive;
+		private int[] previous;
+		private int stateCount;
+		/**Running total of states added, over all words*/
+		private long annotatorStatesExplored;
+
+		private int[] stack;
+		private int stackSize;
+
+		private int[] successful;
+		private int successfulCount;
+
+		/**Buffer for the ends of token matches, large enough to hold a match ending at every position in the word*/
+		private int[] matchEnds = new int[INITIAL_CAPACITY];
+
+		/**Reusable matchers, indexed by grammar symbol*/
+		private final Matcher[] matchers;
+		private String currentWord;
+
+		ScratchContext(int symbolCount) {
+			matchers = new Matcher[symbolCount];
+			allocate();
+		}
+
+		private void allocate() {
+			states = new int[INITIAL_CAPACITY];
+			annotations = new char[INITIAL_CAPACITY];
+			positions = new int[INITIAL_CAPACITY];
+			caseSensitive = new boolean[INITIAL_CAPACITY];
+			previous = new int[INITIAL_CAPACITY];
+			stack = new int[INITIAL_CAPACITY];
+			successful = new int[INITIAL_CAPACITY];
+		}
+
+		void reset(String chemicalWord) {
+			stateCount = 0;
+			stackSize = 0;
+			successfulCount = 0;
+			currentWord = chemicalWord;
+			if (matchEnds.length <= chemicalWord.length()) {
+				matchEnds = new int[chemicalWord.length() + 1];
+			}
+		}
+
+		/**
+		 * Discards oversized arrays and references to the word
+		 */
+		void release() {
+			currentWord = null;
+			if (states.length > MAX_RETAINED_CAPACITY || stack.length > MAX_RETAINED_CAPACITY) {
+				allocate();
+			}
+			if (matchEnds.length > MAX_RETAINED_CAPACITY) {
+				matchEnds = new int[INITIAL_CAPACITY];
+			}
+			for (Matcher matcher : matchers) {
+				if (matcher != null) {
+					matcher.reset("");
+				}
+			}
+		}
+
+		int addState(int state, char annotation, int posInName, boolean isCaseSensitive, int previousState) {
+			if (stateCount == states.length) {
+				int newCapacity = stateCount * 2;
+				states = Arrays.copyOf(states, newCapacity);
+				annotations = Arrays.copyOf(annotations, newCapacity);
+				positions = Arrays.copyOf(positions, newCapacity);
+				caseSensitive = Arrays.copyOf(caseSensitive, newCapacity);
+				previous = Arrays.copyOf(previous, newCapacity);
+			}
+			int idx = stateCount++;
+			annotatorStatesExplored++;
+			states[idx] = state;
+			annotations[idx] = annotation;
+			positions[idx] = posInName;
+			caseSensitive[idx] = isCaseSensitive;
+			previous[idx] = previousState;
+			return idx;
+		}
+
+		void push(int as) {
+			if (stackSize == stack.length) {
+				stack = Arrays.copyOf(stack, stackSize * 2);
+			}
+			stack[stackSize++] = as;
+		}
+
+		int pop() {
+			return stack[--stackSize];
+		}
+
+		void addSuccessful(int as) {
+			if (successfulCount == successful.length) {
+				successful = Arrays.copyOf(successful, successfulCount * 2);
+			}
+			successful[successfulCount++] = as;
+		}
+
+		/**
+		 * Returns a matcher for the given symbol's pattern, reset to match against the current word
+		 */
+		Matcher getMatcher(int symbolIdx, Pattern pattern) {
+			Matcher matcher = matchers[symbolIdx];
+			if (matcher == null) {
+				matcher = pattern.matcher(currentWord);
+				matcher.useTransparentBounds(true);
+				matchers[symbolIdx] = matcher;
+			}
+			else {
+				matcher.reset(currentWord);
+			}
+			return matcher;
+		}
+	}
 }
@@ -0,0 +1,115 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe, least recently used cache of the results of {@link ParseRules#getParses(String)}
+ * The cache is split into segments, each guarded by its own lock, to reduce contention when used from multiple threads
+ *
+ */
+class ParseRulesCache {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxSize The maximum number of words to retain results for
+	 */
+	ParseRulesCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be at least 1");
+		}
+		int segmentCount = Math.min(SEGMENT_COUNT, maxSize);
+		int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	/**
+	 * Returns the cached result for the given chemical word, or null if not present
+	 * @param chemicalWord
+	 * @return
+	 */
+	ParseRulesResults get(String chemicalWord) {
+		Segment segment = segmentFor(chemicalWord);
+		ParseRulesResults results;
+		synchronized (segment) {
+			results = segment.get(chemicalWord);
+		}
+		if (results != null) {
+			hits.incrementAndGet();
+		}
+		else {
+			misses.incrementAndGet();
+		}
+		return results;
+	}
+
+	/**
+	 * Caches the result for the given chemical word, evicting the least recently used entry if the cache is full
+	 * @param chemicalWord
+	 * @param results
+	 */
+	void put(String chemicalWord, ParseRulesResults results) {
+		Segment segment = segmentFor(chemicalWord);
+		synchronized (segment) {
+			segment.put(chemicalWord, results);
+		}
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	private Segment segmentFor(String chemicalWord) {
+		int h = chemicalWord.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	private static class Segment extends LinkedHashMap<String, ParseRulesResults> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ParseRulesResults> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
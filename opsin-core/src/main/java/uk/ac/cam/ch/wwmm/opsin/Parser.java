@@ -201,10 +201,26 @@ class Parser {
 		return componentRatios;
 	}
 
+	/**
+	 * Builds the resources used by {@link NameToStructureConfig#isDetailedFailureAnalysis()} on a background thread,
+	 * so that they are ready before the first name that cannot be parsed
+	 */
+	void prepareDetailedFailureAnalysis() {
+		Thread thread = new Thread(() -> {
+			try {
+				resourceManager.getReverseParseRules();
+			} catch (IOException e) {
+				LOG.warn("Failed to load resources for parsing names from right to left", e);
+			}
+		}, "OPSIN reverse parse rules");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	private void generateExactParseFailureReason(TokenizationResult tokenizationResult, String name) throws ParsingException {
 		ReverseParseRules reverseParseRules;
 		try {
-			reverseParseRules = new ReverseParseRules(resourceManager);
+			reverseParseRules = resourceManager.getReverseParseRules();
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to load resources for parsing names from right to left!",e);
 		}
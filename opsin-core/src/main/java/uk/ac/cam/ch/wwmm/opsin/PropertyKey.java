@@ -1,15 +1,36 @@
 package uk.ac.cam.ch.wwmm.opsin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * 
+ * A key for a property of an {@link Atom}.
+ * Each key is allocated a slot, its index in the array of property values held by each atom, hence
+ * keys should only be created as constants.
  * @author dl387
  *
  * @param <T>
  */
 class PropertyKey<T> {
+    private static final AtomicInteger slotsAllocated = new AtomicInteger();
+
     private final String name;
+    private final int slot;
 
     public PropertyKey(String name) {
         this.name = name;
+        this.slot = slotsAllocated.getAndIncrement();
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * The number of slots allocated so far i.e. the size of array that can hold the value of every property
+     * @return
+     */
+    static int getSlotCount() {
+        return slotsAllocated.get();
     }
 
     @Override
@@ -1,5 +1,6 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -8,6 +9,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 
 import javax.xml.stream.XMLInputFactory;
@@ -108,6 +110,25 @@ class ResourceGetter {
 		return null;
 	}
 
+	/**
+	 * Returns whether the given file is read from the working directory, rather than from resourcePath
+	 * @param name
+	 * @return
+	 */
+	boolean isOverriddenInWorkingDirectory(String name) {
+		return workingDirectory != null && getFile(name) != null;
+	}
+
+	/**
+	 * Returns the URL of the given file in resourcePath, ignoring any file in the working directory
+	 * @param name
+	 * @return the URL, or null if the file is not found
+	 */
+	URL getResourceUrl(String name) {
+		ClassLoader l = getClass().getClassLoader();
+		return l.getResource(resourcePath + name);
+	}
+
 	private File getResDir() {
 		File resourcesTop = new File(workingDirectory, "resources");
 		return new File(resourcesTop, resourcePath);
@@ -154,6 +175,45 @@ class ResourceGetter {
 		return url.openStream();
 	}
 
+	/**Fetches a data file from the working directory or resourcePath as a byte array.
+	 *
+	 * @param name The name of the file to read.
+	 * @return The contents of the file.
+	 * @throws IOException 
+	 */
+	byte[] getBytesFromFileName(String name) throws IOException {
+		if(name == null){
+			throw new IllegalArgumentException("Input to function was null");
+		}
+		if (workingDirectory!=null){
+			File f = getFile(name);
+			if(f != null) {
+				try (InputStream is = new FileInputStream(f)) {
+					return readFully(is, f.length());
+				}
+			}
+		}
+		ClassLoader l = getClass().getClassLoader();
+		URL url = l.getResource(resourcePath + name);
+		if (url == null){
+			throw new IOException("URL for resource: " + resourcePath + name + " is invalid");
+		}
+		URLConnection connection = url.openConnection();
+		try (InputStream is = connection.getInputStream()) {
+			return readFully(is, connection.getContentLengthLong());
+		}
+	}
+
+	private static byte[] readFully(InputStream is, long length) throws IOException {
+		if (length < 0 || length > Integer.MAX_VALUE) {
+			return IOUtils.toByteArray(is);
+		}
+		//reading directly into an array of the correct size is much faster for large files
+		byte[] bytes = new byte[(int) length];
+		new DataInputStream(is).readFully(bytes);
+		return bytes;
+	}
+
 	/**Sets up an output stream to which a resource file can be written; this
 	 * resource file will be in a subdirectory of the resources directory in
 	 * the working directory.
@@ -1,9 +1,16 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -48,15 +55,15 @@ class ResourceManager {
 	private final RunAutomaton chemicalAutomaton;
 	
 	
-	/**As symbolTokenNamesDict but the tokens are reversed*/
+	/**As symbolTokenNamesDict but the tokens are reversed. Only populated whilst building the ReverseParseRules*/
 	private OpsinRadixTrie[] symbolTokenNamesDictReversed;
 	/**As symbolRegexAutomataDict but automata are reversed */
 	private RunAutomaton[] symbolRegexAutomataDictReversed;
 	/**As symbolRegexesDict but regexes match the end of string */
 	private Pattern[] symbolRegexesDictReversed;
 	
-	/**The automaton which describes the grammar of a chemical name from right to left*/
-	private RunAutomaton reverseChemicalAutomaton;
+	/**Parses names from right to left. Built on first use, as this is only required to explain why names could not be parsed*/
+	private volatile ReverseParseRules reverseParseRules;
 
 	/**Generates the ResourceManager.
 	 * This involves reading in the token files, the regexToken file (regexTokens.xml) and the grammar file (regexes.xml).
@@ -78,6 +85,139 @@ class ResourceManager {
 		processRegexTokenFiles(false);
 	}
 
+	/**Generates the ResourceManager from a {@link ResourceSnapshot}.
+	 * The resourceGetter is still required to lazily generate the {@link ReverseParseRules}
+	 * @param resourceGetter
+	 * @param in the snapshot, positioned at the output of {@link #write(DataOutputStream)}
+	 * @throws IOException
+	 */
+	ResourceManager(ResourceGetter resourceGetter, ByteBuffer in) throws IOException {
+		this.resourceGetter = resourceGetter;
+		this.automatonInitialiser = new AutomatonInitialiser(resourceGetter.getResourcePath() + "serialisedAutomata/");
+		chemicalAutomaton = ResourceSnapshot.readAutomaton(in);
+		int grammarSymbolsSize = chemicalAutomaton.getCharIntervals().length;
+		symbolTokenNamesDict = new OpsinRadixTrie[grammarSymbolsSize];
+		symbolRegexAutomataDict = new RunAutomaton[grammarSymbolsSize];
+		symbolRegexesDict = new Pattern[grammarSymbolsSize];
+		for (int i = 0; i < grammarSymbolsSize; i++) {
+			byte present = in.get();
+			if ((present & 1) != 0) {
+				symbolTokenNamesDict[i] = OpsinRadixTrie.read(in);
+			}
+			if ((present & 2) != 0) {
+				symbolRegexAutomataDict[i] = ResourceSnapshot.readAutomaton(in);
+			}
+			if ((present & 4) != 0) {
+				symbolRegexesDict[i] = Pattern.compile(ResourceSnapshot.readString(in));
+			}
+		}
+		
+		TokenEl[] tokenEls = new TokenEl[in.getInt()];
+		for (int i = 0; i < tokenEls.length; i++) {
+			TokenEl el = new TokenEl(ResourceSnapshot.readString(in));
+			for (int j = 0, l = in.getInt(); j < l; j++) {
+				el.addAttribute(ResourceSnapshot.readString(in), ResourceSnapshot.readString(in));
+			}
+			tokenEls[i] = el;
+		}
+		for (int i = 0, l = in.getInt(); i < l; i++) {
+			String text = ResourceSnapshot.readString(in);
+			int symbolCount = in.getInt();
+			Map<Character, TokenEl> symbolToToken = new HashMap<>(symbolCount * 2);
+			for (int j = 0; j < symbolCount; j++) {
+				char symbol = in.getChar();
+				symbolToToken.put(symbol, readTokenEl(in, tokenEls));
+			}
+			tokenDict.put(text, symbolToToken);
+		}
+		for (int i = 0, l = in.getInt(); i < l; i++) {
+			char symbol = in.getChar();
+			reSymbolTokenDict.put(symbol, readTokenEl(in, tokenEls));
+		}
+	}
+
+	private static TokenEl readTokenEl(ByteBuffer in, TokenEl[] tokenEls) {
+		int index = in.getInt();
+		return index >= 0 ? tokenEls[index] : IGNORE_WHEN_WRITING_PARSE_TREE;
+	}
+
+	/**
+	 * Writes the left to right tokens and automata, for inclusion in a {@link ResourceSnapshot}
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		ResourceSnapshot.writeAutomaton(out, chemicalAutomaton);
+		for (int i = 0; i < symbolTokenNamesDict.length; i++) {
+			//flags indicating which of the trie, automaton and regex are present for this symbol
+			int present = (symbolTokenNamesDict[i] != null ? 1 : 0) | (symbolRegexAutomataDict[i] != null ? 2 : 0) | (symbolRegexesDict[i] != null ? 4 : 0);
+			out.writeByte(present);
+			if (symbolTokenNamesDict[i] != null) {
+				symbolTokenNamesDict[i].write(out);
+			}
+			if (symbolRegexAutomataDict[i] != null) {
+				ResourceSnapshot.writeAutomaton(out, symbolRegexAutomataDict[i]);
+			}
+			if (symbolRegexesDict[i] != null) {
+				ResourceSnapshot.writeString(out, symbolRegexesDict[i].pattern());
+			}
+		}
+
+		//sorted so that the output does not depend on the iteration order of the maps
+		Map<String, Map<Character, TokenEl>> sortedTokenDict = new TreeMap<>();
+		for (Entry<String, Map<Character, TokenEl>> entry : tokenDict.entrySet()) {
+			sortedTokenDict.put(entry.getKey(), new TreeMap<>(entry.getValue()));
+		}
+		Map<Character, TokenEl> sortedReSymbolTokenDict = new TreeMap<>(reSymbolTokenDict);
+
+		//TokenEls are shared between the tokens of a tokenList so are written once and referred to by index
+		Map<TokenEl, Integer> tokenElToIndex = new IdentityHashMap<>();
+		List<TokenEl> tokenEls = new ArrayList<>();
+		for (Map<Character, TokenEl> symbolToToken : sortedTokenDict.values()) {
+			for (TokenEl el : symbolToToken.values()) {
+				indexTokenEl(el, tokenElToIndex, tokenEls);
+			}
+		}
+		for (TokenEl el : sortedReSymbolTokenDict.values()) {
+			indexTokenEl(el, tokenElToIndex, tokenEls);
+		}
+		out.writeInt(tokenEls.size());
+		for (TokenEl el : tokenEls) {
+			ResourceSnapshot.writeString(out, el.getName());
+			out.writeInt(el.getAttributeCount());
+			for (int i = 0, l = el.getAttributeCount(); i < l; i++) {
+				Attribute atr = el.getAttribute(i);
+				ResourceSnapshot.writeString(out, atr.getName());
+				ResourceSnapshot.writeString(out, atr.getValue());
+			}
+		}
+		out.writeInt(sortedTokenDict.size());
+		for (Entry<String, Map<Character, TokenEl>> entry : sortedTokenDict.entrySet()) {
+			ResourceSnapshot.writeString(out, entry.getKey());
+			out.writeInt(entry.getValue().size());
+			for (Entry<Character, TokenEl> symbolToToken : entry.getValue().entrySet()) {
+				out.writeChar(symbolToToken.getKey());
+				writeTokenEl(out, symbolToToken.getValue(), tokenElToIndex);
+			}
+		}
+		out.writeInt(sortedReSymbolTokenDict.size());
+		for (Entry<Character, TokenEl> entry : sortedReSymbolTokenDict.entrySet()) {
+			out.writeChar(entry.getKey());
+			writeTokenEl(out, entry.getValue(), tokenElToIndex);
+		}
+	}
+
+	private static void indexTokenEl(TokenEl el, Map<TokenEl, Integer> tokenElToIndex, List<TokenEl> tokenEls) {
+		if (el != IGNORE_WHEN_WRITING_PARSE_TREE && !tokenElToIndex.containsKey(el)) {
+			tokenElToIndex.put(el, tokenEls.size());
+			tokenEls.add(el);
+		}
+	}
+
+	private static void writeTokenEl(DataOutputStream out, TokenEl el, Map<TokenEl, Integer> tokenElToIndex) throws IOException {
+		out.writeInt(el != IGNORE_WHEN_WRITING_PARSE_TREE ? tokenElToIndex.get(el) : -1);
+	}
+
 	/**
 	 * Processes tokenFiles
 	 * @param reversed Should the tokens be reversed
@@ -230,14 +370,15 @@ class ResourceManager {
 	}
 
 	private void addToken(String text, TokenEl el, Character symbol, int index, boolean reversed) {
-		Map<Character, TokenEl> symbolToToken = tokenDict.get(text);
-		if(symbolToToken == null) {
-			symbolToToken = new HashMap<>();
-			tokenDict.put(text, symbolToToken);
-		}
-		symbolToToken.put(symbol, el);
-
 		if (!reversed){
+			//tokenDict is populated when the constructor is called for left-right parsing, hence skip for right-left
+			Map<Character, TokenEl> symbolToToken = tokenDict.get(text);
+			if(symbolToToken == null) {
+				symbolToToken = new HashMap<>();
+				tokenDict.put(text, symbolToToken);
+			}
+			symbolToToken.put(symbol, el);
+
 			OpsinRadixTrie trie = symbolTokenNamesDict[index];
 			if(trie == null) {
 				trie = new OpsinRadixTrie();
@@ -441,19 +582,41 @@ class ResourceManager {
 		}
 	}
 
-	synchronized void populatedReverseTokenMappings() throws IOException{
-		if (reverseChemicalAutomaton == null){
-			reverseChemicalAutomaton = processChemicalGrammar(true);
+	/**
+	 * Returns the rules for parsing names from right to left.
+	 * These are built, from the token files, on the first call and then shared by all threads
+	 * @return
+	 * @throws IOException
+	 */
+	ReverseParseRules getReverseParseRules() throws IOException {
+		ReverseParseRules rules = reverseParseRules;
+		if (rules == null) {
+			synchronized (this) {
+				rules = reverseParseRules;
+				if (rules == null) {
+					rules = buildReverseParseRules();
+					reverseParseRules = rules;
+				}
+			}
 		}
+		return rules;
+	}
+
+	private ReverseParseRules buildReverseParseRules() throws IOException {
+		RunAutomaton reverseChemicalAutomaton = processChemicalGrammar(true);
 		int grammarSymbolsSize = reverseChemicalAutomaton.getCharIntervals().length;
-		if (symbolTokenNamesDictReversed == null){
-			symbolTokenNamesDictReversed = new OpsinRadixTrie[grammarSymbolsSize];
+		symbolTokenNamesDictReversed = new OpsinRadixTrie[grammarSymbolsSize];
+		symbolRegexAutomataDictReversed = new RunAutomaton[grammarSymbolsSize];
+		symbolRegexesDictReversed = new Pattern[grammarSymbolsSize];
+		try {
 			processTokenFiles(true);
-		}
-		if (symbolRegexAutomataDictReversed == null && symbolRegexesDictReversed==null){
-			symbolRegexAutomataDictReversed = new RunAutomaton[grammarSymbolsSize];
-			symbolRegexesDictReversed = new Pattern[grammarSymbolsSize];
 			processRegexTokenFiles(true);
+			return new ReverseParseRules(reverseChemicalAutomaton, symbolTokenNamesDictReversed, symbolRegexAutomataDictReversed, symbolRegexesDictReversed);
+		}
+		finally {
+			symbolTokenNamesDictReversed = null;
+			symbolRegexAutomataDictReversed = null;
+			symbolRegexesDictReversed = null;
 		}
 	}
 
@@ -501,21 +664,5 @@ class ResourceManager {
 	Pattern[] getSymbolRegexesDict() {
 		return symbolRegexesDict;
 	}
-
-	RunAutomaton getReverseChemicalAutomaton() {
-		return reverseChemicalAutomaton;
-	}
-
-	OpsinRadixTrie[] getSymbolTokenNamesDictReversed() {
-		return symbolTokenNamesDictReversed;
-	}
-
-	RunAutomaton[] getSymbolRegexAutomataDictReversed() {
-		return symbolRegexAutomataDictReversed;
-	}
-
-	Pattern[] getSymbolRegexesDictReversed() {
-		return symbolRegexesDictReversed;
-	}
 	
 }
@@ -0,0 +1,362 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * A prebuilt binary form of the state of {@link ResourceManager}, {@link WordRules} and {@link SuffixRules}.
+ * This allows OPSIN to be initialised without parsing its XML resources or building/deserialising automata individually.<br>
+ * The snapshot is generated at build time by {@link #main(String[])}, which also writes a small stamp file holding OPSIN's version
+ * and a checksum of the resource files the snapshot was generated from. The same stamp is recorded in the snapshot,
+ * so a snapshot is not used with the stamp file of a different build.<br>
+ * The snapshot is ignored, and the resources are loaded from XML as usual, if any of the resource files are overridden in the working directory,
+ * or are found at a different location on the classpath to the snapshot, e.g. a modified copy of a resource file in an earlier classpath entry.
+ * These checks do not read the resource files, so resource files that are edited alongside the snapshot are not detected.
+ * Setting the system property opsin.verifyResourceSnapshot to true checks the snapshot against a checksum of the resource files,
+ * e.g. when developing OPSIN's resources.
+ * Use of the snapshot can be disabled by setting the system property opsin.useResourceSnapshot to false.
+ *
+ */
+class ResourceSnapshot {
+	private static final Logger LOG = LogManager.getLogger(ResourceSnapshot.class);
+
+	static final String SNAPSHOT_FILE_NAME = "resourceSnapshot.bin";
+	static final String STAMP_FILE_NAME = "resourceSnapshot.stamp";
+	static final String USE_SNAPSHOT_PROPERTY = "opsin.useResourceSnapshot";
+	static final String VERIFY_SNAPSHOT_PROPERTY = "opsin.verifyResourceSnapshot";
+
+	private static final int MAGIC = 0x4F505352;
+	private static final int FORMAT_VERSION = 2;
+
+	private final ResourceManager resourceManager;
+	private final WordRules wordRules;
+	private final SuffixRules suffixRules;
+
+	private ResourceSnapshot(ResourceManager resourceManager, WordRules wordRules, SuffixRules suffixRules) {
+		this.resourceManager = resourceManager;
+		this.wordRules = wordRules;
+		this.suffixRules = suffixRules;
+	}
+
+	ResourceManager getResourceManager() {
+		return resourceManager;
+	}
+
+	WordRules getWordRules() {
+		return wordRules;
+	}
+
+	SuffixRules getSuffixRules() {
+		return suffixRules;
+	}
+
+	/**
+	 * Loads the resource snapshot, if one is available and is consistent with the resource files
+	 * @param resourceGetter
+	 * @return the snapshot, or null if the resources should instead be loaded from XML
+	 */
+	static ResourceSnapshot load(ResourceGetter resourceGetter) {
+		if (!Boolean.parseBoolean(System.getProperty(USE_SNAPSHOT_PROPERTY, "true"))) {
+			return null;
+		}
+		ByteBuffer in;
+		String stamp;
+		try {
+			in = ByteBuffer.wrap(resourceGetter.getBytesFromFileName(SNAPSHOT_FILE_NAME));
+			stamp = new String(resourceGetter.getBytesFromFileName(STAMP_FILE_NAME), StandardCharsets.UTF_8).trim();
+		}
+		catch (IOException e) {
+			LOG.debug("No resource snapshot is available");
+			return null;
+		}
+		try {
+			return read(in, resourceGetter, stamp, Boolean.getBoolean(VERIFY_SNAPSHOT_PROPERTY));
+		}
+		catch (IOException | RuntimeException e) {
+			LOG.warn("Resource snapshot could not be read, resources will be loaded from XML", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(OutputStream, ResourceGetter, ResourceManager, WordRules, SuffixRules)}
+	 * @param in
+	 * @param resourceGetter
+	 * @param expectedStamp the stamp returned when the snapshot was written
+	 * @param verify whether to check the snapshot against a checksum of the resource files
+	 * @return the snapshot, or null if it is not consistent with the resource files
+	 * @throws IOException
+	 */
+	static ResourceSnapshot read(ByteBuffer in, ResourceGetter resourceGetter, String expectedStamp, boolean verify) throws IOException {
+		if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+			LOG.debug("Resource snapshot is in an unsupported format");
+			return null;
+		}
+		if (!readString(in).equals(expectedStamp)) {
+			LOG.debug("Resource snapshot does not match its stamp");
+			return null;
+		}
+		String[] sourceFiles = new String[in.getInt()];
+		for (int i = 0; i < sourceFiles.length; i++) {
+			sourceFiles[i] = readString(in);
+			if (resourceGetter.isOverriddenInWorkingDirectory(sourceFiles[i])) {
+				LOG.debug("Resources are overridden in the working directory, the resource snapshot will not be used");
+				return null;
+			}
+		}
+		if (!isFoundWithSnapshot(resourceGetter, sourceFiles)) {
+			LOG.debug("Resources are found at a different location on the classpath to the resource snapshot, the resource snapshot will not be used");
+			return null;
+		}
+		long checksum = in.getLong();
+		if (verify && checksum != checksum(resourceGetter, sourceFiles)) {
+			LOG.debug("Resource snapshot is out of date");
+			return null;
+		}
+		ResourceManager resourceManager = new ResourceManager(resourceGetter, in);
+		WordRules wordRules = new WordRules(in);
+		SuffixRules suffixRules = new SuffixRules(in);
+		return new ResourceSnapshot(resourceManager, wordRules, suffixRules);
+	}
+
+	/**
+	 * Writes a snapshot of the given resources, which should have been loaded from XML using the given resourceGetter
+	 * @param os
+	 * @param resourceGetter
+	 * @param resourceManager
+	 * @param wordRules
+	 * @param suffixRules
+	 * @return the stamp identifying the snapshot, which is required to read it
+	 * @throws IOException
+	 */
+	static String write(OutputStream os, ResourceGetter resourceGetter, ResourceManager resourceManager, WordRules wordRules, SuffixRules suffixRules) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		String[] sourceFiles = getSourceFiles(resourceGetter);
+		long checksum = checksum(resourceGetter, sourceFiles);
+		String version = NameToStructure.getVersion();
+		String stamp = (version != null ? version : "unknown") + " " + Long.toHexString(checksum);
+		writeString(out, stamp);
+		out.writeInt(sourceFiles.length);
+		for (String sourceFile : sourceFiles) {
+			writeString(out, sourceFile);
+		}
+		out.writeLong(checksum);
+		resourceManager.write(out);
+		wordRules.write(out);
+		suffixRules.write(out);
+		out.flush();
+		return stamp;
+	}
+
+	/**
+	 * The resource files from which the snapshot's contents are derived
+	 */
+	private static String[] getSourceFiles(ResourceGetter resourceGetter) throws IOException {
+		List<String> sourceFiles = new ArrayList<>();
+		sourceFiles.add("index.xml");
+		XMLStreamReader reader = resourceGetter.getXMLStreamReader("index.xml");
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+						reader.getLocalName().equals("tokenFile")) {
+					sourceFiles.add(reader.getElementText());
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new IOException("Parsing exception occurred while reading index.xml", e);
+		}
+		finally {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				throw new IOException("Parsing exception occurred while reading index.xml", e);
+			}
+		}
+		sourceFiles.add("regexTokens.xml");
+		sourceFiles.add("regexes.xml");
+		sourceFiles.add("wordRules.xml");
+		sourceFiles.add("suffixRules.xml");
+		sourceFiles.add("suffixApplicability.xml");
+		return sourceFiles.toArray(new String[sourceFiles.size()]);
+	}
+
+	/**
+	 * Checks that the stamp file and resource files are found in the same classpath entry (directory or jar) as the snapshot
+	 * @param resourceGetter
+	 * @param sourceFiles
+	 * @return
+	 */
+	private static boolean isFoundWithSnapshot(ResourceGetter resourceGetter, String[] sourceFiles) {
+		URL snapshotUrl = resourceGetter.getResourceUrl(SNAPSHOT_FILE_NAME);
+		if (snapshotUrl == null) {
+			//not on the classpath e.g. only in the working directory, so there is no location to compare
+			return true;
+		}
+		String snapshotLocation = snapshotUrl.toString();
+		String location = snapshotLocation.substring(0, snapshotLocation.length() - SNAPSHOT_FILE_NAME.length());
+		if (!isFoundAt(resourceGetter, STAMP_FILE_NAME, location)) {
+			return false;
+		}
+		for (String sourceFile : sourceFiles) {
+			if (!isFoundAt(resourceGetter, sourceFile, location)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isFoundAt(ResourceGetter resourceGetter, String name, String location) {
+		URL url = resourceGetter.getResourceUrl(name);
+		return url != null && url.toString().equals(location + name);
+	}
+
+	private static long checksum(ResourceGetter resourceGetter, String[] sourceFiles) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		for (String sourceFile : sourceFiles) {
+			crc.update(sourceFile.getBytes(StandardCharsets.UTF_8));
+			try (InputStream is = resourceGetter.getInputstreamFromFileName(sourceFile)) {
+				int read;
+				while ((read = is.read(buffer)) != -1) {
+					crc.update(buffer, 0, read);
+				}
+			}
+		}
+		return crc.getValue();
+	}
+
+	static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length == -1) {
+			return null;
+		}
+		String str = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return str;
+	}
+
+	static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+		out.writeInt(chars.length);
+		for (char c : chars) {
+			out.writeChar(c);
+		}
+	}
+
+	static char[] readChars(ByteBuffer in) {
+		char[] chars = new char[in.getInt()];
+		in.asCharBuffer().get(chars);
+		in.position(in.position() + chars.length * 2);
+		return chars;
+	}
+
+	static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+		out.writeInt(ints.length);
+		for (int i : ints) {
+			out.writeInt(i);
+		}
+	}
+
+	static int[] readInts(ByteBuffer in) {
+		int[] ints = new int[in.getInt()];
+		in.asIntBuffer().get(ints);
+		in.position(in.position() + ints.length * 4);
+		return ints;
+	}
+
+	static void writeBooleans(DataOutputStream out, boolean[] booleans) throws IOException {
+		out.writeInt(booleans.length);
+		for (boolean b : booleans) {
+			out.writeBoolean(b);
+		}
+	}
+
+	static boolean[] readBooleans(ByteBuffer in) {
+		boolean[] booleans = new boolean[in.getInt()];
+		for (int i = 0; i < booleans.length; i++) {
+			booleans[i] = in.get() != 0;
+		}
+		return booleans;
+	}
+
+	static void writeAutomaton(DataOutputStream out, RunAutomaton automaton) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		automaton.store(baos);
+		out.writeInt(baos.size());
+		baos.writeTo(out);
+	}
+
+	static RunAutomaton readAutomaton(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		InputStream is = new ByteArrayInputStream(in.array(), in.arrayOffset() + in.position(), length);
+		in.position(in.position() + length);
+		try {
+			return RunAutomaton.load(is);
+		}
+		catch (ClassNotFoundException e) {
+			throw new IOException("Error loading automaton", e);
+		}
+	}
+
+	/**
+	 * Generates the resource snapshot from OPSIN's XML resources.
+	 * Run at build time with the directory to which classes are compiled as the argument
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			throw new IllegalArgumentException("Usage: ResourceSnapshot outputDirectory");
+		}
+		String resourcePath = "uk/ac/cam/ch/wwmm/opsin/resources/";
+		ResourceGetter resourceGetter = new ResourceGetter(resourcePath);
+		ResourceManager resourceManager = new ResourceManager(resourceGetter);
+		WordRules wordRules = new WordRules(resourceGetter);
+		SuffixRules suffixRules = new SuffixRules(resourceGetter);
+		File outputDirectory = new File(args[0], resourcePath);
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Failed to create directory: " + outputDirectory);
+		}
+		String stamp;
+		try (OutputStream os = new FileOutputStream(new File(outputDirectory, SNAPSHOT_FILE_NAME))) {
+			stamp = write(os, resourceGetter, resourceManager, wordRules, suffixRules);
+		}
+		try (OutputStream os = new FileOutputStream(new File(outputDirectory, STAMP_FILE_NAME))) {
+			os.write(stamp.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
-import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
@@ -20,6 +19,8 @@ import dk.brics.automaton.RunAutomaton;
  * The chemical grammar employs the annotations associated with the tokens when deciding what may follow what has already been seen
  * e.g. you cannot start a chemical name with yl and an optional e is valid after an arylGroup
  *
+ * Instances are immutable and are shared by all threads, see {@link ResourceManager#getReverseParseRules()}
+ *
  * @author dl387
  *
  */
@@ -36,15 +37,16 @@ class ReverseParseRules {
 
 	/** 
 	 * Creates a right to left parser that can parse a substituent/full/functional word
-	 * @param resourceManager
-	 * @throws IOException 
+	 * @param chemAutomaton The reversed grammar of a chemical word
+	 * @param symbolTokenNamesDictReversed Tries of reversed tokens, indexed by annotation symbol
+	 * @param symbolRegexAutomataDictReversed Reversed regex automata, indexed by annotation symbol
+	 * @param symbolRegexesDictReversed Regexes matching at the end of a string, indexed by annotation symbol
 	 */
-	ReverseParseRules(ResourceManager resourceManager) throws IOException{
-		resourceManager.populatedReverseTokenMappings();
-		this.chemAutomaton = resourceManager.getReverseChemicalAutomaton();
-		this.symbolTokenNamesDictReversed = resourceManager.getSymbolTokenNamesDictReversed();
-		this.symbolRegexAutomataDictReversed = resourceManager.getSymbolRegexAutomataDictReversed();
-		this.symbolRegexesDictReversed = resourceManager.getSymbolRegexesDictReversed();
+	ReverseParseRules(RunAutomaton chemAutomaton, OpsinRadixTrie[] symbolTokenNamesDictReversed, RunAutomaton[] symbolRegexAutomataDictReversed, Pattern[] symbolRegexesDictReversed) {
+		this.chemAutomaton = chemAutomaton;
+		this.symbolTokenNamesDictReversed = symbolTokenNamesDictReversed;
+		this.symbolRegexAutomataDictReversed = symbolRegexAutomataDictReversed;
+		this.symbolRegexesDictReversed = symbolRegexesDictReversed;
 		this.stateSymbols = chemAutomaton.getCharIntervals();
 	}
 
@@ -116,6 +116,13 @@ class SMILESFragmentBuilder {
 		aromaticAtoms.add("te");
 	}
 	
+	/**Upper bound on the number of templates retained. SMILES are typically from OPSIN's resources,
+	 * but the least recently used templates are evicted so that a long running process retains those currently in use*/
+	private static final int MAX_CACHED_TEMPLATES = 20000;
+
+	/**Precompiled fragments keyed by labelMapping and SMILES. Shared by all builders*/
+	private static final FragmentTemplateCache templateCache = new FragmentTemplateCache(MAX_CACHED_TEMPLATES);
+
 	private final IDManager idManager;
 	
 	SMILESFragmentBuilder(IDManager idManager) {
@@ -724,6 +731,21 @@ class SMILESFragmentBuilder {
 		if (smiles.isEmpty()){
 			return fragment;
 		}
+		String templateKey = labelMapping + '\0' + smiles;
+		FragmentTemplate template = templateCache.get(templateKey);
+		if (template == null) {
+			//build with a private IDManager so that the ids used for the fragment are independent of whether the template was cached
+			Fragment templateFragment = new SMILESFragmentBuilder(new IDManager()).parse(smiles, new Fragment(fragment.getType()), labelMapping);
+			template = new FragmentTemplate(templateFragment);
+			templateCache.put(templateKey, template);
+		}
+		return template.instantiate(fragment, idManager);
+	}
+
+	/**
+	 * Parses the SMILES into the given fragment and performs labelling and valency setup
+	 */
+	private Fragment parse(String smiles, Fragment fragment, String labelMapping) throws StructureBuildingException {
 		ParserInstance instance = new ParserInstance(smiles, fragment);
 		instance.parseSmiles();
 		
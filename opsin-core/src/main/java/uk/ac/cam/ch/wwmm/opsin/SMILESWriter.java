@@ -1,5 +1,7 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,12 +33,54 @@ class SMILESWriter {
 	/**Closures 1-9, %10-99, 0 */
 	private static final  List<String> closureSymbols = new ArrayList<>();
 
+	/**The lower case symbol of each element, indexed by ordinal, used for atoms with spare valency*/
+	private static final String[] lowerCaseElementSymbols = new String[ChemEl.values().length];
 
-	/**The available ring closure symbols, ordered from start to end in the preferred order for use.*/
-	private final Deque<String> availableClosureSymbols = new ArrayDeque<>(closureSymbols);
+	/**Scratch builders larger than this are not retained for reuse*/
+	private static final int MAX_RETAINED_BUILDER_CAPACITY = 65536;
 
-	/**Maps between bonds and the ring closure to use when the atom that ends the bond is encountered.*/
-	private final HashMap<Bond, String> bondToClosureSymbolMap = new HashMap<>();
+	private static final ThreadLocal<Scratch> scratchForThread = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * Working state that is reused by successive SMILES writers on the same thread
+	 *
+	 */
+	private static class Scratch {
+		private StringBuilder smilesBuilder = new StringBuilder();
+		/**The available ring closures, as indices into closureSymbols, with the preferred closure at the top of the stack*/
+		private final int[] availableClosures = new int[closureSymbols.size()];
+		private int availableClosureCount;
+		/**Ring closures that become available once the current atom has been written*/
+		private final int[] newlyAvailableClosures = new int[closureSymbols.size()];
+		/**The ring closure used for each bond, indexed by the bond's index in the graph*/
+		private int[] bondToClosure = new int[0];
+		private final char[] charBuffer = new char[4096];
+		private boolean inUse = false;
+
+		private void reset(int bondCount) {
+			smilesBuilder.setLength(0);
+			availableClosureCount = availableClosures.length;
+			for (int i = 0; i < availableClosureCount; i++) {
+				availableClosures[i] = availableClosureCount - 1 - i;
+			}
+			if (bondToClosure.length < bondCount) {
+				bondToClosure = new int[bondCount];
+			}
+		}
+
+		private void release() {
+			if (smilesBuilder.capacity() > MAX_RETAINED_BUILDER_CAPACITY) {
+				smilesBuilder = new StringBuilder();
+			}
+			else {
+				smilesBuilder.setLength(0);
+			}
+			inUse = false;
+		}
+	}
+
+	/**Working state, shared with other SMILES writers on this thread*/
+	private final Scratch scratch;
 
 	/**Maps between bonds and the atom that this bond will go to in the SMILES. Populated in the order the bonds are to be made */
 	private final HashMap<Bond, Atom> bondToNextAtomMap = new LinkedHashMap<>();
@@ -44,8 +88,18 @@ class SMILESWriter {
 	/**The structure to be converted to SMILES*/
 	private final Fragment structure;
 
+	/**The atoms of the structure, by which they are referred to during traversal*/
+	private final CompactGraph graph;
+
+	/**How many bonds each atom is from the start of the walk of its component, or UNVISITED e.g. for implicit hydrogen*/
+	private final int[] depths;
+	private static final int UNVISITED = -1;
+
+	/**Whether each atom is a hydrogen that will be implicit in the SMILES*/
+	private boolean[] implicitProtons;
+
 	/**Holds the SMILES string which is under construction*/
-	private final StringBuilder smilesBuilder = new StringBuilder();
+	private final StringBuilder smilesBuilder;
 
 	/**Should extended SMILES be output*/
 	private int options;
@@ -74,6 +128,10 @@ class SMILESWriter {
 			closureSymbols.add("%"+i);
 		}
 		closureSymbols.add("0");
+
+		for (ChemEl chemEl : ChemEl.values()) {
+			lowerCaseElementSymbols[chemEl.ordinal()] = chemEl.toString().toLowerCase(Locale.ROOT);
+		}
 	}
 
 	/**
@@ -84,6 +142,17 @@ class SMILESWriter {
 	private SMILESWriter(Fragment structure, int options) {
 		this.structure = structure;
 		this.options = options;
+		this.graph = CompactGraph.fromConnectedAtoms(structure.getAtomList());
+		this.depths = new int[graph.getAtomCount()];
+		Arrays.fill(depths, UNVISITED);
+		Scratch threadScratch = scratchForThread.get();
+		if (threadScratch.inUse) {
+			threadScratch = new Scratch();
+		}
+		threadScratch.inUse = true;
+		threadScratch.reset(graph.getBondCount());
+		this.scratch = threadScratch;
+		this.smilesBuilder = threadScratch.smilesBuilder;
 	}
 
 	/**
@@ -96,7 +165,73 @@ class SMILESWriter {
 	 * @return SMILES String
 	 */
 	static String generateSmiles(Fragment structure, int options) {
-		return new SMILESWriter(structure, options).writeSmiles();
+		SMILESWriter writer = new SMILESWriter(structure, options);
+		try {
+			writer.buildSmiles();
+			return writer.smilesBuilder.toString();
+		}
+		finally {
+			writer.scratch.release();
+		}
+	}
+
+	/**
+	 * Generates SMILES for the given fragment for each of the given sets of options.
+	 * The atom ordering and traversal are shared between all options that agree on whether
+	 * enhanced stereochemistry is output (as this determines whether some stereocentres are written);
+	 * only the extended SMILES layers are generated separately.
+	 * The same assumptions are made as for {@link #generateSmiles(Fragment, int)}
+	 * @param structure
+	 * @param optionsList sets of {@link SmilesOptions}
+	 * @return SMILES Strings, in the same order as optionsList
+	 */
+	static String[] generateSmiles(Fragment structure, int[] optionsList) {
+		String[] smiles = new String[optionsList.length];
+		for (int i = 0; i < optionsList.length; i++) {
+			if (smiles[i] != null) {
+				continue;
+			}
+			int enhancedStereo = optionsList[i] & SmilesOptions.CXSMILES_ENHANCED_STEREO;
+			SMILESWriter writer = new SMILESWriter(structure, optionsList[i]);
+			try {
+				writer.buildSmiles(false);
+				int baseLength = writer.smilesBuilder.length();
+				for (int j = i; j < optionsList.length; j++) {
+					int options = optionsList[j];
+					if (smiles[j] == null && (options & SmilesOptions.CXSMILES_ENHANCED_STEREO) == enhancedStereo) {
+						writer.smilesBuilder.setLength(baseLength);
+						if ((options & SmilesOptions.CXSMILES) != 0) {
+							writer.writeExtendedSmilesLayer(options);
+						}
+						smiles[j] = writer.smilesBuilder.toString();
+					}
+				}
+			}
+			finally {
+				writer.scratch.release();
+			}
+		}
+		return smiles;
+	}
+
+	/**
+	 * Writes SMILES for the given fragment to the given Appendable.
+	 * The SMILES is generated in full before any of it is written, hence nothing is written if generation fails.
+	 * The same assumptions are made as for {@link #generateSmiles(Fragment, int)}
+	 * @param structure
+	 * @param options the set of {@link SmilesOptions} to use
+	 * @param out
+	 * @throws IOException if the Appendable throws
+	 */
+	static void writeSmiles(Fragment structure, int options, Appendable out) throws IOException {
+		SMILESWriter writer = new SMILESWriter(structure, options);
+		try {
+			writer.buildSmiles();
+			writer.appendTo(out);
+		}
+		finally {
+			writer.scratch.release();
+		}
 	}
 
 	/**
@@ -108,7 +243,7 @@ class SMILESWriter {
 	 * @return SMILES String
 	 */
 	static String generateSmiles(Fragment structure) {
-		return new SMILESWriter(structure, SmilesOptions.DEFAULT).writeSmiles();
+		return generateSmiles(structure, SmilesOptions.DEFAULT);
 	}
 
 	/**
@@ -120,20 +255,27 @@ class SMILESWriter {
 	 * @return Extended SMILES String
 	 */
 	static String generateExtendedSmiles(Fragment structure) {
-		return new SMILESWriter(structure, SmilesOptions.CXSMILES).writeSmiles();
+		return generateSmiles(structure, SmilesOptions.CXSMILES);
+	}
+
+	private void buildSmiles() {
+		buildSmiles((options & SmilesOptions.CXSMILES) != 0);
 	}
 
-	String writeSmiles() {
+	/**
+	 * Builds the SMILES in the smilesBuilder
+	 * @param includeExtendedSmilesLayer whether to append the extended SMILES layer for this writer's options
+	 */
+	private void buildSmiles(boolean includeExtendedSmilesLayer) {
 		assignSmilesOrder();
 		assignDoubleBondStereochemistrySlashes();
 
-		List<Atom> atomList = structure.getAtomList();
-		smilesOutputOrder = new ArrayList<>(atomList.size());
+		int atomCount = graph.getInputAtomCount();
+		smilesOutputOrder = new ArrayList<>(atomCount);
 
 		boolean isEmpty = true;
-		for (Atom currentAtom : atomList) {
-			Integer visitedDepth = currentAtom.getProperty(Atom.VISITED);
-			if (visitedDepth != null && visitedDepth ==0) {//new component
+		for (int currentAtom = 0; currentAtom < atomCount; currentAtom++) {
+			if (depths[currentAtom] == 0) {//new component
 				if (!isEmpty){
 					smilesBuilder.append('.');
 				}
@@ -142,11 +284,30 @@ class SMILESWriter {
 			}
 		}
 
-		if ((options & SmilesOptions.CXSMILES) != 0) {
+		if (includeExtendedSmilesLayer) {
 			writeExtendedSmilesLayer(options);
 		}
+	}
 
-		return smilesBuilder.toString();
+	/**
+	 * Appends the generated SMILES to the given Appendable.
+	 * Writers are given the characters directly, as their implementation of append(CharSequence) would create a String
+	 * @param out
+	 * @throws IOException
+	 */
+	private void appendTo(Appendable out) throws IOException {
+		if (out instanceof Writer) {
+			Writer writer = (Writer) out;
+			char[] buffer = scratch.charBuffer;
+			for (int start = 0, len = smilesBuilder.length(); start < len; start += buffer.length) {
+				int end = Math.min(start + buffer.length, len);
+				smilesBuilder.getChars(start, end, buffer, 0);
+				writer.write(buffer, 0, end - start);
+			}
+		}
+		else {
+			out.append(smilesBuilder);
+		}
 	}
 
 	private void writeExtendedSmilesLayer(int options) {
@@ -351,27 +512,27 @@ class SMILESWriter {
 	}
 
 	/**
-	 * Walks through the fragment populating the Atom.VISITED property indicating how many bonds
+	 * Walks through the fragment populating the depths array indicating how many bonds
 	 * an atom is from the start of the fragment walk. A new walk will be started for each disconnected component of the fragment
 	 */
 	private void assignSmilesOrder() {
-		List<Atom> atomList = structure.getAtomList();
-		for (Atom atom : atomList) {
-			atom.setProperty(Atom.VISITED, null);
+		implicitProtons = new boolean[graph.getAtomCount()];
+		for (int i = 0; i < implicitProtons.length; i++) {
+			implicitProtons[i] = isSmilesImplicitProton(graph.getAtom(i));
 		}
-		for (Atom a : atomList) {
-			if(a.getProperty(Atom.VISITED) == null && !isSmilesImplicitProton(a)){//true for only the first atom in a fully connected molecule
-				traverseMolecule(a);
+		for (int i = 0, l = graph.getInputAtomCount(); i < l; i++) {
+			if(depths[i] == UNVISITED && !implicitProtons[i]){//true for only the first atom in a fully connected molecule
+				traverseMolecule(i);
 			}
 		}
 	}
 
 	private static class TraversalState {
-		private final Atom atom;
+		private final int atom;
 		private final Bond bondTaken;
 		private final int depth;
 
-		private TraversalState(Atom atom, Bond bondTaken, int depth) {
+		private TraversalState(int atom, Bond bondTaken, int depth) {
 			this.atom = atom;
 			this.bondTaken = bondTaken;
 			this.depth = depth;
@@ -379,34 +540,33 @@ class SMILESWriter {
 	}
 
 	/**
-	 * Iterative function for populating the Atom.VISITED property
+	 * Iterative function for populating the depths array
 	 * Also populates the bondToNextAtom Map
 	 * @param startingAtom
 	 * @return
 	 */
-	private void traverseMolecule(Atom startingAtom){
+	private void traverseMolecule(int startingAtom){
 		Deque<TraversalState> stack = new ArrayDeque<TraversalState>();
 		stack.add(new TraversalState(startingAtom, null, 0));
 		while (!stack.isEmpty()){
 			TraversalState currentstate = stack.removeLast();
-			Atom currentAtom = currentstate.atom;
+			int currentAtom = currentstate.atom;
 			Bond bondtaken = currentstate.bondTaken;
 			if (bondtaken != null) {
-				bondToNextAtomMap.put(bondtaken, currentAtom);
+				bondToNextAtomMap.put(bondtaken, graph.getAtom(currentAtom));
 			}
-			if(currentAtom.getProperty(Atom.VISITED) != null){
+			if(depths[currentAtom] != UNVISITED){
 				continue;
 			}
 			int depth = currentstate.depth;
-			currentAtom.setProperty(Atom.VISITED, depth);
-			List<Bond> bonds = currentAtom.getBonds();
-			for (int i = bonds.size() - 1; i >=0; i--) {
-				Bond bond = bonds.get(i);
+			depths[currentAtom] = depth;
+			for (int i = graph.getAdjacencyEnd(currentAtom) - 1, start = graph.getAdjacencyStart(currentAtom); i >= start; i--) {
+				Bond bond = graph.getBond(graph.getAdjacentBond(i));
 				if (bond.equals(bondtaken)){
 					continue;
 				}
-				Atom neighbour = bond.getOtherAtom(currentAtom);
-				if (isSmilesImplicitProton(neighbour)){
+				int neighbour = graph.getAdjacentAtom(i);
+				if (implicitProtons[neighbour]){
 					continue;
 				}
 				stack.add(new TraversalState(neighbour, bond, depth + 1));
@@ -650,15 +810,15 @@ class SMILESWriter {
 	}
 
 
-	private static final TraversalState startBranch = new TraversalState(null, null, -1);
-	private static final TraversalState endBranch = new TraversalState(null, null, -1);
+	private static final TraversalState startBranch = new TraversalState(-1, null, -1);
+	private static final TraversalState endBranch = new TraversalState(-1, null, -1);
 
 	/**
 	 * Generates the SMILES starting from the currentAtom, iteratively exploring
-	 * in the same order as {@link SMILESWriter#traverseMolecule(Atom)}
+	 * in the same order as {@link SMILESWriter#traverseMolecule(int)}
 	 * @param startingAtom
 	 */
-	private void traverseSmiles(Atom startingAtom){
+	private void traverseSmiles(int startingAtom){
 		Deque<TraversalState> stack = new ArrayDeque<>();
 		stack.add(new TraversalState(startingAtom, null, 0));
 		while (!stack.isEmpty()){
@@ -671,58 +831,58 @@ class SMILESWriter {
 				smilesBuilder.append(')');
 				continue;
 			}
-			Atom currentAtom = currentstate.atom;
+			int currentAtom = currentstate.atom;
 			Bond bondtaken = currentstate.bondTaken;
 			if (bondtaken != null){
-				smilesBuilder.append(bondToSmiles(bondtaken));
+				appendBond(bondtaken);
 			}
 			int depth = currentstate.depth;
 
-			smilesBuilder.append(atomToSmiles(currentAtom, depth, bondtaken));
-			smilesOutputOrder.add(currentAtom);
-			List<Bond> bonds = currentAtom.getBonds();
-			List<String> newlyAvailableClosureSymbols = null;
-			for (Bond bond : bonds) {//ring closures
-				if (bond.equals(bondtaken)) {
+			appendAtom(currentAtom, depth, bondtaken);
+			smilesOutputOrder.add(graph.getAtom(currentAtom));
+			int adjacencyStart = graph.getAdjacencyStart(currentAtom);
+			int adjacencyEnd = graph.getAdjacencyEnd(currentAtom);
+			int[] newlyAvailableClosures = scratch.newlyAvailableClosures;
+			int newlyAvailableClosureCount = 0;
+			for (int i = adjacencyStart; i < adjacencyEnd; i++) {//ring closures
+				int bondIdx = graph.getAdjacentBond(i);
+				if (graph.getBond(bondIdx).equals(bondtaken)) {
 					continue;
 				}
-				Atom neighbour = bond.getOtherAtom(currentAtom);
-				Integer nDepth = neighbour.getProperty(Atom.VISITED);
-				if (nDepth != null && nDepth <= depth){
-					String closure = bondToClosureSymbolMap.get(bond);
-					smilesBuilder.append(closure);
-					if (newlyAvailableClosureSymbols == null){
-						newlyAvailableClosureSymbols = new ArrayList<>();
-					}
-					newlyAvailableClosureSymbols.add(closure);
+				int nDepth = depths[graph.getAdjacentAtom(i)];
+				if (nDepth != UNVISITED && nDepth <= depth){
+					int closure = scratch.bondToClosure[bondIdx];
+					smilesBuilder.append(closureSymbols.get(closure));
+					newlyAvailableClosures[newlyAvailableClosureCount++] = closure;
 				}
 			}
-			for (Bond bond : bonds) {//ring openings
-				Atom neighbour = bond.getOtherAtom(currentAtom);
-				Integer nDepth = neighbour.getProperty(Atom.VISITED);
-				if (nDepth != null && nDepth > (depth +1)){
-					String closure = availableClosureSymbols.removeFirst();
-					bondToClosureSymbolMap.put(bond, closure);
-					smilesBuilder.append(bondToSmiles(bond));
-					smilesBuilder.append(closure);
+			for (int i = adjacencyStart; i < adjacencyEnd; i++) {//ring openings
+				int bondIdx = graph.getAdjacentBond(i);
+				int nDepth = depths[graph.getAdjacentAtom(i)];
+				if (nDepth != UNVISITED && nDepth > (depth +1)){
+					if (scratch.availableClosureCount == 0) {
+						throw new RuntimeException("Too many simultaneously open rings to express in SMILES");
+					}
+					int closure = scratch.availableClosures[--scratch.availableClosureCount];
+					scratch.bondToClosure[bondIdx] = closure;
+					appendBond(graph.getBond(bondIdx));
+					smilesBuilder.append(closureSymbols.get(closure));
 				}
 			}
 
-			if (newlyAvailableClosureSymbols != null) {
-				//By not immediately adding to availableClosureSymbols we avoid using the same digit 
-				//to both close and open on the same atom
-				for (int i = newlyAvailableClosureSymbols.size() -1; i >=0; i--) {
-					availableClosureSymbols.addFirst(newlyAvailableClosureSymbols.get(i));
-				}
+			//By not immediately making these closures available we avoid using the same digit
+			//to both close and open on the same atom
+			for (int i = newlyAvailableClosureCount - 1; i >= 0; i--) {
+				scratch.availableClosures[scratch.availableClosureCount++] = newlyAvailableClosures[i];
 			}
 
 			boolean seenFirstBranch = false;
-			for (int i = bonds.size() - 1; i >=0; i--) {
+			for (int i = adjacencyEnd - 1; i >= adjacencyStart; i--) {
 				//adjacent atoms which have not been previously written
-				Bond bond = bonds.get(i);
-				Atom neighbour = bond.getOtherAtom(currentAtom);
-				Integer nDepth = neighbour.getProperty(Atom.VISITED);
-				if (nDepth != null && nDepth == depth + 1){
+				Bond bond = graph.getBond(graph.getAdjacentBond(i));
+				int neighbour = graph.getAdjacentAtom(i);
+				int nDepth = depths[neighbour];
+				if (nDepth != UNVISITED && nDepth == depth + 1){
 					if (!seenFirstBranch){
 						stack.add(new TraversalState(neighbour, bond, depth + 1));
 						seenFirstBranch = true;
@@ -738,22 +898,22 @@ class SMILESWriter {
 	}
 
 	/**
-	 * Returns the SMILES describing the given atom.
+	 * Appends the SMILES describing the given atom.
 	 * Where possible square brackets are not included to give more readable SMILES
-	 * @param atom
+	 * @param atomIdx
 	 * @param depth
 	 * @param bondtaken
-	 * @return
 	 */
-	private String atomToSmiles(Atom atom, int depth, Bond bondtaken) {
-		StringBuilder atomSmiles = new StringBuilder();
-		int hydrogenCount = calculateNumberOfBondedExplicitHydrogen(atom);
+	private void appendAtom(int atomIdx, int depth, Bond bondtaken) {
+		Atom atom = graph.getAtom(atomIdx);
+		StringBuilder atomSmiles = smilesBuilder;
+		int hydrogenCount = calculateNumberOfBondedExplicitHydrogen(atomIdx);
 		boolean needsSquareBrackets = determineWhetherAtomNeedsSquareBrackets(atom, hydrogenCount);
 		if (needsSquareBrackets) {
 			atomSmiles.append('[');
 		}
 		if (atom.getIsotope() != null) {
-			atomSmiles.append(atom.getIsotope());
+			atomSmiles.append(atom.getIsotope().intValue());
 		}
 		ChemEl chemEl = atom.getElement();
 		if (chemEl == ChemEl.R) {//used for polymers
@@ -761,19 +921,19 @@ class SMILESWriter {
 		}
 		else{
 			if (atom.hasSpareValency()) {//spare valency corresponds directly to lower case SMILES in OPSIN's SMILES reader
-				atomSmiles.append(chemEl.toString().toLowerCase(Locale.ROOT));
+				atomSmiles.append(lowerCaseElementSymbols[chemEl.ordinal()]);
 			}
 			else{
 				atomSmiles.append(chemEl.toString());
 			}
 		}
 		if (hasStereo(atom))
-			atomSmiles.append(atomParityToSmiles(atom, depth, bondtaken));
+			atomSmiles.append(atomParityToSmiles(atomIdx, depth, bondtaken));
 
 		if (hydrogenCount != 0 && needsSquareBrackets && chemEl != ChemEl.H){
 			atomSmiles.append('H');
 			if (hydrogenCount != 1){
-				atomSmiles.append(String.valueOf(hydrogenCount));
+				atomSmiles.append(hydrogenCount);
 			}
 		}
 		int charge = atom.getCharge();
@@ -795,18 +955,16 @@ class SMILESWriter {
 	    	Integer atomClass = atom.getProperty(Atom.ATOM_CLASS);
 			if (atomClass != null) {
 				atomSmiles.append(':');
-				atomSmiles.append(String.valueOf(atomClass));
+				atomSmiles.append(atomClass.intValue());
 			}
 	    	atomSmiles.append(']');
 	    }
-		return atomSmiles.toString();
 	}
 
-	private int calculateNumberOfBondedExplicitHydrogen(Atom atom) {
-		List<Atom> neighbours = atom.getAtomNeighbours();
+	private int calculateNumberOfBondedExplicitHydrogen(int atomIdx) {
 		int count = 0;
-		for (Atom neighbour : neighbours) {
-			if (neighbour.getProperty(Atom.VISITED) == null){
+		for (int i = graph.getAdjacencyStart(atomIdx), end = graph.getAdjacencyEnd(atomIdx); i < end; i++) {
+			if (depths[graph.getAdjacentAtom(i)] == UNVISITED){
 				count++;
 			}
 		}
@@ -854,7 +1012,8 @@ class SMILESWriter {
 		return false;
 	}
 
-	private String atomParityToSmiles(Atom currentAtom, int depth, Bond bondtaken) {
+	private String atomParityToSmiles(int currentAtomIdx, int depth, Bond bondtaken) {
+		Atom currentAtom = graph.getAtom(currentAtomIdx);
 		AtomParity atomParity = currentAtom.getAtomParity();
 		Atom[] atomRefs4 = atomParity.getAtomRefs4().clone();
 
@@ -871,42 +1030,42 @@ class SMILESWriter {
 			}
 		}
 
-		List<Bond> bonds = currentAtom.getBonds();
-		for (Bond bond : bonds) {//implicit hydrogen
-			Atom neighbour = bond.getOtherAtom(currentAtom);
-			if (neighbour.getProperty(Atom.VISITED) == null){
+		int adjacencyStart = graph.getAdjacencyStart(currentAtomIdx);
+		int adjacencyEnd = graph.getAdjacencyEnd(currentAtomIdx);
+		for (int i = adjacencyStart; i < adjacencyEnd; i++) {//implicit hydrogen
+			if (depths[graph.getAdjacentAtom(i)] == UNVISITED){
 				atomrefs4Current.add(currentAtom);
 			}
 		}
-		for (Bond bond : bonds) {//ring closures
-			if (bond.equals(bondtaken)){
+		for (int i = adjacencyStart; i < adjacencyEnd; i++) {//ring closures
+			if (graph.getBond(graph.getAdjacentBond(i)).equals(bondtaken)){
 				continue;
 			}
-			Atom neighbour = bond.getOtherAtom(currentAtom);
-			if (neighbour.getProperty(Atom.VISITED) == null){
+			int nDepth = depths[graph.getAdjacentAtom(i)];
+			if (nDepth == UNVISITED){
 				continue;
 			}
-			if (neighbour.getProperty(Atom.VISITED) <= depth){
-				atomrefs4Current.add(neighbour);
+			if (nDepth <= depth){
+				atomrefs4Current.add(graph.getAtom(graph.getAdjacentAtom(i)));
 			}
 		}
-		for (Bond bond : bonds) {//ring openings
-			Atom neighbour = bond.getOtherAtom(currentAtom);
-			if (neighbour.getProperty(Atom.VISITED) == null){
+		for (int i = adjacencyStart; i < adjacencyEnd; i++) {//ring openings
+			int nDepth = depths[graph.getAdjacentAtom(i)];
+			if (nDepth == UNVISITED){
 				continue;
 			}
-			if (neighbour.getProperty(Atom.VISITED) > (depth +1)){
-				atomrefs4Current.add(neighbour);
+			if (nDepth > (depth +1)){
+				atomrefs4Current.add(graph.getAtom(graph.getAdjacentAtom(i)));
 			}
 
 		}
-		for (Bond bond : bonds) {//next atom/s
-			Atom neighbour = bond.getOtherAtom(currentAtom);
-			if (neighbour.getProperty(Atom.VISITED) == null){
+		for (int i = adjacencyStart; i < adjacencyEnd; i++) {//next atom/s
+			int nDepth = depths[graph.getAdjacentAtom(i)];
+			if (nDepth == UNVISITED){
 				continue;
 			}
-			if (neighbour.getProperty(Atom.VISITED) == depth + 1){
-				atomrefs4Current.add(neighbour);
+			if (nDepth == depth + 1){
+				atomrefs4Current.add(graph.getAtom(graph.getAdjacentAtom(i)));
 			}
 		}
 		Atom[] atomrefs4CurrentArr = new Atom[4];
@@ -914,7 +1073,8 @@ class SMILESWriter {
 			atomrefs4CurrentArr[i] = atomrefs4Current.get(i);
 		}
 		for (int i = 0; i < atomRefs4.length; i++) {//replace mentions of explicit hydrogen with the central atom the hydrogens are attached to, to be consistent with the SMILES representation
-			if (atomRefs4[i].getProperty(Atom.VISITED) == null){
+			int atomRefIdx = graph.indexOf(atomRefs4[i]);
+			if (atomRefIdx == -1 || depths[atomRefIdx] == UNVISITED){
 				atomRefs4[i] = currentAtom;
 			}
 		}
@@ -929,25 +1089,22 @@ class SMILESWriter {
 	}
 
 	/**
-	 * Generates the SMILES description of the bond
+	 * Appends the SMILES description of the bond, if any
 	 * In the case of cis/trans stereochemistry this relies on the {@link SMILESWriter#assignDoubleBondStereochemistrySlashes}
 	 * having been run to setup the smilesBondDirection attribute
 	 * @param bond
-	 * @return
 	 */
-	private String bondToSmiles(Bond bond){
-		String bondSmiles = "";
+	private void appendBond(Bond bond){
 		int bondOrder = bond.getOrder();
 		if (bondOrder == 2){
-			bondSmiles = "=";
+			smilesBuilder.append('=');
 		}
 		else if (bondOrder == 3){
-			bondSmiles = "#";
+			smilesBuilder.append('#');
 		}
 		else if (bond.getSmilesStereochemistry() != null){
-			bondSmiles = bond.getSmilesStereochemistry() == SMILES_BOND_DIRECTION.RSLASH ? "/" : "\\";
+			smilesBuilder.append(bond.getSmilesStereochemistry() == SMILES_BOND_DIRECTION.RSLASH ? '/' : '\\');
 		}
-		return bondSmiles;
 	}
 
 }
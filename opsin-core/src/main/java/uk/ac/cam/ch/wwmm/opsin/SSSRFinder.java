@@ -1,12 +1,8 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Class for finding SSSR
@@ -18,134 +14,203 @@ import java.util.Set;
  */
 class SSSRFinder {
 
+	private final CompactGraph graph;
+	/**Whether each atom has been reached by the spanning tree */
+	private final boolean[] usedAtoms;
+	/**The parent of each atom in the spanning tree, and the bond to it, or -1 for the root */
+	private final int[] parentAtoms;
+	private final int[] parentBonds;
+	/**Bonds that close a ring, in the order they were found */
+	private final List<Integer> linkBonds = new ArrayList<>();
+	private final boolean[] isLinkBond;
+
+	/**Used to mark the bonds/atoms of rings when comparing them */
+	private final int[] bondMarks;
+	private final int[] atomMarks;
+	private int currentMark = 0;
+
+	private SSSRFinder(CompactGraph graph) {
+		this.graph = graph;
+		int atomCount = graph.getAtomCount();
+		usedAtoms = new boolean[atomCount];
+		parentAtoms = new int[atomCount];
+		parentBonds = new int[atomCount];
+		isLinkBond = new boolean[graph.getBondCount()];
+		bondMarks = new int[graph.getBondCount()];
+		atomMarks = new int[atomCount];
+	}
+
 	/** get set of smallest rings.
 	 * In corner cases the list of rings returned will not be the SSSR
 	 * @param frag 
 	 * @return list of rings
 	 */
 	static List<Ring> getSetOfSmallestRings(Fragment frag){
-		List<Atom> atomSet = frag.getAtomList();
-				
-		List<Ring> ringList = getRings(atomSet);
+		//the search is not confined to the fragment if it is bonded to other fragments
+		CompactGraph graph = CompactGraph.fromConnectedAtoms(frag.getAtomList());
+		SSSRFinder finder = new SSSRFinder(graph);
+		List<int[]> ringList = finder.getRings();
 		
 		if (ringList.size() > 1) {
 			boolean change = true;
 			while (change) {
 				for (int i = 0; i < ringList.size(); i++) {
-					Ring ring = ringList.get(i);
-					change = reduceRingSizes(ring, ringList);
+					int[] ring = ringList.get(i);
+					change = finder.reduceRingSizes(ring, ringList);
 				}
 			}
-		}		
-		return ringList;
+		}
+		List<Ring> rings = new ArrayList<>(ringList.size());
+		for (int[] ring : ringList) {
+			List<Bond> bondList = new ArrayList<>(ring.length);
+			for (int bond : ring) {
+				bondList.add(graph.getBond(bond));
+			}
+			rings.add(new Ring(bondList));
+		}
+		return rings;
 	}
 
-	/** get list of rings.
+	/** get list of rings, each given as the indices of its bonds.
 	 * not necessarily SSSR
-	 * @param atomSet
 	 * @return list of rings
 	 */
-	private static List<Ring> getRings(List<Atom> atomSet ){
-		List<Ring> ringList = new ArrayList<>();
-		Set<Atom> usedAtoms = new HashSet<>();
+	private List<int[]> getRings(){
+		List<int[]> ringList = new ArrayList<>();
+		expand(0, -1, -1);
 		
-		Atom root = atomSet.get(0); 
-		Atom parentAtom = null;
-		Map<Atom, Atom> atomToParentMap = new HashMap<>();
-		Set<Bond> linkBondSet = new LinkedHashSet<>(); 
-		
-		expand(root, parentAtom, usedAtoms, atomToParentMap, linkBondSet);
-		
-		for (Bond bond : linkBondSet) {
-			Ring ring = getRing(bond, atomToParentMap);
-			ringList.add(ring);
+		for (int bond : linkBonds) {
+			ringList.add(getRing(bond));
 		}
 		
 		return ringList;
 	}
 	
-	private static Ring getRing(Bond bond, Map<Atom, Atom> atomToParentMap){ 
-		Atom atomFrom =  bond.getFromAtom() ;
-		Atom atomTo = bond.getToAtom(); 
-		List<Bond>  bondSet0 = getAncestors1(atomFrom, atomToParentMap);
-		List<Bond>  bondSet1 = getAncestors1(atomTo, atomToParentMap);
-		List<Bond>  mergedBondSet = symmetricDifference (bondSet0, bondSet1); 
-		
-		mergedBondSet.add(bond);
-		return new Ring(mergedBondSet);
+	private int[] getRing(int bond){ 
+		int[] bondSet0 = getAncestors(graph.getBondFrom(bond));
+		int[] bondSet1 = getAncestors(graph.getBondTo(bond));
+		int[] mergedBondSet = symmetricDifference(bondSet0, bondSet1, 1);
+		mergedBondSet[mergedBondSet.length - 1] = bond;
+		checkIsRing(mergedBondSet);
+		return mergedBondSet;
 	}
 	
-	private static List<Bond> getAncestors1(Atom atom, Map<Atom, Atom> atomToParentMap){
-		List<Bond> newBondSet = new ArrayList<>();
-		while (true) {
-			Atom atom1 = atomToParentMap.get(atom);
-			if (atom1 == null) {
-				break;
-			}
-			Bond bond = atom.getBondToAtom(atom1);
-			if (newBondSet.contains(bond)) {
-				break;
-			}
-			newBondSet.add(bond);
-			atom = atom1;
+	/**
+	 * Returns the bonds on the path from the given atom to the root of the spanning tree
+	 * @param atom
+	 * @return
+	 */
+	private int[] getAncestors(int atom){
+		int pathLength = 0;
+		for (int a = atom; parentAtoms[a] != -1; a = parentAtoms[a]) {
+			pathLength++;
+		}
+		int[] bonds = new int[pathLength];
+		for (int i = 0; i < pathLength; i++) {
+			bonds[i] = parentBonds[atom];
+			atom = parentAtoms[atom];
 		}
-		return newBondSet;
+		return bonds;
 	}
 	
-	private static void expand(Atom atom, Atom parentAtom, 
-			Set<Atom> usedAtoms, Map<Atom, Atom> atomToParentMap,
-			Set<Bond> linkBondSet){
+	private void expand(int atom, int parentAtom, int parentBond){
+		usedAtoms[atom] = true;
+		parentAtoms[atom] = parentAtom;
+		parentBonds[atom] = parentBond;
 		
-		usedAtoms.add(atom);
-		atomToParentMap.put(atom, parentAtom);
-		List<Atom> ligandAtomList = atom.getAtomNeighbours();
-		
-		for (Atom ligandAtom : ligandAtomList) {
-			if (ligandAtom.equals(parentAtom)) {
+		for (int i = graph.getAdjacencyStart(atom), end = graph.getAdjacencyEnd(atom); i < end; i++) {
+			int ligandAtom = graph.getAdjacentAtom(i);
+			if (ligandAtom == parentAtom) {
 				// skip existing bond
-			} else if (usedAtoms.contains(ligandAtom)) {
-				Bond linkBond = atom.getBondToAtom(ligandAtom);
-				linkBondSet.add(linkBond);
+			} else if (usedAtoms[ligandAtom]) {
+				int linkBond = graph.getAdjacentBond(i);
+				if (!isLinkBond[linkBond]) {
+					isLinkBond[linkBond] = true;
+					linkBonds.add(linkBond);
+				}
 				// already treated
 			} else {
-				expand(ligandAtom, atom, usedAtoms, atomToParentMap, linkBondSet);
+				expand(ligandAtom, atom, graph.getAdjacentBond(i));
 			}
 		}
 	}
 
-	private static boolean reduceRingSizes(Ring ring, List<Ring> newList){
+	private boolean reduceRingSizes(int[] ring, List<int[]> newList){
 		boolean change = false;
 		for (int i = 0; i < newList.size(); i++) {
-			Ring target = newList.get(i);
+			int[] target = newList.get(i);
 			if (target == ring) {
 				continue;
 			}
 			
-			List<Bond> newBondSet = symmetricDifference ( target.getBondList(), ring.getBondList() ) ;
-			if (newBondSet.size() < target.size()) {
-				Ring newRing = new Ring(newBondSet);
-				newList.set(i, newRing);
+			int[] newBondSet = symmetricDifference(target, ring, 0);
+			if (newBondSet.length < target.length) {
+				checkIsRing(newBondSet);
+				newList.set(i, newBondSet);
 				change = true;
 			}
 		}
 		return change;
 	}
 
-	
-	private static List<Bond> symmetricDifference(List<Bond> bondSet1, List<Bond> bondSet2) {
-		List<Bond> newBondSet = new ArrayList<>();
-
-		for (Bond bond1 : bondSet1) {
-			if (!bondSet2.contains(bond1)) {
-				newBondSet.add(bond1);
+	/**
+	 * Returns the bonds in only one of the two sets, those of the first set followed by those of the second set.
+	 * The returned array has extraCapacity empty slots at its end
+	 * @param bondSet1
+	 * @param bondSet2
+	 * @param extraCapacity
+	 * @return
+	 */
+	private int[] symmetricDifference(int[] bondSet1, int[] bondSet2, int extraCapacity) {
+		int[] newBondSet = new int[bondSet1.length + bondSet2.length + extraCapacity];
+		int size = 0;
+		int mark1 = ++currentMark;
+		for (int bond1 : bondSet1) {
+			bondMarks[bond1] = mark1;
+		}
+		int mark2 = ++currentMark;
+		for (int bond2 : bondSet2) {
+			if (bondMarks[bond2] == mark1) {
+				bondMarks[bond2] = mark2;
+			}
+		}
+		for (int bond1 : bondSet1) {
+			if (bondMarks[bond1] != mark2) {
+				newBondSet[size++] = bond1;
 			}
 		}
-		for (Bond bond2 : bondSet2) {
-			if (!bondSet1.contains(bond2)) {
-				newBondSet.add(bond2);
+		for (int bond2 : bondSet2) {
+			if (bondMarks[bond2] != mark2) {
+				newBondSet[size++] = bond2;
 			}
 		}
-		return newBondSet;
+		return size + extraCapacity == newBondSet.length ? newBondSet : Arrays.copyOf(newBondSet, size + extraCapacity);
 	}
 
+	/**
+	 * Checks that the bonds form a ring i.e. that there are as many atoms as bonds, as is required by {@link Ring}
+	 * @param ringBonds
+	 */
+	private void checkIsRing(int[] ringBonds) {
+		if (ringBonds.length == 0) {
+			throw new IllegalArgumentException("Bond list is empty");
+		}
+		int mark = ++currentMark;
+		int atomCount = 0;
+		for (int bond : ringBonds) {
+			int from = graph.getBondFrom(bond);
+			if (atomMarks[from] != mark) {
+				atomMarks[from] = mark;
+				atomCount++;
+			}
+			int to = graph.getBondTo(bond);
+			if (atomMarks[to] != mark) {
+				atomMarks[to] = mark;
+				atomCount++;
+			}
+		}
+		if (atomCount != ringBonds.length) {
+			throw new RuntimeException("atomList and bondList different sizes. Ring(bond)");
+		}
+	}
 }
@@ -3,14 +3,9 @@ package uk.ac.cam.ch.wwmm.opsin;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 /**
  * Identifies stereocentres and determines the CIP order of connected atoms
@@ -18,18 +13,25 @@ import java.util.Map.Entry;
  *
  */
 class StereoAnalyser {
-	/** The atoms/bonds upon which this StereoAnalyser is operating */
-	private final Collection<Atom> atoms;
+	/** The atoms upon which this StereoAnalyser is operating, numbered in the order given */
+	private final CompactGraph graph;
 	private final Collection<Bond> bonds;
-	
-	/** Maps each atom to its currently assigned colour. Eventually all atoms in non identical environments will have different colours. Higher is higher priority*/
-	private final Map<Atom, Integer> mappingToColour;
 
-	/** Maps each atom to an array of the colours of its neighbours*/
-	private final Map<Atom, int[]> atomNeighbourColours;
+	/** The neighbours of each atom, and of the ghost atoms that follow the atoms in numbering, see {@link #addGhostAtoms()} */
+	private final int[] neighbourStart;
+	private final int[] neighbours;
+	private final int[] atomicNumbers;
+	/** Mass number of each atom, 0 if unspecified */
+	private final int[] isotopes;
+
+	/** The currently assigned colour of each atom. Eventually all atoms in non identical environments will have different colours. Higher is higher priority*/
+	private final int[] colours;
+
+	/** The colours of each atom's neighbours, sorted low to high*/
+	private final int[][] neighbourColours;
 
+	private final AtomicNumberThenAtomicMassComparator atomicNumberThenAtomicMassComparator = new AtomicNumberThenAtomicMassComparator();
 	private final AtomNeighbouringColoursComparator atomNeighbouringColoursComparator = new AtomNeighbouringColoursComparator();
-	private static final AtomicNumberThenAtomicMassComparator atomicNumberThenAtomicMassComparator = new AtomicNumberThenAtomicMassComparator();
 	
 	/**
 	 * Holds information about a tetrahedral stereocentre
@@ -108,44 +110,34 @@ class StereoAnalyser {
 		}
 	}
 	
+	/**
+	 * Compares two atoms by their index
+	 */
+	private interface AtomIndexComparator {
+		int compare(int a, int b);
+	}
+
 	/**
 	 * Sorts atoms by their atomic number, low to high
 	 * In the case of a tie sorts by atomic mass
 	 * @author dl387
 	 *
 	 */
-	private static class AtomicNumberThenAtomicMassComparator implements Comparator<Atom> {
-	    public int compare(Atom a, Atom b){
-	    	return compareAtomicNumberThenAtomicMass(a, b);
-	    }
-	}
-	
-	private static int compareAtomicNumberThenAtomicMass(Atom a, Atom b){
-    	int atomicNumber1 = a.getElement().ATOMIC_NUM;
-    	int atomicNumber2 = b.getElement().ATOMIC_NUM;
-    	if (atomicNumber1 > atomicNumber2){
-    		return 1;
-    	}
-    	else if (atomicNumber1 < atomicNumber2){
-    		return -1;
-    	}
-    	Integer atomicMass1 = a.getIsotope();
-    	Integer atomicMass2 = b.getIsotope();
-    	if (atomicMass1 != null && atomicMass2 == null){
-    		return 1;
-    	}
-    	else if (atomicMass1 == null && atomicMass2 != null){
-    		return -1;
-    	}
-    	else if (atomicMass1 != null && atomicMass2 != null){
-        	if (atomicMass1 > atomicMass2){
-	    		return 1;
+	private class AtomicNumberThenAtomicMassComparator implements AtomIndexComparator {
+	    public int compare(int a, int b){
+	    	int atomicNumber1 = atomicNumbers[a];
+	    	int atomicNumber2 = atomicNumbers[b];
+	    	if (atomicNumber1 != atomicNumber2){
+	    		return atomicNumber1 > atomicNumber2 ? 1 : -1;
 	    	}
-	    	else if (atomicMass1 < atomicMass2){
-	    		return -1;
+	    	//an atom that is not a specific isotope has a mass of 0, and hence is lower than one that is
+	    	int atomicMass1 = isotopes[a];
+	    	int atomicMass2 = isotopes[b];
+	    	if (atomicMass1 != atomicMass2){
+	    		return atomicMass1 > atomicMass2 ? 1 : -1;
 	    	}
-    	}
-		return 0;
+			return 0;
+	    }
 	}
 	
 	/**
@@ -154,10 +146,10 @@ class StereoAnalyser {
 	 * @author dl387
 	 *
 	 */
-	private class AtomNeighbouringColoursComparator implements Comparator<Atom> {
-	    public int compare(Atom a, Atom b){
-	    	int[] colours1 = atomNeighbourColours.get(a);
-	    	int[] colours2 = atomNeighbourColours.get(b);
+	private class AtomNeighbouringColoursComparator implements AtomIndexComparator {
+	    public int compare(int a, int b){
+	    	int[] colours1 = neighbourColours[a];
+	    	int[] colours2 = neighbourColours[b];
 	    	
 	    	int colours1Size = colours1.length;
 	    	int colours2Size = colours2.length;
@@ -202,163 +194,241 @@ class StereoAnalyser {
 	 * @param bonds
 	 */
 	StereoAnalyser(Collection<Atom> atoms, Collection<Bond> bonds) {
-		this.atoms = atoms;
+		this.graph = CompactGraph.fromAtoms(atoms);
 		this.bonds = bonds;
-		List<Atom> ghostAtoms = addGhostAtoms();
-		List<Atom> atomsToSort = new ArrayList<>(atoms);
-		atomsToSort.addAll(ghostAtoms);
-		mappingToColour = new HashMap<>(atomsToSort.size());
-		atomNeighbourColours = new HashMap<>(atomsToSort.size());
-		Collections.sort(atomsToSort, atomicNumberThenAtomicMassComparator);
-		List<List<Atom>> groupsByColour = populateColoursByAtomicNumberAndMass(atomsToSort);
+		int atomCount = graph.getAtomCount();
+		int[] ghostCounts = new int[atomCount];
+		int totalGhosts = countGhostAtoms(ghostCounts);
+		int vertexCount = atomCount + totalGhosts;
+		neighbourStart = new int[vertexCount + 1];
+		atomicNumbers = new int[vertexCount];
+		isotopes = new int[vertexCount];
+		int neighbourCount = 0;
+		for (int i = 0; i < atomCount; i++) {
+			neighbourStart[i] = neighbourCount;
+			neighbourCount += graph.getDegree(i) + ghostCounts[i];
+			atomicNumbers[i] = graph.getAtomicNumber(i);
+			isotopes[i] = graph.getIsotope(i);
+		}
+		for (int i = atomCount; i < vertexCount; i++) {
+			neighbourStart[i] = neighbourCount;
+			neighbourCount++;
+		}
+		neighbourStart[vertexCount] = neighbourCount;
+		neighbours = new int[neighbourCount];
+		for (int i = 0; i < atomCount; i++) {
+			int idx = neighbourStart[i];
+			for (int j = graph.getAdjacencyStart(i), end = graph.getAdjacencyEnd(i); j < end; j++) {
+				neighbours[idx++] = graph.getAdjacentAtom(j);
+			}
+		}
+		addGhostAtoms(ghostCounts);
+
+		colours = new int[vertexCount];
+		neighbourColours = new int[vertexCount][];
+		for (int i = 0; i < vertexCount; i++) {
+			neighbourColours[i] = new int[neighbourStart[i + 1] - neighbourStart[i]];
+		}
+		int[] atomsByColour = new int[vertexCount];
+		for (int i = 0; i < vertexCount; i++) {
+			atomsByColour[i] = i;
+		}
+		sort(atomsByColour, 0, vertexCount, atomicNumberThenAtomicMassComparator);
+		//groupEnds[i] is the exclusive end of the ith group of atoms with the same colour in atomsByColour
+		int[] groupEnds = new int[vertexCount];
+		int groupCount = populateColoursByAtomicNumberAndMass(atomsByColour, groupEnds);
+		int[] updatedGroupEnds = new int[vertexCount];
 		boolean changeFound = true;
 		while(changeFound){
-			for (List<Atom> groupWithAColour : groupsByColour) {
-				for (Atom atom : groupWithAColour) {
-					int[] neighbourColours = findColourOfNeighbours(atom);
-					atomNeighbourColours.put(atom, neighbourColours);
-				}
+			for (int i = 0; i < vertexCount; i++) {
+				findColourOfNeighbours(i);
+			}
+			int updatedGroupCount = populateColoursAndReportIfColoursWereChanged(atomsByColour, groupEnds, groupCount, updatedGroupEnds);
+			changeFound = updatedGroupCount < 0;
+			groupCount = Math.abs(updatedGroupCount);
+			int[] temp = groupEnds;
+			groupEnds = updatedGroupEnds;
+			updatedGroupEnds = temp;
+		}
+	}
+
+	/**
+	 * Counts the ghost atoms that will be attached to each atom by {@link #addGhostAtoms(int[])}
+	 * @param ghostCounts populated with the number of ghost atoms attached to each atom
+	 * @return The total number of ghost atoms
+	 */
+	private int countGhostAtoms(int[] ghostCounts) {
+		int totalGhosts = 0;
+		for (Bond bond : bonds) {
+			int ghostsPerAtom = bond.getOrder() - 1;
+			if (ghostsPerAtom > 0) {
+				ghostCounts[indexOfAtom(bond.getFromAtom())] += ghostsPerAtom;
+				ghostCounts[indexOfAtom(bond.getToAtom())] += ghostsPerAtom;
+				totalGhosts += 2 * ghostsPerAtom;
 			}
-			List<List<Atom>> updatedGroupsByColour = new ArrayList<>();
-			changeFound = populateColoursAndReportIfColoursWereChanged(groupsByColour, updatedGroupsByColour);
-			groupsByColour = updatedGroupsByColour;
 		}
-		removeGhostAtoms(ghostAtoms);
+		return totalGhosts;
 	}
 
 	/**
 	 * Adds "ghost" atoms in the same way as the CIP rules for handling double bonds
 	 * e.g. C=C --> C(G)=C(G) where ghost is a carbon with no hydrogen bonded to it
-	 * @return The ghost atoms created
+	 * The ghost atoms are numbered after the real atoms and only exist within this StereoAnalyser
+	 * @param ghostCounts The number of ghost atoms to attach to each atom
 	 */
-	private List<Atom> addGhostAtoms() {
-		List<Atom> ghostAtoms = new ArrayList<>();
+	private void addGhostAtoms(int[] ghostCounts) {
+		int atomCount = graph.getAtomCount();
+		int[] nextGhostSlot = new int[atomCount];
+		for (int i = 0; i < atomCount; i++) {
+			nextGhostSlot[i] = neighbourStart[i + 1] - ghostCounts[i];
+		}
+		int ghost = atomCount;
 		for (Bond bond : bonds) {
 			int bondOrder = bond.getOrder();
 			for (int i = bondOrder; i > 1; i--) {
-				Atom fromAtom = bond.getFromAtom();
-				Atom toAtom = bond.getToAtom();
-
-				Atom ghost1 = new Atom(fromAtom.getElement());
-				Bond b1 = new Bond(ghost1, toAtom, 1);
-				toAtom.addBond(b1);
-				ghost1.addBond(b1);
-				ghostAtoms.add(ghost1);
-				
-				Atom ghost2 = new Atom(toAtom.getElement());
-				Bond b2 = new Bond(ghost2, fromAtom, 1);
-				fromAtom.addBond(b2);
-				ghost2.addBond(b2);
-				ghostAtoms.add(ghost2);
+				int fromAtom = indexOfAtom(bond.getFromAtom());
+				int toAtom = indexOfAtom(bond.getToAtom());
+
+				atomicNumbers[ghost] = atomicNumbers[fromAtom];
+				neighbours[neighbourStart[ghost]] = toAtom;
+				neighbours[nextGhostSlot[toAtom]++] = ghost;
+				ghost++;
+
+				atomicNumbers[ghost] = atomicNumbers[toAtom];
+				neighbours[neighbourStart[ghost]] = fromAtom;
+				neighbours[nextGhostSlot[fromAtom]++] = ghost;
+				ghost++;
 			}
 		}
-		return ghostAtoms;
 	}
 
-	/**
-	 * Removes the ghost atoms added by addGhostAtoms
-	 * @param ghostAtoms 
-	 */
-	private void removeGhostAtoms(List<Atom> ghostAtoms) {
-		for (Atom atom : ghostAtoms) {
-			Bond b = atom.getFirstBond();
-			b.getOtherAtom(atom).removeBond(b);
+	private int indexOfAtom(Atom atom) {
+		int idx = graph.indexOf(atom);
+		if (idx == -1) {
+			throw new IllegalArgumentException("Bond references an atom that is not being analysed");
 		}
+		return idx;
 	}
 
-
 	/**
-	 * Takes a list of atoms sorted by atomic number/mass
-	 * and populates the mappingToColour map
-	 * @param atomList
-	 * @return 
+	 * Takes an array of atoms sorted by atomic number/mass
+	 * and populates the colours array
+	 * @param atomsByColour
+	 * @param groupEnds populated with the end of each group of atoms with the same colour
+	 * @return The number of groups
 	 */
-	private List<List<Atom>> populateColoursByAtomicNumberAndMass(List<Atom> atomList) {
-		List<List<Atom>> groupsByColour = new ArrayList<>();
-		Atom previousAtom = null;
-		List<Atom> atomsOfThisColour = new ArrayList<>();
-		int atomsSeen = 0;
-		for (Atom atom : atomList) {
-			if (previousAtom != null && compareAtomicNumberThenAtomicMass(previousAtom, atom) != 0){
-				for (Atom atomOfthisColour : atomsOfThisColour) {
-					mappingToColour.put(atomOfthisColour, atomsSeen);
+	private int populateColoursByAtomicNumberAndMass(int[] atomsByColour, int[] groupEnds) {
+		int groupCount = 0;
+		int groupStart = 0;
+		for (int atomsSeen = 1; atomsSeen <= atomsByColour.length; atomsSeen++) {
+			if (atomsSeen == atomsByColour.length || atomicNumberThenAtomicMassComparator.compare(atomsByColour[atomsSeen - 1], atomsByColour[atomsSeen]) != 0){
+				for (int i = groupStart; i < atomsSeen; i++) {
+					colours[atomsByColour[i]] = atomsSeen;
 				}
-				groupsByColour.add(atomsOfThisColour);
-				atomsOfThisColour = new ArrayList<>();
+				groupEnds[groupCount++] = atomsSeen;
+				groupStart = atomsSeen;
 			}
-			previousAtom = atom;
-			atomsOfThisColour.add(atom);
-			atomsSeen++;
 		}
-		if (!atomsOfThisColour.isEmpty()){
-			for (Atom atomOfThisColour : atomsOfThisColour) {
-				mappingToColour.put(atomOfThisColour, atomsSeen);
-			}
-			groupsByColour.add(atomsOfThisColour);
-		}
-		return groupsByColour;
+		return groupCount;
 	}
 
 	/**
-	 * Takes the lists of atoms pre-grouped by colour and sorts each by its neighbours colours
-	 * The updatedGroupsByColour is populated with those for which this process caused a change
-	 * and populates the mappingToColour map
-	 * Returns whether mappingToColour was changed 
-	 * @param groupsByColour 
-	 * @param updatedGroupsByColour 
-	 * @return boolean Whether mappingToColour was changed
+	 * Takes the atoms pre-grouped by colour and sorts each group by its neighbours colours
+	 * The updatedGroupEnds are populated with the resultant groups
+	 * and the colours array is updated
+	 * @param atomsByColour 
+	 * @param groupEnds 
+	 * @param groupCount 
+	 * @param updatedGroupEnds 
+	 * @return The number of updated groups, negated if any colour was changed
 	 */
-	private boolean populateColoursAndReportIfColoursWereChanged(List<List<Atom>> groupsByColour, List<List<Atom>> updatedGroupsByColour) {
+	private int populateColoursAndReportIfColoursWereChanged(int[] atomsByColour, int[] groupEnds, int groupCount, int[] updatedGroupEnds) {
 		boolean changeFound = false;
-		int atomsSeen = 0;
-		for (List<Atom> groupWithAColour : groupsByColour) {
-			Collections.sort(groupWithAColour, atomNeighbouringColoursComparator);
-			Atom previousAtom = null;
-			List<Atom> atomsOfThisColour = new ArrayList<>();
-			for (Atom atom : groupWithAColour) {
-				if (previousAtom != null && atomNeighbouringColoursComparator.compare(previousAtom, atom) != 0){
-					for (Atom atomOfThisColour : atomsOfThisColour) {
-						if (!changeFound && atomsSeen != mappingToColour.get(atomOfThisColour)){
+		int updatedGroupCount = 0;
+		int groupStart = 0;
+		for (int g = 0; g < groupCount; g++) {
+			int groupEnd = groupEnds[g];
+			sort(atomsByColour, groupStart, groupEnd, atomNeighbouringColoursComparator);
+			int subGroupStart = groupStart;
+			for (int atomsSeen = groupStart + 1; atomsSeen <= groupEnd; atomsSeen++) {
+				if (atomsSeen == groupEnd || atomNeighbouringColoursComparator.compare(atomsByColour[atomsSeen - 1], atomsByColour[atomsSeen]) != 0){
+					for (int i = subGroupStart; i < atomsSeen; i++) {
+						int atom = atomsByColour[i];
+						if (colours[atom] != atomsSeen){
 							changeFound = true;
+							colours[atom] = atomsSeen;
 						}
-						mappingToColour.put(atomOfThisColour, atomsSeen);
-					}
-					updatedGroupsByColour.add(atomsOfThisColour);
-					atomsOfThisColour = new ArrayList<>();
-				}
-				previousAtom = atom;
-				atomsOfThisColour.add(atom);
-				atomsSeen++;
-			}
-			if (!atomsOfThisColour.isEmpty()){
-				for (Atom atomOfThisColour : atomsOfThisColour) {
-					if (!changeFound && atomsSeen != mappingToColour.get(atomOfThisColour)){
-						changeFound = true;
 					}
-					mappingToColour.put(atomOfThisColour, atomsSeen);
+					updatedGroupEnds[updatedGroupCount++] = atomsSeen;
+					subGroupStart = atomsSeen;
 				}
-				updatedGroupsByColour.add(atomsOfThisColour);
 			}
+			groupStart = groupEnd;
 		}
-		return changeFound;
+		return changeFound ? -updatedGroupCount : updatedGroupCount;
 	}
 
 	/**
-	 * Produces a sorted (low to high) array of the colour of the atoms surrounding a given atom
+	 * Populates the sorted (low to high) array of the colour of the atoms surrounding a given atom
 	 * @param atom
-	 * @return int[] colourOfAdjacentAtoms
 	 */
-	private int[] findColourOfNeighbours(Atom atom) {	
-		List<Bond> bonds = atom.getBonds();
-		int bondCount = bonds.size();
-		int[] colourOfAdjacentAtoms = new int[bondCount];
-		for (int i = 0; i < bondCount; i++) {
-			Bond bond = bonds.get(i);
-			Atom otherAtom = bond.getOtherAtom(atom);
-			colourOfAdjacentAtoms[i] = mappingToColour.get(otherAtom);
+	private void findColourOfNeighbours(int atom) {
+		int[] colourOfAdjacentAtoms = neighbourColours[atom];
+		int start = neighbourStart[atom];
+		for (int i = 0; i < colourOfAdjacentAtoms.length; i++) {
+			colourOfAdjacentAtoms[i] = colours[neighbours[start + i]];
 		} 
 		Arrays.sort(colourOfAdjacentAtoms);//sort such that this goes from low to high
-		return colourOfAdjacentAtoms;
+	}
+
+	/**
+	 * Sorts the given range of atoms using the given comparator
+	 * @param atoms
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @param comparator
+	 */
+	private static void sort(int[] atoms, int from, int to, AtomIndexComparator comparator) {
+		if (to - from < 2) {
+			return;
+		}
+		int[] buffer = new int[to - from];
+		mergeSort(atoms, buffer, from, to, comparator);
+	}
+
+	private static void mergeSort(int[] atoms, int[] buffer, int from, int to, AtomIndexComparator comparator) {
+		if (to - from <= 8) {
+			for (int i = from + 1; i < to; i++) {
+				int atom = atoms[i];
+				int j = i - 1;
+				while (j >= from && comparator.compare(atoms[j], atom) > 0) {
+					atoms[j + 1] = atoms[j];
+					j--;
+				}
+				atoms[j + 1] = atom;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(atoms, buffer, from, mid, comparator);
+		mergeSort(atoms, buffer, mid, to, comparator);
+		if (comparator.compare(atoms[mid - 1], atoms[mid]) <= 0) {
+			return;
+		}
+		int offset = buffer.length - (to - from);
+		System.arraycopy(atoms, from, buffer, offset, to - from);
+		int left = offset;
+		int leftEnd = offset + (mid - from);
+		int right = leftEnd;
+		int rightEnd = offset + (to - from);
+		for (int i = from; i < to; i++) {
+			if (right >= rightEnd || (left < leftEnd && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+				atoms[i] = buffer[left++];
+			}
+			else {
+				atoms[i] = buffer[right++];
+			}
+		}
 	}
 
 	/**
@@ -367,22 +437,23 @@ class StereoAnalyser {
 	 * @return List<StereoCentre>
 	 */
 	List<StereoCentre> findStereoCentres(){
-		List<Atom> potentialStereoAtoms = getPotentialStereoCentres();
-		List<Atom> trueStereoCentres = new ArrayList<>();
-		for (Atom potentialStereoAtom : potentialStereoAtoms) {
+		int atomCount = graph.getAtomCount();
+		List<Integer> potentialStereoAtoms = getPotentialStereoCentres();
+		boolean[] isTrueStereoCentre = new boolean[atomCount];
+		List<StereoCentre> stereoCentres = new ArrayList<>();
+		List<Integer> remainingPotentialStereoAtoms = new ArrayList<>();
+		for (int potentialStereoAtom : potentialStereoAtoms) {
 			if (isTrueStereCentre(potentialStereoAtom)){
-				trueStereoCentres.add(potentialStereoAtom);
+				isTrueStereoCentre[potentialStereoAtom] = true;
+				stereoCentres.add(new StereoCentre(graph.getAtom(potentialStereoAtom), true));
+			}
+			else {
+				remainingPotentialStereoAtoms.add(potentialStereoAtom);
 			}
-		}
-		List<StereoCentre> stereoCentres = new ArrayList<>();
-		for (Atom trueStereoCentreAtom : trueStereoCentres) {
-			stereoCentres.add(new StereoCentre(trueStereoCentreAtom, true));
 		}
 
-		potentialStereoAtoms.removeAll(trueStereoCentres);
-		List<Atom> paraStereoCentres = findParaStereoCentres(potentialStereoAtoms, trueStereoCentres);
-		for (Atom paraStereoCentreAtom : paraStereoCentres) {
-			stereoCentres.add(new StereoCentre(paraStereoCentreAtom, false));
+		for (int paraStereoCentreAtom : findParaStereoCentres(remainingPotentialStereoAtoms, isTrueStereoCentre)) {
+			stereoCentres.add(new StereoCentre(graph.getAtom(paraStereoCentreAtom), false));
 		}
 		return stereoCentres;
 	}
@@ -391,11 +462,11 @@ class StereoAnalyser {
 	 * Retrieves atoms that pass the isPossiblyStereogenic() criteria
 	 * @return
 	 */
-	private List<Atom> getPotentialStereoCentres() {
-		List<Atom> potentialStereoAtoms = new ArrayList<>();
-		for (Atom atom : atoms) {
-			if (isPossiblyStereogenic(atom)){
-				potentialStereoAtoms.add(atom);
+	private List<Integer> getPotentialStereoCentres() {
+		List<Integer> potentialStereoAtoms = new ArrayList<>();
+		for (int i = 0, l = graph.getAtomCount(); i < l; i++) {
+			if (isPossiblyStereogenic(graph.getAtom(i))){
+				potentialStereoAtoms.add(i);
 			}
 		}
 		return potentialStereoAtoms;
@@ -406,60 +477,55 @@ class StereoAnalyser {
 	 * @param potentialStereoAtom
 	 * @return
 	 */
-	private boolean isTrueStereCentre(Atom potentialStereoAtom) {
-		List<Atom> neighbours = potentialStereoAtom.getAtomNeighbours();
-		if (neighbours.size()!=3 && neighbours.size()!=4){
+	private boolean isTrueStereCentre(int potentialStereoAtom) {
+		int degree = graph.getDegree(potentialStereoAtom);
+		if (degree != 3 && degree != 4){
 			return false;
 		}
-		int[] colours = new int[4];
-		for (int i = neighbours.size() - 1 ; i >=0; i--) {
-			colours[i] = mappingToColour.get(neighbours.get(i));
-		}
-		
-		boolean foundIdenticalNeighbour =false;
-		for (int i = 0; i < 4; i++) {
-			int cl = colours[i];
-			for (int j = i +1; j < 4; j++) {
-				if (cl == colours[j]){
-					foundIdenticalNeighbour =true;
-					break;
+		int start = graph.getAdjacencyStart(potentialStereoAtom);
+		for (int i = 0; i < degree; i++) {
+			int cl = colours[graph.getAdjacentAtom(start + i)];
+			for (int j = i + 1; j < degree; j++) {
+				if (cl == colours[graph.getAdjacentAtom(start + j)]){
+					return false;
 				}
 			}
 		}
-		return !foundIdenticalNeighbour;
+		return true;
 	}
 	
 	/**
 	 * Finds a subset of the stereocentres associated with rule 2 from:
 	 * DOI: 10.1021/ci00016a003
 	 * @param potentialStereoAtoms
-	 * @param trueStereoCentres 
+	 * @param isTrueStereoCentre 
 	 */
-	private List<Atom> findParaStereoCentres(List<Atom> potentialStereoAtoms, List<Atom> trueStereoCentres) {
-		List<Atom> paraStereoCentres = new ArrayList<>();
-		for (Atom potentialStereoAtom : potentialStereoAtoms) {
-			List<Atom> neighbours = potentialStereoAtom.getAtomNeighbours();
-			if (neighbours.size() == 4){
+	private List<Integer> findParaStereoCentres(List<Integer> potentialStereoAtoms, boolean[] isTrueStereoCentre) {
+		List<Integer> paraStereoCentres = new ArrayList<>();
+		for (int potentialStereoAtom : potentialStereoAtoms) {
+			if (graph.getDegree(potentialStereoAtom) == 4){
+				int start = graph.getAdjacencyStart(potentialStereoAtom);
 				int[] colours = new int[4];
-				for (int i = neighbours.size() - 1 ; i >=0; i--) {
-					colours[i] = mappingToColour.get(neighbours.get(i));
+				for (int i = 0; i < 4; i++) {
+					colours[i] = this.colours[graph.getAdjacentAtom(start + i)];
 				}
 				//find pairs of constitutionally identical substituents
-				Map<Integer, Integer> foundPairs = new HashMap<>();
+				int[] pairedWith = {-1, -1, -1, -1};
+				int pairs = 0;
 				for (int i = 0; i < 4; i++) {
 					int cl = colours[i];
 					for (int j = i +1; j < 4; j++) {
 						if (cl == colours[j]){
-							foundPairs.put(i, j);
+							pairedWith[i] = j;
+							pairs++;
 							break;
 						}
 					}
 				}
-				int pairs = foundPairs.keySet().size();
 				if (pairs==1 || pairs==2){
 					boolean hasTrueStereoCentreInAllBranches = true;
-					for (Entry<Integer, Integer> entry: foundPairs.entrySet()) {
-						if (!branchesHaveTrueStereocentre(neighbours.get(entry.getKey()), neighbours.get(entry.getValue()), potentialStereoAtom, trueStereoCentres)){
+					for (int i = 0; i < 4; i++) {
+						if (pairedWith[i] != -1 && !branchesHaveTrueStereocentre(graph.getAdjacentAtom(start + i), graph.getAdjacentAtom(start + pairedWith[i]), potentialStereoAtom, isTrueStereoCentre)){
 							hasTrueStereoCentreInAllBranches = false;
 							break;
 						}
@@ -474,38 +540,46 @@ class StereoAnalyser {
 	}
 
 
-	private boolean branchesHaveTrueStereocentre(Atom branchAtom1, Atom branchAtom2, Atom potentialStereoAtom, List<Atom> trueStereoCentres) {
-		List<Atom> atomsToVisit= new ArrayList<>();
-		Set<Atom> visitedAtoms = new HashSet<>();
-		visitedAtoms.add(potentialStereoAtom);
-		atomsToVisit.add(branchAtom1);
-		atomsToVisit.add(branchAtom2);
-		while(!atomsToVisit.isEmpty()){
-			List<Atom> newAtomsToVisit = new ArrayList<>();
-			while(!atomsToVisit.isEmpty()){
-				Atom atom = atomsToVisit.remove(0);
-				if (trueStereoCentres.contains(atom)){
+	private boolean branchesHaveTrueStereocentre(int branchAtom1, int branchAtom2, int potentialStereoAtom, boolean[] isTrueStereoCentre) {
+		boolean[] visitedAtoms = new boolean[graph.getAtomCount()];
+		visitedAtoms[potentialStereoAtom] = true;
+		int[] atomsToVisit = {branchAtom1, branchAtom2};
+		int atomsToVisitCount = 2;
+		while(atomsToVisitCount > 0){
+			int[] newAtomsToVisit = new int[Math.max(atomsToVisitCount * 2, 4)];
+			int newAtomsToVisitCount = 0;
+			for (int i = 0; i < atomsToVisitCount; i++) {
+				int atom = atomsToVisit[i];
+				if (atom == -1){//removed as the branches converged on it
+					continue;
+				}
+				if (isTrueStereoCentre[atom]){
 					return true;
 				}
-				if (atomsToVisit.contains(atom)){//the two branches have converged on this atom, don't investigate neighbours of it
-					do{
-						atomsToVisit.remove(atom);
+				boolean branchesConverged = false;
+				for (int j = i + 1; j < atomsToVisitCount; j++) {
+					if (atomsToVisit[j] == atom){
+						atomsToVisit[j] = -1;
+						branchesConverged = true;
 					}
-					while (atomsToVisit.contains(atom));
+				}
+				if (branchesConverged){//the two branches have converged on this atom, don't investigate neighbours of it
 					continue;
 				}
-				else{
-					List<Atom> neighbours = atom.getAtomNeighbours();
-					for (Atom neighbour : neighbours) {
-						if (visitedAtoms.contains(neighbour)){
-							continue;
-						}
-						newAtomsToVisit.add(neighbour);
+				for (int j = graph.getAdjacencyStart(atom), end = graph.getAdjacencyEnd(atom); j < end; j++) {
+					int neighbour = graph.getAdjacentAtom(j);
+					if (visitedAtoms[neighbour]){
+						continue;
 					}
+					if (newAtomsToVisitCount == newAtomsToVisit.length){
+						newAtomsToVisit = Arrays.copyOf(newAtomsToVisit, newAtomsToVisitCount * 2);
+					}
+					newAtomsToVisit[newAtomsToVisitCount++] = neighbour;
 				}
-				visitedAtoms.add(atom);
+				visitedAtoms[atom] = true;
 			}
 			atomsToVisit = newAtomsToVisit;
+			atomsToVisitCount = newAtomsToVisitCount;
 		}
 		return false;
 	}
@@ -614,20 +688,22 @@ class StereoAnalyser {
 	 */
 	List<StereoBond> findStereoBonds() {
 		List<StereoBond> stereoBonds = new ArrayList<>();
+		int[] neighbours1 = new int[2];
+		int[] neighbours2 = new int[2];
 		for (Bond bond : bonds) {
 			if (bond.getOrder()==2){
 				Atom a1 = bond.getFromAtom();
-				List<Atom> neighbours1 =  a1.getAtomNeighbours();
-				neighbours1.remove(bond.getToAtom());
-				if (neighbours1.size()==2 || (neighbours1.size()==1 && a1.getElement() == ChemEl.N && a1.getIncomingValency()==3 && a1.getCharge()==0)){
-					if (neighbours1.size()==2 && mappingToColour.get(neighbours1.get(0)).equals(mappingToColour.get(neighbours1.get(1)))){
+				Atom a2 = bond.getToAtom();
+				int a1Idx = indexOfAtom(a1);
+				int a2Idx = indexOfAtom(a2);
+				int neighbourCount1 = getNeighboursExcluding(a1Idx, a2Idx, neighbours1);
+				if (neighbourCount1==2 || (neighbourCount1==1 && a1.getElement() == ChemEl.N && a1.getIncomingValency()==3 && a1.getCharge()==0)){
+					if (neighbourCount1==2 && colours[neighbours1[0]] == colours[neighbours1[1]]){
 						continue;
 					}
-					Atom a2 = bond.getToAtom();
-					List<Atom> neighbours2 = a2.getAtomNeighbours();
-					neighbours2.remove(bond.getFromAtom());
-					if (neighbours2.size()==2 || (neighbours2.size()==1 && a2.getElement() == ChemEl.N && a2.getIncomingValency()==3 && a2.getCharge()==0)){
-						if (neighbours2.size()==2 && mappingToColour.get(neighbours2.get(0)).equals(mappingToColour.get(neighbours2.get(1)))){
+					int neighbourCount2 = getNeighboursExcluding(a2Idx, a1Idx, neighbours2);
+					if (neighbourCount2==2 || (neighbourCount2==1 && a2.getElement() == ChemEl.N && a2.getIncomingValency()==3 && a2.getCharge()==0)){
+						if (neighbourCount2==2 && colours[neighbours2[0]] == colours[neighbours2[1]]){
 							continue;
 						}
 						stereoBonds.add(new StereoBond(bond));
@@ -637,6 +713,30 @@ class StereoAnalyser {
 		}
 		return stereoBonds;
 	}
+
+	/**
+	 * Populates the given array with up to its length neighbours of the atom, other than the excluded atom
+	 * @param atom
+	 * @param excludedAtom
+	 * @param neighbours
+	 * @return The total number of neighbours other than the excluded atom
+	 */
+	private int getNeighboursExcluding(int atom, int excludedAtom, int[] neighbours) {
+		int count = 0;
+		boolean skippedExcluded = false;
+		for (int i = graph.getAdjacencyStart(atom), end = graph.getAdjacencyEnd(atom); i < end; i++) {
+			int neighbour = graph.getAdjacentAtom(i);
+			if (neighbour == excludedAtom && !skippedExcluded){
+				skippedExcluded = true;
+				continue;
+			}
+			if (count < neighbours.length){
+				neighbours[count] = neighbour;
+			}
+			count++;
+		}
+		return count;
+	}
 	
 	/**
 	 * Returns a number describing the environment of an atom. Atoms with the same number are in identical environments
@@ -645,6 +745,7 @@ class StereoAnalyser {
 	 * @return
 	 */
 	Integer getAtomEnvironmentNumber(Atom a) {
-		return mappingToColour.get(a);
+		int idx = graph.indexOf(a);
+		return idx != -1 ? colours[idx] : null;
 	}
 }
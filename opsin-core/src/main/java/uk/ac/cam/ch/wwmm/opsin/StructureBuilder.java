@@ -27,7 +27,7 @@ class StructureBuilder {
 	
 	private static final Pattern matchBoroHydrogenIsotope = Pattern.compile("boro(deuter|trit)ide?");
 	private final BuildState state;
-	private final List<Atom> polymerAttachmentPoints = new ArrayList<>();//rGroups need to be represented as normal atoms for the purpose of working out stereochemistry. They will be converted to a suitable representation later
+	private List<Atom> polymerAttachmentPoints = new ArrayList<>();//rGroups need to be represented as normal atoms for the purpose of working out stereochemistry. They will be converted to a suitable representation later
 	
 	private int currentTopLevelWordRuleCount;
 	
@@ -35,6 +35,16 @@ class StructureBuilder {
 		this.state = state;
 	}
 
+	/**
+	 * Prepares this StructureBuilder to build another structure, using the same BuildState
+	 */
+	void reset() {
+		if (!polymerAttachmentPoints.isEmpty()) {
+			//the list was given to the previously built structure
+			polymerAttachmentPoints = new ArrayList<>();
+		}
+	}
+
 	/**	Builds a molecule as a Fragment based on ComponentProcessor output.
 	 * @param molecule The ComponentProcessor output.
 	 * @return A single Fragment - the built molecule.
@@ -51,6 +61,7 @@ class StructureBuilder {
 		for (Element wordRule : wordRules) {
 			processWordRuleChildrenThenRule(wordRule);
 		}
+		OpsinTools.checkForInterrupt();
 		
 		if (currentTopLevelWordRuleCount != wordRules.size()) {
 			wordRules = molecule.getChildElements(WORDRULE_EL);//very rarely a word rule adds a top level word rule
@@ -65,6 +76,7 @@ class StructureBuilder {
 		manipulateStoichiometry(molecule, wordRules);
 		
 		state.fragManager.makeHydrogensExplicit();
+		OpsinTools.checkForInterrupt();
 
 		Fragment uniFrag = state.fragManager.getUnifiedFragment();
 		processStereochemistry(molecule, uniFrag);
@@ -93,6 +105,7 @@ class StructureBuilder {
 		for (Element wordRuleChild : wordRuleChildren) {
 			processWordRuleChildrenThenRule(wordRuleChild);
 		}
+		OpsinTools.checkForInterrupt();
 		processWordRule(wordRule);
 	}
 	
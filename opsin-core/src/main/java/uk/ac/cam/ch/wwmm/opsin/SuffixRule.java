@@ -1,5 +1,9 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
  class SuffixRule {
@@ -12,6 +16,30 @@ import java.util.List;
 		this.attributes = attributes;
 	}
 	
+	/**
+	 * Reads a suffix rule from a {@link ResourceSnapshot}
+	 * @param in
+	 * @return
+	 */
+	static SuffixRule read(ByteBuffer in) {
+		SuffixRuleType type = SuffixRuleType.valueOf(ResourceSnapshot.readString(in));
+		int attributeCount = in.getInt();
+		List<Attribute> attributes = new ArrayList<>(attributeCount);
+		for (int i = 0; i < attributeCount; i++) {
+			attributes.add(new Attribute(ResourceSnapshot.readString(in), ResourceSnapshot.readString(in)));
+		}
+		return new SuffixRule(type, attributes);
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		ResourceSnapshot.writeString(out, type.name());
+		out.writeInt(attributes.size());
+		for (Attribute a : attributes) {
+			ResourceSnapshot.writeString(out, a.getName());
+			ResourceSnapshot.writeString(out, a.getValue());
+		}
+	}
+
 	SuffixRuleType getType() {
 		return type;
 	}
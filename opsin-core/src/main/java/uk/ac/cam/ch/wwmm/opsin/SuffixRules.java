@@ -2,11 +2,16 @@ package uk.ac.cam.ch.wwmm.opsin;
 
 import static uk.ac.cam.ch.wwmm.opsin.XmlDeclarations.*;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
@@ -35,6 +40,83 @@ class SuffixRules {
 		Map<String, List<SuffixRule>> suffixRulesMap = generateSuffixRulesMap(resourceGetter);
 		suffixApplicability = generateSuffixApplicabilityMap(resourceGetter, suffixRulesMap);
 	}
+
+	/**
+	 * Initialises the SuffixRules from a {@link ResourceSnapshot}
+	 * @param in the snapshot, positioned at the output of {@link #write(DataOutputStream)}
+	 */
+	SuffixRules(ByteBuffer in) {
+		List<List<SuffixRule>> ruleLists = new ArrayList<>();
+		for (int i = 0, l = in.getInt(); i < l; i++) {
+			int ruleCount = in.getInt();
+			List<SuffixRule> rules = new ArrayList<>(ruleCount);
+			for (int j = 0; j < ruleCount; j++) {
+				rules.add(SuffixRule.read(in));
+			}
+			ruleLists.add(rules);
+		}
+		suffixApplicability = new HashMap<>();
+		for (int i = 0, l = in.getInt(); i < l; i++) {
+			Map<String, List<ApplicableSuffix>> suffixToRuleMap = new HashMap<>();
+			suffixApplicability.put(ResourceSnapshot.readString(in), suffixToRuleMap);
+			for (int j = 0, suffixCount = in.getInt(); j < suffixCount; j++) {
+				String suffixValue = ResourceSnapshot.readString(in);
+				int applicableCount = in.getInt();
+				List<ApplicableSuffix> suffixList = new ArrayList<>(applicableCount);
+				for (int k = 0; k < applicableCount; k++) {
+					String requiredSubType = ResourceSnapshot.readString(in);
+					suffixList.add(new ApplicableSuffix(requiredSubType, ruleLists.get(in.getInt())));
+				}
+				suffixToRuleMap.put(suffixValue, suffixList);
+			}
+		}
+	}
+
+	/**
+	 * Writes the suffix rules and their applicability, for inclusion in a {@link ResourceSnapshot}
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		//sorted so that the output does not depend on the iteration order of the maps
+		Map<String, Map<String, List<ApplicableSuffix>>> sortedSuffixApplicability = new TreeMap<>();
+		for (Entry<String, Map<String, List<ApplicableSuffix>>> groupTypeEntry : suffixApplicability.entrySet()) {
+			sortedSuffixApplicability.put(groupTypeEntry.getKey(), new TreeMap<>(groupTypeEntry.getValue()));
+		}
+		//the same rules may be applicable to many suffixes so each list of rules is written once and referred to by index
+		Map<List<SuffixRule>, Integer> ruleListToIndex = new IdentityHashMap<>();
+		List<List<SuffixRule>> ruleLists = new ArrayList<>();
+		for (Map<String, List<ApplicableSuffix>> suffixToRuleMap : sortedSuffixApplicability.values()) {
+			for (List<ApplicableSuffix> suffixList : suffixToRuleMap.values()) {
+				for (ApplicableSuffix suffix : suffixList) {
+					if (!ruleListToIndex.containsKey(suffix.suffixRules)) {
+						ruleListToIndex.put(suffix.suffixRules, ruleLists.size());
+						ruleLists.add(suffix.suffixRules);
+					}
+				}
+			}
+		}
+		out.writeInt(ruleLists.size());
+		for (List<SuffixRule> rules : ruleLists) {
+			out.writeInt(rules.size());
+			for (SuffixRule rule : rules) {
+				rule.write(out);
+			}
+		}
+		out.writeInt(sortedSuffixApplicability.size());
+		for (Entry<String, Map<String, List<ApplicableSuffix>>> groupTypeEntry : sortedSuffixApplicability.entrySet()) {
+			ResourceSnapshot.writeString(out, groupTypeEntry.getKey());
+			out.writeInt(groupTypeEntry.getValue().size());
+			for (Entry<String, List<ApplicableSuffix>> suffixEntry : groupTypeEntry.getValue().entrySet()) {
+				ResourceSnapshot.writeString(out, suffixEntry.getKey());
+				out.writeInt(suffixEntry.getValue().size());
+				for (ApplicableSuffix suffix : suffixEntry.getValue()) {
+					ResourceSnapshot.writeString(out, suffix.requiredSubType);
+					out.writeInt(ruleListToIndex.get(suffix.suffixRules));
+				}
+			}
+		}
+	}
 	
 	private Map<String, List<SuffixRule>> generateSuffixRulesMap(ResourceGetter resourceGetter) throws IOException {
 		Map<String, List<SuffixRule>> suffixRulesMap = new HashMap<>();
@@ -1,6 +1,8 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -118,6 +120,34 @@ class WordRules {
 			this.endsWithGroupSubType = endsWithGroupSubType;
 		}
 
+		/**
+		 * Reads a description of a word from a {@link ResourceSnapshot}
+		 * @param in
+		 */
+		WordDescription(ByteBuffer in) {
+			this.type = WordType.valueOf(ResourceSnapshot.readString(in));
+			String endsWithGroup = ResourceSnapshot.readString(in);
+			this.endsWithGroup = endsWithGroup != null ? EndsWithGroup.valueOf(endsWithGroup) : null;
+			String endsWithPattern = ResourceSnapshot.readString(in);
+			this.endsWithPattern = endsWithPattern != null ? Pattern.compile(endsWithPattern, Pattern.CASE_INSENSITIVE) : null;
+			this.value = ResourceSnapshot.readString(in);
+			this.functionalGroupType = ResourceSnapshot.readString(in);
+			this.functionalGroupSubType = ResourceSnapshot.readString(in);
+			this.endsWithGroupType = ResourceSnapshot.readString(in);
+			this.endsWithGroupSubType = ResourceSnapshot.readString(in);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			ResourceSnapshot.writeString(out, type.name());
+			ResourceSnapshot.writeString(out, endsWithGroup != null ? endsWithGroup.name() : null);
+			ResourceSnapshot.writeString(out, endsWithPattern != null ? endsWithPattern.pattern() : null);
+			ResourceSnapshot.writeString(out, value);
+			ResourceSnapshot.writeString(out, functionalGroupType);
+			ResourceSnapshot.writeString(out, functionalGroupSubType);
+			ResourceSnapshot.writeString(out, endsWithGroupType);
+			ResourceSnapshot.writeString(out, endsWithGroupSubType);
+		}
+
 		WordType getType() {
 			return type;
 		}
@@ -197,6 +227,30 @@ class WordRules {
 			}
 			this.wordDescriptions = Collections.unmodifiableList(wordDescriptions);
 		}
+
+		/**
+		 * Reads a wordRule from a {@link ResourceSnapshot}
+		 * @param in
+		 */
+		WordRuleDescription(ByteBuffer in) {
+			ruleName = WordRule.valueOf(ResourceSnapshot.readString(in));
+			ruleType = WordType.valueOf(ResourceSnapshot.readString(in));
+			int wordCount = in.getInt();
+			List<WordDescription> wordDescriptions = new ArrayList<>(wordCount);
+			for (int i = 0; i < wordCount; i++) {
+				wordDescriptions.add(new WordDescription(in));
+			}
+			this.wordDescriptions = Collections.unmodifiableList(wordDescriptions);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			ResourceSnapshot.writeString(out, ruleName.name());
+			ResourceSnapshot.writeString(out, ruleType.name());
+			out.writeInt(wordDescriptions.size());
+			for (WordDescription wordDescription : wordDescriptions) {
+				wordDescription.write(out);
+			}
+		}
 	}
 
 
@@ -228,6 +282,30 @@ class WordRules {
 		this.wordRuleList = Collections.unmodifiableList(wordRuleList);
 	}
 
+	/**Initialises the WordRules from a {@link ResourceSnapshot}.
+	 * @param in the snapshot, positioned at the output of {@link #write(DataOutputStream)}
+	 */
+	WordRules(ByteBuffer in) {
+		int ruleCount = in.getInt();
+		List<WordRuleDescription> wordRuleList = new ArrayList<>(ruleCount);
+		for (int i = 0; i < ruleCount; i++) {
+			wordRuleList.add(new WordRuleDescription(in));
+		}
+		this.wordRuleList = Collections.unmodifiableList(wordRuleList);
+	}
+
+	/**
+	 * Writes the wordRules, for inclusion in a {@link ResourceSnapshot}
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(wordRuleList.size());
+		for (WordRuleDescription wordRuleDescription : wordRuleList) {
+			wordRuleDescription.write(out);
+		}
+	}
+
 	/**Takes a molecule element and places the word elements into wordRule elements
 	 * @param moleculeEl A molecule element with word children
 	 * @param n2sConfig 
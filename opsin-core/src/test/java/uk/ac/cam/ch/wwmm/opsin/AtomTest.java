@@ -3,6 +3,7 @@ package uk.ac.cam.ch.wwmm.opsin;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
@@ -48,4 +49,18 @@ public class AtomTest {
 		assertEquals(1, sBuilder.build("CC=CC#N").getFirstAtom().getIncomingValency(), "One bond");
 	}
 	
+	@Test
+	public void testProperties() {
+		Atom atom = new Atom(10, ChemEl.C, frag);
+		assertNull(atom.getProperty(Atom.ATOM_CLASS), "No properties are set initially");
+		atom.setProperty(Atom.ATOM_CLASS, 2);
+		atom.setProperty(Atom.HOMOLOGY_GROUP, "R1");
+		assertEquals(2, (int) atom.getProperty(Atom.ATOM_CLASS));
+		assertEquals("R1", atom.getProperty(Atom.HOMOLOGY_GROUP));
+		assertNull(atom.getProperty(Atom.ISALDEHYDE), "Unset property");
+		atom.setProperty(Atom.ATOM_CLASS, null);
+		assertNull(atom.getProperty(Atom.ATOM_CLASS), "Property was cleared");
+		assertEquals("R1", atom.getProperty(Atom.HOMOLOGY_GROUP));
+	}
+	
 }
@@ -0,0 +1,73 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class CmlStreamWriterTest {
+	private static final String XML_DECLARATION = "<?xml version='1.0' encoding='UTF-8'?>";
+
+	@Test
+	public void testSingleResultMatchesGetCml() throws IOException {
+		OpsinResult result = NameToStructure.getInstance().parseChemicalName("ethanol");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CmlStreamWriter cmlWriter = new CmlStreamWriter(out)) {
+			cmlWriter.write(result);
+		}
+		assertEquals(XML_DECLARATION + result.getCml(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+		out = new ByteArrayOutputStream();
+		try (CmlStreamWriter cmlWriter = new CmlStreamWriter(out, true)) {
+			cmlWriter.write(result);
+		}
+		assertEquals(XML_DECLARATION + result.getPrettyPrintedCml(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testGzippedMultipleResults() throws IOException {
+		NameToStructure nts = NameToStructure.getInstance();
+		OpsinResult ethanol = nts.parseChemicalName("ethanol");
+		OpsinResult failure = nts.parseChemicalName("helloworld");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (CmlStreamWriter cmlWriter = CmlStreamWriter.createGzipped(out, false)) {
+			cmlWriter.writeAll(Arrays.asList(ethanol, failure, ethanol));
+		}
+		String cml = readGzipped(out.toByteArray());
+		assertTrue(cml.startsWith(XML_DECLARATION + "<cml "));
+		assertTrue(cml.endsWith("</cml>"));
+		assertTrue(cml.contains("<molecule id=\"m2\"><name dictRef=\"nameDict:unknown\">helloworld</name></molecule>"));
+		String ethanolCml = ethanol.getCml();
+		String ethanolAtoms = ethanolCml.substring(ethanolCml.indexOf("<atomArray>"), ethanolCml.indexOf("</molecule>"));
+		assertEquals(cml.indexOf(ethanolAtoms, cml.indexOf("id=\"m1\"")), cml.indexOf(ethanolAtoms));
+		assertTrue(cml.indexOf(ethanolAtoms, cml.indexOf("id=\"m3\"")) > 0);
+	}
+
+	@Test
+	public void testWriteAfterClose() throws IOException {
+		CmlStreamWriter cmlWriter = new CmlStreamWriter(new ByteArrayOutputStream());
+		cmlWriter.close();
+		assertThrows(IOException.class, () -> cmlWriter.write(NameToStructure.getInstance().parseChemicalName("ethanol")));
+	}
+
+	private static String readGzipped(byte[] bytes) throws IOException {
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				decompressed.write(buffer, 0, read);
+			}
+		}
+		return new String(decompressed.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
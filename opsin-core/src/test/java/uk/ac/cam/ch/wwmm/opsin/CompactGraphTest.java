@@ -0,0 +1,56 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class CompactGraphTest {
+	private IDManager idManager = new IDManager();
+	private SMILESFragmentBuilder sBuilder = new SMILESFragmentBuilder(idManager);
+
+	@Test
+	public void testNeighboursAreInBondOrder() throws StructureBuildingException {
+		Fragment frag = sBuilder.build("C(=O)([13CH3])N");
+		CompactGraph graph = CompactGraph.fromAtoms(frag.getAtomList());
+		assertEquals(4, graph.getAtomCount());
+		assertEquals(3, graph.getBondCount());
+		for (int i = 0; i < graph.getAtomCount(); i++) {
+			Atom atom = graph.getAtom(i);
+			assertEquals(i, graph.indexOf(atom));
+			assertEquals(atom.getElement().ATOMIC_NUM, graph.getAtomicNumber(i));
+			List<Bond> bonds = atom.getBonds();
+			assertEquals(bonds.size(), graph.getDegree(i));
+			for (int j = 0; j < bonds.size(); j++) {
+				int adjacencyIdx = graph.getAdjacencyStart(i) + j;
+				Bond bond = graph.getBond(graph.getAdjacentBond(adjacencyIdx));
+				assertSame(bonds.get(j), bond);
+				assertSame(bond.getOtherAtom(atom), graph.getAtom(graph.getAdjacentAtom(adjacencyIdx)));
+				assertSame(bond.getFromAtom(), graph.getAtom(graph.getBondFrom(graph.getAdjacentBond(adjacencyIdx))));
+				assertEquals(bond.getOrder(), graph.getBondOrder(graph.getAdjacentBond(adjacencyIdx)));
+			}
+		}
+		assertEquals(0, graph.getIsotope(0));
+		assertEquals(13, graph.getIsotope(2));
+	}
+
+	@Test
+	public void testConnectedAtomsAreIncluded() throws StructureBuildingException {
+		FragmentManager fm = new FragmentManager(sBuilder, idManager);
+		Fragment frag1 = fm.buildSMILES("CC");
+		Fragment frag2 = fm.buildSMILES("OC");
+		fm.createBond(frag1.getFirstAtom(), frag2.getFirstAtom(), 1);
+		assertThrows(IllegalArgumentException.class, () -> CompactGraph.fromAtoms(frag1.getAtomList()));
+
+		CompactGraph graph = CompactGraph.fromConnectedAtoms(frag1.getAtomList());
+		assertEquals(2, graph.getInputAtomCount());
+		assertEquals(4, graph.getAtomCount());
+		assertSame(frag1.getFirstAtom(), graph.getAtom(0));
+		assertSame(frag2.getFirstAtom(), graph.getAtom(2));
+		assertSame(frag2.getAtomList().get(1), graph.getAtom(3));
+		assertEquals(-1, graph.indexOf(fm.buildSMILES("N").getFirstAtom()));
+	}
+}
@@ -0,0 +1,95 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static uk.ac.cam.ch.wwmm.opsin.XmlDeclarations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import uk.ac.cam.ch.wwmm.opsin.Bond.SMILES_BOND_DIRECTION;
+
+public class FragmentTemplateTest {
+
+	private FragmentManager fragManager;
+
+	@BeforeEach
+	public void setUp() {
+		IDManager idManager = new IDManager();
+		fragManager = new FragmentManager(new SMILESFragmentBuilder(idManager), idManager);
+	}
+
+	@Test
+	public void testInstantiateWithOriginalIdsRetainsFragmentState() throws StructureBuildingException {
+		Element tokenEl = new TokenEl("");
+		tokenEl.addAttribute(TYPE_ATR, GROUP_TYPE_VAL);
+		tokenEl.addAttribute(SUBTYPE_ATR, SIMPLEGROUP_SUBTYPE_VAL);
+		Fragment frag = fragManager.buildSMILES("[Fe]C(=O)C(=S)O", tokenEl, NONE_LABELS_VAL);
+		List<Atom> atoms = frag.getAtomList();
+		Atom iron = atoms.get(0);
+		Atom carbonyl = atoms.get(1);
+		Atom thioCarbon = atoms.get(3);
+		iron.setProperty(Atom.OXIDATION_NUMBER, 2);
+		carbonyl.setProperty(Atom.ISALDEHYDE, true);
+		carbonyl.setProperty(Atom.ISANOMERIC, true);
+		Set<Atom> ambiguous = new LinkedHashSet<>(Arrays.asList(atoms.get(4), atoms.get(5)));
+		atoms.get(5).setProperty(Atom.AMBIGUOUS_ELEMENT_ASSIGNMENT, ambiguous);
+		thioCarbon.setType(SUFFIX_TYPE_VAL);
+		frag.addFunctionalAtom(atoms.get(5));
+		frag.setDefaultInAtom(carbonyl);
+		frag.addOutAtom(thioCarbon, 1, true);
+		frag.getOutAtom(0).setLocant("2");
+		frag.getFirstAtom().getFirstBond().setSmilesStereochemistry(SMILES_BOND_DIRECTION.LSLASH);
+
+		Fragment copy = new FragmentTemplate(frag).instantiateWithOriginalIds();
+		assertEquals(GROUP_TYPE_VAL, copy.getType());
+		assertEquals(SIMPLEGROUP_SUBTYPE_VAL, copy.getSubType());
+		List<Atom> copiedAtoms = copy.getAtomList();
+		assertEquals(atoms.size(), copiedAtoms.size());
+		for (int i = 0; i < atoms.size(); i++) {
+			Atom atom = atoms.get(i);
+			Atom copiedAtom = copiedAtoms.get(i);
+			assertEquals(atom.getID(), copiedAtom.getID());
+			assertEquals(atom.getType(), copiedAtom.getType());
+			assertEquals(atom.getProperty(Atom.OXIDATION_NUMBER), copiedAtom.getProperty(Atom.OXIDATION_NUMBER));
+			assertEquals(atom.getProperty(Atom.ISALDEHYDE), copiedAtom.getProperty(Atom.ISALDEHYDE));
+			assertEquals(atom.getProperty(Atom.ISANOMERIC), copiedAtom.getProperty(Atom.ISANOMERIC));
+		}
+		assertEquals(SUFFIX_TYPE_VAL, copiedAtoms.get(3).getType());
+		assertEquals(GROUP_TYPE_VAL, copiedAtoms.get(2).getType());
+		assertEquals(Integer.valueOf(2), copiedAtoms.get(0).getProperty(Atom.OXIDATION_NUMBER));
+
+		Set<Atom> copiedAmbiguous = copiedAtoms.get(5).getProperty(Atom.AMBIGUOUS_ELEMENT_ASSIGNMENT);
+		assertEquals(Arrays.asList(copiedAtoms.get(4), copiedAtoms.get(5)), new ArrayList<>(copiedAmbiguous));
+		assertNull(copiedAtoms.get(4).getProperty(Atom.AMBIGUOUS_ELEMENT_ASSIGNMENT));
+
+		assertEquals(1, copy.getFunctionalAtomCount());
+		assertEquals(copiedAtoms.get(5), copy.getFunctionalAtom(0).getAtom());
+		assertEquals(copiedAtoms.get(1), copy.getDefaultInAtom());
+		assertEquals(1, copy.getOutAtomCount());
+		assertEquals(copiedAtoms.get(3), copy.getOutAtom(0).getAtom());
+		assertEquals("2", copy.getOutAtom(0).getLocant());
+		assertEquals(1, copiedAtoms.get(3).getOutValency());
+		assertEquals(SMILES_BOND_DIRECTION.LSLASH, copy.getFirstAtom().getFirstBond().getSmilesStereochemistry());
+	}
+
+	@Test
+	public void testCacheEvictsLeastRecentlyUsed() throws StructureBuildingException {
+		FragmentTemplate methane = new FragmentTemplate(fragManager.buildSMILES("C"));
+		FragmentTemplate ethane = new FragmentTemplate(fragManager.buildSMILES("CC"));
+		FragmentTemplateCache cache = new FragmentTemplateCache(1);
+		cache.put("C", methane);
+		assertSame(methane, cache.get("C"));
+		cache.put("CC", ethane);
+		assertNull(cache.get("C"));
+		assertSame(ethane, cache.get("CC"));
+		assertEquals(1, cache.size());
+	}
+}
@@ -1,6 +1,9 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
 import java.util.List;
@@ -438,6 +441,51 @@ public class FusedRingNumbererTest {
 		compareNumbering("c1cccc2C3CNCCN3c4ncccc4Cc12", "1/2/3/4/5/5a/6/7/8/9/9a/10/10a/11/12/13/14/14a/14b");
 	}
 
+	@Test
+	public void numberingOfRepeatedRingSystemIsCached() throws StructureBuildingException {
+		FusedRingNumberingCache cache = FusedRingNumberer.getNumberingCache();
+		String smiles = "c1ncc2ccc3ccccc3c2c1";
+		String labels = "1/2/3/4/4a/5/6/6a/7/8/9/10/10a/10b";
+		compareNumbering(smiles, labels);
+		long hits = cache.getHits();
+		compareNumbering(smiles, labels);
+		assertEquals(hits + 1, cache.getHits());
+
+		//a different heteroatom is a different ring system
+		compareNumbering("c1occ2ccc3ccccc3c2c1", labels);
+		assertEquals(hits + 1, cache.getHits());
+	}
+
+	@Test
+	public void cacheKeyDependsOnAtomOrder() throws StructureBuildingException {
+		Fragment ring1 = sBuilder.build("c1ccc2ccccc2c1", mock(Element.class), XmlDeclarations.NONE_LABELS_VAL);
+		Fragment ring2 = sBuilder.build("c1ccc2ccccc2c1", mock(Element.class), XmlDeclarations.NONE_LABELS_VAL);
+		Fragment ring3 = sBuilder.build("c12ccccc1cccc2", mock(Element.class), XmlDeclarations.NONE_LABELS_VAL);
+		assertEquals(FusedRingNumberingCache.generateKey(ring1), FusedRingNumberingCache.generateKey(ring2));
+		assertNotEquals(FusedRingNumberingCache.generateKey(ring1), FusedRingNumberingCache.generateKey(ring3));
+	}
+
+	@Test
+	public void searchExceedingBudgetFails() throws StructureBuildingException {
+		Fragment fusedRing = sBuilder.build("[te]1ccc2ccc3cccc4ccc1c2c34", mock(Element.class), XmlDeclarations.NONE_LABELS_VAL);
+		StructureBuildingException e = assertThrows(StructureBuildingException.class, () -> FusedRingNumberer.numberFusedRing(fusedRing, 1));
+		assertTrue(e.getMessage().contains("too complex"));
+	}
+
+	@Test
+	public void cachedNumberingIsNotUsedWhenBudgetIsExceeded() throws StructureBuildingException {
+		String smiles = "[se]1ccc2ccc3cccc4ccc1c2c34";
+		FusedRingNumberer.numberFusedRing(sBuilder.build(smiles, mock(Element.class), XmlDeclarations.NONE_LABELS_VAL));
+		//the numbering is now cached, but could not have been found within this budget
+		Fragment fusedRing = sBuilder.build(smiles, mock(Element.class), XmlDeclarations.NONE_LABELS_VAL);
+		StructureBuildingException e = assertThrows(StructureBuildingException.class, () -> FusedRingNumberer.numberFusedRing(fusedRing, 1));
+		assertTrue(e.getMessage().contains("too complex"));
+		//whereas it is used when the budget allows
+		long hits = FusedRingNumberer.getNumberingCache().getHits();
+		FusedRingNumberer.numberFusedRing(sBuilder.build(smiles, mock(Element.class), XmlDeclarations.NONE_LABELS_VAL), FusedRingNumberer.DEFAULT_SEARCH_BUDGET);
+		assertEquals(hits + 1, FusedRingNumberer.getNumberingCache().getHits());
+	}
+
 	/**
 	 * Takes smiles and expected labels for a fused ring. Generates the fused ring, numbers it then compares to the given slash delimited labels
 	 * @param smiles
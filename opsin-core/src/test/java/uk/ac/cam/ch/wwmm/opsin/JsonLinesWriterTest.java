@@ -0,0 +1,68 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.cam.ch.wwmm.opsin.OpsinResult.OPSIN_RESULT_STATUS;
+import uk.ac.cam.ch.wwmm.opsin.OpsinWarning.OpsinWarningType;
+
+public class JsonLinesWriterTest {
+
+	@Test
+	public void testSuccessAndFailure() throws IOException {
+		NameToStructure nts = NameToStructure.getInstance();
+		StringWriter sw = new StringWriter();
+		try (JsonLinesWriter writer = new JsonLinesWriter(sw)) {
+			writer.write(nts.parseChemicalName("ethanol"));
+			writer.write(nts.parseChemicalName("helloworld"), new String[]{"smi", "stdinchikey"}, new String[]{null, null});
+		}
+		String[] lines = sw.toString().split("\n");
+		assertEquals(2, lines.length);
+		assertEquals("{\"name\":\"ethanol\",\"status\":\"SUCCESS\",\"message\":\"\",\"warnings\":[],\"smi\":\"C(C)O\"}", lines[0]);
+		assertTrue(lines[1].startsWith("{\"name\":\"helloworld\",\"status\":\"FAILURE\",\"message\":\"helloworld is unparsable"));
+		assertTrue(lines[1].endsWith("\"warnings\":[],\"smi\":null,\"stdinchikey\":null}"));
+	}
+
+	@Test
+	public void testEscapingAndWarnings() throws IOException {
+		OpsinWarning warning = new OpsinWarning(OpsinWarningType.APPEARS_AMBIGUOUS, "ambiguous");
+		OpsinResult result = new OpsinResult(null, OPSIN_RESULT_STATUS.WARNING, "tab\there\u0001", Arrays.asList(warning, warning), "a\"b\\c\nd");
+		StringWriter sw = new StringWriter();
+		JsonLinesWriter writer = new JsonLinesWriter(sw);
+		writer.write(result, new String[0], new String[0]);
+		writer.flush();
+		assertEquals("{\"name\":\"a\\\"b\\\\c\\nd\",\"status\":\"WARNING\",\"message\":\"tab\\there\\u0001\",\"warnings\":[\"APPEARS_AMBIGUOUS\",\"APPEARS_AMBIGUOUS\"]}\n", sw.toString());
+	}
+
+	@Test
+	public void testLoneSurrogatesAreEscaped() throws IOException {
+		StringWriter sw = new StringWriter();
+		JsonLinesWriter writer = new JsonLinesWriter(sw);
+		writer.write(new OpsinResult(null, OPSIN_RESULT_STATUS.FAILURE, "", "a\uD83D\uDE00b"),
+				new String[]{"smi", "inchi"}, new String[]{"\uD83Db\uDE00", "c\uDE00\uD83D"});
+		writer.flush();
+		//the surrogate pair is valid so is written as is
+		assertEquals("{\"name\":\"a\uD83D\uDE00b\",\"status\":\"FAILURE\",\"message\":\"\",\"warnings\":[],"
+				+ "\"smi\":\"\\ud83db\\ude00\",\"inchi\":\"c\\ude00\\ud83d\"}\n", sw.toString());
+	}
+
+	@Test
+	public void testTimings() throws IOException {
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setCollectTimings(true);
+		OpsinResult result = NameToStructure.getInstance().parseChemicalName("ethanol", n2sConfig);
+		StringWriter sw = new StringWriter();
+		JsonLinesWriter writer = new JsonLinesWriter(sw);
+		writer.write(result, new String[0], new String[0]);
+		writer.flush();
+		OpsinTimings timings = result.getTimings();
+		assertTrue(sw.toString().contains(",\"timings\":{\"preProcessingNanos\":" + timings.getPreProcessingNanos() + ",\"parsingNanos\":" + timings.getParsingNanos() + ","));
+		assertTrue(sw.toString().endsWith(",\"parsesTried\":" + timings.getParsesTried() + ",\"parsesPruned\":0,\"resultFromCache\":false}}\n"));
+	}
+}
@@ -1,11 +1,24 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import uk.ac.cam.ch.wwmm.opsin.OpsinResult.OPSIN_RESULT_STATUS;
+import uk.ac.cam.ch.wwmm.opsin.OpsinTimings.CandidateParseTimings;
+
 public class NameToStructureTest {
 
 	@Test
@@ -55,4 +68,279 @@ public class NameToStructureTest {
 		String smiles = nts.parseToSmiles("ethane");
 		assertEquals("CC", smiles);
 	}
+
+	@Test
+	public void testParseChemicalNamesPreservesOrder() throws InterruptedException {
+		NameToStructure nts = NameToStructure.getInstance();
+		List<String> names = Arrays.asList("ethane", "helloworld", "benzene", "acetic acid", "methanol", "pyridine");
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<OpsinResult> results = nts.parseChemicalNames(names, NameToStructureConfig.getDefaultConfigInstance(), executor);
+			assertEquals(names.size(), results.size());
+			for (int i = 0; i < names.size(); i++) {
+				assertEquals(names.get(i), results.get(i).getChemicalName());
+			}
+			assertEquals("CC", results.get(0).getSmiles());
+			assertEquals(OPSIN_RESULT_STATUS.FAILURE, results.get(1).getStatus());
+			assertEquals("C1=CC=CC=C1", results.get(2).getSmiles());
+			assertEquals("CO", results.get(4).getSmiles());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseChemicalNamesWithTimeout() throws InterruptedException {
+		NameToStructure nts = NameToStructure.getInstance();
+		List<String> names = Arrays.asList("ethane", "propane");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			List<OpsinResult> results = nts.parseChemicalNames(names, NameToStructureConfig.getDefaultConfigInstance(), executor, 1, TimeUnit.MINUTES);
+			assertEquals("CC", results.get(0).getSmiles());
+			assertEquals("CCC", results.get(1).getSmiles());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testParseChemicalNamesExceedingTimeout() throws InterruptedException {
+		NameToStructure nts = NameToStructure.getInstance();
+		StringBuilder slowName = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			if (i > 0) {
+				slowName.append(" compound with ");
+			}
+			slowName.append("2-chloro-4-(3-bromophenyl)-1H-indole");
+		}
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			List<OpsinResult> results = nts.parseChemicalNames(Collections.singletonList(slowName.toString()), NameToStructureConfig.getDefaultConfigInstance(), executor, 1, TimeUnit.MILLISECONDS);
+			assertEquals(OPSIN_RESULT_STATUS.FAILURE, results.get(0).getStatus());
+			assertEquals("Interpretation of the name exceeded the time limit of 1ms", results.get(0).getMessage());
+			assertNull(results.get(0).getStructure());
+			//the interrupted worker is freed to interpret the next name
+			results = nts.parseChemicalNames(Collections.singletonList("ethane"), NameToStructureConfig.getDefaultConfigInstance(), executor, 1, TimeUnit.MINUTES);
+			assertEquals("CC", results.get(0).getSmiles());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+	@Test
+	public void testResultsAreUnaffectedByLaterParses() {
+		NameToStructure nts = NameToStructure.getInstance();
+		OpsinResult polymer = nts.parseChemicalName("poly(oxyethylene)");
+		OpsinResult chiral = nts.parseChemicalName("(2R,3S)-2-chloro-3-bromobutane");
+		for (String name : Arrays.asList("poly(iminocarbonyl)", "benzene", "(R)-butan-2-ol", "helloworld")) {
+			nts.parseChemicalName(name);
+		}
+		String polymerSmiles = nts.parseChemicalName("poly(oxyethylene)").getSmiles();
+		String chiralSmiles = nts.parseChemicalName("(2R,3S)-2-chloro-3-bromobutane").getSmiles();
+		assertEquals(polymerSmiles, polymer.getSmiles());
+		assertEquals(chiralSmiles, chiral.getSmiles());
+	}
+
+	@Test
+	public void testResultCache() {
+		NameToStructure nts = NameToStructure.getInstance();
+		OpsinResultCache cache = new OpsinResultCache(10);
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setResultCache(cache);
+		String name = "(2R,3S)-2-chloro-3-bromobutane";
+		OpsinResult uncached = nts.parseChemicalName(name);
+		OpsinResult first = nts.parseChemicalName(name, n2sConfig);
+		OpsinResult second = nts.parseChemicalName(name, n2sConfig);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+		assertEquals(OPSIN_RESULT_STATUS.SUCCESS, second.getStatus());
+		assertEquals(uncached.getSmiles(), second.getSmiles());
+		assertEquals(uncached.getCml(), second.getCml());
+		assertEquals(first.getCml(), nts.parseChemicalName(name, n2sConfig).getCml());
+		assertEquals(2, cache.getHits());
+
+		OpsinResult failure = nts.parseChemicalName("helloworld", n2sConfig);
+		OpsinResult cachedFailure = nts.parseChemicalName("helloworld", n2sConfig);
+		assertEquals(OPSIN_RESULT_STATUS.FAILURE, cachedFailure.getStatus());
+		assertEquals(failure.getMessage(), cachedFailure.getMessage());
+		assertNull(cachedFailure.getSmiles());
+		assertEquals(3, cache.getHits());
+	}
+
+	@Test
+	public void testCollectTimings() {
+		NameToStructure nts = NameToStructure.getInstance();
+		assertNull(nts.parseChemicalName("ethanol").getTimings());
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setCollectTimings(true);
+		OpsinResult result = nts.parseChemicalName("5-propylundecan-3-amine", n2sConfig);
+		assertEquals(OPSIN_RESULT_STATUS.SUCCESS, result.getStatus());
+		OpsinTimings timings = result.getTimings();
+		assertNotNull(timings);
+		assertFalse(timings.isResultFromCache());
+		assertTrue(timings.getParsingNanos() > 0);
+		assertTrue(timings.getAnnotatorStatesExplored() > 0);
+		assertTrue(timings.getParsesTried() > 0);
+		CandidateParseTimings parseTimings = timings.getCandidateParses().get(timings.getParsesTried() - 1);
+		assertTrue(parseTimings.isSuccessful());
+		assertTrue(parseTimings.getComponentProcessingNanos() > 0);
+		assertTrue(parseTimings.getStructureBuildingNanos() > 0);
+		assertTrue(parseTimings.getAtomsBuilt() >= result.getStructure().getAtomCount());
+		assertTrue(timings.getTotalNanos() >= timings.getParsingNanos() + parseTimings.getStructureBuildingNanos());
+		assertEquals(0, timings.getSerialisationNanos());
+		assertNotNull(result.getSmiles());
+		assertTrue(timings.getSerialisationNanos() > 0);
+
+		OpsinResult failure = nts.parseChemicalName("helloworld", n2sConfig);
+		assertEquals(OPSIN_RESULT_STATUS.FAILURE, failure.getStatus());
+		assertNotNull(failure.getTimings());
+		assertEquals(0, failure.getTimings().getParsesTried());
+	}
+
+	@Test
+	public void testParsesWithOutOfRangeLocantsArePruned() {
+		NameToStructure nts = NameToStructure.getInstance();
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setCollectTimings(true);
+		OpsinResult failure = nts.parseChemicalName("hexan-7-ol", n2sConfig);
+		assertEquals(OPSIN_RESULT_STATUS.FAILURE, failure.getStatus());
+		OpsinTimings timings = failure.getTimings();
+		assertTrue(timings.getParsesPruned() > 0);
+		for (CandidateParseTimings parseTimings : timings.getCandidateParses()) {
+			assertTrue(parseTimings.isPruned());
+			assertEquals(0, parseTimings.getComponentProcessingNanos());
+			assertEquals(0, parseTimings.getAtomsBuilt());
+		}
+
+		//the bridge's atoms are numbered as part of the anthracene
+		OpsinResult bridged = nts.parseChemicalName("9,10-dihydro-9,10-ethanoanthracen-11-ol", n2sConfig);
+		assertEquals(OPSIN_RESULT_STATUS.SUCCESS, bridged.getStatus());
+		assertEquals(0, bridged.getTimings().getParsesPruned());
+
+		//previously the out of range locant was ignored, and dithiooxalic acid was given
+		for (String locants : Arrays.asList("1,4", "1,5", "1,9", "4,1", "5,1", "9,1")) {
+			OpsinResult result = nts.parseChemicalName(locants + "-dithiooxalic acid");
+			assertEquals(OPSIN_RESULT_STATUS.FAILURE, result.getStatus(), locants);
+			String highestLocant = locants.startsWith("1") ? locants.substring(2) : locants.substring(0, 1);
+			assertEquals("Locant " + highestLocant + " is higher than the number of atoms the name could describe (3)", result.getMessage());
+		}
+		assertEquals("C(C(=O)O)(=S)S", nts.parseChemicalName("1,1-dithiooxalic acid").getSmiles());
+	}
+
+	@Test
+	public void testWriteSmiles() throws IOException {
+		NameToStructure nts = NameToStructure.getInstance();
+		OpsinResult result = nts.parseChemicalName("(2R)-butan-2-ol");
+		StringBuilder sb = new StringBuilder();
+		assertTrue(result.writeSmiles(sb, SmilesOptions.DEFAULT));
+		assertEquals(result.getSmiles(), sb.toString());
+		sb.setLength(0);
+		assertTrue(result.writeSmiles(sb, SmilesOptions.CXSMILES));
+		assertEquals(result.getExtendedSmiles(), sb.toString());
+		sb.setLength(0);
+		assertFalse(nts.parseChemicalName("helloworld").writeSmiles(sb, SmilesOptions.DEFAULT));
+		assertEquals(0, sb.length());
+	}
+
+	@Test
+	public void testSmilesForSeveralOptions() {
+		NameToStructure nts = NameToStructure.getInstance();
+		int[] optionsList = new int[]{SmilesOptions.CXSMILES, SmilesOptions.DEFAULT, SmilesOptions.CXSMILES_ATOM_VALUES, SmilesOptions.CXSMILES_ENHANCED_STEREO};
+		for (String name : Arrays.asList("rac-(2R)-2-chlorobutane", "(2R)-butan-2-ol", "poly(oxyethylene)")) {
+			OpsinResult result = nts.parseChemicalName(name);
+			String[] smiles = result.getSmiles(optionsList);
+			assertEquals(optionsList.length, smiles.length);
+			for (int i = 0; i < optionsList.length; i++) {
+				assertEquals(result.getSmiles(optionsList[i]), smiles[i], name);
+			}
+		}
+		String[] failure = nts.parseChemicalName("helloworld").getSmiles(optionsList);
+		assertEquals(optionsList.length, failure.length);
+		assertNull(failure[0]);
+	}
+
+	@Test
+	public void testCollectTimingsWithResultCache() {
+		NameToStructure nts = NameToStructure.getInstance();
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setResultCache(new OpsinResultCache(10));
+		n2sConfig.setCollectTimings(true);
+		OpsinTimings first = nts.parseChemicalName("benzoic acid", n2sConfig).getTimings();
+		assertFalse(first.isResultFromCache());
+		assertTrue(first.getParsesTried() > 0);
+		OpsinTimings second = nts.parseChemicalName("benzoic acid", n2sConfig).getTimings();
+		assertTrue(second.isResultFromCache());
+		assertEquals(0, second.getParsesTried());
+	}
+
+	@Test
+	public void testResultCacheDistinguishesOptions() {
+		NameToStructure nts = NameToStructure.getInstance();
+		OpsinResultCache cache = new OpsinResultCache(10);
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setResultCache(cache);
+		assertEquals(OPSIN_RESULT_STATUS.FAILURE, nts.parseChemicalName("ethyl", n2sConfig).getStatus());
+		n2sConfig.setAllowRadicals(true);
+		assertEquals(OPSIN_RESULT_STATUS.SUCCESS, nts.parseChemicalName("ethyl", n2sConfig).getStatus());
+		assertEquals("[CH2]C", nts.parseChemicalName("ethyl", n2sConfig).getSmiles());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void testParallelParseEvaluationMatchesSequential() {
+		NameToStructure nts = NameToStructure.getInstance();
+		NameToStructureConfig parallelConfig = NameToStructureConfig.getDefaultConfigInstance();
+		parallelConfig.setParallelParseEvaluation(true);
+		//names with more than one candidate parse, that give warnings or that fail
+		String[] names = {"3,5-diiodotyrosine", "undecahectane", "2-(79Br)bromo-(1-13C)benzene", "azaphosphine", "pentanylium", "helloworld", "ethane"};
+		for (String name : names) {
+			OpsinResult expected = nts.parseChemicalName(name);
+			OpsinResult actual = nts.parseChemicalName(name, parallelConfig);
+			assertEquals(expected.getStatus(), actual.getStatus(), name);
+			assertEquals(expected.getSmiles(), actual.getSmiles(), name);
+			assertEquals(expected.getMessage(), actual.getMessage(), name);
+		}
+	}
+
+	@Test
+	public void testDetailedFailureAnalysisOnManyThreads() throws InterruptedException {
+		NameToStructure nts = NameToStructure.getInstance();
+		nts.prepareDetailedFailureAnalysis();
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setDetailedFailureAnalysis(true);
+		List<String> names = Arrays.asList("2-chloroxyzzyethane", "ethylfoo", "2-chloroxyzzyethane", "ethylfoo");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<OpsinResult> results = nts.parseChemicalNames(names, n2sConfig, executor);
+			for (int i = 0; i < names.size(); i++) {
+				assertEquals(OPSIN_RESULT_STATUS.FAILURE, results.get(i).getStatus());
+				assertEquals(nts.parseChemicalName(names.get(i), n2sConfig).getMessage(), results.get(i).getMessage());
+			}
+			assertTrue(results.get(0).getMessage().contains("was uninterpretable due to the following section of the name: zzy"));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testResultCacheEviction() {
+		NameToStructure nts = NameToStructure.getInstance();
+		int ethaneAtoms = nts.parseChemicalName("ethane").getStructure().getAtomCount();
+		int benzeneAtoms = nts.parseChemicalName("benzene").getStructure().getAtomCount();
+		OpsinResultCache cache = new OpsinResultCache(10, ethaneAtoms + benzeneAtoms - 1);
+		NameToStructureConfig n2sConfig = NameToStructureConfig.getDefaultConfigInstance();
+		n2sConfig.setResultCache(cache);
+		nts.parseChemicalName("ethane", n2sConfig);
+		nts.parseChemicalName("benzene", n2sConfig);
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(benzeneAtoms, cache.getAtomCount());
+		nts.parseChemicalName("benzene", n2sConfig);
+		assertEquals(1, cache.getHits());
+	}
 }
@@ -0,0 +1,72 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class ParseRulesCacheTest {
+
+	private static ResourceManager resourceManager;
+
+	@BeforeAll
+	public static void setUp() throws IOException {
+		resourceManager = new ResourceManager(new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/"));
+	}
+
+	@AfterAll
+	public static void cleanUp() {
+		resourceManager = null;
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		ParseRulesCache cache = new ParseRulesCache(1);
+		ParseRulesResults first = new ParseRulesResults(Collections.<ParseTokens>emptyList(), "", "");
+		ParseRulesResults second = new ParseRulesResults(Collections.<ParseTokens>emptyList(), "", "");
+		cache.put("methyl", first);
+		assertSame(first, cache.get("methyl"));
+		cache.put("ethyl", second);
+		assertNull(cache.get("methyl"));
+		assertSame(second, cache.get("ethyl"));
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testRepeatedWordIsCached() throws ParsingException {
+		ParseRules parseRules = new ParseRules(resourceManager, 10);
+		ParseRulesResults results = parseRules.getParses("chloromethyl");
+		assertNotNull(results);
+		assertEquals(0, parseRules.getCacheHits());
+		assertEquals(1, parseRules.getCacheMisses());
+		assertSame(results, parseRules.getParses("chloromethyl"));
+		assertEquals(1, parseRules.getCacheHits());
+
+		ParseRulesResults uncached = new ParseRules(resourceManager, 0).getParses("chloromethyl");
+		assertEquals(results.getParseTokensList(), uncached.getParseTokensList());
+		assertEquals(results.getUninterpretableName(), uncached.getUninterpretableName());
+		assertEquals(results.getUnparseableName(), uncached.getUnparseableName());
+
+		parseRules.clearCache();
+		assertEquals(0, parseRules.getCacheHits());
+		assertEquals(0, parseRules.getCacheMisses());
+	}
+
+	@Test
+	public void testCacheIsDisabledByDefault() throws ParsingException {
+		ParseRules parseRules = new ParseRules(resourceManager);
+		ParseRulesResults results = parseRules.getParses("chloromethyl");
+		assertNotSame(results, parseRules.getParses("chloromethyl"));
+		assertEquals(0, parseRules.getCacheMisses());
+	}
+}
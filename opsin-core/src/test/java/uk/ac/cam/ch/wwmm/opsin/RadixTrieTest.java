@@ -2,6 +2,7 @@ package uk.ac.cam.ch.wwmm.opsin;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.util.List;
 
@@ -96,5 +97,55 @@ public class RadixTrieTest {
 		assertEquals(3, matches.get(1).intValue());
 		assertEquals(0, matches.get(2).intValue());
 	}
+
+	@Test
+	public void testAddAfterSearching(){
+		OpsinRadixTrie trie = new OpsinRadixTrie();
+		trie.addToken("methyl");
+		assertNull(trie.findMatches("ethyl", 0));
+		trie.addToken("ethyl");
+		trie.addToken("meth");
+		List<Integer> matches = trie.findMatches("ethyl", 0);
+		assertNotNull(matches);
+		assertEquals(1, matches.size());
+		assertEquals(5, matches.get(0).intValue());
+		matches = trie.findMatches("methylidene", 0);
+		assertNotNull(matches);
+		assertEquals(2, matches.size());
+		assertEquals(4, matches.get(0).intValue());
+		assertEquals(6, matches.get(1).intValue());
+	}
+
+	@Test
+	public void testManyBranches(){
+		OpsinRadixTrie trie = new OpsinRadixTrie();
+		String[] tokens = {"zinc", "azo", "oxo", "mercapto", "amino", "bromo", "chloro", "fluoro", "iodo", "nitro", "cyano", "hydroxy", "methoxy"};
+		for (String token : tokens) {
+			trie.addToken(token);
+		}
+		for (String token : tokens) {
+			List<Integer> matches = trie.findMatches("1-" + token + "benzene", 2);
+			assertNotNull(matches, token);
+			assertEquals(1, matches.size());
+			assertEquals(token.length() + 2, matches.get(0).intValue());
+		}
+		assertNull(trie.findMatches("methox", 0));
+		assertNull(trie.findMatches("\u00e9thyl", 0));
+	}
+
+	@Test
+	public void testMatchesWrittenToBuffer(){
+		OpsinRadixTrie trie = new OpsinRadixTrie();
+		trie.addToken("methyl");
+		trie.addToken("methylidene");
+		trie.addToken("");
+		int[] matchEnds = new int[12];
+		int matchCount = trie.findMatches("methylidene", 0, matchEnds);
+		assertEquals(3, matchCount);
+		assertEquals(0, matchEnds[0]);
+		assertEquals(6, matchEnds[1]);
+		assertEquals(11, matchEnds[2]);
+		assertEquals(1, trie.findMatches("ethyl", 0, matchEnds));
+		assertEquals(0, matchEnds[0]);
+	}
 }
-	
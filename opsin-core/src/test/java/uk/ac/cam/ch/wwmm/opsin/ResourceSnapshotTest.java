@@ -0,0 +1,132 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class ResourceSnapshotTest {
+
+	private static ResourceGetter resourceGetter;
+	private static ResourceManager resourceManager;
+	private static WordRules wordRules;
+	private static SuffixRules suffixRules;
+	private static byte[] snapshot;
+	private static String stamp;
+
+	@BeforeAll
+	public static void setUp() throws IOException {
+		resourceGetter = new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/");
+		resourceManager = new ResourceManager(resourceGetter);
+		wordRules = new WordRules(resourceGetter);
+		suffixRules = new SuffixRules(resourceGetter);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		stamp = ResourceSnapshot.write(baos, resourceGetter, resourceManager, wordRules, suffixRules);
+		snapshot = baos.toByteArray();
+	}
+
+	@AfterAll
+	public static void cleanUp() {
+		resourceGetter = null;
+		resourceManager = null;
+		wordRules = null;
+		suffixRules = null;
+		snapshot = null;
+		stamp = null;
+	}
+
+	@Test
+	public void testSnapshotIsStableWhenRewritten() throws IOException {
+		ResourceSnapshot read = ResourceSnapshot.read(ByteBuffer.wrap(snapshot), resourceGetter, stamp, false);
+		assertNotNull(read);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ResourceSnapshot.write(baos, resourceGetter, read.getResourceManager(), read.getWordRules(), read.getSuffixRules());
+		assertArrayEquals(snapshot, baos.toByteArray());
+	}
+
+	@Test
+	public void testTokenisationMatchesXmlResources() throws IOException, ParsingException {
+		ResourceSnapshot read = ResourceSnapshot.read(ByteBuffer.wrap(snapshot), resourceGetter, stamp, false);
+		ParseRules fromXml = new ParseRules(resourceManager, 0);
+		ParseRules fromSnapshot = new ParseRules(read.getResourceManager(), 0);
+		String[] words = {"2-chloro-4-methylpyridin-3-amine", "benzo[a]anthracen-7-ylmethanol", "(2R,3S)-butane-2,3-diol", "cyclohexyl", "hexan"};
+		for (String word : words) {
+			ParseRulesResults expected = fromXml.getParses(word);
+			ParseRulesResults actual = fromSnapshot.getParses(word);
+			assertEquals(expected.getParseTokensList(), actual.getParseTokensList(), word);
+			assertEquals(expected.getUninterpretableName(), actual.getUninterpretableName(), word);
+			assertEquals(expected.getUnparseableName(), actual.getUnparseableName(), word);
+		}
+	}
+
+	@Test
+	public void testSuffixRulesMatchXmlResources() throws IOException, ComponentGenerationException {
+		ResourceSnapshot read = ResourceSnapshot.read(ByteBuffer.wrap(snapshot), resourceGetter, stamp, false);
+		List<SuffixRule> expected = suffixRules.getSuffixRuleTags("standardGroup", "ol", "");
+		List<SuffixRule> actual = read.getSuffixRules().getSuffixRuleTags("standardGroup", "ol", "");
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getType(), actual.get(i).getType());
+			assertEquals(expected.get(i).getAttributeValue("value"), actual.get(i).getAttributeValue("value"));
+		}
+	}
+
+	@Test
+	public void testStampIdentifiesVersionAndResources() {
+		String version = NameToStructure.getVersion();
+		assertTrue(stamp.startsWith((version != null ? version : "unknown") + " "), stamp);
+	}
+
+	@Test
+	public void testVerifiedSnapshotIsAccepted() throws IOException {
+		assertNotNull(ResourceSnapshot.read(ByteBuffer.wrap(snapshot), resourceGetter, stamp, true));
+	}
+
+	@Test
+	public void testResourceFoundElsewhereOnClasspathIsRejected() throws IOException {
+		//e.g. a modified copy of regexes.xml in an earlier classpath entry
+		URL otherRegexes = new URL("file:/elsewhere/uk/ac/cam/ch/wwmm/opsin/resources/regexes.xml");
+		ResourceGetter otherResourceGetter = new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/") {
+			@Override
+			URL getResourceUrl(String name) {
+				return name.equals("regexes.xml") ? otherRegexes : super.getResourceUrl(name);
+			}
+		};
+		assertNull(ResourceSnapshot.read(ByteBuffer.wrap(snapshot), otherResourceGetter, stamp, false));
+	}
+
+	@Test
+	public void testModifiedSnapshotIsRejected() throws IOException {
+		byte[] modified = snapshot.clone();
+		modified[0]++;
+		assertNull(ResourceSnapshot.read(ByteBuffer.wrap(modified), resourceGetter, stamp, false));
+
+		//a snapshot from a different build
+		assertNull(ResourceSnapshot.read(ByteBuffer.wrap(snapshot), resourceGetter, stamp + "0", false));
+
+		modified = snapshot.clone();
+		ByteBuffer buffer = ByteBuffer.wrap(modified);
+		buffer.getInt();
+		buffer.getInt();
+		ResourceSnapshot.readString(buffer);
+		int sourceFileCount = buffer.getInt();
+		for (int i = 0; i < sourceFileCount; i++) {
+			ResourceSnapshot.readString(buffer);
+		}
+		//corrupt the checksum of the source files, which is only checked when verifying the snapshot
+		modified[buffer.position()]++;
+		assertNotNull(ResourceSnapshot.read(ByteBuffer.wrap(modified), resourceGetter, stamp, false));
+		assertNull(ResourceSnapshot.read(ByteBuffer.wrap(modified), resourceGetter, stamp, true));
+	}
+}
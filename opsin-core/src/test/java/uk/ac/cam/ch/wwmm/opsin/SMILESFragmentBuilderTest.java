@@ -872,6 +872,39 @@ public class SMILESFragmentBuilderTest {
 		assertEquals("8 1 2 3", atomRefsToIdStr(b.getBondStereo().getAtomRefs4()));
 	}
 
+	@Test
+	public void testRepeatedBuildGivesIndependentFragments() throws StructureBuildingException {
+		Fragment first = sBuilder.build("[C@@H](N)(O)/C=C/C-", "", "1/2/3/4/5/6");
+		Fragment second = sBuilder.build("[C@@H](N)(O)/C=C/C-", "", "1/2/3/4/5/6");
+		List<Atom> firstAtoms = first.getAtomList();
+		List<Atom> secondAtoms = second.getAtomList();
+		assertEquals(firstAtoms.size(), secondAtoms.size());
+		int offset = firstAtoms.size();
+		for (int i = 0; i < firstAtoms.size(); i++) {
+			Atom a1 = firstAtoms.get(i);
+			Atom a2 = secondAtoms.get(i);
+			assertEquals(a1.getID() + offset, a2.getID());
+			assertEquals(second, a2.getFrag());
+			assertEquals(a1.getElement(), a2.getElement());
+			assertEquals(a1.getLocants(), a2.getLocants());
+			assertEquals(a1.getAtomIsInACycle(), a2.getAtomIsInACycle());
+			assertEquals(a1.getProperty(Atom.SMILES_HYDROGEN_COUNT), a2.getProperty(Atom.SMILES_HYDROGEN_COUNT));
+		}
+		assertEquals(first.getBondSet().size(), second.getBondSet().size());
+
+		AtomParity atomParity = second.getAtomByLocantOrThrow("1").getAtomParity();
+		assertEquals("0 8 9 10", atomRefsToIdStr(atomParity.getAtomRefs4()));
+		assertEquals(first.getAtomByLocantOrThrow("1").getAtomParity().getParity(), atomParity.getParity());
+
+		Bond b = second.findBond(10, 11);
+		assertEquals(BondStereoValue.TRANS, b.getBondStereo().getBondStereoValue());
+		assertEquals("7 10 11 12", atomRefsToIdStr(b.getBondStereo().getAtomRefs4()));
+		assertEquals(1, second.getOutAtomCount());
+		assertEquals(12, second.getOutAtom(0).getAtom().getID());
+		first.getFirstAtom().setCharge(1);
+		assertEquals(0, second.getFirstAtom().getCharge());
+	}
+
 	private String atomRefsToIdStr(Atom[] atomRefs4) {
 		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < atomRefs4.length; i++) {
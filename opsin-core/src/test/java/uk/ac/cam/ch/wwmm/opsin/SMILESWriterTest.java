@@ -3,6 +3,7 @@ package uk.ac.cam.ch.wwmm.opsin;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
 
@@ -462,4 +463,29 @@ public class SMILESWriterTest {
 		assertEquals("alpha", atoms.get(1).getLocants().get(1));
 		assertEquals("2'", atoms.get(1).getLocants().get(2));
 	}
+
+	@Test
+	public void testWriteSmilesToAppendable() throws Exception {
+		Fragment f = fm.buildSMILES("C1CC2CCC1CC2.[13CH3]/C=C/[NH3+]");
+		fm.makeHydrogensExplicit();
+		String smiles = SMILESWriter.generateSmiles(f);
+		StringWriter writer = new StringWriter();
+		writer.write('>');
+		SMILESWriter.writeSmiles(f, SmilesOptions.DEFAULT, writer);
+		assertEquals(">" + smiles, writer.toString());
+		StringBuilder sb = new StringBuilder();
+		SMILESWriter.writeSmiles(f, SmilesOptions.DEFAULT, sb);
+		SMILESWriter.writeSmiles(f, SmilesOptions.DEFAULT, sb);
+		assertEquals(smiles + smiles, sb.toString());
+	}
+
+	@Test
+	public void testWriteLongSmilesToWriter() throws Exception {
+		String chain = StringTools.multiplyString("C", 10000);
+		Fragment f = fm.buildSMILES(chain);
+		fm.makeHydrogensExplicit();
+		StringWriter writer = new StringWriter();
+		SMILESWriter.writeSmiles(f, SmilesOptions.DEFAULT, writer);
+		assertEquals(chain, writer.toString());
+	}
 }
@@ -21,7 +21,7 @@ public class TokenizerTest {
 		ResourceGetter rg = new ResourceGetter("uk/ac/cam/ch/wwmm/opsin/resources/");
 		ResourceManager rm = new ResourceManager(rg);
 		tokenizer = new Tokeniser(new ParseRules(rm));
-		reverseParseRules = new ReverseParseRules(rm);
+		reverseParseRules = rm.getReverseParseRules();
 	}
 	
 	@AfterAll
@@ -0,0 +1,14 @@
+package uk.ac.cam.ch.wwmm.opsin;
+
+/**
+ * The InChI based identifiers that {@link NameToInchi} can generate
+ *
+ */
+public enum InchiType {
+	/**InChI with a fixed hydrogen layer, hence representing the exact tautomer*/
+	inchiWithFixedH,
+	/**Standard InChI*/
+	stdInchi,
+	/**Standard InChIKey, the hashed form of Standard InChI*/
+	stdInchiKey
+}
@@ -1,6 +1,6 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -32,6 +32,8 @@ import uk.ac.cam.ch.wwmm.opsin.BondStereo.BondStereoValue;
 public class NameToInchi {
 
 	private static final Logger LOG = LogManager.getLogger(NameToInchi.class);
+	private static final InchiOptions STD_INCHI_OPTIONS = new InchiOptionsBuilder().withFlag(InchiFlag.AuxNone).build();
+	private static final InchiOptions FIXED_H_INCHI_OPTIONS = new InchiOptionsBuilder().withFlag(InchiFlag.AuxNone, InchiFlag.FixedH).build();
 	private NameToStructure n2s;
 	public NameToInchi() {
 		n2s = NameToStructure.getInstance();
@@ -76,7 +78,7 @@ public class NameToInchi {
 	 * @return String InChI
 	 */
 	public static String convertResultToInChI(OpsinResult result){
-		return convertResultToInChI(result, false);
+		return convertResult(result, InchiType.inchiWithFixedH);
 	}
 	
 	/**
@@ -87,7 +89,7 @@ public class NameToInchi {
 	 * @return String InChI
 	 */
 	public static String convertResultToStdInChI(OpsinResult result){
-		return convertResultToInChI(result, true);
+		return convertResult(result, InchiType.stdInchi);
 	}
 	
 	/**
@@ -97,56 +99,149 @@ public class NameToInchi {
 	 * @return String InChIKey
 	 */
 	public static String convertResultToStdInChIKey(OpsinResult result){
-		String stdInchi = convertResultToInChI(result, true);
-		if (stdInchi != null){
-			try {
-				InchiKeyOutput key = JnaInchi.inchiToInchiKey(stdInchi);
-				return key.getInchiKey();
-			} catch (Exception e) {
-				if (LOG.isDebugEnabled()){
-					LOG.debug(e.getMessage(), e);
-				}
-				return null;
-			}
+		return convertResult(result, InchiType.stdInchiKey);
+	}
+
+	/**
+	 * Converts an OPSIN result to the given type of InChI or InChIKey. Null is returned if this conversion fails
+	 * @param result
+	 * @param inchiType
+	 * @return String InChI or InChIKey
+	 */
+	public static String convertResult(OpsinResult result, InchiType inchiType){
+		return convertResult(result, inchiType == InchiType.inchiWithFixedH ? FIXED_H_INCHI_OPTIONS : STD_INCHI_OPTIONS, inchiType == InchiType.stdInchiKey);
+	}
+
+	/**
+	 * Converts each of the given OPSIN results to the given type of InChI or InChIKey.
+	 * The returned list is in the same order as the results, with null for results whose conversion failed
+	 * @param results
+	 * @param inchiType
+	 * @return List of InChIs or InChIKeys
+	 */
+	public static List<String> convertResults(List<OpsinResult> results, InchiType inchiType){
+		InchiOptions options = inchiType == InchiType.inchiWithFixedH ? FIXED_H_INCHI_OPTIONS : STD_INCHI_OPTIONS;
+		boolean produceInchiKey = inchiType == InchiType.stdInchiKey;
+		List<String> converted = new ArrayList<>(results.size());
+		for (OpsinResult result : results) {
+			converted.add(convertResult(result, options, produceInchiKey));
 		}
-		return null;
+		return converted;
 	}
-	
-	private static String convertResultToInChI(OpsinResult result, boolean produceStdInChI){
-		if (result.getStructure() != null){
-			String inchi = null;
-			try{
-				inchi = opsinFragmentToInchi(result.getStructure(), produceStdInChI);
-			}
-			catch (Exception e) {
-				if (LOG.isDebugEnabled()){
-					LOG.debug(e.getMessage(), e);
-				}
-				return null;
-			}
-			if (inchi ==null){
+
+	private static String convertResult(OpsinResult result, InchiOptions options, boolean produceInchiKey){
+		Fragment structure = result.getStructure();
+		if (structure == null){
+			return null;
+		}
+		long startTime = result.startSerialisation();
+		try{
+			String inchi = opsinFragmentToInchi(structure, options);
+			if (inchi == null){
 				//inchi generation failed
 				return null;
 			}
 			if(LOG.isDebugEnabled()){
 				LOG.debug(inchi);
 			}
-			return inchi;
+			if (!produceInchiKey){
+				return inchi;
+			}
+			InchiKeyOutput key = JnaInchi.inchiToInchiKey(inchi);
+			return key.getInchiKey();
+		}
+		catch (Exception e) {
+			if (LOG.isDebugEnabled()){
+				LOG.debug(e.getMessage(), e);
+			}
+			return null;
+		}
+		finally {
+			result.endSerialisation(startTime);
 		}
-		return null;
 	}
 
-	private static String opsinFragmentToInchi(Fragment frag, boolean produceStdInChI) {
-		HashMap<Integer, InchiAtom> opsinIdAtomMap = new HashMap<>();
-		InchiOptionsBuilder optionsBuilder = new InchiOptions.InchiOptionsBuilder();
-		optionsBuilder.withFlag(InchiFlag.AuxNone);
-
-		if (!produceStdInChI){
-			optionsBuilder.withFlag(InchiFlag.FixedH);
+	/**
+	 * Converts an OPSIN result to each of the given types of InChI or InChIKey.
+	 * This is more efficient than converting the result to each type separately, as the input to the InChI library
+	 * is only built once, and the StdInChIKey is generated from the StdInChI (if also requested).
+	 * Elements of the returned array are null where the conversion failed
+	 * @param result
+	 * @param inchiTypes
+	 * @return InChIs and/or InChIKeys, in the same order as inchiTypes
+	 */
+	public static String[] convertResult(OpsinResult result, InchiType[] inchiTypes){
+		String[] converted = new String[inchiTypes.length];
+		Fragment structure = result.getStructure();
+		if (structure == null){
+			return converted;
+		}
+		long startTime = result.startSerialisation();
+		try{
+			InchiInput input = buildInchiInput(structure);
+			String inchi = null;
+			String stdInchi = null;
+			String stdInchiKey = null;
+			boolean inchiGenerated = false;
+			boolean stdInchiGenerated = false;
+			boolean stdInchiKeyGenerated = false;
+			for (int i = 0; i < inchiTypes.length; i++) {
+				switch (inchiTypes[i]) {
+				case inchiWithFixedH:
+					if (!inchiGenerated) {
+						inchi = inchiInputToInchi(input, FIXED_H_INCHI_OPTIONS);
+						inchiGenerated = true;
+					}
+					converted[i] = inchi;
+					break;
+				case stdInchi:
+				case stdInchiKey:
+					if (!stdInchiGenerated) {
+						stdInchi = inchiInputToInchi(input, STD_INCHI_OPTIONS);
+						stdInchiGenerated = true;
+					}
+					if (inchiTypes[i] == InchiType.stdInchi) {
+						converted[i] = stdInchi;
+						break;
+					}
+					if (!stdInchiKeyGenerated) {
+						stdInchiKey = stdInchi != null ? JnaInchi.inchiToInchiKey(stdInchi).getInchiKey() : null;
+						stdInchiKeyGenerated = true;
+					}
+					converted[i] = stdInchiKey;
+					break;
+				default:
+					throw new IllegalArgumentException("Unexpected enum value: " + inchiTypes[i]);
+				}
+			}
+		}
+		catch (Exception e) {
+			if (LOG.isDebugEnabled()){
+				LOG.debug(e.getMessage(), e);
+			}
+		}
+		finally {
+			result.endSerialisation(startTime);
 		}
+		return converted;
+	}
+
+	private static String opsinFragmentToInchi(Fragment frag, InchiOptions options) {
+		return inchiInputToInchi(buildInchiInput(frag), options);
+	}
+
+	private static InchiInput buildInchiInput(Fragment frag) {
 		InchiInput input = new InchiInput();
 
 		List<Atom> atomList =frag.getAtomList();
+		//InChI atoms are indexed by OPSIN atom ID, offset by the lowest ID
+		int minId = Integer.MAX_VALUE;
+		int maxId = Integer.MIN_VALUE;
+		for (Atom atom : atomList) {
+			minId = Math.min(minId, atom.getID());
+			maxId = Math.max(maxId, atom.getID());
+		}
+		InchiAtom[] inchiAtomsById = new InchiAtom[atomList.isEmpty() ? 0 : maxId - minId + 1];
 		// Generate atoms
 		for (Atom atom : atomList) {
 			InchiAtom inchiAtom = new InchiAtom(atom.getElement().toString());
@@ -156,11 +251,11 @@ public class NameToInchi {
 			if (isotope != null) {
 				inchiAtom.setIsotopicMass(isotope);
 			}
-			opsinIdAtomMap.put(atom.getID(), inchiAtom);
+			inchiAtomsById[atom.getID() - minId] = inchiAtom;
 		}
 		Set<Bond> bondList = frag.getBondSet();
 		for (Bond bond : bondList) {
-			input.addBond(new InchiBond(opsinIdAtomMap.get(bond.getFrom()), opsinIdAtomMap.get(bond.getTo()), InchiBondType.of((byte)bond.getOrder())));
+			input.addBond(new InchiBond(getInchiAtom(inchiAtomsById, minId, bond.getFrom()), getInchiAtom(inchiAtomsById, minId, bond.getTo()), InchiBondType.of((byte)bond.getOrder())));
 		}
 
 		for (Atom atom : atomList) {//add atomParities
@@ -185,7 +280,7 @@ public class NameToInchi {
 			else if (atomParity.getParity() < 0){
 				parity = InchiStereoParity.ODD;
 			}
-			input.addStereo(InchiStereo.createTetrahedralStereo(opsinIdAtomMap.get(atom.getID()), opsinIdAtomMap.get(atomRefs4AsInt[0]), opsinIdAtomMap.get(atomRefs4AsInt[1]), opsinIdAtomMap.get(atomRefs4AsInt[2]), opsinIdAtomMap.get(atomRefs4AsInt[3]), parity));
+			input.addStereo(InchiStereo.createTetrahedralStereo(getInchiAtom(inchiAtomsById, minId, atom.getID()), getInchiAtom(inchiAtomsById, minId, atomRefs4AsInt[0]), getInchiAtom(inchiAtomsById, minId, atomRefs4AsInt[1]), getInchiAtom(inchiAtomsById, minId, atomRefs4AsInt[2]), getInchiAtom(inchiAtomsById, minId, atomRefs4AsInt[3]), parity));
         }
 
 		for (Bond bond : bondList) {//add bondStereos
@@ -197,14 +292,18 @@ public class NameToInchi {
 					atomRefs4Ids[i] = atomRefs4[i].getID();
 				}
 				if (BondStereoValue.CIS.equals(bondStereo.getBondStereoValue())){
-					input.addStereo(InchiStereo.createDoubleBondStereo(opsinIdAtomMap.get(atomRefs4Ids[0]), opsinIdAtomMap.get(atomRefs4Ids[1]), opsinIdAtomMap.get(atomRefs4Ids[2]), opsinIdAtomMap.get(atomRefs4Ids[3]), InchiStereoParity.ODD));
+					input.addStereo(InchiStereo.createDoubleBondStereo(getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[0]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[1]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[2]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[3]), InchiStereoParity.ODD));
 				}
 				else if (BondStereoValue.TRANS.equals(bondStereo.getBondStereoValue())){
-					input.addStereo(InchiStereo.createDoubleBondStereo(opsinIdAtomMap.get(atomRefs4Ids[0]), opsinIdAtomMap.get(atomRefs4Ids[1]), opsinIdAtomMap.get(atomRefs4Ids[2]), opsinIdAtomMap.get(atomRefs4Ids[3]), InchiStereoParity.EVEN));
+					input.addStereo(InchiStereo.createDoubleBondStereo(getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[0]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[1]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[2]), getInchiAtom(inchiAtomsById, minId, atomRefs4Ids[3]), InchiStereoParity.EVEN));
 				}
 			}
         }
-		InchiOutput output = JnaInchi.toInchi(input, optionsBuilder.build());
+		return input;
+	}
+
+	private static String inchiInputToInchi(InchiInput input, InchiOptions options) {
+		InchiOutput output = JnaInchi.toInchi(input, options);
     	InchiStatus ret = output.getStatus();
     	if (LOG.isDebugEnabled()){
     		LOG.debug("Inchi generation status: " + ret);
@@ -218,6 +317,18 @@ public class NameToInchi {
     	return output.getInchi();
 	}
 	
+	/**
+	 * Returns the InChI atom corresponding to the OPSIN atom with the given ID, or null if there is no such atom in the fragment
+	 * @param inchiAtomsById
+	 * @param minId
+	 * @param id
+	 * @return
+	 */
+	private static InchiAtom getInchiAtom(InchiAtom[] inchiAtomsById, int minId, int id) {
+		int idx = id - minId;
+		return idx >= 0 && idx < inchiAtomsById.length ? inchiAtomsById[idx] : null;
+	}
+
 	private static int countStereoGroup(Atom atom) {
 		StereoGroup refGroup = atom.getAtomParity().getStereoGroup();
 		int count = 0;
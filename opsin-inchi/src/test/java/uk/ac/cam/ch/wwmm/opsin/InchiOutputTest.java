@@ -1,6 +1,10 @@
 package uk.ac.cam.ch.wwmm.opsin;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -45,6 +49,30 @@ public class InchiOutputTest {
 		assertEquals("DLFVBJFMPXGRIB-UHFFFAOYSA-N", NameToInchi.convertResultToStdInChIKey(result));
 	}
 	
+	@Test
+	public void testConvertResults() {
+		NameToStructure n2s = NameToStructure.getInstance();
+		List<OpsinResult> results = Arrays.asList(n2s.parseChemicalName("acetamide"), n2s.parseChemicalName("helloworld"), n2s.parseChemicalName("(2R)-butan-2-ol"));
+		for (InchiType inchiType : InchiType.values()) {
+			List<String> converted = NameToInchi.convertResults(results, inchiType);
+			assertEquals(results.size(), converted.size());
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals(NameToInchi.convertResult(results.get(i), inchiType), converted.get(i));
+			}
+		}
+		InchiType[] inchiTypes = new InchiType[]{InchiType.stdInchiKey, InchiType.inchiWithFixedH, InchiType.stdInchi, InchiType.stdInchiKey};
+		for (OpsinResult result : results) {
+			String[] converted = NameToInchi.convertResult(result, inchiTypes);
+			for (int i = 0; i < inchiTypes.length; i++) {
+				assertEquals(NameToInchi.convertResult(result, inchiTypes[i]), converted[i]);
+			}
+		}
+		List<String> keys = NameToInchi.convertResults(results, InchiType.stdInchiKey);
+		assertEquals("DLFVBJFMPXGRIB-UHFFFAOYSA-N", keys.get(0));
+		assertNull(keys.get(1));
+		assertEquals("BTANRVKWQNVYAZ-SCSAIBSYSA-N", keys.get(2));
+	}
+
 	@Test
 	public void testParseToInChI(){
 		assertEquals("InChI=1/C2H5NO/c1-2(3)4/h1H3,(H2,3,4)/f/h3H2", n2i.parseToInchi("acetamide"));